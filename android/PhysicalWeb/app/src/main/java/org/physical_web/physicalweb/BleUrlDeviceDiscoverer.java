@@ -17,6 +17,7 @@
 package org.physical_web.physicalweb;
 
 import org.physical_web.collection.EddystoneBeacon;
+import org.physical_web.collection.EddystoneFrameCache;
 import org.physical_web.collection.UrlDevice;
 import org.physical_web.physicalweb.ble.ScanRecord;
 
@@ -40,6 +41,7 @@ class BleUrlDeviceDiscoverer extends UrlDeviceDiscoverer
   private BluetoothAdapter mBluetoothAdapter;
   private Parcelable[] mScanFilterUuids;
   private Context mContext;
+  private final EddystoneFrameCache mFrameCache = new EddystoneFrameCache();
 
   public BleUrlDeviceDiscoverer(Context context) {
     mContext = context;
@@ -87,17 +89,20 @@ class BleUrlDeviceDiscoverer extends UrlDeviceDiscoverer
       return;
     }
 
-    EddystoneBeacon beacon = EddystoneBeacon.parseFromServiceData(urlServiceData, uriServiceData);
+    EddystoneBeacon beacon = mFrameCache.parseFromServiceData(urlServiceData, uriServiceData);
     if (beacon == null || !URLUtil.isNetworkUrl(beacon.getUrl())) {
       return;
     }
-    UrlDevice urlDevice = createUrlDeviceBuilder(TAG + device.getAddress() + beacon.getUrl(),
-                                                 beacon.getUrl())
+    // A beacon already known only needs its new signal strength recorded.
+    String deviceId = TAG + device.getAddress() + beacon.getUrl();
+    if (reportSighting(deviceId, rssi, beacon.getTxPowerLevel())) {
+      return;
+    }
+    UrlDevice urlDevice = createUrlDeviceBuilder(deviceId, beacon.getUrl())
         .setRssi(rssi)
         .setTxPower(beacon.getTxPowerLevel())
         .setDeviceType(Utils.BLE_DEVICE_TYPE)
         .build();
-    Utils.updateRegion(urlDevice);
     reportUrlDevice(urlDevice);
   }
 
@@ -19,6 +19,7 @@ package org.physical_web.physicalweb;
 import org.physical_web.collection.PhysicalWebCollection;
 import org.physical_web.collection.PwPair;
 import org.physical_web.collection.PwsResult;
+import org.physical_web.collection.SightingHistory;
 import org.physical_web.collection.UrlDevice;
 
 import android.annotation.SuppressLint;
@@ -296,8 +297,7 @@ public class NearbyBeaconsFragment extends ListFragment
 
   @Override
   public void onUrlDeviceDiscoveryUpdate() {
-    for (PwPair pwPair : mPwCollection.getGroupedPwPairsSortedByRank(
-        new Utils.PwPairRelevanceComparator())) {
+    for (PwPair pwPair : mPwCollection.getGroupedPwPairsSortedByRank()) {
       String groupId = Utils.getGroupId(pwPair.getPwsResult());
       Log.d(TAG, "groupid to add " + groupId);
       if (mNearbyDeviceAdapter.containsGroupId(groupId)) {
@@ -516,6 +516,7 @@ public class NearbyBeaconsFragment extends ListFragment
           public void onClick(View v) {
             Utils.toggleFavorite(siteUrl);
             Utils.saveFavorites(getActivity());
+            mPwCollection.updateRanking();
             ((Button) v).setBackgroundResource(R.drawable.ic_star_border_black_24dp);
             notifyDataSetChanged();
           }
@@ -528,6 +529,7 @@ public class NearbyBeaconsFragment extends ListFragment
           public void onClick(View v) {
             Utils.toggleFavorite(siteUrl);
             Utils.saveFavorites(getActivity());
+            mPwCollection.updateRanking();
             ((Button) v).setBackgroundResource(R.drawable.ic_star_black_24dp);
             notifyDataSetChanged();
           }
@@ -549,9 +551,18 @@ public class NearbyBeaconsFragment extends ListFragment
     private void updateDebugView(PwPair pwPair, View view) {
       // Ranging debug line
       UrlDevice urlDevice = pwPair.getUrlDevice();
+      // Later sightings are recorded in the history rather than in the device, so the latest
+      // one is read from there.
+      SightingHistory sightingHistory = mPwCollection.getSightingHistory(urlDevice.getId());
+      boolean hasSighting = sightingHistory != null && sightingHistory.size() > 0;
       if (Utils.isBleUrlDevice(urlDevice)) {
+        int txPower = hasSighting ? sightingHistory.getTxPower(0)
+                                  : SightingHistory.UNKNOWN_TX_POWER;
+        if (txPower == SightingHistory.UNKNOWN_TX_POWER) {
+          txPower = Utils.getTxPower(urlDevice);
+        }
         setText(view, R.id.ranging_debug_tx_power,
-            getString(R.string.ranging_debug_tx_power_prefix) + Utils.getTxPower(urlDevice));
+            getString(R.string.ranging_debug_tx_power_prefix) + txPower);
         setText(view, R.id.ranging_debug_rssi,
             getString(R.string.ranging_debug_rssi_prefix) + Utils.getSmoothedRssi(urlDevice));
         setText(view, R.id.ranging_debug_distance,
@@ -567,9 +578,11 @@ public class NearbyBeaconsFragment extends ListFragment
       }
 
       // Metadata debug line
+      long scanTimeMillis = hasSighting ? sightingHistory.getTimestampMillis(0)
+                                        : Utils.getScanTimeMillis(urlDevice);
       setText(view, R.id.metadata_debug_scan_time,
           getString(R.string.metadata_debug_scan_time_prefix)
-          + new DecimalFormat("##.##s").format(Utils.getScanTimeMillis(urlDevice) / 1000.0));
+          + new DecimalFormat("##.##s").format(scanTimeMillis / 1000.0));
 
       PwsResult pwsResult = pwPair.getPwsResult();
       setText(view, R.id.metadata_debug_rank,
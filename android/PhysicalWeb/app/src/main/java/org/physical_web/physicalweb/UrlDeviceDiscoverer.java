@@ -47,14 +47,31 @@ abstract class UrlDeviceDiscoverer {
 
   protected Utils.UrlDeviceBuilder createUrlDeviceBuilder(String id, String url) {
     return new Utils.UrlDeviceBuilder(id, url)
-        .setScanTimeMillis(SystemClock.elapsedRealtime() - mScanStartTime);
+        .setScanTimeMillis(getScanTimeMillis());
+  }
+
+  private long getScanTimeMillis() {
+    return SystemClock.elapsedRealtime() - mScanStartTime;
   }
 
   protected void reportUrlDevice(UrlDevice urlDevice) {
     mUrlDeviceDiscoveryCallback.onUrlDeviceDiscovered(urlDevice);
   }
 
+  /**
+   * Report another sighting of a device that may already have been reported.
+   * @return true if the sighting was recorded, false if the device must be reported with
+   *     reportUrlDevice.
+   */
+  protected boolean reportSighting(String deviceId, int rssi, int txPower) {
+    return mUrlDeviceDiscoveryCallback.onUrlDeviceSighted(deviceId, getScanTimeMillis(), rssi,
+                                                          txPower);
+  }
+
   public interface UrlDeviceDiscoveryCallback {
     public void onUrlDeviceDiscovered(UrlDevice urlDevice);
+
+    public boolean onUrlDeviceSighted(String deviceId, long scanTimeMillis, int rssi,
+                                      int txPower);
   }
 }
@@ -16,9 +16,11 @@
 
 package org.physical_web.physicalweb;
 
+import org.physical_web.collection.FilePwsResultCache;
 import org.physical_web.collection.PhysicalWebCollection;
 import org.physical_web.collection.PhysicalWebCollectionException;
 import org.physical_web.collection.PwPair;
+import org.physical_web.collection.PwPairFilter;
 import org.physical_web.collection.PwsResult;
 import org.physical_web.collection.PwsResultCallback;
 import org.physical_web.collection.PwsResultIconCallback;
@@ -41,13 +43,18 @@ import android.support.v4.app.NotificationManagerCompat;
 import android.view.View;
 import android.widget.RemoteViews;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -72,10 +79,18 @@ public class UrlDeviceDiscoveryService extends Service
   private static final String PREFS_VERSION_KEY = "prefs_version";
   private static final String SCAN_START_TIME_KEY = "scan_start_time";
   private static final String PW_COLLECTION_KEY = "pw_collection";
-  private static final int PREFS_VERSION = 2;
+  private static final String PW_COLLECTION_FILE = "pw_collection.bin";
+  private static final int PREFS_VERSION = 3;
   private static final int NEAREST_BEACON_NOTIFICATION_ID = 23;
   private static final int SECOND_NEAREST_BEACON_NOTIFICATION_ID = 24;
   private static final int SUMMARY_NOTIFICATION_ID = 25;
+  private static final int NOTIFIED_BEACON_COUNT = 2;
+  private static final PwPairFilter NOT_BLOCKED_FILTER = new PwPairFilter() {
+    @Override
+    public boolean accept(PwPair pwPair) {
+      return !Utils.isBlocked(pwPair);
+    }
+  };
   private static final int NON_LOLLIPOP_NOTIFICATION_TITLE_COLOR = Color.parseColor("#ffffff");
   private static final int NON_LOLLIPOP_NOTIFICATION_URL_COLOR = Color.parseColor("#999999");
   private static final int NON_LOLLIPOP_NOTIFICATION_SNIPPET_COLOR = Color.parseColor("#999999");
@@ -84,6 +99,14 @@ public class UrlDeviceDiscoveryService extends Service
   private static final long SECOND_SCAN_TIME_MILLIS = TimeUnit.SECONDS.toMillis(10);
   private static final long SCAN_STALE_TIME_MILLIS = TimeUnit.MINUTES.toMillis(2);
   private static final long LOCAL_SCAN_STALE_TIME_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long BLE_DEVICE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long NETWORK_DEVICE_TTL_MILLIS = TimeUnit.MINUTES.toMillis(2);
+  private static final long EXPIRE_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+  private static final long RESOLVE_BATCH_WINDOW_MILLIS = 150;
+  private static final int RESOLVE_BATCH_MAX_SIZE = 20;
+  private static final String PWS_RESULT_CACHE_DIRECTORY = "pws_results";
+  private static final long PWS_RESULT_CACHE_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final int PWS_RESULT_CACHE_MAX_ENTRIES = 500;
   private boolean mCanUpdateNotifications = false;
   private boolean mSecondScanComplete = false;
   private boolean mIsBound = false;
@@ -93,6 +116,12 @@ public class UrlDeviceDiscoveryService extends Service
   private List<UrlDeviceDiscoverer> mUrlDeviceDiscoverers;
   private List<UrlDeviceDiscoveryListener> mUrlDeviceDiscoveryListeners;
   private PhysicalWebCollection mPwCollection;
+  private FilePwsResultCache mPwsResultCache;
+  private boolean mPwsResultCacheLoaded = false;
+  // Counts the cache's clears, so that a load finished before a clear does not reattach it.
+  private int mPwsResultCacheGeneration = 0;
+  // Runs the cache's directory scans and deletions in order, off the main thread.
+  private ExecutorService mPwsResultCacheExecutor;
 
   // Notification of urls happens as follows:
   // 0. Begin scan
@@ -108,6 +137,17 @@ public class UrlDeviceDiscoveryService extends Service
     }
   };
 
+  private Runnable mExpireStaleDevices = new Runnable() {
+    @Override
+    public void run() {
+      if (!mPwCollection.expireStaleDevices().isEmpty()) {
+        triggerCallback();
+        updateNotifications();
+      }
+      mHandler.postDelayed(this, EXPIRE_INTERVAL_MILLIS);
+    }
+  };
+
   private Runnable mSecondScanTimeout = new Runnable() {
     @Override
     public void run() {
@@ -157,13 +197,69 @@ public class UrlDeviceDiscoveryService extends Service
     }
     mUrlDeviceDiscoveryListeners = new ArrayList<>();
     mHandler = new Handler();
+    mPwsResultCacheExecutor = Executors.newSingleThreadExecutor();
+    mPwsResultCache = new FilePwsResultCache(new File(getCacheDir(), PWS_RESULT_CACHE_DIRECTORY),
+        PWS_RESULT_CACHE_TTL_MILLIS, PWS_RESULT_CACHE_MAX_ENTRIES);
     mPwCollection = new PhysicalWebCollection();
+    configureCollection();
+    preloadPwsResultCache();
     if (!Utils.setPwsEndpoint(this, mPwCollection)) {
       Utils.warnUserOnMissingApiKey(this);
     }
     mCanUpdateNotifications = false;
   }
 
+  private void preloadPwsResultCache() {
+    // Loading the cache lists and reads its directory, so it is done off the main thread and the
+    // collection resolves without it until then.
+    final int generation = mPwsResultCacheGeneration;
+    mPwsResultCacheExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        mPwsResultCache.preload();
+        mHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (generation != mPwsResultCacheGeneration) {
+              return;
+            }
+            mPwsResultCacheLoaded = true;
+            mPwCollection.setPwsResultCache(mPwsResultCache);
+          }
+        });
+      }
+    });
+  }
+
+  private void clearPwsResultCache() {
+    // Deleting the cached results touches every file, so it is done off the main thread, and the
+    // collection resolves without the cache until the stale results are gone.
+    mPwsResultCacheGeneration++;
+    mPwsResultCacheLoaded = false;
+    mPwCollection.setPwsResultCache(null);
+    mPwsResultCacheExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        mPwsResultCache.clear();
+      }
+    });
+    preloadPwsResultCache();
+  }
+
+  private void configureCollection() {
+    mPwCollection.setResolveBatching(RESOLVE_BATCH_WINDOW_MILLIS, RESOLVE_BATCH_MAX_SIZE);
+    if (mPwsResultCacheLoaded) {
+      mPwCollection.setPwsResultCache(mPwsResultCache);
+    }
+    mPwCollection.setRankComparator(new Utils.PwPairRelevanceComparator(false));
+    mPwCollection.setProximityEstimator(Utils.getProximityEstimator());
+    // Beacons advertise several times a second, so one unheard for a while has been walked past.
+    // Devices found over the network are announced less often.
+    mPwCollection.setDeviceTtl(NETWORK_DEVICE_TTL_MILLIS);
+    mPwCollection.setDeviceTtl(Utils.BLE_DEVICE_TYPE, BLE_DEVICE_TTL_MILLIS);
+    mPwCollection.setDeviceTtl(Utils.FAT_BEACON_DEVICE_TYPE, BLE_DEVICE_TTL_MILLIS);
+  }
+
   private void restoreCache() {
     // Make sure we are trying to load the right version of the cache
     SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
@@ -184,20 +280,21 @@ public class UrlDeviceDiscoveryService extends Service
 
     // Restore the cached metadata
     try {
-      JSONObject serializedCollection = new JSONObject(prefs.getString(PW_COLLECTION_KEY, null));
-      mPwCollection = PhysicalWebCollection.jsonDeserialize(serializedCollection);
+      InputStream is = new FileInputStream(new File(getCacheDir(), PW_COLLECTION_FILE));
+      try {
+        mPwCollection = PhysicalWebCollection.binaryDeserialize(is);
+      } finally {
+        is.close();
+      }
+      configureCollection();
       Utils.setPwsEndpoint(this, mPwCollection);
-    } catch (JSONException e) {
+    } catch (IOException e) {
       Log.e(TAG, "Could not restore Physical Web collection cache", e);
     } catch (PhysicalWebCollectionException e) {
       Log.e(TAG, "Could not restore Physical Web collection cache", e);
     }
-    // replace TxPower and RSSI data after restoring cache
-    for (UrlDevice urlDevice : mPwCollection.getUrlDevices()) {
-      if (Utils.isBleUrlDevice(urlDevice)) {
-        Utils.updateRegion(urlDevice);
-      }
-    }
+    // The restored devices' sightings were fed to the proximity estimator when it was set.
+    mPwCollection.updateRanking();
     // Unresolvable devices are typically not
     // relevant outside of scan range. Hence,
     // we specially clean them from the cache.
@@ -218,6 +315,7 @@ public class UrlDeviceDiscoveryService extends Service
     cancelNotifications();
     mHandler.postDelayed(mFirstScanTimeout, FIRST_SCAN_TIME_MILLIS);
     mHandler.postDelayed(mSecondScanTimeout, SECOND_SCAN_TIME_MILLIS);
+    mHandler.postDelayed(mExpireStaleDevices, EXPIRE_INTERVAL_MILLIS);
   }
 
   @Override
@@ -253,11 +351,30 @@ public class UrlDeviceDiscoveryService extends Service
   }
 
   private void saveCache() {
-    // Write the PW Collection
+    // Write the PW Collection to a temporary file first so a crash never leaves half of it behind
+    File collectionFile = new File(getCacheDir(), PW_COLLECTION_FILE);
+    File tempFile = new File(getCacheDir(), PW_COLLECTION_FILE + ".tmp");
+    try {
+      OutputStream os = new FileOutputStream(tempFile);
+      try {
+        mPwCollection.binarySerialize(os);
+      } finally {
+        os.close();
+      }
+      if (!tempFile.renameTo(collectionFile)) {
+        throw new IOException("Cannot rename " + tempFile + " to " + collectionFile);
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Could not save Physical Web collection cache", e);
+      tempFile.delete();
+      return;
+    }
+
+    // The collection used to be stored in the preferences, so drop any copy left there
     PreferenceManager.getDefaultSharedPreferences(this).edit()
         .putInt(PREFS_VERSION_KEY, PREFS_VERSION)
         .putLong(SCAN_START_TIME_KEY, mScanStartTime)
-        .putString(PW_COLLECTION_KEY, mPwCollection.jsonSerialize().toString())
+        .remove(PW_COLLECTION_KEY)
         .apply();
   }
 
@@ -268,8 +385,10 @@ public class UrlDeviceDiscoveryService extends Service
     // Stop the scanners
     mHandler.removeCallbacks(mFirstScanTimeout);
     mHandler.removeCallbacks(mSecondScanTimeout);
+    mHandler.removeCallbacks(mExpireStaleDevices);
     stopScan();
     saveCache();
+    mPwsResultCacheExecutor.shutdown();
     super.onDestroy();
   }
 
@@ -329,6 +448,21 @@ public class UrlDeviceDiscoveryService extends Service
     triggerCallback();
   }
 
+  @Override
+  public boolean onUrlDeviceSighted(String deviceId, long scanTimeMillis, int rssi,
+                                    int txPower) {
+    // Devices still waiting for metadata take the full path, which also retries resolving them.
+    UrlDevice urlDevice = mPwCollection.getUrlDeviceById(deviceId);
+    if (urlDevice == null || mPwCollection.getMetadataByBroadcastUrl(urlDevice.getUrl()) == null) {
+      return false;
+    }
+    if (!mPwCollection.updateSighting(deviceId, scanTimeMillis, rssi, txPower)) {
+      return false;
+    }
+    triggerCallback();
+    return true;
+  }
+
   private void triggerCallback() {
     for (UrlDeviceDiscoveryListener urlDeviceDiscoveryListener : mUrlDeviceDiscoveryListeners) {
       urlDeviceDiscoveryListener.onUrlDeviceDiscoveryUpdate();
@@ -343,16 +477,22 @@ public class UrlDeviceDiscoveryService extends Service
       return;
     }
 
-    List<PwPair> pwPairs = mPwCollection.getGroupedPwPairsSortedByRank(
-        new Utils.PwPairRelevanceComparator());
+    // Only the nearest two beacons are shown, so only ask for as many pairs as it takes to find
+    // two that are not blocked.
     List<PwPair> notBlockedPwPairs = new ArrayList<>();
-    for (PwPair i : pwPairs) {
-      if (!Utils.isBlocked(i)) {
-        notBlockedPwPairs.add(i);
+    for (int k = NOTIFIED_BEACON_COUNT; ; k *= 2) {
+      List<PwPair> pwPairs = mPwCollection.getTopGroupedPwPairs(k);
+      notBlockedPwPairs.clear();
+      for (PwPair i : pwPairs) {
+        if (!Utils.isBlocked(i)) {
+          notBlockedPwPairs.add(i);
+        }
+      }
+      if (notBlockedPwPairs.size() >= NOTIFIED_BEACON_COUNT || pwPairs.size() < k) {
+        break;
       }
     }
 
-
     // If no beacons have been found
     if (notBlockedPwPairs.size() == 0) {
       // Remove all existing notifications
@@ -363,7 +503,8 @@ public class UrlDeviceDiscoveryService extends Service
     } else {
       // Create a summary notification for both beacon notifications.
       // Do this first so that we don't first show the individual notifications
-      updateSummaryNotification(notBlockedPwPairs);
+      updateSummaryNotification(notBlockedPwPairs,
+                                mPwCollection.countGroupedPwPairs(NOT_BLOCKED_FILTER));
       // Create or update a notification for second beacon
       updateNearbyBeaconNotification(false, notBlockedPwPairs.get(1),
                                      SECOND_NEAREST_BEACON_NOTIFICATION_ID);
@@ -428,8 +569,7 @@ public class UrlDeviceDiscoveryService extends Service
    * Create or update the a single notification that is a collapsed version
    * of the top two beacon notifications.
    */
-  private void updateSummaryNotification(List<PwPair> pwPairs) {
-    int numNearbyBeacons = pwPairs.size();
+  private void updateSummaryNotification(List<PwPair> pwPairs, int numNearbyBeacons) {
     String contentTitle = String.valueOf(numNearbyBeacons);
     Resources resources = getResources();
     contentTitle += " " + resources.getQuantityString(R.plurals.numFoundBeacons, numNearbyBeacons,
@@ -571,11 +711,13 @@ public class UrlDeviceDiscoveryService extends Service
     mScanStartTime = new Date().getTime();
     Utils.setPwsEndpoint(this, mPwCollection);
     mPwCollection.clear();
+    clearPwsResultCache();
     saveCache();
   }
 
   public void newPwsStartScan() {
     Utils.setPwsEndpoint(this, mPwCollection);
+    clearPwsResultCache();
     restartScan();
   }
 }
@@ -17,6 +17,7 @@
 package org.physical_web.physicalweb;
 
 import org.physical_web.collection.PhysicalWebCollection;
+import org.physical_web.collection.ProximityEstimator;
 import org.physical_web.collection.PwPair;
 import org.physical_web.collection.PwsClient;
 import org.physical_web.collection.PwsResult;
@@ -40,9 +41,6 @@ import android.support.v4.app.TaskStackBuilder;
 import android.view.Menu;
 import android.widget.Toast;
 
-import org.uribeacon.scan.util.RangingUtils;
-import org.uribeacon.scan.util.RegionResolver;
-
 import org.json.JSONException;
 
 import java.io.ByteArrayOutputStream;
@@ -86,17 +84,15 @@ class Utils {
   private static final String MAIN_PREFS_KEY = "physical_web_preferences";
   private static final String DISCOVERY_SERVICE_PREFS_KEY =
       "org.physical_web.physicalweb.DISCOVERY_SERVICE_PREFS";
-  private static final String SCANTIME_KEY = "scantime";
-  private static final String TYPE_KEY = "type";
-  private static final String PUBLIC_KEY = "public";
   private static final String TITLE_KEY = "title";
   private static final String DESCRIPTION_KEY = "description";
-  private static final String RSSI_KEY = "rssi";
-  private static final String TXPOWER_KEY = "tx";
   private static final String PWSTRIPTIME_KEY = "pwstriptime";
   private static final String WIFIDIRECT_KEY = "wifidirect";
   private static final String WIFIDIRECT_PORT_KEY = "wifiport";
-  private static final RegionResolver REGION_RESOLVER = new RegionResolver();
+  private static final ProximityEstimator PROXIMITY_ESTIMATOR =
+      new ProximityEstimator.Builder().build();
+  private static final double NEAR_DISTANCE_METERS = 0.5;
+  private static final double MID_DISTANCE_METERS = 2.0;
   private static final String SEPARATOR = "\0";
   private static Set<String> mFavoriteUrls = new HashSet<>();
   private static Set<String> mBlockedUrls = new HashSet<>();
@@ -109,10 +105,19 @@ class Utils {
     public Map<String, Double> mCachedDistances;
 
     PwPairRelevanceComparator() {
-      mCachedDistances = new HashMap<>();
+      this(true);
+    }
+
+    // A comparator kept by a PhysicalWebCollection for its ranked view must not cache distances,
+    // because the collection re-ranks each device with its latest distance as it is rediscovered.
+    PwPairRelevanceComparator(boolean cacheDistances) {
+      mCachedDistances = cacheDistances ? new HashMap<String, Double>() : null;
     }
 
     public double getDistance(UrlDevice urlDevice) {
+      if (mCachedDistances == null) {
+        return Utils.getDistance(urlDevice);
+      }
       if (mCachedDistances.containsKey(urlDevice.getId())) {
         return mCachedDistances.get(urlDevice.getId());
       }
@@ -123,13 +128,15 @@ class Utils {
 
     @Override
     public int compare(PwPair lhs, PwPair rhs) {
+      // Without a cache this comparator outlives restoreFavorites, so read the current set
+      Set<String> favorites = mCachedDistances == null ? mFavoriteUrls : mFavorites;
       String lSite = lhs.getPwsResult().getSiteUrl();
       String rSite = rhs.getPwsResult().getSiteUrl();
-      if (mFavorites.contains(lSite) == mFavorites.contains(rSite)) {
+      if (favorites.contains(lSite) == favorites.contains(rSite)) {
         return Double.compare(getDistance(lhs.getUrlDevice()),
             getDistance(rhs.getUrlDevice()));
       } else {
-        if (mFavorites.contains(lSite)) {
+        if (favorites.contains(lSite)) {
           return -1;
         }
         return 1;
@@ -729,8 +736,7 @@ class Utils {
       PhysicalWebCollection pwCollection, String groupId) {
     // This does the same thing as the PhysicalWebCollection method, only it uses our custom
     // getGroupId method.
-    for (PwPair pwPair : pwCollection.getGroupedPwPairsSortedByRank(
-        new PwPairRelevanceComparator())) {
+    for (PwPair pwPair : pwCollection.getGroupedPwPairsSortedByRank()) {
       if (getGroupId(pwPair.getPwsResult()).equals(groupId)) {
         return pwPair;
       }
@@ -759,11 +765,10 @@ class Utils {
    * @throws RuntimeException If the device doesn't have a scan time.
    */
   public static long getScanTimeMillis(UrlDevice urlDevice) {
-    try {
-      return urlDevice.getExtraLong(SCANTIME_KEY);
-    } catch (JSONException e) {
-      throw new RuntimeException("Scan time not available in device " + urlDevice.getId(), e);
+    if (!urlDevice.hasScanTimeMillis()) {
+      throw new RuntimeException("Scan time not available in device " + urlDevice.getId());
     }
+    return urlDevice.getScanTimeMillis();
   }
 
   /**
@@ -772,7 +777,7 @@ class Utils {
    * @return If the device is public or not.
    */
   public static boolean isPublic(UrlDevice urlDevice) {
-    return urlDevice.optExtraBoolean(PUBLIC_KEY, true);
+    return !urlDevice.hasPublic() || urlDevice.isPublic();
   }
 
   /**
@@ -781,10 +786,10 @@ class Utils {
    * @return If the device is resolvable or not.
    */
   public static boolean isResolvableDevice(UrlDevice urlDevice) {
-    String type = urlDevice.optExtraString(TYPE_KEY, "");
-    return type.equals(BLE_DEVICE_TYPE)
-        || type.equals(SSDP_DEVICE_TYPE)
-        || type.equals(MDNS_PUBLIC_DEVICE_TYPE);
+    String type = urlDevice.getDeviceType();
+    return BLE_DEVICE_TYPE.equals(type)
+        || SSDP_DEVICE_TYPE.equals(type)
+        || MDNS_PUBLIC_DEVICE_TYPE.equals(type);
   }
 
   /**
@@ -793,7 +798,7 @@ class Utils {
    * @return If the device is BLE or not.
    */
   public static boolean isBleUrlDevice(UrlDevice urlDevice) {
-    return urlDevice.optExtraString(TYPE_KEY, "").equals(BLE_DEVICE_TYPE);
+    return BLE_DEVICE_TYPE.equals(urlDevice.getDeviceType());
   }
 
   /**
@@ -802,7 +807,7 @@ class Utils {
    * @return Is a FatBeacon device
    */
   public static boolean isFatBeaconDevice(UrlDevice urlDevice) {
-    return urlDevice.optExtraString(TYPE_KEY, "").equals(FAT_BEACON_DEVICE_TYPE);
+    return FAT_BEACON_DEVICE_TYPE.equals(urlDevice.getDeviceType());
   }
 
   /**
@@ -811,7 +816,7 @@ class Utils {
    * @return If the device is mdns public or not.
    */
   public static boolean isMDNSPublicDevice(UrlDevice urlDevice) {
-    return urlDevice.optExtraString(TYPE_KEY, "").equals(MDNS_PUBLIC_DEVICE_TYPE);
+    return MDNS_PUBLIC_DEVICE_TYPE.equals(urlDevice.getDeviceType());
   }
 
   /**
@@ -820,7 +825,7 @@ class Utils {
    * @return If the device is local or not.
    */
   public static boolean isMDNSLocalDevice(UrlDevice urlDevice) {
-    return urlDevice.optExtraString(TYPE_KEY, "").equals(MDNS_LOCAL_DEVICE_TYPE);
+    return MDNS_LOCAL_DEVICE_TYPE.equals(urlDevice.getDeviceType());
   }
 
   /**
@@ -829,7 +834,7 @@ class Utils {
    * @return Is a WifiDirect device
    */
   public static boolean isWifiDirectDevice(UrlDevice urlDevice) {
-    return urlDevice.optExtraString(TYPE_KEY, "").equals(WIFI_DIRECT_DEVICE_TYPE);
+    return WIFI_DIRECT_DEVICE_TYPE.equals(urlDevice.getDeviceType());
   }
 
   /**
@@ -838,7 +843,7 @@ class Utils {
    * @return Is a SSDP device
    */
   public static boolean isSSDPDevice(UrlDevice urlDevice) {
-    return urlDevice.optExtraString(TYPE_KEY, "").equals(SSDP_DEVICE_TYPE);
+    return SSDP_DEVICE_TYPE.equals(urlDevice.getDeviceType());
   }
 
   /**
@@ -848,11 +853,10 @@ class Utils {
    * @throws RuntimeException If the device is not BLE.
    */
   public static int getRssi(UrlDevice urlDevice) {
-    try {
-      return urlDevice.getExtraInt(RSSI_KEY);
-    } catch (JSONException e) {
-      throw new RuntimeException("Tried to get RSSI from non-ble device " + urlDevice.getId(), e);
+    if (!urlDevice.hasRssi()) {
+      throw new RuntimeException("Tried to get RSSI from non-ble device " + urlDevice.getId());
     }
+    return urlDevice.getRssi();
   }
 
   /**
@@ -862,12 +866,10 @@ class Utils {
    * @throws RuntimeException If the device is not BLE.
    */
   public static int getTxPower(UrlDevice urlDevice) {
-    try {
-      return urlDevice.getExtraInt(TXPOWER_KEY);
-    } catch (JSONException e) {
-      throw new RuntimeException(
-          "Tried to get TX power from non-ble device " + urlDevice.getId(), e);
+    if (!urlDevice.hasTxPower()) {
+      throw new RuntimeException("Tried to get TX power from non-ble device " + urlDevice.getId());
     }
+    return urlDevice.getTxPower();
   }
 
   /**
@@ -962,38 +964,46 @@ class Utils {
   }
 
   /**
-   * Updates the region resolver with the device.
-   * @param urlDevice The device to update region with.
+   * Gets the estimator that smooths the RSSI of devices and estimates their distance.
+   * A PhysicalWebCollection given it with setProximityEstimator feeds it every sighting.
+   * @return The proximity estimator.
    */
-  public static void updateRegion(UrlDevice urlDevice) {
-    REGION_RESOLVER.onUpdate(urlDevice.getId(), getRssi(urlDevice), getTxPower(urlDevice));
+  public static ProximityEstimator getProximityEstimator() {
+    return PROXIMITY_ESTIMATOR;
   }
 
   /**
-   * Gets the smoothed RSSI for device from the region resolver.
+   * Gets the smoothed RSSI for device from the proximity estimator.
    * @param urlDevice The device being queried.
    * @return The smoothed RSSI for the device.
    */
   public static double getSmoothedRssi(UrlDevice urlDevice) {
-    return REGION_RESOLVER.getSmoothedRssi(urlDevice.getId());
+    return PROXIMITY_ESTIMATOR.getSmoothedRssi(urlDevice.getId());
   }
 
   /**
-   * Gets the distance for device from the region resolver.
+   * Gets the distance for device from the proximity estimator.
    * @param urlDevice The device being queried.
    * @return The distance for the device.
    */
   public static double getDistance(UrlDevice urlDevice) {
-    return REGION_RESOLVER.getDistance(urlDevice.getId());
+    return PROXIMITY_ESTIMATOR.getDistance(urlDevice.getId());
   }
 
   /**
-   * Gets the region string for device from the region resolver.
+   * Gets the region string for device from its estimated distance.
    * @param urlDevice The device being queried.
    * @return The region string for the device.
    */
   public static String getRegionString(UrlDevice urlDevice) {
-    return RangingUtils.toString(REGION_RESOLVER.getRegion(urlDevice.getId()));
+    double distance = getDistance(urlDevice);
+    if (distance <= NEAR_DISTANCE_METERS) {
+      return "NEAR";
+    }
+    if (distance <= MID_DISTANCE_METERS) {
+      return "MID";
+    }
+    return Double.isInfinite(distance) ? "UNKNOWN" : "FAR";
   }
 
   static class UrlDeviceBuilder extends UrlDevice.Builder {
@@ -1011,8 +1021,9 @@ class Utils {
     * Set the device type.
     * @return The builder with type set.
     */
+    @Override
     public UrlDeviceBuilder setDeviceType(String type) {
-      addExtra(TYPE_KEY, type);
+      super.setDeviceType(type);
       return this;
     }
 
@@ -1021,8 +1032,9 @@ class Utils {
      * @param timeMillis The scan time of the UrlDevice.
      * @return The builder with ScanTimeMillis set.
      */
+    @Override
     public UrlDeviceBuilder setScanTimeMillis(long timeMillis) {
-      addExtra(SCANTIME_KEY, timeMillis);
+      super.setScanTimeMillis(timeMillis);
       return this;
     }
 
@@ -1031,7 +1043,7 @@ class Utils {
      * @return The builder with public set to false.
      */
     public UrlDeviceBuilder setPrivate() {
-      addExtra(PUBLIC_KEY, false);
+      setPublic(false);
       return this;
     }
 
@@ -1040,7 +1052,7 @@ class Utils {
      * @return The builder with public set to true.
      */
     public UrlDeviceBuilder setPublic() {
-      addExtra(PUBLIC_KEY, true);
+      setPublic(true);
       return this;
     }
 
@@ -1089,8 +1101,9 @@ class Utils {
      * @param rssi The RSSI of the UrlDevice.
      * @return The builder with RSSI set.
      */
+    @Override
     public UrlDeviceBuilder setRssi(int rssi) {
-      addExtra(RSSI_KEY, rssi);
+      super.setRssi(rssi);
       return this;
     }
 
@@ -1099,8 +1112,9 @@ class Utils {
      * @param txPower The TX power of the UrlDevice.
      * @return The builder with TX power set.
      */
+    @Override
     public UrlDeviceBuilder setTxPower(int txPower) {
-      addExtra(TXPOWER_KEY, txPower);
+      super.setTxPower(txPower);
       return this;
     }
   }
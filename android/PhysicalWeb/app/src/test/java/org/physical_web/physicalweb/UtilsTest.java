@@ -32,11 +32,6 @@ public class UtilsTest {
   private static final String PROD_PWS_URL = "https://url-caster.appspot.com";
   private static final int PROD_PWS_VERSION = 1;
   public static final String BLE_DEVICE_TYPE = "ble";
-  private static final String SCAN_TIME_KEY = "scantime";
-  private static final String PUBLIC_KEY = "public";
-  private static final String RSSI_KEY = "rssi";
-  private static final String TYPE_KEY = "type";
-  private static final String TXPOWER_KEY = "tx";
   private static final String PWS_TRIP_TIME_KEY = "pwstriptime";
   private static final String GOOGLE_API_KEY_RESOURCE_KEY = "google_api_key";
   private static final String GOOGLE_API_KEY_RESOURCE_TYPE = "string";
@@ -349,7 +344,8 @@ public class UtilsTest {
   public void testGetScanTimeMillis() throws Exception {
     long scanTime = 0L;
     UrlDevice mockDevice = Mockito.mock(UrlDevice.class);
-    Mockito.when(mockDevice.getExtraLong(SCAN_TIME_KEY)).thenReturn(scanTime);
+    Mockito.when(mockDevice.hasScanTimeMillis()).thenReturn(true);
+    Mockito.when(mockDevice.getScanTimeMillis()).thenReturn(scanTime);
     Assert.assertEquals(scanTime, Utils.getScanTimeMillis(mockDevice));
   }
 
@@ -357,13 +353,13 @@ public class UtilsTest {
    * Tests getScanTimeMillis.
    *
    * Procedure:
-   *  1. Configure mock device to throw JSONException
+   *  1. Configure mock device to have no scan time
    *  2. Verify RuntimeException is thrown
    */
   @Test(expected = RuntimeException.class)
   public void testGetScanTimeMillisWithException() throws Exception {
     UrlDevice mockDevice = Mockito.mock(UrlDevice.class);
-    Mockito.when(mockDevice.getExtraLong(SCAN_TIME_KEY)).thenThrow(new JSONException(""));
+    Mockito.when(mockDevice.hasScanTimeMillis()).thenReturn(false);
     Utils.getScanTimeMillis(mockDevice);
   }
 
@@ -375,15 +371,21 @@ public class UtilsTest {
    *  2. Verify true is returned
    *  3. Configure mock device to return false
    *  4. Verify false is returned
+   *  5. Configure mock device to not say whether it is public
+   *  6. Verify true is returned
    */
   @Test
   public void testIsPublic() throws Exception {
     UrlDevice mockDevice = Mockito.mock(UrlDevice.class);
-    Mockito.when(mockDevice.optExtraBoolean(PUBLIC_KEY, true)).thenReturn(true);
+    Mockito.when(mockDevice.hasPublic()).thenReturn(true);
+    Mockito.when(mockDevice.isPublic()).thenReturn(true);
     Assert.assertTrue(Utils.isPublic(mockDevice));
 
-    Mockito.when(mockDevice.optExtraBoolean(PUBLIC_KEY, true)).thenReturn(false);
+    Mockito.when(mockDevice.isPublic()).thenReturn(false);
     Assert.assertFalse(Utils.isPublic(mockDevice));
+
+    Mockito.when(mockDevice.hasPublic()).thenReturn(false);
+    Assert.assertTrue(Utils.isPublic(mockDevice));
   }
 
   /*
@@ -398,10 +400,10 @@ public class UtilsTest {
   @Test
   public void testIsBleUrlDevice() throws Exception {
     UrlDevice mockDevice = Mockito.mock(UrlDevice.class);
-    Mockito.when(mockDevice.optExtraString(TYPE_KEY, "")).thenReturn(BLE_DEVICE_TYPE);
+    Mockito.when(mockDevice.getDeviceType()).thenReturn(BLE_DEVICE_TYPE);
     Assert.assertTrue(Utils.isBleUrlDevice(mockDevice));
 
-    Mockito.when(mockDevice.optExtraString(TYPE_KEY, "")).thenReturn("not ble");
+    Mockito.when(mockDevice.getDeviceType()).thenReturn("not ble");
     Assert.assertFalse(Utils.isBleUrlDevice(mockDevice));
   }
 
@@ -416,7 +418,8 @@ public class UtilsTest {
   public void testGetRssi() throws Exception {
     int rssi = Integer.MAX_VALUE;
     UrlDevice mockDevice = Mockito.mock(UrlDevice.class);
-    Mockito.when(mockDevice.getExtraInt(RSSI_KEY)).thenReturn(rssi);
+    Mockito.when(mockDevice.hasRssi()).thenReturn(true);
+    Mockito.when(mockDevice.getRssi()).thenReturn(rssi);
     Assert.assertEquals(rssi, Utils.getRssi(mockDevice));
   }
 
@@ -424,13 +427,13 @@ public class UtilsTest {
    * Tests getRssi.
    *
    * Procedure:
-   *  1. Configure mock device to throw JSONException
+   *  1. Configure mock device to have no RSSI
    *  2. Verify RuntimeException is thrown
    */
   @Test(expected = RuntimeException.class)
   public void testGetRssiWithException() throws Exception {
     UrlDevice mockDevice = Mockito.mock(UrlDevice.class);
-    Mockito.when(mockDevice.getExtraInt(RSSI_KEY)).thenThrow(new JSONException(""));
+    Mockito.when(mockDevice.hasRssi()).thenReturn(false);
     Utils.getRssi(mockDevice);
   }
 
@@ -445,7 +448,8 @@ public class UtilsTest {
   public void testGetTxPower() throws Exception {
     int txPower = Integer.MIN_VALUE;
     UrlDevice mockDevice = Mockito.mock(UrlDevice.class);
-    Mockito.when(mockDevice.getExtraInt(TXPOWER_KEY)).thenReturn(txPower);
+    Mockito.when(mockDevice.hasTxPower()).thenReturn(true);
+    Mockito.when(mockDevice.getTxPower()).thenReturn(txPower);
     Assert.assertEquals(txPower, Utils.getTxPower(mockDevice));
   }
 
@@ -453,13 +457,13 @@ public class UtilsTest {
    * Tests getTxPower.
    *
    * Procedure:
-   *  1. Configure mock device to throw JSONException
+   *  1. Configure mock device to have no TX power
    *  2. Verify RuntimeException is thrown
    */
   @Test(expected = RuntimeException.class)
   public void testGetTxPowerWithException() throws Exception {
     UrlDevice mockDevice = Mockito.mock(UrlDevice.class);
-    Mockito.when(mockDevice.getExtraInt(TXPOWER_KEY)).thenThrow(new JSONException(""));
+    Mockito.when(mockDevice.hasTxPower()).thenReturn(false);
     Utils.getTxPower(mockDevice);
   }
 
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding of Eddystone-URL and UriBeacon service data, as done for every BLE
+ * advertisement received.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EddystoneBeaconBenchmark {
+  // Eddystone-URL frame for https://goo.gl/S6zT6P
+  private static final byte[] SHORT_URL_FRAME = {
+      0x10, (byte) 0xeb, 0x03, 'g', 'o', 'o', '.', 'g', 'l', '/', 'S', '6', 'z', 'T', '6', 'P'};
+  // Eddystone-URL frame for http://www.physical-web.org/demo/index.html, using expansion codes
+  private static final byte[] EXPANDED_URL_FRAME = {
+      0x10, (byte) 0xeb, 0x00, 'p', 'h', 'y', 's', 'i', 'c', 'a', 'l', '-', 'w', 'e', 'b', 0x01,
+      'd', 'e', 'm', 'o', '/', 'i', 'n', 'd', 'e', 'x', '.', 'h', 't', 'm', 'l'};
+  // Eddystone-URL frame holding a urn:uuid: URI
+  private static final byte[] UUID_FRAME = {
+      0x10, (byte) 0xeb, 0x04, 0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd,
+      (byte) 0xef, 0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd, (byte) 0xef};
+
+  // Unencrypted Eddystone-TLM frame
+  private static final byte[] TLM_FRAME = {
+      0x20, 0x00, 0x0b, (byte) 0xb8, 0x16, (byte) 0x80, 0x00, 0x01, 0x00, 0x02, 0x00, 0x00, 0x10,
+      0x01};
+  // Offset of the Eddystone service data in the scan record built by setUp()
+  private static final int SCAN_RECORD_OFFSET = 11;
+
+  @Param({"short", "expanded", "uuid"})
+  public String frame;
+
+  private byte[] mScanRecord;
+  private EddystoneFrameCache mFrameCache;
+  private EddystoneFrameParser mFrameParser;
+
+  @Setup
+  public void setUp() {
+    // Flags and service UUID AD structures, then the service data structure holding the frame
+    byte[] header = {0x02, 0x01, 0x06, 0x03, 0x03, (byte) 0xaa, (byte) 0xfe, 0, 0x16,
+        (byte) 0xaa, (byte) 0xfe};
+    byte[] serviceData = getFrame();
+    header[7] = (byte) (serviceData.length + 3);
+    mScanRecord = new byte[SCAN_RECORD_OFFSET + serviceData.length];
+    System.arraycopy(header, 0, mScanRecord, 0, header.length);
+    System.arraycopy(serviceData, 0, mScanRecord, SCAN_RECORD_OFFSET, serviceData.length);
+    mFrameCache = new EddystoneFrameCache();
+    mFrameParser = new EddystoneFrameParser();
+  }
+
+  @Benchmark
+  public EddystoneBeacon parseFromServiceData() {
+    return EddystoneBeacon.parseFromServiceData(getFrame(), null);
+  }
+
+  @Benchmark
+  public EddystoneBeacon parseUrlServiceDataSlice() {
+    return EddystoneBeacon.parseUrlServiceData(mScanRecord, SCAN_RECORD_OFFSET,
+        mScanRecord.length - SCAN_RECORD_OFFSET);
+  }
+
+  @Benchmark
+  public EddystoneBeacon cachedParseFromServiceData() {
+    return mFrameCache.parseFromServiceData(getFrame(), null);
+  }
+
+  @Benchmark
+  public float parseTlmFrame() {
+    mFrameParser.parse(TLM_FRAME);
+    EddystoneFrameParser.TlmFrame frame = mFrameParser.getTlmFrame();
+    return frame.getBatteryMillivolts() + frame.getTemperatureCelsius();
+  }
+
+  @Benchmark
+  public String legacyDecode() {
+    return LegacyDecoder.decode(getFrame());
+  }
+
+  @Benchmark
+  public boolean isFatBeacon() {
+    return EddystoneBeacon.isFatBeacon(getFrame());
+  }
+
+  private byte[] getFrame() {
+    switch (frame) {
+      case "expanded":
+        return EXPANDED_URL_FRAME;
+      case "uuid":
+        return UUID_FRAME;
+      default:
+        return SHORT_URL_FRAME;
+    }
+  }
+
+  /**
+   * The decoder EddystoneBeacon used before its lookup tables became arrays, kept as a baseline.
+   */
+  private static class LegacyDecoder {
+    private static final HashMap<Byte, String> URI_SCHEMES = new HashMap<>();
+    private static final HashMap<Byte, String> URL_CODES = new HashMap<>();
+    private static final String URN_UUID = "urn:uuid:";
+
+    static {
+      URI_SCHEMES.put((byte) 0, "http://www.");
+      URI_SCHEMES.put((byte) 1, "https://www.");
+      URI_SCHEMES.put((byte) 2, "http://");
+      URI_SCHEMES.put((byte) 3, "https://");
+      URI_SCHEMES.put((byte) 4, URN_UUID);
+      String[] codes = {".com/", ".org/", ".edu/", ".net/", ".info/", ".biz/", ".gov/",
+          ".com", ".org", ".edu", ".net", ".info", ".biz", ".gov"};
+      for (int i = 0; i < codes.length; i++) {
+        URL_CODES.put((byte) i, codes[i]);
+      }
+    }
+
+    static String decode(byte[] serviceData) {
+      StringBuilder urlBuilder = new StringBuilder();
+      String scheme = URI_SCHEMES.get(serviceData[2]);
+      if (scheme == null) {
+        return null;
+      }
+      urlBuilder.append(scheme);
+      if (scheme.equals(URN_UUID)) {
+        ByteBuffer buf = ByteBuffer.wrap(serviceData);
+        buf.order(ByteOrder.BIG_ENDIAN);
+        try {
+          buf.position(3);
+          long mostSignificantBytes = buf.getLong();
+          long leastSignificantBytes = buf.getLong();
+          urlBuilder.append(new UUID(mostSignificantBytes, leastSignificantBytes).toString());
+        } catch (BufferUnderflowException e) {
+          return "";
+        }
+        return urlBuilder.toString();
+      }
+      for (int i = 3; i < serviceData.length; i++) {
+        byte b = serviceData[i];
+        String expansion = URL_CODES.get(b);
+        if (expansion == null) {
+          urlBuilder.append((char) b);
+        } else {
+          urlBuilder.append(expansion);
+        }
+      }
+      return urlBuilder.toString();
+    }
+  }
+}
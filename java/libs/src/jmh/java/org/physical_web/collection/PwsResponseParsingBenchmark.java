@@ -0,0 +1,96 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures turning a PWS resolve response into PwsResults, as PwsClient.resolve does, and
+ * compares it with parsing the whole response into a JSONObject first.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PwsResponseParsingBenchmark {
+  private static final String METADATA_KEY = "metadata";
+
+  @Param({"10", "100", "1000", "10000"})
+  public int resultCount;
+
+  private byte[] mResponse;
+
+  @Setup
+  public void setUp() throws IOException {
+    JSONArray metadata = new JSONArray();
+    for (int i = 0; i < resultCount; i++) {
+      JSONObject jsonObject = new JSONObject();
+      jsonObject.put("id", "https://example.com/beacon/" + i);
+      jsonObject.put("url", "https://example.com/beacon/" + i + "/site");
+      jsonObject.put("title", "Beacon " + i);
+      jsonObject.put("description", "A description of the page broadcast by beacon " + i);
+      jsonObject.put("icon", "https://example.com/icon/" + i + ".png");
+      jsonObject.put("groupId", "group" + (i % 10));
+      metadata.put(jsonObject);
+    }
+    JSONObject response = new JSONObject();
+    response.put("kind", "urlresolve");
+    response.put(METADATA_KEY, metadata);
+    mResponse = response.toString().getBytes("UTF-8");
+  }
+
+  @Benchmark
+  public boolean streamingParse(final Blackhole blackhole) throws IOException {
+    JsonArrayStreamParser parser = new JsonArrayStreamParser(new BufferedReader(
+        new InputStreamReader(new ByteArrayInputStream(mResponse), "UTF-8")));
+    return parser.parse(METADATA_KEY, new JsonArrayStreamParser.ElementListener() {
+      @Override
+      public void onElement(JSONObject element) {
+        blackhole.consume(PwsClient.parsePwsResult(element, 1));
+      }
+    });
+  }
+
+  @Benchmark
+  public void documentParse(Blackhole blackhole) throws IOException {
+    JSONObject response = new JSONObject(new String(mResponse, "UTF-8"));
+    JSONArray metadata = response.getJSONArray(METADATA_KEY);
+    for (int i = 0; i < metadata.length(); i++) {
+      blackhole.consume(PwsClient.parsePwsResult(metadata.getJSONObject(i), 1));
+    }
+  }
+}
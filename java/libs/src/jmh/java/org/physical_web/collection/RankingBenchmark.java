@@ -0,0 +1,132 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures ranking a collection, both by sorting on every query and through the ranked view
+ * maintained by setRankComparator.  About a third of the URLs belong to a group, and some site
+ * URLs are shared by several broadcast URLs.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RankingBenchmark {
+  private static final int URLS_PER_SITE = 3;
+  private static final int GROUP_COUNT = 20;
+
+  @Param({"10", "100", "1000", "10000"})
+  public int deviceCount;
+
+  private PhysicalWebCollection mCollection;
+  private Comparator<PwPair> mComparator;
+  private Random mRandom;
+  private String[] mDeviceIds;
+
+  /**
+   * Ranks the strongest latest signal first, as the app does with its distance estimate.
+   */
+  private class RssiComparator implements Comparator<PwPair> {
+    @Override
+    public int compare(PwPair lhs, PwPair rhs) {
+      return Integer.compare(getLatestRssi(rhs), getLatestRssi(lhs));
+    }
+
+    private int getLatestRssi(PwPair pwPair) {
+      return mCollection.getSightingHistory(pwPair.getUrlDevice().getId()).getRssi(0);
+    }
+  }
+
+  @Setup
+  public void setUp() {
+    mRandom = new Random(0);
+    mComparator = new RssiComparator();
+    mCollection = new PhysicalWebCollection();
+    mDeviceIds = new String[deviceCount];
+    for (int i = 0; i < deviceCount; i++) {
+      mDeviceIds[i] = "device" + i;
+      mCollection.addUrlDevice(createUrlDevice(i));
+      String url = getUrl(i);
+      mCollection.addMetadata(new PwsResult.Builder(url, url + "/site" + (i / URLS_PER_SITE))
+          .setTitle("Beacon " + i)
+          .setGroupId(i % 3 == 0 ? "group" + (i % GROUP_COUNT) : null)
+          .build());
+    }
+    mCollection.setRankComparator(mComparator);
+  }
+
+  private UrlDevice createUrlDevice(int i) {
+    return new UrlDevice.Builder(mDeviceIds[i], getUrl(i))
+        .setRssi(-40 - mRandom.nextInt(60))
+        .build();
+  }
+
+  private static String getUrl(int i) {
+    return "https://example.com/beacon/" + i;
+  }
+
+  @Benchmark
+  public List<PwPair> sortOnQuery() {
+    return mCollection.getGroupedPwPairsSortedByRank(new RssiComparator());
+  }
+
+  @Benchmark
+  public List<PwPair> sortOnQueryTop2() {
+    return mCollection.getTopPwPairs(2, new RssiComparator());
+  }
+
+  @Benchmark
+  public List<PwPair> rankedView() {
+    return mCollection.getGroupedPwPairsSortedByRank(mComparator);
+  }
+
+  @Benchmark
+  public List<PwPair> rankedViewTop3() {
+    return mCollection.getTopGroupedPwPairs(3);
+  }
+
+  @Benchmark
+  public boolean rediscoverDevice() {
+    // A device is seen again with a new signal strength, which re-ranks it.
+    return mCollection.addUrlDevice(createUrlDevice(mRandom.nextInt(deviceCount)));
+  }
+
+  @Benchmark
+  public boolean updateSighting() {
+    // The same sighting as rediscoverDevice, recorded without building a new UrlDevice.
+    return mCollection.updateSighting(mDeviceIds[mRandom.nextInt(deviceCount)],
+                                      System.currentTimeMillis(), -40 - mRandom.nextInt(60), -20);
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the JSON and binary serializations of a PhysicalWebCollection.
+ * The collection holds one device per URL, one result per URL and one icon for every few URLs,
+ * roughly matching what a scan in a busy place produces.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+  private static final int URLS_PER_ICON = 4;
+  private static final int ICON_SIZE = 2048;
+
+  @Param({"10", "100", "1000", "10000"})
+  public int deviceCount;
+
+  private PhysicalWebCollection mCollection;
+  private String mJson;
+  private byte[] mBinary;
+
+  @Setup
+  public void setUp() throws IOException {
+    Random random = new Random(0);
+    mCollection = new PhysicalWebCollection();
+    for (int i = 0; i < deviceCount; i++) {
+      String url = "https://example.com/beacon/" + i;
+      String iconUrl = "https://example.com/icon/" + (i / URLS_PER_ICON) + ".png";
+      mCollection.addUrlDevice(new UrlDevice.Builder("device" + i, url)
+          .addExtra("rssi", -40 - random.nextInt(50))
+          .addExtra("tx", -20)
+          .addExtra("type", "ble")
+          .addExtra("scantime", 1480000000000L + i)
+          .build());
+      mCollection.addMetadata(new PwsResult.Builder(url, url + "/site")
+          .setTitle("Beacon " + i)
+          .setDescription("A description of the page broadcast by beacon " + i)
+          .setIconUrl(iconUrl)
+          .setGroupId("group" + (i % 10))
+          .build());
+      if (i % URLS_PER_ICON == 0) {
+        byte[] icon = new byte[ICON_SIZE];
+        random.nextBytes(icon);
+        mCollection.addIcon(iconUrl, icon);
+      }
+    }
+    mJson = mCollection.jsonSerialize().toString();
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    mCollection.binarySerialize(os);
+    mBinary = os.toByteArray();
+  }
+
+  @Benchmark
+  public String jsonSerialize() {
+    return mCollection.jsonSerialize().toString();
+  }
+
+  @Benchmark
+  public PhysicalWebCollection jsonDeserialize() throws PhysicalWebCollectionException {
+    return PhysicalWebCollection.jsonDeserialize(new JSONObject(mJson));
+  }
+
+  @Benchmark
+  public byte[] binarySerialize() throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream(mBinary.length);
+    mCollection.binarySerialize(os);
+    return os.toByteArray();
+  }
+
+  @Benchmark
+  public PhysicalWebCollection binaryDeserialize()
+      throws IOException, PhysicalWebCollectionException {
+    return PhysicalWebCollection.binaryDeserialize(new ByteArrayInputStream(mBinary));
+  }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building UrlDevices with extra data and reading it back, as done for every BLE
+ * advertisement received.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class UrlDeviceBenchmark {
+  private UrlDevice mUrlDevice;
+  private int mRssi;
+
+  @Setup
+  public void setUp() {
+    mUrlDevice = buildDevice();
+  }
+
+  @Benchmark
+  public UrlDevice buildDevice() {
+    return new UrlDevice.Builder("ble00:11:22:33:44:55", "https://goo.gl/S6zT6P")
+        .setDeviceType("ble")
+        .setScanTimeMillis(1234567890L)
+        .setPublic(true)
+        .setRssi(mRssi--)
+        .setTxPower(-20)
+        .build();
+  }
+
+  @Benchmark
+  public UrlDevice updateDevice() {
+    return new UrlDevice.Builder(mUrlDevice).setRssi(mRssi--).build();
+  }
+
+  @Benchmark
+  public int readSightingFields() {
+    return mUrlDevice.getRssi() + mUrlDevice.getTxPower() + (mUrlDevice.isPublic() ? 1 : 0)
+        + mUrlDevice.getDeviceType().length();
+  }
+
+  @Benchmark
+  public int readExtras() {
+    return mUrlDevice.optExtraInt("rssi") + mUrlDevice.optExtraInt("tx")
+        + (mUrlDevice.optExtraBoolean("public") ? 1 : 0)
+        + mUrlDevice.optExtraString("type").length();
+  }
+}
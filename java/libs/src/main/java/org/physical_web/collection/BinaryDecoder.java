@@ -0,0 +1,183 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the compact binary serialization written by BinaryEncoder.
+ */
+class BinaryDecoder {
+  private static final int MAX_NESTING_DEPTH = 64;
+  // Arrays longer than this grow as their bytes arrive, so a corrupt length cannot exhaust memory.
+  private static final int READ_CHUNK_BYTES = 64 * 1024;
+  private final DataInputStream mInput;
+  private final List<String> mStringTable;
+  private final int mFormatVersion;
+
+  /**
+   * Construct a BinaryDecoder and read the stream header.
+   * @param is The stream to read from.  Callers should buffer it.
+   * @throws IOException if the stream cannot be read or is not a binary serialization.
+   */
+  BinaryDecoder(InputStream is) throws IOException {
+    mInput = new DataInputStream(is);
+    mStringTable = new ArrayList<>();
+    if (mInput.readInt() != BinaryEncoder.MAGIC) {
+      throw new IOException("Not a binary Physical Web serialization");
+    }
+    mFormatVersion = readInt();
+  }
+
+  /**
+   * Get the format version of the stream.
+   * @return the version recorded in the stream header.
+   */
+  int getFormatVersion() {
+    return mFormatVersion;
+  }
+
+  /**
+   * Check that this library can read the stream.
+   * @throws IOException if the stream was written by a newer format version.
+   */
+  void checkFormatVersion() throws IOException {
+    if (mFormatVersion > BinaryEncoder.FORMAT_VERSION) {
+      throw new IOException("Cannot handle binary format version " + mFormatVersion);
+    }
+  }
+
+  /**
+   * Read a non-negative int.
+   * @return the value.
+   * @throws IOException on error
+   */
+  int readInt() throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = mInput.readUnsignedByte();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          break;
+        }
+        return value;
+      }
+    }
+    throw new IOException("Malformed integer");
+  }
+
+  /**
+   * Read a string, which may be null.
+   * @return the string.
+   * @throws IOException on error
+   */
+  String readString() throws IOException {
+    int index = readInt();
+    if (index == BinaryEncoder.NULL_STRING) {
+      return null;
+    }
+    if (index <= mStringTable.size()) {
+      return mStringTable.get(index - 1);
+    }
+    if (index != mStringTable.size() + 1) {
+      throw new IOException("Malformed string reference " + index);
+    }
+    String value = new String(readBytes(), BinaryEncoder.UTF_8);
+    mStringTable.add(value);
+    return value;
+  }
+
+  /**
+   * Read a byte array.
+   * @return the bytes.
+   * @throws IOException on error
+   */
+  byte[] readBytes() throws IOException {
+    int length = readInt();
+    byte[] value = new byte[Math.min(length, READ_CHUNK_BYTES)];
+    mInput.readFully(value);
+    while (value.length < length) {
+      int read = value.length;
+      value = Arrays.copyOf(value, (int) Math.min(length, 2L * read));
+      mInput.readFully(value, read, value.length - read);
+    }
+    return value;
+  }
+
+  /**
+   * Read the contents of a JSON object.
+   * @return the object.
+   * @throws IOException on error
+   */
+  JSONObject readJsonObject() throws IOException {
+    return readJsonObject(0);
+  }
+
+  private JSONObject readJsonObject(int depth) throws IOException {
+    JSONObject jsonObject = new JSONObject();
+    int length = readInt();
+    for (int i = 0; i < length; i++) {
+      String key = readString();
+      if (key == null) {
+        throw new IOException("Malformed JSON object key");
+      }
+      jsonObject.put(key, readValue(depth + 1));
+    }
+    return jsonObject;
+  }
+
+  private Object readValue(int depth) throws IOException {
+    if (depth > MAX_NESTING_DEPTH) {
+      throw new IOException("JSON value nested too deeply");
+    }
+    int type = readInt();
+    switch (type) {
+      case BinaryEncoder.TYPE_NULL:
+        return JSONObject.NULL;
+      case BinaryEncoder.TYPE_BOOLEAN:
+        return mInput.readBoolean();
+      case BinaryEncoder.TYPE_INT:
+        return mInput.readInt();
+      case BinaryEncoder.TYPE_LONG:
+        return mInput.readLong();
+      case BinaryEncoder.TYPE_DOUBLE:
+        return mInput.readDouble();
+      case BinaryEncoder.TYPE_STRING:
+        String value = readString();
+        return value == null ? JSONObject.NULL : value;
+      case BinaryEncoder.TYPE_JSON_OBJECT:
+        return readJsonObject(depth);
+      case BinaryEncoder.TYPE_JSON_ARRAY:
+        JSONArray jsonArray = new JSONArray();
+        int length = readInt();
+        for (int i = 0; i < length; i++) {
+          jsonArray.put(readValue(depth + 1));
+        }
+        return jsonArray;
+      default:
+        throw new IOException("Unknown value type " + type);
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Writes the compact binary serialization read by BinaryDecoder.
+ * A stream starts with a magic number and a format version.  Integers are written as unsigned
+ * variable-length quantities.  Each distinct string is written once, UTF-8 encoded and prefixed
+ * with its length; later occurrences refer back to it by index.  Byte arrays are written raw,
+ * prefixed with their length.
+ */
+class BinaryEncoder {
+  static final int MAGIC = 0x50574231;  // "PWB1"
+  static final int FORMAT_VERSION = 1;
+  static final int NULL_STRING = 0;
+  static final int TYPE_NULL = 0;
+  static final int TYPE_BOOLEAN = 1;
+  static final int TYPE_INT = 2;
+  static final int TYPE_LONG = 3;
+  static final int TYPE_DOUBLE = 4;
+  static final int TYPE_STRING = 5;
+  static final int TYPE_JSON_OBJECT = 6;
+  static final int TYPE_JSON_ARRAY = 7;
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+  private final DataOutputStream mOutput;
+  private final Map<String, Integer> mStringTable;
+
+  /**
+   * Construct a BinaryEncoder and write the stream header.
+   * @param os The stream to write to.  Callers should buffer it.
+   * @throws IOException on error
+   */
+  BinaryEncoder(OutputStream os) throws IOException {
+    mOutput = new DataOutputStream(os);
+    mStringTable = new HashMap<>();
+    mOutput.writeInt(MAGIC);
+    writeInt(FORMAT_VERSION);
+  }
+
+  /**
+   * Write a non-negative int.
+   * @param value The value.
+   * @throws IOException on error
+   */
+  void writeInt(int value) throws IOException {
+    if (value < 0) {
+      throw new IllegalArgumentException("Cannot encode negative value " + value);
+    }
+    while ((value & ~0x7f) != 0) {
+      mOutput.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    mOutput.writeByte(value);
+  }
+
+  /**
+   * Write a string, which may be null.
+   * @param value The string.
+   * @throws IOException on error
+   */
+  void writeString(String value) throws IOException {
+    if (value == null) {
+      writeInt(NULL_STRING);
+      return;
+    }
+    Integer index = mStringTable.get(value);
+    if (index != null) {
+      writeInt(index);
+      return;
+    }
+    // A new string takes the next index, so the decoder can build the same table.
+    index = mStringTable.size() + 1;
+    mStringTable.put(value, index);
+    writeInt(index);
+    writeBytes(value.getBytes(UTF_8));
+  }
+
+  /**
+   * Write a byte array.
+   * @param value The bytes.
+   * @throws IOException on error
+   */
+  void writeBytes(byte[] value) throws IOException {
+    writeInt(value.length);
+    mOutput.write(value);
+  }
+
+  /**
+   * Write the contents of a JSON object with each value tagged by its type.
+   * @param jsonObject The object.
+   * @throws IOException on error
+   */
+  void writeJsonObject(JSONObject jsonObject) throws IOException {
+    writeInt(jsonObject.length());
+    for (Iterator<?> keys = jsonObject.keys(); keys.hasNext();) {
+      String key = (String) keys.next();
+      writeString(key);
+      writeValue(jsonObject.get(key));
+    }
+  }
+
+  private void writeValue(Object value) throws IOException {
+    if (value instanceof Boolean) {
+      writeInt(TYPE_BOOLEAN);
+      mOutput.writeBoolean((Boolean) value);
+    } else if (value instanceof Integer) {
+      writeInt(TYPE_INT);
+      mOutput.writeInt((Integer) value);
+    } else if (value instanceof Long) {
+      writeInt(TYPE_LONG);
+      mOutput.writeLong((Long) value);
+    } else if (value instanceof Number) {
+      writeInt(TYPE_DOUBLE);
+      mOutput.writeDouble(((Number) value).doubleValue());
+    } else if (value instanceof String) {
+      writeInt(TYPE_STRING);
+      writeString((String) value);
+    } else if (value instanceof JSONObject) {
+      writeInt(TYPE_JSON_OBJECT);
+      writeJsonObject((JSONObject) value);
+    } else if (value instanceof JSONArray) {
+      JSONArray jsonArray = (JSONArray) value;
+      writeInt(TYPE_JSON_ARRAY);
+      writeInt(jsonArray.length());
+      for (int i = 0; i < jsonArray.length(); i++) {
+        writeValue(jsonArray.get(i));
+      }
+    } else {
+      writeInt(TYPE_NULL);
+    }
+  }
+
+  /**
+   * Write out any data held by the underlying streams.
+   * @throws IOException on error
+   */
+  void flush() throws IOException {
+    mOutput.flush();
+  }
+}
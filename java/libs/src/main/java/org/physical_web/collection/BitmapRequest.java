@@ -15,7 +15,6 @@
  */
 package org.physical_web.collection;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
@@ -55,12 +54,6 @@ class BitmapRequest extends Request<byte[]> {
    * @return The decoded image.
    */
   protected byte[] readInputStream(InputStream is) throws IOException {
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
-    byte[] buffer = new byte[1024];
-    int len;
-    while ((len = is.read(buffer)) != -1) {
-      os.write(buffer, 0, len);
-    }
-    return os.toByteArray();
+    return readFully(is);
   }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates named daemon threads so that the library never keeps the JVM alive.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+  private static final long IDLE_SCHEDULER_TIMEOUT_SECONDS = 30;
+  private final String mNamePrefix;
+  private final AtomicInteger mThreadCount;
+
+  /**
+   * Construct a DaemonThreadFactory.
+   * @param namePrefix The prefix of the names of created threads.
+   */
+  DaemonThreadFactory(String namePrefix) {
+    mNamePrefix = namePrefix;
+    mThreadCount = new AtomicInteger();
+  }
+
+  /**
+   * Create a single-threaded scheduler whose thread exits once it has been idle for a while.
+   * Owners of such a scheduler therefore never need to shut it down.
+   * @param namePrefix The prefix of the name of the scheduler's thread.
+   * @return The new scheduler.
+   */
+  static ScheduledExecutorService newIdleScheduler(String namePrefix) {
+    ScheduledThreadPoolExecutor scheduler =
+        new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory(namePrefix));
+    scheduler.setKeepAliveTime(IDLE_SCHEDULER_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    scheduler.allowCoreThreadTimeOut(true);
+    scheduler.setRemoveOnCancelPolicy(true);
+    return scheduler;
+  }
+
+  @Override
+  public Thread newThread(Runnable runnable) {
+    Thread thread = new Thread(runnable, mNamePrefix + "-" + mThreadCount.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks when devices were last seen and finds those that have been idle for longer than the
+ * time to live of their device type.
+ * Devices are kept in a hashed timing wheel: a ring of slots, each holding the devices due to
+ * expire during one tick.  The wheel only advances when expire is called, and then only visits
+ * the slots of the ticks that passed, so a device costs O(1) to expire rather than a scan of every
+ * device.  Seeing a device again only moves its deadline; the device stays in its old slot and is
+ * moved to the right one when that slot comes due.
+ * This class is not thread-safe.
+ */
+class DeviceExpiryWheel {
+  private static final long DEFAULT_TICK_MILLIS = 1000;
+  private static final int DEFAULT_SLOT_COUNT = 64;
+  private final long mTickMillis;
+  private final Entry[] mSlots;
+  private final int mMask;
+  private final Map<String, Entry> mEntries;
+  private final Map<String, Long> mTtlMillisByDeviceType;
+  private long mDefaultTtlMillis;
+  private long mNextTick;
+
+  private static class Entry {
+    final String deviceId;
+    String deviceType;
+    long lastSeenMillis;
+    // The tick of the slot holding the entry, or -1 if it is in no slot.
+    long tick;
+    Entry previous;
+    Entry next;
+
+    Entry(String deviceId) {
+      this.deviceId = deviceId;
+      tick = -1;
+    }
+  }
+
+  /**
+   * Construct a DeviceExpiryWheel with one-second ticks.
+   */
+  DeviceExpiryWheel() {
+    this(DEFAULT_TICK_MILLIS, DEFAULT_SLOT_COUNT);
+  }
+
+  /**
+   * Construct a DeviceExpiryWheel.
+   * @param tickMillis The length of a tick, which bounds how late a device is expired.
+   * @param slotCount The number of slots, rounded up to a power of two.
+   */
+  DeviceExpiryWheel(long tickMillis, int slotCount) {
+    if (tickMillis <= 0 || slotCount <= 0) {
+      throw new IllegalArgumentException("tickMillis and slotCount must be positive");
+    }
+    int size = Integer.highestOneBit(slotCount);
+    if (size < slotCount) {
+      size <<= 1;
+    }
+    mTickMillis = tickMillis;
+    mSlots = new Entry[size];
+    mMask = size - 1;
+    mEntries = new HashMap<>();
+    mTtlMillisByDeviceType = new HashMap<>();
+    mDefaultTtlMillis = 0;
+    mNextTick = -1;
+  }
+
+  /**
+   * Set the time to live of devices whose type has none of its own.
+   * @param ttlMillis How long a device may go unseen, or 0 to keep such devices forever.
+   */
+  void setDefaultTtl(long ttlMillis) {
+    mDefaultTtlMillis = Math.max(0, ttlMillis);
+    rescheduleAll();
+  }
+
+  /**
+   * Set the time to live of devices of one type.
+   * @param deviceType The device type, as returned by UrlDevice.getDeviceType.
+   * @param ttlMillis How long a device may go unseen, 0 to keep such devices forever, or a
+   *     negative value to use the default.
+   */
+  void setTtl(String deviceType, long ttlMillis) {
+    if (ttlMillis < 0) {
+      mTtlMillisByDeviceType.remove(deviceType);
+    } else {
+      mTtlMillisByDeviceType.put(deviceType, ttlMillis);
+    }
+    rescheduleAll();
+  }
+
+  /**
+   * Get the time to live of devices of a type.
+   * @param deviceType The device type, which may be null.
+   * @return the time to live in milliseconds, or 0 if such devices never expire.
+   */
+  long getTtl(String deviceType) {
+    Long ttlMillis = mTtlMillisByDeviceType.get(deviceType);
+    return ttlMillis == null ? mDefaultTtlMillis : ttlMillis;
+  }
+
+  /**
+   * Record that a device was seen.
+   * @param deviceId The ID of the device.
+   * @param deviceType The type of the device, which may be null.
+   * @param nowMillis The time the device was seen.
+   */
+  void touch(String deviceId, String deviceType, long nowMillis) {
+    Entry entry = mEntries.get(deviceId);
+    if (entry == null) {
+      entry = new Entry(deviceId);
+      mEntries.put(deviceId, entry);
+    }
+    String oldDeviceType = entry.deviceType;
+    entry.deviceType = deviceType;
+    entry.lastSeenMillis = nowMillis;
+    if (mNextTick < 0) {
+      mNextTick = nowMillis / mTickMillis;
+    }
+
+    // A later deadline is picked up when the entry's slot comes due.  Only a new type, whose time
+    // to live may be shorter, needs the entry moved now.
+    if (entry.tick < 0 || (oldDeviceType == null ? deviceType != null
+                                                 : !oldDeviceType.equals(deviceType))) {
+      schedule(entry);
+    }
+  }
+
+  /**
+   * Stop tracking a device.
+   * @param deviceId The ID of the device.
+   */
+  void remove(String deviceId) {
+    Entry entry = mEntries.remove(deviceId);
+    if (entry != null) {
+      unlink(entry);
+    }
+  }
+
+  /**
+   * Get the time a device was last seen.
+   * @param deviceId The ID of the device.
+   * @return the time in milliseconds, or -1 if the device is not tracked.
+   */
+  long getLastSeenMillis(String deviceId) {
+    Entry entry = mEntries.get(deviceId);
+    return entry == null ? -1 : entry.lastSeenMillis;
+  }
+
+  /**
+   * Get the number of tracked devices.
+   * @return the number of devices.
+   */
+  int size() {
+    return mEntries.size();
+  }
+
+  /**
+   * Advance the wheel to the given time and stop tracking the devices that expired.
+   * @param nowMillis The current time.
+   * @return the IDs of the expired devices.
+   */
+  List<String> expire(long nowMillis) {
+    List<String> expiredDeviceIds = new ArrayList<>();
+    if (mNextTick < 0) {
+      return expiredDeviceIds;
+    }
+    long nowTick = nowMillis / mTickMillis;
+    // A full turn visits every slot, so there is no need to go round more than once.
+    long lastTick = Math.min(nowTick, mNextTick + mMask);
+    for (long tick = mNextTick; tick <= lastTick; tick++) {
+      int slot = (int) (tick & mMask);
+      Entry entry = mSlots[slot];
+      mSlots[slot] = null;
+      while (entry != null) {
+        Entry next = entry.next;
+        entry.previous = null;
+        entry.next = null;
+        entry.tick = -1;
+        if (entry.lastSeenMillis + getTtl(entry.deviceType) <= nowMillis) {
+          mEntries.remove(entry.deviceId);
+          expiredDeviceIds.add(entry.deviceId);
+        } else {
+          schedule(entry);
+        }
+        entry = next;
+      }
+    }
+    // The current tick is visited again next time, since devices due later in it remain.
+    mNextTick = Math.max(mNextTick, nowTick);
+    return expiredDeviceIds;
+  }
+
+  /**
+   * Stop tracking every device.
+   */
+  void clear() {
+    for (int i = 0; i < mSlots.length; i++) {
+      mSlots[i] = null;
+    }
+    mEntries.clear();
+    mNextTick = -1;
+  }
+
+  /**
+   * Put an entry in the slot of its deadline, or in no slot if it never expires.
+   */
+  private void schedule(Entry entry) {
+    unlink(entry);
+    long ttlMillis = getTtl(entry.deviceType);
+    if (ttlMillis <= 0) {
+      return;
+    }
+    long tick = Math.max((entry.lastSeenMillis + ttlMillis) / mTickMillis, mNextTick);
+    int slot = (int) (tick & mMask);
+    entry.tick = tick;
+    entry.next = mSlots[slot];
+    if (entry.next != null) {
+      entry.next.previous = entry;
+    }
+    mSlots[slot] = entry;
+  }
+
+  private void unlink(Entry entry) {
+    if (entry.tick < 0) {
+      return;
+    }
+    if (entry.previous == null) {
+      mSlots[(int) (entry.tick & mMask)] = entry.next;
+    } else {
+      entry.previous.next = entry.next;
+    }
+    if (entry.next != null) {
+      entry.next.previous = entry.previous;
+    }
+    entry.previous = null;
+    entry.next = null;
+    entry.tick = -1;
+  }
+
+  private void rescheduleAll() {
+    for (Entry entry : mEntries.values()) {
+      schedule(entry);
+    }
+  }
+}
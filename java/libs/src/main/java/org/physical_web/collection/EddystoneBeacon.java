@@ -16,13 +16,8 @@
 package org.physical_web.collection;
 
 
-import java.nio.BufferUnderflowException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.UUID;
 
 /**
  * Eddystone beacon class.
@@ -30,33 +25,32 @@ import java.util.UUID;
  */
 public class EddystoneBeacon {
   private static final byte URL_FRAME_TYPE = 0x10;
-  private static final byte TITLE_TYPE = 0x0e;
+  static final byte TITLE_TYPE = 0x0e;
   private static final String URN_UUID = "urn:uuid:";
 
-  private static final HashMap<Byte, String> URI_SCHEMES = new HashMap<Byte, String>() {{
-    put((byte) 0, "http://www.");
-    put((byte) 1, "https://www.");
-    put((byte) 2, "http://");
-    put((byte) 3, "https://");
-    put((byte) 4, URN_UUID);
-  }};
-
-  private static final HashMap<Byte, String> URL_CODES = new HashMap<Byte, String>() {{
-    put((byte) 0, ".com/");
-    put((byte) 1, ".org/");
-    put((byte) 2, ".edu/");
-    put((byte) 3, ".net/");
-    put((byte) 4, ".info/");
-    put((byte) 5, ".biz/");
-    put((byte) 6, ".gov/");
-    put((byte) 7, ".com");
-    put((byte) 8, ".org");
-    put((byte) 9, ".edu");
-    put((byte) 10, ".net");
-    put((byte) 11, ".info");
-    put((byte) 12, ".biz");
-    put((byte) 13, ".gov");
-  }};
+  // Expansions indexed by their code byte; codes outside the tables are literal characters.
+  private static final String[] URI_SCHEMES = {
+    "http://www.", "https://www.", "http://", "https://", URN_UUID
+  };
+  private static final int URN_UUID_SCHEME = 4;
+  private static final int UUID_LENGTH = 16;
+  private static final char[][] URL_CODES = {
+    ".com/".toCharArray(), ".org/".toCharArray(), ".edu/".toCharArray(),
+    ".net/".toCharArray(), ".info/".toCharArray(), ".biz/".toCharArray(),
+    ".gov/".toCharArray(), ".com".toCharArray(), ".org".toCharArray(),
+    ".edu".toCharArray(), ".net".toCharArray(), ".info".toCharArray(),
+    ".biz".toCharArray(), ".gov".toCharArray()
+  };
+  private static final int MAX_URL_CODE_LENGTH = 6;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final int INITIAL_BUFFER_SIZE = 128;
+  // Reused by each thread to build URLs, so that decoding allocates only the resulting String.
+  private static final ThreadLocal<char[]> URL_BUFFER = new ThreadLocal<char[]>() {
+    @Override
+    protected char[] initialValue() {
+      return new char[INITIAL_BUFFER_SIZE];
+    }
+  };
 
   private final byte mFlags;
   private final byte mTxPower;
@@ -110,19 +104,63 @@ public class EddystoneBeacon {
    * @return EddystoneBeacon with flags, tx Power level and url parsed from the service data
    */
   public static EddystoneBeacon parseFromServiceData(byte[] urlServiceData, byte[] uriServiceData) {
-    if (urlServiceData != null && urlServiceData.length > 2) {
-      byte flags = (byte) (urlServiceData[0] & 0x0f);
-      byte txPowerLevel = urlServiceData[1];
-      return eddystoneBeaconBuilder(flags, txPowerLevel, decode(urlServiceData));
+    if (isUrlServiceData(urlServiceData)) {
+      return parseUrlServiceData(urlServiceData, 0, urlServiceData.length);
     }
     if (uriServiceData != null && uriServiceData.length > 2) {
-      byte flags = uriServiceData[0];
-      byte txPowerLevel = uriServiceData[1];
-      return eddystoneBeaconBuilder(flags, txPowerLevel, decode(uriServiceData));
+      return parseUriServiceData(uriServiceData, 0, uriServiceData.length);
     }
     return null;
   }
 
+  /**
+   * Parses Eddystone URL service data held in part of a larger array, such as a raw scan record.
+   * @param data The array holding the service data
+   * @param offset The index of the first byte of the service data, which is the frame type
+   * @param length The length of the service data
+   * @return EddystoneBeacon parsed from the service data, or null if it is not a URL frame or
+   *     holds no URL
+   */
+  public static EddystoneBeacon parseUrlServiceData(byte[] data, int offset, int length) {
+    checkSlice(data, offset, length);
+    if (EddystoneFrameParser.getFrameType(data, offset, length)
+        != EddystoneFrameParser.FRAME_TYPE_URL) {
+      return null;
+    }
+    byte flags = (byte) (data[offset] & 0x0f);
+    return eddystoneBeaconBuilder(flags, data[offset + 1], decode(data, offset, length));
+  }
+
+  /**
+   * Parses URI Beacon service data held in part of a larger array, such as a raw scan record.
+   * @param data The array holding the service data
+   * @param offset The index of the first byte of the service data, which is the flags
+   * @param length The length of the service data
+   * @return EddystoneBeacon parsed from the service data, or null if it holds no URI
+   */
+  public static EddystoneBeacon parseUriServiceData(byte[] data, int offset, int length) {
+    checkSlice(data, offset, length);
+    if (length <= 2) {
+      return null;
+    }
+    return eddystoneBeaconBuilder(data[offset], data[offset + 1], decode(data, offset, length));
+  }
+
+  /**
+   * Check whether Eddystone service data holds a URL frame rather than another frame type.
+   */
+  static boolean isUrlServiceData(byte[] serviceData) {
+    return serviceData != null && EddystoneFrameParser.getFrameType(serviceData, 0,
+        serviceData.length) == EddystoneFrameParser.FRAME_TYPE_URL;
+  }
+
+  private static void checkSlice(byte[] data, int offset, int length) {
+    if (offset < 0 || length < 0 || offset > data.length - length) {
+      throw new IndexOutOfBoundsException("Invalid slice " + offset + "+" + length + " of "
+          + data.length + " bytes");
+    }
+  }
+
   private static EddystoneBeacon eddystoneBeaconBuilder(byte flags, byte txPower, String url) {
     if (url == null || url.isEmpty()) {
       return null;
@@ -130,50 +168,66 @@ public class EddystoneBeacon {
     return new EddystoneBeacon(flags, txPower, url);
   }
 
-  private static String decode(byte[] serviceData) {
-    StringBuilder urlBuilder = new StringBuilder();
-    String scheme = URI_SCHEMES.get(serviceData[2]);
-    if (scheme != null) {
-      urlBuilder.append(scheme);
-      if (scheme.equals(URN_UUID)) {
-        return decodeUrnUuid(serviceData, urlBuilder);
+  /**
+   * Decode the URL of a frame whose scheme code is at offset + 2.
+   * @return the URL, an empty string for a truncated UUID, or null for an unknown scheme
+   */
+  private static String decode(byte[] data, int offset, int length) {
+    int schemeCode = data[offset + 2];
+    if (schemeCode < 0 || schemeCode >= URI_SCHEMES.length) {
+      return null;
+    }
+    String scheme = URI_SCHEMES[schemeCode];
+    int start = offset + 3;
+    int end = offset + length;
+    if (schemeCode == URN_UUID_SCHEME) {
+      if (end - start < UUID_LENGTH) {
+        return "";
       }
-      return decodeUrl(serviceData, urlBuilder);
+      // Only the first 16 bytes after the scheme are part of the UUID.
+      end = start + UUID_LENGTH;
     }
 
-    return null;
-  }
-
-  private static String decodeUrl(byte[] serviceData, StringBuilder urlBuilder) {
-    for (int i = 3; i < serviceData.length; i++) {
-      byte b = serviceData[i];
-      String expansion = URL_CODES.get(b);
-      if (expansion == null) {
-        urlBuilder.append((char) b);
-      } else {
-        urlBuilder.append(expansion);
+    int capacity = scheme.length() + (end - start) * MAX_URL_CODE_LENGTH;
+    char[] buffer = URL_BUFFER.get();
+    if (buffer.length < capacity) {
+      buffer = new char[capacity];
+      URL_BUFFER.set(buffer);
+    }
+    scheme.getChars(0, scheme.length(), buffer, 0);
+    int position = scheme.length();
+    if (schemeCode == URN_UUID_SCHEME) {
+      position = appendUuid(data, start, buffer, position);
+    } else {
+      for (int i = start; i < end; i++) {
+        byte b = data[i];
+        if (b >= 0 && b < URL_CODES.length) {
+          char[] expansion = URL_CODES[b];
+          System.arraycopy(expansion, 0, buffer, position, expansion.length);
+          position += expansion.length;
+        } else {
+          buffer[position++] = (char) b;
+        }
       }
     }
-    return urlBuilder.toString();
+    return new String(buffer, 0, position);
   }
 
-  private static String decodeUrnUuid(byte[] serviceData, StringBuilder urnBuilder) {
-    ByteBuffer buf = ByteBuffer.wrap(serviceData);
-    buf.order(ByteOrder.BIG_ENDIAN);
-    long mostSignificantBytes, leastSignificantBytes;
-    try {
-      buf.position(3);
-      mostSignificantBytes = buf.getLong();
-      leastSignificantBytes = buf.getLong();
-    } catch (BufferUnderflowException e){
-      return "";
+  /**
+   * Write 16 bytes as a UUID in its canonical 8-4-4-4-12 form.
+   */
+  private static int appendUuid(byte[] data, int start, char[] buffer, int position) {
+    for (int i = 0; i < UUID_LENGTH; i++) {
+      if (i == 4 || i == 6 || i == 8 || i == 10) {
+        buffer[position++] = '-';
+      }
+      int b = data[start + i] & 0xff;
+      buffer[position++] = HEX_DIGITS[b >> 4];
+      buffer[position++] = HEX_DIGITS[b & 0x0f];
     }
-    UUID uuid = new UUID(mostSignificantBytes, leastSignificantBytes);
-    urnBuilder.append(uuid.toString());
-    return urnBuilder.toString();
+    return position;
   }
 
-
   /**
    * Getter for the Eddystone URL.
    * @return Eddystone URL
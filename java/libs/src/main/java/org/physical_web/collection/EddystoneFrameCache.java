@@ -0,0 +1,230 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+/**
+ * Small cache of decoded Eddystone URL and UriBeacon frames.
+ * Beacons advertise the same service data many times per second, so a repeated frame is answered
+ * with the EddystoneBeacon decoded the first time, at the cost of a hash and a byte comparison.
+ * The cache is direct-mapped: each frame has a single slot chosen by its hash, and a new frame
+ * replaces whatever the slot held.
+ */
+public class EddystoneFrameCache {
+  private static final int DEFAULT_CAPACITY = 32;
+  private static final int MAX_CAPACITY = 1 << 16;
+  private final int mMask;
+  private final byte[][] mFrames;
+  private final int[] mFrameLengths;
+  private final int[] mHashes;
+  private final boolean[] mUriFrames;
+  private final EddystoneBeacon[] mBeacons;
+  private long mHitCount;
+  private long mMissCount;
+  private long mEvictionCount;
+  private MetricsRecorder mMetricsRecorder;
+
+  /**
+   * Construct an EddystoneFrameCache holding up to 32 frames.
+   */
+  public EddystoneFrameCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Construct an EddystoneFrameCache.
+   * @param capacity The number of frames the cache may hold, rounded up to a power of two.
+   */
+  public EddystoneFrameCache(int capacity) {
+    if (capacity <= 0 || capacity > MAX_CAPACITY) {
+      throw new IllegalArgumentException("capacity must be between 1 and " + MAX_CAPACITY);
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    mMask = size - 1;
+    mFrames = new byte[size][];
+    mFrameLengths = new int[size];
+    mHashes = new int[size];
+    mUriFrames = new boolean[size];
+    mBeacons = new EddystoneBeacon[size];
+    mMetricsRecorder = new MetricsRecorder();
+  }
+
+  /**
+   * Set the recorder that receives hits, misses and evictions.
+   * @param metricsRecorder The recorder, or null to stop recording.
+   */
+  public synchronized void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+    mMetricsRecorder = metricsRecorder == null ? new MetricsRecorder() : metricsRecorder;
+  }
+
+  /**
+   * Parses the service data for URLs or URIs, as EddystoneBeacon.parseFromServiceData does.
+   * @param urlServiceData The ble advertised Eddystone URL Service UUID service data
+   * @param uriServiceData The ble advertised URI Beacon Service UUID service data
+   * @return EddystoneBeacon with flags, tx Power level and url parsed from the service data
+   */
+  public EddystoneBeacon parseFromServiceData(byte[] urlServiceData, byte[] uriServiceData) {
+    if (EddystoneBeacon.isUrlServiceData(urlServiceData)) {
+      return parseUrlServiceData(urlServiceData, 0, urlServiceData.length);
+    }
+    if (uriServiceData != null && uriServiceData.length > 2) {
+      return parseUriServiceData(uriServiceData, 0, uriServiceData.length);
+    }
+    return null;
+  }
+
+  /**
+   * Parses Eddystone URL service data, as EddystoneBeacon.parseUrlServiceData does.
+   * @param data The array holding the service data
+   * @param offset The index of the first byte of the service data
+   * @param length The length of the service data
+   * @return EddystoneBeacon parsed from the service data, or null if it is not a URL frame or
+   *     holds no URL
+   */
+  public EddystoneBeacon parseUrlServiceData(byte[] data, int offset, int length) {
+    return parse(data, offset, length, false);
+  }
+
+  /**
+   * Parses URI Beacon service data, as EddystoneBeacon.parseUriServiceData does.
+   * @param data The array holding the service data
+   * @param offset The index of the first byte of the service data
+   * @param length The length of the service data
+   * @return EddystoneBeacon parsed from the service data, or null if it holds no URI
+   */
+  public EddystoneBeacon parseUriServiceData(byte[] data, int offset, int length) {
+    return parse(data, offset, length, true);
+  }
+
+  /**
+   * Remove all frames from the cache.  The counters are not reset.
+   */
+  public synchronized void clear() {
+    for (int i = 0; i <= mMask; i++) {
+      mFrames[i] = null;
+      mBeacons[i] = null;
+    }
+  }
+
+  /**
+   * Get the number of frames the cache may hold.
+   * @return the capacity.
+   */
+  public int getCapacity() {
+    return mMask + 1;
+  }
+
+  /**
+   * Get the number of frames answered from the cache.
+   * @return the hit count.
+   */
+  public synchronized long getHitCount() {
+    return mHitCount;
+  }
+
+  /**
+   * Get the number of frames that had to be decoded.
+   * @return the miss count.
+   */
+  public synchronized long getMissCount() {
+    return mMissCount;
+  }
+
+  /**
+   * Get the number of frames replaced by a different frame with the same slot.
+   * @return the eviction count.
+   */
+  public synchronized long getEvictionCount() {
+    return mEvictionCount;
+  }
+
+  private EddystoneBeacon parse(byte[] data, int offset, int length, boolean uriFrame) {
+    if (offset < 0 || length < 0 || offset > data.length - length) {
+      throw new IndexOutOfBoundsException("Invalid slice " + offset + "+" + length + " of "
+          + data.length + " bytes");
+    }
+    // Other Eddystone frames, such as TLM, change with every advertisement and are not cached.
+    if (length <= 2 || (!uriFrame && EddystoneFrameParser.getFrameType(data, offset, length)
+        != EddystoneFrameParser.FRAME_TYPE_URL)) {
+      return null;
+    }
+    int hash = hash(data, offset, length, uriFrame);
+    int slot = (hash ^ (hash >>> 16)) & mMask;
+    synchronized (this) {
+      byte[] frame = mFrames[slot];
+      if (frame != null && mHashes[slot] == hash && mUriFrames[slot] == uriFrame
+          && matches(frame, mFrameLengths[slot], data, offset, length)) {
+        mHitCount++;
+        mMetricsRecorder.recordCacheHit(MetricsRecorder.FRAME_CACHE);
+        return mBeacons[slot];
+      }
+      mMissCount++;
+      mMetricsRecorder.recordCacheMiss(MetricsRecorder.FRAME_CACHE);
+    }
+
+    // Decode outside the lock so that other frames are not held up.
+    EddystoneBeacon beacon = uriFrame
+        ? EddystoneBeacon.parseUriServiceData(data, offset, length)
+        : EddystoneBeacon.parseUrlServiceData(data, offset, length);
+
+    synchronized (this) {
+      byte[] frame = mFrames[slot];
+      if (frame != null && mHashes[slot] == hash && mUriFrames[slot] == uriFrame
+          && matches(frame, mFrameLengths[slot], data, offset, length)) {
+        // Another thread decoded the same frame meanwhile; share its beacon.
+        return mBeacons[slot];
+      }
+      if (frame != null) {
+        mEvictionCount++;
+        mMetricsRecorder.recordCacheEviction(MetricsRecorder.FRAME_CACHE);
+      }
+      // Reuse the slot's array when the new frame fits, since frames are usually the same size.
+      if (frame == null || frame.length < length) {
+        frame = new byte[length];
+      }
+      System.arraycopy(data, offset, frame, 0, length);
+      mFrames[slot] = frame;
+      mFrameLengths[slot] = length;
+      mHashes[slot] = hash;
+      mUriFrames[slot] = uriFrame;
+      mBeacons[slot] = beacon;
+    }
+    return beacon;
+  }
+
+  private static int hash(byte[] data, int offset, int length, boolean uriFrame) {
+    int hash = uriFrame ? 1 : 0;
+    for (int i = offset; i < offset + length; i++) {
+      hash = 31 * hash + data[i];
+    }
+    return hash;
+  }
+
+  private static boolean matches(byte[] frame, int frameLength, byte[] data, int offset,
+                                 int length) {
+    if (frameLength != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (frame[i] != data[offset + i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+/**
+ * Parser for every type of Eddystone frame: UID, URL, TLM and EID.
+ * Parsing does not copy or allocate.  Instead, the parser keeps one view object per frame type,
+ * and parse() points the view for the parsed frame at the given bytes.  A view therefore reads the
+ * caller's array and is only valid until the next call to parse() or until the array changes.
+ * A parser is not thread-safe; use one per scanning thread.
+ */
+public class EddystoneFrameParser {
+  /**
+   * The frame type returned for service data that is not a valid Eddystone frame.
+   */
+  public static final int FRAME_TYPE_UNKNOWN = -1;
+
+  /**
+   * The frame type of Eddystone-UID frames.
+   */
+  public static final int FRAME_TYPE_UID = 0x00;
+
+  /**
+   * The frame type of Eddystone-URL frames, including FatBeacon frames.
+   */
+  public static final int FRAME_TYPE_URL = 0x10;
+
+  /**
+   * The frame type of Eddystone-TLM frames.
+   */
+  public static final int FRAME_TYPE_TLM = 0x20;
+
+  /**
+   * The frame type of Eddystone-EID frames.
+   */
+  public static final int FRAME_TYPE_EID = 0x30;
+
+  private static final int UID_FRAME_LENGTH = 18;
+  private static final int URL_FRAME_MIN_LENGTH = 3;
+  private static final int TLM_FRAME_LENGTH = 14;
+  private static final int EID_FRAME_LENGTH = 10;
+  private static final int NAMESPACE_ID_LENGTH = 10;
+  private static final int INSTANCE_ID_LENGTH = 6;
+  private static final int EPHEMERAL_ID_LENGTH = 8;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private final UidFrame mUidFrame = new UidFrame();
+  private final UrlFrame mUrlFrame = new UrlFrame();
+  private final TlmFrame mTlmFrame = new TlmFrame();
+  private final EidFrame mEidFrame = new EidFrame();
+  private int mFrameType = FRAME_TYPE_UNKNOWN;
+
+  /**
+   * Base class of the frame views.
+   */
+  public abstract static class Frame {
+    byte[] mData;
+    int mOffset;
+    int mLength;
+
+    void wrap(byte[] data, int offset, int length) {
+      mData = data;
+      mOffset = offset;
+      mLength = length;
+    }
+
+    /**
+     * Get the frame type.
+     * @return one of the FRAME_TYPE constants
+     */
+    public abstract int getFrameType();
+
+    /**
+     * Copy the bytes of the frame.
+     * @return a new array holding the service data of the frame
+     */
+    public byte[] toByteArray() {
+      byte[] bytes = new byte[mLength];
+      System.arraycopy(mData, mOffset, bytes, 0, mLength);
+      return bytes;
+    }
+
+    byte get(int index) {
+      return mData[mOffset + index];
+    }
+
+    int getUnsignedShort(int index) {
+      return ((get(index) & 0xff) << 8) | (get(index + 1) & 0xff);
+    }
+
+    long getUnsignedInt(int index) {
+      return ((long) getUnsignedShort(index) << 16) | getUnsignedShort(index + 2);
+    }
+
+    void copy(int index, int length, byte[] dest, int destOffset) {
+      System.arraycopy(mData, mOffset + index, dest, destOffset, length);
+    }
+
+    String toHex(int index, int length) {
+      char[] hex = new char[length * 2];
+      for (int i = 0; i < length; i++) {
+        int b = get(index + i) & 0xff;
+        hex[2 * i] = HEX_DIGITS[b >> 4];
+        hex[2 * i + 1] = HEX_DIGITS[b & 0x0f];
+      }
+      return new String(hex);
+    }
+  }
+
+  /**
+   * View of an Eddystone-UID frame, which holds a 10-byte namespace and a 6-byte instance.
+   */
+  public static final class UidFrame extends Frame {
+    UidFrame() {
+    }
+
+    @Override
+    public int getFrameType() {
+      return FRAME_TYPE_UID;
+    }
+
+    /**
+     * Get the calibrated transmit power at 0 m.
+     * @return the power in dBm
+     */
+    public byte getTxPowerLevel() {
+      return get(1);
+    }
+
+    /**
+     * Get the namespace as lowercase hex.
+     * @return 20 hex digits
+     */
+    public String getNamespaceId() {
+      return toHex(2, NAMESPACE_ID_LENGTH);
+    }
+
+    /**
+     * Get the instance as lowercase hex.
+     * @return 12 hex digits
+     */
+    public String getInstanceId() {
+      return toHex(2 + NAMESPACE_ID_LENGTH, INSTANCE_ID_LENGTH);
+    }
+
+    /**
+     * Copy the 10 namespace bytes without allocating.
+     * @param dest The array to copy to
+     * @param destOffset The index in dest of the first byte
+     */
+    public void copyNamespaceId(byte[] dest, int destOffset) {
+      copy(2, NAMESPACE_ID_LENGTH, dest, destOffset);
+    }
+
+    /**
+     * Copy the 6 instance bytes without allocating.
+     * @param dest The array to copy to
+     * @param destOffset The index in dest of the first byte
+     */
+    public void copyInstanceId(byte[] dest, int destOffset) {
+      copy(2 + NAMESPACE_ID_LENGTH, INSTANCE_ID_LENGTH, dest, destOffset);
+    }
+  }
+
+  /**
+   * View of an Eddystone-URL frame.
+   */
+  public static final class UrlFrame extends Frame {
+    UrlFrame() {
+    }
+
+    @Override
+    public int getFrameType() {
+      return FRAME_TYPE_URL;
+    }
+
+    /**
+     * Get the calibrated transmit power at 0 m.
+     * @return the power in dBm
+     */
+    public byte getTxPowerLevel() {
+      return get(1);
+    }
+
+    /**
+     * Get the flags held in the low bits of the frame type byte.
+     * @return the flags
+     */
+    public byte getFlags() {
+      return (byte) (get(0) & 0x0f);
+    }
+
+    /**
+     * Checks if the frame is a FatBeacon title rather than a URL.
+     * @return true if it is a fat beacon, false otherwise
+     */
+    public boolean isFatBeacon() {
+      return mLength > 3 && get(2) == EddystoneBeacon.TITLE_TYPE;
+    }
+
+    /**
+     * Decode the frame into an EddystoneBeacon.
+     * @return the beacon, or null if the frame holds no valid URL
+     */
+    public EddystoneBeacon toEddystoneBeacon() {
+      return EddystoneBeacon.parseUrlServiceData(mData, mOffset, mLength);
+    }
+  }
+
+  /**
+   * View of an Eddystone-TLM frame, which holds telemetry about the beacon.
+   * Only unencrypted frames can be read; the getters of an encrypted frame report that their
+   * value is not supported.
+   */
+  public static final class TlmFrame extends Frame {
+    private static final int UNENCRYPTED_VERSION = 0x00;
+    private static final int TEMPERATURE_NOT_SUPPORTED = 0x8000;
+
+    TlmFrame() {
+    }
+
+    @Override
+    public int getFrameType() {
+      return FRAME_TYPE_TLM;
+    }
+
+    /**
+     * Get the version of the TLM frame.
+     * @return 0 for unencrypted frames, 1 for encrypted frames
+     */
+    public int getVersion() {
+      return get(1) & 0xff;
+    }
+
+    /**
+     * Checks if the telemetry is encrypted.
+     * @return true if the telemetry cannot be read
+     */
+    public boolean isEncrypted() {
+      return getVersion() != UNENCRYPTED_VERSION;
+    }
+
+    /**
+     * Get the battery voltage.
+     * @return the voltage in mV, or 0 if the beacon does not report it
+     */
+    public int getBatteryMillivolts() {
+      return isEncrypted() ? 0 : getUnsignedShort(2);
+    }
+
+    /**
+     * Get the beacon temperature.
+     * @return the temperature in degrees Celsius, or NaN if the beacon does not report it
+     */
+    public float getTemperatureCelsius() {
+      if (isEncrypted()) {
+        return Float.NaN;
+      }
+      int temperature = getUnsignedShort(4);
+      if (temperature == TEMPERATURE_NOT_SUPPORTED) {
+        return Float.NaN;
+      }
+      // Signed 8.8 fixed point.
+      return (short) temperature / 256.0f;
+    }
+
+    /**
+     * Get the number of advertisements sent since the beacon powered up or rebooted.
+     * @return the count, or -1 if the telemetry is encrypted
+     */
+    public long getAdvertisementCount() {
+      return isEncrypted() ? -1 : getUnsignedInt(6);
+    }
+
+    /**
+     * Get the time since the beacon powered up or rebooted.
+     * @return the time in milliseconds, with a resolution of 100 ms, or -1 if the telemetry is
+     *     encrypted
+     */
+    public long getUptimeMillis() {
+      return isEncrypted() ? -1 : getUnsignedInt(10) * 100;
+    }
+  }
+
+  /**
+   * View of an Eddystone-EID frame, which holds an 8-byte rotating ephemeral identifier.
+   */
+  public static final class EidFrame extends Frame {
+    EidFrame() {
+    }
+
+    @Override
+    public int getFrameType() {
+      return FRAME_TYPE_EID;
+    }
+
+    /**
+     * Get the calibrated transmit power at 0 m.
+     * @return the power in dBm
+     */
+    public byte getTxPowerLevel() {
+      return get(1);
+    }
+
+    /**
+     * Get the ephemeral identifier as lowercase hex.
+     * @return 16 hex digits
+     */
+    public String getEphemeralId() {
+      return toHex(2, EPHEMERAL_ID_LENGTH);
+    }
+
+    /**
+     * Copy the 8 ephemeral identifier bytes without allocating.
+     * @param dest The array to copy to
+     * @param destOffset The index in dest of the first byte
+     */
+    public void copyEphemeralId(byte[] dest, int destOffset) {
+      copy(2, EPHEMERAL_ID_LENGTH, dest, destOffset);
+    }
+  }
+
+  /**
+   * Get the type of an Eddystone frame, checking that it is long enough for its type.
+   * @param data The array holding the service data
+   * @param offset The index of the first byte of the service data
+   * @param length The length of the service data
+   * @return one of the FRAME_TYPE constants, FRAME_TYPE_UNKNOWN if the frame is not valid
+   */
+  public static int getFrameType(byte[] data, int offset, int length) {
+    if (data == null || length <= 0) {
+      return FRAME_TYPE_UNKNOWN;
+    }
+    int frameType = data[offset] & 0xf0;
+    switch (frameType) {
+      case FRAME_TYPE_UID:
+        return length >= UID_FRAME_LENGTH ? frameType : FRAME_TYPE_UNKNOWN;
+      case FRAME_TYPE_URL:
+        return length >= URL_FRAME_MIN_LENGTH ? frameType : FRAME_TYPE_UNKNOWN;
+      case FRAME_TYPE_TLM:
+        return length >= TLM_FRAME_LENGTH ? frameType : FRAME_TYPE_UNKNOWN;
+      case FRAME_TYPE_EID:
+        return length >= EID_FRAME_LENGTH ? frameType : FRAME_TYPE_UNKNOWN;
+      default:
+        return FRAME_TYPE_UNKNOWN;
+    }
+  }
+
+  /**
+   * Parse the service data of an Eddystone frame.
+   * @param serviceData The ble advertised Eddystone Service UUID service data
+   * @return the frame type, FRAME_TYPE_UNKNOWN if the frame is not valid
+   */
+  public int parse(byte[] serviceData) {
+    return parse(serviceData, 0, serviceData == null ? 0 : serviceData.length);
+  }
+
+  /**
+   * Parse Eddystone service data held in part of a larger array, such as a raw scan record.
+   * @param data The array holding the service data
+   * @param offset The index of the first byte of the service data
+   * @param length The length of the service data
+   * @return the frame type, FRAME_TYPE_UNKNOWN if the frame is not valid
+   */
+  public int parse(byte[] data, int offset, int length) {
+    if (data != null && (offset < 0 || length < 0 || offset > data.length - length)) {
+      throw new IndexOutOfBoundsException("Invalid slice " + offset + "+" + length + " of "
+          + data.length + " bytes");
+    }
+    mFrameType = getFrameType(data, offset, length);
+    Frame frame = getFrame();
+    if (frame != null) {
+      frame.wrap(data, offset, length);
+    }
+    return mFrameType;
+  }
+
+  /**
+   * Get the type of the last parsed frame.
+   * @return one of the FRAME_TYPE constants
+   */
+  public int getFrameType() {
+    return mFrameType;
+  }
+
+  /**
+   * Get the view of the last parsed frame.
+   * @return the view, or null if the last frame was not valid
+   */
+  public Frame getFrame() {
+    switch (mFrameType) {
+      case FRAME_TYPE_UID:
+        return mUidFrame;
+      case FRAME_TYPE_URL:
+        return mUrlFrame;
+      case FRAME_TYPE_TLM:
+        return mTlmFrame;
+      case FRAME_TYPE_EID:
+        return mEidFrame;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Get the view of the last parsed frame, which must be a UID frame.
+   * @return the view
+   */
+  public UidFrame getUidFrame() {
+    checkFrameType(FRAME_TYPE_UID);
+    return mUidFrame;
+  }
+
+  /**
+   * Get the view of the last parsed frame, which must be a URL frame.
+   * @return the view
+   */
+  public UrlFrame getUrlFrame() {
+    checkFrameType(FRAME_TYPE_URL);
+    return mUrlFrame;
+  }
+
+  /**
+   * Get the view of the last parsed frame, which must be a TLM frame.
+   * @return the view
+   */
+  public TlmFrame getTlmFrame() {
+    checkFrameType(FRAME_TYPE_TLM);
+    return mTlmFrame;
+  }
+
+  /**
+   * Get the view of the last parsed frame, which must be an EID frame.
+   * @return the view
+   */
+  public EidFrame getEidFrame() {
+    checkFrameType(FRAME_TYPE_EID);
+    return mEidFrame;
+  }
+
+  private void checkFrameType(int frameType) {
+    if (mFrameType != frameType) {
+      throw new IllegalStateException("The last parsed frame type is " + mFrameType
+          + ", not " + frameType);
+    }
+  }
+}
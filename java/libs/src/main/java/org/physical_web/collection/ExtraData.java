@@ -0,0 +1,426 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Iterator;
+
+/**
+ * Immutable extra data of a UrlDevice or PwsResult.
+ * Booleans and numbers are held in primitive slots, so reading them needs neither a JSONObject
+ * lookup nor unboxing.  Adding a value returns a new ExtraData and leaves the old one unchanged,
+ * which lets builders and built objects share an ExtraData until one of them changes.
+ * The getters follow the coercion rules of the JSONObject getters of the same names; values of a
+ * different type than the one requested are converted through a JSONObject view of the data.
+ * Nested JSON objects and arrays are copied on the way in and on the way out, so no caller can
+ * change the values another caller sees.
+ */
+final class ExtraData {
+  static final ExtraData EMPTY = new ExtraData(new String[0], new byte[0], new long[0],
+      new Object[0]);
+  private static final byte TYPE_BOOLEAN = 0;
+  private static final byte TYPE_INT = 1;
+  private static final byte TYPE_LONG = 2;
+  private static final byte TYPE_DOUBLE = 3;
+  private static final byte TYPE_OBJECT = 4;
+  private final String[] mKeys;
+  private final byte[] mTypes;
+  private final long[] mValues;
+  private final Object[] mObjects;
+  // Built on first use and never handed out, so that callers cannot change it.
+  private volatile JSONObject mJsonView;
+
+  private ExtraData(String[] keys, byte[] types, long[] values, Object[] objects) {
+    mKeys = keys;
+    mTypes = types;
+    mValues = values;
+    mObjects = objects;
+  }
+
+  /**
+   * Copy the values of a JSON object.
+   * @param jsonObject The object to copy, or null for no values.
+   * @return the extra data.
+   */
+  static ExtraData fromJsonObject(JSONObject jsonObject) {
+    ExtraData extraData = EMPTY;
+    if (jsonObject == null) {
+      return extraData;
+    }
+    for (Iterator<?> keys = jsonObject.keys(); keys.hasNext();) {
+      String key = (String) keys.next();
+      extraData = extraData.with(key, jsonObject.opt(key));
+    }
+    return extraData;
+  }
+
+  /**
+   * Add or replace a boolean value.
+   * @param key The key of the value.
+   * @param value The value.
+   * @return the extra data with the value.
+   */
+  ExtraData with(String key, boolean value) {
+    return with(key, TYPE_BOOLEAN, value ? 1 : 0, null);
+  }
+
+  /**
+   * Add or replace an int value.
+   * @param key The key of the value.
+   * @param value The value.
+   * @return the extra data with the value.
+   */
+  ExtraData with(String key, int value) {
+    return with(key, TYPE_INT, value, null);
+  }
+
+  /**
+   * Add or replace a long value.
+   * @param key The key of the value.
+   * @param value The value.
+   * @return the extra data with the value.
+   */
+  ExtraData with(String key, long value) {
+    return with(key, TYPE_LONG, value, null);
+  }
+
+  /**
+   * Add, replace or remove a value, as JSONObject.put does.
+   * JSON objects and arrays are copied, so that later changes to them are not seen.
+   * @param key The key of the value.
+   * @param value The value, or null to remove the key.
+   * @return the extra data with the value.
+   * @throws JSONException if the value is a non-finite number.
+   */
+  ExtraData with(String key, Object value) {
+    if (value == null) {
+      return without(key);
+    }
+    if (value instanceof Boolean) {
+      return with(key, ((Boolean) value).booleanValue());
+    } else if (value instanceof Integer) {
+      return with(key, ((Integer) value).intValue());
+    } else if (value instanceof Long) {
+      return with(key, ((Long) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      double number = ((Number) value).doubleValue();
+      if (Double.isNaN(number) || Double.isInfinite(number)) {
+        throw new JSONException("JSON does not allow non-finite numbers.");
+      }
+      return with(key, TYPE_DOUBLE, Double.doubleToRawLongBits(number), null);
+    } else if (value instanceof String || value == JSONObject.NULL) {
+      return with(key, TYPE_OBJECT, 0, value);
+    } else if (value instanceof JSONObject || value instanceof JSONArray) {
+      return with(key, TYPE_OBJECT, 0, copyNested(value));
+    }
+    // Store anything else the way it reads back from its JSON text.
+    JSONObject holder = new JSONObject().put(key, value);
+    return with(key, TYPE_OBJECT, 0, new JSONObject(holder.toString()).opt(key));
+  }
+
+  private ExtraData with(String key, byte type, long value, Object object) {
+    if (key == null) {
+      throw new NullPointerException("Null key.");
+    }
+    int index = indexOf(key);
+    int length = mKeys.length;
+    String[] keys = copyOf(mKeys, index < 0 ? length + 1 : length);
+    byte[] types = new byte[keys.length];
+    long[] values = new long[keys.length];
+    Object[] objects = new Object[keys.length];
+    System.arraycopy(mTypes, 0, types, 0, length);
+    System.arraycopy(mValues, 0, values, 0, length);
+    System.arraycopy(mObjects, 0, objects, 0, length);
+    if (index < 0) {
+      index = length;
+    }
+    keys[index] = key;
+    types[index] = type;
+    values[index] = value;
+    objects[index] = object;
+    return new ExtraData(keys, types, values, objects);
+  }
+
+  private ExtraData without(String key) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return this;
+    }
+    int length = mKeys.length - 1;
+    String[] keys = new String[length];
+    byte[] types = new byte[length];
+    long[] values = new long[length];
+    Object[] objects = new Object[length];
+    System.arraycopy(mKeys, 0, keys, 0, index);
+    System.arraycopy(mTypes, 0, types, 0, index);
+    System.arraycopy(mValues, 0, values, 0, index);
+    System.arraycopy(mObjects, 0, objects, 0, index);
+    System.arraycopy(mKeys, index + 1, keys, index, length - index);
+    System.arraycopy(mTypes, index + 1, types, index, length - index);
+    System.arraycopy(mValues, index + 1, values, index, length - index);
+    System.arraycopy(mObjects, index + 1, objects, index, length - index);
+    return new ExtraData(keys, types, values, objects);
+  }
+
+  private static String[] copyOf(String[] keys, int length) {
+    String[] copy = new String[length];
+    System.arraycopy(keys, 0, copy, 0, Math.min(keys.length, length));
+    return copy;
+  }
+
+  private int indexOf(String key) {
+    for (int i = 0; i < mKeys.length; i++) {
+      if (mKeys[i].equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Check whether a value is stored as a number.
+   * @param key The key of the value.
+   * @return true if the value is an int, long or double.
+   */
+  boolean hasNumber(String key) {
+    int index = indexOf(key);
+    return index >= 0 && isNumber(index);
+  }
+
+  /**
+   * Check whether a value is stored as a boolean.
+   * @param key The key of the value.
+   * @return true if the value is a boolean.
+   */
+  boolean hasBoolean(String key) {
+    int index = indexOf(key);
+    return index >= 0 && mTypes[index] == TYPE_BOOLEAN;
+  }
+
+  /**
+   * Get the number of values.
+   * @return the number of keys.
+   */
+  int length() {
+    return mKeys.length;
+  }
+
+  boolean getBoolean(String key) {
+    int index = indexOf(key);
+    if (index >= 0 && mTypes[index] == TYPE_BOOLEAN) {
+      return mValues[index] != 0;
+    }
+    return getJsonView().getBoolean(key);
+  }
+
+  boolean optBoolean(String key, boolean defaultValue) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return defaultValue;
+    }
+    if (mTypes[index] == TYPE_BOOLEAN) {
+      return mValues[index] != 0;
+    }
+    return getJsonView().optBoolean(key, defaultValue);
+  }
+
+  int getInt(String key) {
+    int index = indexOf(key);
+    if (index >= 0 && isNumber(index)) {
+      return (int) getLongValue(index);
+    }
+    return getJsonView().getInt(key);
+  }
+
+  int optInt(String key, int defaultValue) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return defaultValue;
+    }
+    if (isNumber(index)) {
+      return (int) getLongValue(index);
+    }
+    return getJsonView().optInt(key, defaultValue);
+  }
+
+  long getLong(String key) {
+    int index = indexOf(key);
+    if (index >= 0 && isNumber(index)) {
+      return getLongValue(index);
+    }
+    return getJsonView().getLong(key);
+  }
+
+  long optLong(String key, long defaultValue) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return defaultValue;
+    }
+    if (isNumber(index)) {
+      return getLongValue(index);
+    }
+    return getJsonView().optLong(key, defaultValue);
+  }
+
+  double getDouble(String key) {
+    int index = indexOf(key);
+    if (index >= 0 && isNumber(index)) {
+      return getDoubleValue(index);
+    }
+    return getJsonView().getDouble(key);
+  }
+
+  double optDouble(String key, double defaultValue) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return defaultValue;
+    }
+    if (isNumber(index)) {
+      return getDoubleValue(index);
+    }
+    return getJsonView().optDouble(key, defaultValue);
+  }
+
+  String getString(String key) {
+    Object object = getObject(key);
+    if (object instanceof String) {
+      return (String) object;
+    }
+    return getJsonView().getString(key);
+  }
+
+  String optString(String key, String defaultValue) {
+    int index = indexOf(key);
+    if (index < 0) {
+      return defaultValue;
+    }
+    if (mObjects[index] instanceof String) {
+      return (String) mObjects[index];
+    }
+    return getJsonView().optString(key, defaultValue);
+  }
+
+  JSONArray getJSONArray(String key) {
+    Object object = getObject(key);
+    if (object instanceof JSONArray) {
+      return (JSONArray) copyNested(object);
+    }
+    // Only a JSONArray is converted to one, so this throws.
+    return getJsonView().getJSONArray(key);
+  }
+
+  JSONArray optJSONArray(String key) {
+    Object object = getObject(key);
+    return object instanceof JSONArray ? (JSONArray) copyNested(object) : null;
+  }
+
+  JSONObject getJSONObject(String key) {
+    Object object = getObject(key);
+    if (object instanceof JSONObject) {
+      return (JSONObject) copyNested(object);
+    }
+    // Only a JSONObject is converted to one, so this throws.
+    return getJsonView().getJSONObject(key);
+  }
+
+  JSONObject optJSONObject(String key) {
+    Object object = getObject(key);
+    return object instanceof JSONObject ? (JSONObject) copyNested(object) : null;
+  }
+
+  /**
+   * Copy a JSON object or array, and everything nested in it, through its JSON text.
+   * @param object The object or array.
+   * @return the copy.
+   */
+  private static Object copyNested(Object object) {
+    if (object instanceof JSONObject) {
+      return new JSONObject(object.toString());
+    }
+    return new JSONArray(object.toString());
+  }
+
+  private Object getObject(String key) {
+    int index = indexOf(key);
+    return index < 0 ? null : mObjects[index];
+  }
+
+  private boolean isNumber(int index) {
+    byte type = mTypes[index];
+    return type == TYPE_INT || type == TYPE_LONG || type == TYPE_DOUBLE;
+  }
+
+  private long getLongValue(int index) {
+    return mTypes[index] == TYPE_DOUBLE
+        ? (long) Double.longBitsToDouble(mValues[index]) : mValues[index];
+  }
+
+  private double getDoubleValue(int index) {
+    return mTypes[index] == TYPE_DOUBLE
+        ? Double.longBitsToDouble(mValues[index]) : (double) mValues[index];
+  }
+
+  private Object getValue(int index) {
+    switch (mTypes[index]) {
+      case TYPE_BOOLEAN:
+        return mValues[index] != 0;
+      case TYPE_INT:
+        return (int) mValues[index];
+      case TYPE_LONG:
+        return mValues[index];
+      case TYPE_DOUBLE:
+        return Double.longBitsToDouble(mValues[index]);
+      default:
+        return mObjects[index];
+    }
+  }
+
+  /**
+   * Get a read-only JSON object holding the values, for coercions and serialization.
+   * @return the shared view, which must not be modified.
+   */
+  JSONObject getJsonView() {
+    JSONObject jsonView = mJsonView;
+    if (jsonView == null) {
+      // Nothing outside this class can change the view, so it shares the nested values.
+      jsonView = new JSONObject();
+      for (int i = 0; i < mKeys.length; i++) {
+        jsonView.put(mKeys[i], getValue(i));
+      }
+      mJsonView = jsonView;
+    }
+    return jsonView;
+  }
+
+  /**
+   * Create a JSON object holding the values.  Nested objects and arrays are copied.
+   * @return a new JSON object that the caller may change.
+   */
+  JSONObject toJsonObject() {
+    JSONObject jsonObject = new JSONObject();
+    for (int i = 0; i < mKeys.length; i++) {
+      Object value = getValue(i);
+      if (value instanceof JSONObject || value instanceof JSONArray) {
+        value = copyNested(value);
+      }
+      jsonObject.put(mKeys[i], value);
+    }
+    return jsonObject;
+  }
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * PwsResultCache that stores each result in its own file.
+ * Every entry expires a fixed time after it was stored.  When the cache holds more than its
+ * maximum number of entries, the least recently used entries are deleted.  Entries written by a
+ * previous instance using the same directory are loaded on first use, or by preload, which can
+ * be called from a background thread so that the directory is never scanned on the main thread.
+ * Removing results does not load the others.
+ * Results are read outside the cache's lock, so lookups do not wait for each other's disk reads.
+ */
+public class FilePwsResultCache implements PwsResultCache {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final String FILE_SUFFIX = ".json";
+  private static final String TEMP_FILE_SUFFIX = ".tmp";
+  private static final String REQUESTURL_KEY = "requesturl";
+  private static final String EXPIRES_KEY = "expires";
+  private static final String RESULT_KEY = "result";
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private final File mDirectory;
+  private final long mTtlMillis;
+  private final int mMaxEntries;
+  private final Clock mClock;
+  private final LinkedHashMap<String, Entry> mEntries;
+  private boolean mLoaded;
+
+  /**
+   * The location and expiration time of one cached result.
+   */
+  private static class Entry {
+    final File file;
+    final long expiresAt;
+
+    Entry(File file, long expiresAt) {
+      this.file = file;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  /**
+   * Construct a FilePwsResultCache.  This does not touch the disk.
+   * @param directory The directory in which to store results.  It is created on first use if
+   *     missing.
+   * @param ttlMillis How long a result may be served after it was stored.
+   * @param maxEntries The largest number of results to keep.
+   */
+  public FilePwsResultCache(File directory, long ttlMillis, int maxEntries) {
+    this(directory, ttlMillis, maxEntries, Clock.SYSTEM);
+  }
+
+  FilePwsResultCache(File directory, long ttlMillis, int maxEntries, Clock clock) {
+    if (ttlMillis <= 0 || maxEntries < 1) {
+      throw new IllegalArgumentException("TTL and maximum size must be positive");
+    }
+    mDirectory = directory;
+    mTtlMillis = ttlMillis;
+    mMaxEntries = maxEntries;
+    mClock = clock;
+    mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    mLoaded = false;
+  }
+
+  /**
+   * Load the entries written by a previous instance, if they have not been loaded yet.
+   * Every other method loads them on first use; call this from a background thread to keep that
+   * disk access off the caller's thread.
+   */
+  public synchronized void preload() {
+    if (mLoaded) {
+      return;
+    }
+    mLoaded = true;
+    if (mDirectory.isDirectory() || mDirectory.mkdirs()) {
+      load();
+    }
+  }
+
+  @Override
+  public PwsResult get(String broadcastUrl) {
+    long now = mClock.currentTimeMillis();
+    Entry entry;
+    synchronized (this) {
+      preload();
+      entry = mEntries.get(broadcastUrl);
+      if (entry == null) {
+        return null;
+      }
+      if (entry.expiresAt <= now) {
+        remove(broadcastUrl);
+        return null;
+      }
+    }
+
+    // A put replaces the file by renaming over it, so this reads either result whole.
+    PwsResult pwsResult;
+    try {
+      JSONObject jsonObject = readFile(entry.file);
+      pwsResult = PwsResult.jsonDeserialize(jsonObject.getJSONObject(RESULT_KEY));
+    } catch (IOException | JSONException e) {
+      removeIfCurrent(broadcastUrl, entry);
+      return null;
+    }
+    // Record the access so that the LRU order survives a restart; failing only costs that.
+    entry.file.setLastModified(now);
+    return pwsResult;
+  }
+
+  /**
+   * Remove an entry that could not be read, unless it has been replaced since it was looked up.
+   */
+  private synchronized void removeIfCurrent(String broadcastUrl, Entry entry) {
+    if (mEntries.get(broadcastUrl) == entry) {
+      remove(broadcastUrl);
+    }
+  }
+
+  @Override
+  public synchronized void put(PwsResult pwsResult) {
+    preload();
+    String broadcastUrl = pwsResult.getRequestUrl();
+    long expiresAt = mClock.currentTimeMillis() + mTtlMillis;
+    JSONObject jsonObject = new JSONObject();
+    jsonObject.put(REQUESTURL_KEY, broadcastUrl);
+    jsonObject.put(EXPIRES_KEY, expiresAt);
+    jsonObject.put(RESULT_KEY, pwsResult.jsonSerialize());
+    File file = getFile(broadcastUrl);
+    try {
+      writeFile(file, jsonObject);
+    } catch (IOException e) {
+      remove(broadcastUrl);
+      return;
+    }
+    mEntries.put(broadcastUrl, new Entry(file, expiresAt));
+    trim();
+  }
+
+  @Override
+  public synchronized void remove(String broadcastUrl) {
+    // A result not loaded yet is in the file named after its URL, so deleting that file is
+    // enough to keep a later load from finding it.
+    Entry entry = mEntries.remove(broadcastUrl);
+    File file = entry == null ? getFile(broadcastUrl) : entry.file;
+    deleteFile(file);
+  }
+
+  @Override
+  public synchronized void clear() {
+    // Every file in the directory belongs to the cache, so they are deleted without being read.
+    File[] files = mDirectory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        deleteFile(file);
+      }
+    }
+    mEntries.clear();
+  }
+
+  /**
+   * Get the number of results in the cache, including expired results that have not yet been
+   * removed.
+   * @return the number of cached results.
+   */
+  public synchronized int size() {
+    preload();
+    return mEntries.size();
+  }
+
+  private void load() {
+    File[] files = mDirectory.listFiles();
+    if (files == null) {
+      return;
+    }
+
+    // Insert the least recently used entries first.
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File lhs, File rhs) {
+        long lhsModified = lhs.lastModified();
+        long rhsModified = rhs.lastModified();
+        return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+      }
+    });
+    long now = mClock.currentTimeMillis();
+    for (File file : files) {
+      if (!file.getName().endsWith(FILE_SUFFIX)) {
+        deleteFile(file);
+        continue;
+      }
+      try {
+        JSONObject jsonObject = readFile(file);
+        long expiresAt = jsonObject.getLong(EXPIRES_KEY);
+        if (expiresAt <= now) {
+          deleteFile(file);
+          continue;
+        }
+        mEntries.put(jsonObject.getString(REQUESTURL_KEY), new Entry(file, expiresAt));
+      } catch (IOException | JSONException e) {
+        deleteFile(file);
+      }
+    }
+    trim();
+  }
+
+  private void trim() {
+    Iterator<Map.Entry<String, Entry>> iterator = mEntries.entrySet().iterator();
+    while (mEntries.size() > mMaxEntries && iterator.hasNext()) {
+      deleteFile(iterator.next().getValue().file);
+      iterator.remove();
+    }
+  }
+
+  private File getFile(String broadcastUrl) {
+    return new File(mDirectory, hash(broadcastUrl) + FILE_SUFFIX);
+  }
+
+  private static String hash(String broadcastUrl) {
+    byte[] digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1").digest(broadcastUrl.getBytes(UTF_8));
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    char[] hex = new char[digest.length * 2];
+    for (int i = 0; i < digest.length; i++) {
+      hex[2 * i] = HEX_DIGITS[(digest[i] >> 4) & 0x0f];
+      hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0x0f];
+    }
+    return new String(hex);
+  }
+
+  private static JSONObject readFile(File file) throws IOException {
+    InputStream is = new FileInputStream(file);
+    try {
+      return new JSONObject(new String(Request.readFully(is), UTF_8));
+    } finally {
+      is.close();
+    }
+  }
+
+  private void writeFile(File file, JSONObject jsonObject) throws IOException {
+    // Write to a temporary file first so that a crash never leaves a partial entry behind.
+    File tempFile = new File(mDirectory, file.getName() + TEMP_FILE_SUFFIX);
+    OutputStream os = new FileOutputStream(tempFile);
+    try {
+      os.write(jsonObject.toString().getBytes(UTF_8));
+    } finally {
+      os.close();
+    }
+    if (!tempFile.renameTo(file)) {
+      deleteFile(tempFile);
+      throw new IOException("Cannot rename " + tempFile + " to " + file);
+    }
+  }
+
+  private static void deleteFile(File file) {
+    if (file.exists() && !file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+}
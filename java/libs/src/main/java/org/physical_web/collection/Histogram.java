@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.json.JSONObject;
+
+/**
+ * Counts values in buckets whose upper bounds are powers of two.
+ * Memory does not grow with the number of values, and percentiles are estimated as the upper
+ * bound of the bucket they fall in.
+ */
+class Histogram {
+  private static final int BUCKET_COUNT = 64;
+  private final long[] mBucketCounts;
+  private long mCount;
+  private long mSum;
+  private long mMin;
+  private long mMax;
+
+  /**
+   * Construct an empty Histogram.
+   */
+  Histogram() {
+    mBucketCounts = new long[BUCKET_COUNT];
+    mCount = 0;
+    mSum = 0;
+    mMin = Long.MAX_VALUE;
+    mMax = Long.MIN_VALUE;
+  }
+
+  /**
+   * Add a value.  Negative values are counted as 0.
+   * @param value The value.
+   */
+  synchronized void record(long value) {
+    value = Math.max(0, value);
+    mBucketCounts[getBucket(value)]++;
+    mCount++;
+    mSum += value;
+    mMin = Math.min(mMin, value);
+    mMax = Math.max(mMax, value);
+  }
+
+  /**
+   * Get the bucket of a value: bucket 0 holds 0 and 1, and bucket i holds values up to 2^i.
+   */
+  static int getBucket(long value) {
+    if (value <= 1) {
+      return 0;
+    }
+    return BUCKET_COUNT - Long.numberOfLeadingZeros(value - 1);
+  }
+
+  private static long getUpperBound(int bucket) {
+    return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+  }
+
+  /**
+   * Get the number of values recorded.
+   * @return the count.
+   */
+  synchronized long getCount() {
+    return mCount;
+  }
+
+  /**
+   * Estimate a percentile.
+   * @param percentile The percentile, between 0 and 100.
+   * @return the upper bound of the bucket holding the percentile, capped by the largest value,
+   *     or 0 if no value was recorded.
+   */
+  synchronized long getPercentile(double percentile) {
+    if (mCount == 0) {
+      return 0;
+    }
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * mCount));
+    long seen = 0;
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      seen += mBucketCounts[i];
+      if (seen >= rank) {
+        return Math.min(mMax, getUpperBound(i));
+      }
+    }
+    return mMax;
+  }
+
+  /**
+   * Describe the recorded values.
+   * @return an object holding the count, sum, min, max, mean, percentiles and bucket counts.
+   */
+  synchronized JSONObject toJson() {
+    JSONObject jsonObject = new JSONObject();
+    jsonObject.put("count", mCount);
+    jsonObject.put("sum", mSum);
+    if (mCount > 0) {
+      jsonObject.put("min", mMin);
+      jsonObject.put("max", mMax);
+      jsonObject.put("mean", (double) mSum / mCount);
+      jsonObject.put("p50", getPercentile(50));
+      jsonObject.put("p95", getPercentile(95));
+      jsonObject.put("p99", getPercentile(99));
+    }
+    JSONObject buckets = new JSONObject();
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      if (mBucketCounts[i] > 0) {
+        buckets.put(Long.toString(getUpperBound(i)), mBucketCounts[i]);
+      }
+    }
+    jsonObject.put("buckets", buckets);
+    return jsonObject;
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Bounds the number of connections that are open to each host at the same time.
+ * HttpURLConnection keeps idle connections alive for reuse, so limiting the number of concurrent
+ * connections also bounds the pool of kept-alive connections for each host.
+ * Requests to a host that is at its limit wait in a queue for that host rather than on a thread,
+ * and are handed a connection as another is released.
+ */
+class HostConnectionLimiter {
+  private final int mMaxConnectionsPerHost;
+  private final Map<String, Integer> mOpenConnections;
+  private final Map<String, Deque<Runnable>> mWaitingTasks;
+
+  /**
+   * Construct a HostConnectionLimiter.
+   * @param maxConnectionsPerHost The number of connections that may be open to one host.
+   */
+  HostConnectionLimiter(int maxConnectionsPerHost) {
+    if (maxConnectionsPerHost < 1) {
+      throw new IllegalArgumentException("maxConnectionsPerHost must be at least 1");
+    }
+    mMaxConnectionsPerHost = maxConnectionsPerHost;
+    mOpenConnections = new HashMap<>();
+    mWaitingTasks = new HashMap<>();
+  }
+
+  /**
+   * Take a connection to the host of the given URL if one is free, or else queue a task to run
+   * once one is.  A queued task runs on the thread that releases the connection it is handed, so
+   * it should only dispatch the request.
+   * @param url The URL that will be requested.
+   * @param onAcquired The task to run once a connection is taken, if none is free now.
+   * @return true if a connection was taken now, false if onAcquired was queued.
+   */
+  synchronized boolean acquire(URL url, Runnable onAcquired) {
+    String host = getHostKey(url);
+    Integer count = mOpenConnections.get(host);
+    if (count != null && count >= mMaxConnectionsPerHost) {
+      Deque<Runnable> waitingTasks = mWaitingTasks.get(host);
+      if (waitingTasks == null) {
+        waitingTasks = new ArrayDeque<>();
+        mWaitingTasks.put(host, waitingTasks);
+      }
+      waitingTasks.add(onAcquired);
+      return false;
+    }
+    mOpenConnections.put(host, count == null ? 1 : count + 1);
+    return true;
+  }
+
+  /**
+   * Record that a connection to the host of the given URL has been released, and hand it to the
+   * first task waiting for one.
+   * @param url The URL that was requested.
+   */
+  void release(URL url) {
+    String host = getHostKey(url);
+    Runnable nextTask = null;
+    synchronized (this) {
+      Integer count = mOpenConnections.get(host);
+      if (count == null) {
+        return;
+      }
+      Deque<Runnable> waitingTasks = mWaitingTasks.get(host);
+      if (waitingTasks != null) {
+        nextTask = waitingTasks.poll();
+        if (waitingTasks.isEmpty()) {
+          mWaitingTasks.remove(host);
+        }
+      }
+      // A connection handed to a waiting task stays counted.
+      if (nextTask == null) {
+        if (count <= 1) {
+          mOpenConnections.remove(host);
+        } else {
+          mOpenConnections.put(host, count - 1);
+        }
+      }
+    }
+    if (nextTask != null) {
+      nextTask.run();
+    }
+  }
+
+  private static String getHostKey(URL url) {
+    return url.getProtocol() + "://" + url.getAuthority();
+  }
+}
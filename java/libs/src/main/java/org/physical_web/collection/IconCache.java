@@ -0,0 +1,252 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
+/**
+ * In-memory store of downloaded icons bounded by their total size in bytes.
+ * When adding an icon would exceed the budget, the least recently used icons are evicted.
+ */
+public class IconCache {
+  private static final int MAX_REMEMBERED_EVICTIONS = 1024;
+  private final LinkedHashMap<String, byte[]> mIcons;
+  private final LinkedHashSet<String> mEvictedUrls;
+  private final LinkedHashMap<String, Integer> mTooLargeUrlToSizeMap;
+  private long mMaxBytes;
+  private long mSizeBytes;
+  private long mHitCount;
+  private long mMissCount;
+  private long mEvictionCount;
+  private long mTooLargeCount;
+  private MetricsRecorder mMetricsRecorder;
+
+  /**
+   * Construct an IconCache.
+   * @param maxBytes The total number of icon bytes the cache may hold.
+   */
+  public IconCache(long maxBytes) {
+    mIcons = new LinkedHashMap<>(16, 0.75f, true);
+    mEvictedUrls = new LinkedHashSet<>();
+    mTooLargeUrlToSizeMap = new LinkedHashMap<>();
+    mMetricsRecorder = new MetricsRecorder();
+    setMaxBytes(maxBytes);
+  }
+
+  /**
+   * Change the total number of icon bytes the cache may hold, evicting icons if needed.
+   * @param maxBytes The new budget.
+   */
+  public synchronized void setMaxBytes(long maxBytes) {
+    if (maxBytes < 0) {
+      throw new IllegalArgumentException("maxBytes must not be negative");
+    }
+    mMaxBytes = maxBytes;
+    trim(mMaxBytes);
+  }
+
+  /**
+   * Set the recorder that receives hits, misses and evictions.
+   * @param metricsRecorder The recorder.
+   */
+  synchronized void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+    mMetricsRecorder = metricsRecorder;
+  }
+
+  /**
+   * Fetch an icon, marking it as recently used.
+   * @param url The icon URL.
+   * @return The icon, or null if it is not in the cache.
+   */
+  public synchronized byte[] get(String url) {
+    byte[] icon = mIcons.get(url);
+    if (icon == null) {
+      mMissCount++;
+      mMetricsRecorder.recordCacheMiss(MetricsRecorder.ICON_CACHE);
+    } else {
+      mHitCount++;
+      mMetricsRecorder.recordCacheHit(MetricsRecorder.ICON_CACHE);
+    }
+    return icon;
+  }
+
+  /**
+   * Check whether an icon is in the cache without affecting its eviction order or the counters.
+   * @param url The icon URL.
+   * @return whether the icon is cached.
+   */
+  public synchronized boolean contains(String url) {
+    return mIcons.containsKey(url);
+  }
+
+  /**
+   * Add an icon, evicting least recently used icons to stay within the budget.
+   * Icons larger than the whole budget are not stored, but remembered; see isTooLarge.
+   * @param url The icon URL.
+   * @param icon The icon bytes.
+   */
+  public synchronized void put(String url, byte[] icon) {
+    remove(url);
+    if (icon.length > mMaxBytes) {
+      mTooLargeCount++;
+      mEvictedUrls.remove(url);
+      mTooLargeUrlToSizeMap.remove(url);
+      mTooLargeUrlToSizeMap.put(url, icon.length);
+      if (mTooLargeUrlToSizeMap.size() > MAX_REMEMBERED_EVICTIONS) {
+        Iterator<String> iterator = mTooLargeUrlToSizeMap.keySet().iterator();
+        iterator.next();
+        iterator.remove();
+      }
+      return;
+    }
+    mTooLargeUrlToSizeMap.remove(url);
+    trim(mMaxBytes - icon.length);
+    mIcons.put(url, icon);
+    mSizeBytes += icon.length;
+    mEvictedUrls.remove(url);
+  }
+
+  /**
+   * Remove an icon from the cache.
+   * @param url The icon URL.
+   */
+  public synchronized void remove(String url) {
+    byte[] icon = mIcons.remove(url);
+    if (icon != null) {
+      mSizeBytes -= icon.length;
+    }
+  }
+
+  /**
+   * Remove all icons from the cache.  The counters are not reset.
+   */
+  public synchronized void clear() {
+    mIcons.clear();
+    mEvictedUrls.clear();
+    mTooLargeUrlToSizeMap.clear();
+    mSizeBytes = 0;
+  }
+
+  /**
+   * Check whether an icon was evicted to make room for others and has not been added since.
+   * Only the most recent evictions are remembered.
+   * @param url The icon URL.
+   * @return whether the icon was evicted.
+   */
+  public synchronized boolean wasEvicted(String url) {
+    return mEvictedUrls.contains(url);
+  }
+
+  /**
+   * Check whether an icon was not stored because it is larger than the whole budget.
+   * Only the most recent such icons are remembered, and an icon that fits a budget raised since
+   * then is no longer too large.
+   * @param url The icon URL.
+   * @return whether the icon is too large to cache.
+   */
+  public synchronized boolean isTooLarge(String url) {
+    Integer size = mTooLargeUrlToSizeMap.get(url);
+    return size != null && size > mMaxBytes;
+  }
+
+  /**
+   * Get a copy of the cached icons, in order from least to most recently used.
+   * @return map from icon URL to icon bytes.
+   */
+  public synchronized Map<String, byte[]> snapshot() {
+    return new LinkedHashMap<>(mIcons);
+  }
+
+  /**
+   * Get the budget of the cache.
+   * @return the total number of icon bytes the cache may hold.
+   */
+  public synchronized long getMaxBytes() {
+    return mMaxBytes;
+  }
+
+  /**
+   * Get the total size of the cached icons.
+   * @return the number of icon bytes held.
+   */
+  public synchronized long getSizeBytes() {
+    return mSizeBytes;
+  }
+
+  /**
+   * Get the number of cached icons.
+   * @return the number of icons held.
+   */
+  public synchronized int getCount() {
+    return mIcons.size();
+  }
+
+  /**
+   * Get the number of lookups that found an icon.
+   * @return the hit count.
+   */
+  public synchronized long getHitCount() {
+    return mHitCount;
+  }
+
+  /**
+   * Get the number of lookups that did not find an icon.
+   * @return the miss count.
+   */
+  public synchronized long getMissCount() {
+    return mMissCount;
+  }
+
+  /**
+   * Get the number of icons evicted to stay within the budget.
+   * @return the eviction count.
+   */
+  public synchronized long getEvictionCount() {
+    return mEvictionCount;
+  }
+
+  /**
+   * Get the number of icons that were not stored because they were larger than the budget.
+   * @return the count of icons rejected as too large.
+   */
+  public synchronized long getTooLargeCount() {
+    return mTooLargeCount;
+  }
+
+  private void trim(long maxBytes) {
+    Iterator<Map.Entry<String, byte[]>> iterator = mIcons.entrySet().iterator();
+    while (mSizeBytes > maxBytes && iterator.hasNext()) {
+      Map.Entry<String, byte[]> entry = iterator.next();
+      iterator.remove();
+      mSizeBytes -= entry.getValue().length;
+      mEvictionCount++;
+      mMetricsRecorder.recordCacheEviction(MetricsRecorder.ICON_CACHE);
+      rememberEviction(entry.getKey());
+    }
+  }
+
+  private void rememberEviction(String url) {
+    mEvictedUrls.add(url);
+    if (mEvictedUrls.size() > MAX_REMEMBERED_EVICTIONS) {
+      Iterator<String> iterator = mEvictedUrls.iterator();
+      iterator.next();
+      iterator.remove();
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Downloads icons into an IconCache, making at most one request per icon URL at a time.
+ * Callers asking for an icon that is already being downloaded are attached to that download and
+ * all receive its result.  Icons that are already cached are passed to the caller right away.
+ * Each download counts as one miss of the icon cache, however many callers attach to it.
+ * Icons too large for the cache are passed to the callers of each download without being stored,
+ * so callers that ask for icons on every scan use downloadIfCacheable, which skips them.
+ */
+class IconDownloader {
+  private final PwsClient mPwsClient;
+  private final IconCache mIconCache;
+  private final Map<String, List<PwsResultIconCallback>> mPendingCallbacks;
+
+  /**
+   * Construct an IconDownloader.
+   * @param pwsClient The client used to download icons.
+   * @param iconCache The cache that downloaded icons are stored in.
+   */
+  IconDownloader(PwsClient pwsClient, IconCache iconCache) {
+    mPwsClient = pwsClient;
+    mIconCache = iconCache;
+    mPendingCallbacks = new HashMap<>();
+  }
+
+  /**
+   * Get an icon, downloading it unless it is cached or already being downloaded.
+   * The callback may be invoked before this method returns.
+   * @param url The URL of the icon.
+   * @param callback The callback to pass the icon to.
+   */
+  void download(String url, PwsResultIconCallback callback) {
+    if (url == null) {
+      return;
+    }
+    byte[] icon = mIconCache.contains(url) ? mIconCache.get(url) : null;
+    if (icon != null) {
+      callback.onIcon(icon);
+      return;
+    }
+
+    final List<PwsResultIconCallback> callbacks;
+    synchronized (mPendingCallbacks) {
+      List<PwsResultIconCallback> pendingCallbacks = mPendingCallbacks.get(url);
+      if (pendingCallbacks != null) {
+        if (!containsByIdentity(pendingCallbacks, callback)) {
+          pendingCallbacks.add(callback);
+        }
+        return;
+      }
+      // Counts the miss of this download, and catches a download that finished since the check
+      // above.
+      icon = mIconCache.get(url);
+      if (icon == null) {
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        mPendingCallbacks.put(url, callbacks);
+      } else {
+        callbacks = null;
+      }
+    }
+    if (callbacks == null) {
+      callback.onIcon(icon);
+      return;
+    }
+    mPwsClient.downloadIcon(url, new DownloadCallback(url, callbacks));
+  }
+
+  /**
+   * Get an icon as download does, unless the cache has found it too large to store.  Such an icon
+   * would be downloaded again on every request.
+   * @param url The URL of the icon.
+   * @param callback The callback to pass the icon to.
+   * @return false if the icon was skipped.
+   */
+  boolean downloadIfCacheable(String url, PwsResultIconCallback callback) {
+    if (url != null && mIconCache.isTooLarge(url)) {
+      return false;
+    }
+    download(url, callback);
+    return true;
+  }
+
+  /**
+   * Check whether an icon is being downloaded.
+   * @param url The URL of the icon.
+   * @return true if a download of the icon is in progress.
+   */
+  boolean isPending(String url) {
+    synchronized (mPendingCallbacks) {
+      return mPendingCallbacks.containsKey(url);
+    }
+  }
+
+  /**
+   * Get the number of icons being downloaded.
+   * @return the number of icon URLs with a download in progress.
+   */
+  int getPendingCount() {
+    synchronized (mPendingCallbacks) {
+      return mPendingCallbacks.size();
+    }
+  }
+
+  /**
+   * Forget all downloads in progress, so that the next request for each icon downloads it again.
+   * Downloads that still complete store their icon but no longer invoke their callbacks.
+   */
+  void clear() {
+    synchronized (mPendingCallbacks) {
+      mPendingCallbacks.clear();
+    }
+  }
+
+  private static boolean containsByIdentity(List<PwsResultIconCallback> callbacks,
+                                            PwsResultIconCallback callback) {
+    for (PwsResultIconCallback pendingCallback : callbacks) {
+      if (pendingCallback == callback) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private class DownloadCallback extends PwsResultIconCallback {
+    private final String mUrl;
+    private final List<PwsResultIconCallback> mCallbacks;
+
+    DownloadCallback(String url, List<PwsResultIconCallback> callbacks) {
+      mUrl = url;
+      mCallbacks = callbacks;
+    }
+
+    @Override
+    public void onIcon(byte[] icon) {
+      mIconCache.put(mUrl, icon);
+      for (PwsResultIconCallback callback : takeCallbacks()) {
+        callback.onIcon(icon);
+      }
+    }
+
+    @Override
+    public void onError(int httpResponseCode, Exception e) {
+      for (PwsResultIconCallback callback : takeCallbacks()) {
+        callback.onError(httpResponseCode, e);
+      }
+    }
+
+    /**
+     * Stop attaching callers to this download and return the callbacks to invoke.
+     */
+    private List<PwsResultIconCallback> takeCallbacks() {
+      synchronized (mPendingCallbacks) {
+        // After clear, a newer download of the same URL may own the entry.
+        if (mPendingCallbacks.get(mUrl) != mCallbacks) {
+          return new ArrayList<>();
+        }
+        mPendingCallbacks.remove(mUrl);
+        return new ArrayList<>(mCallbacks);
+      }
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+/**
+ * A PwsResultIconCallback that completes a PwsFuture with the icon, or with a PwsException if
+ * the download fails.
+ */
+class IconFutureCallback extends PwsResultIconCallback {
+  private final PwsFuture<byte[]> mFuture;
+
+  /**
+   * Construct an IconFutureCallback.
+   */
+  IconFutureCallback() {
+    mFuture = new PwsFuture<>();
+  }
+
+  /**
+   * Get the future completed by this callback.
+   * @return the future.
+   */
+  PwsFuture<byte[]> getFuture() {
+    return mFuture;
+  }
+
+  @Override
+  public void onIcon(byte[] icon) {
+    mFuture.complete(icon);
+  }
+
+  @Override
+  public void onError(int httpResponseCode, Exception e) {
+    mFuture.completeExceptionally(new PwsException(httpResponseCode, e));
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Map from dense ids, such as those of a UrlDictionary, to values, held in an array.
+ * Reads do not lock.  Writes are serialized, and growing copies the array before publishing it,
+ * so a reader sees either the old or the new array with every value written before it.
+ * @param <V> The type of the values.
+ */
+class IdTable<V> {
+  private static final int INITIAL_CAPACITY = 16;
+  private volatile AtomicReferenceArray<V> mValues;
+  private int mSize;
+
+  /**
+   * Construct an empty IdTable.
+   */
+  IdTable() {
+    mValues = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    mSize = 0;
+  }
+
+  /**
+   * Get the value for an id.
+   * @param id The id, which may be -1.
+   * @return the value, or null if the id has none.
+   */
+  V get(int id) {
+    AtomicReferenceArray<V> values = mValues;
+    return (id < 0 || id >= values.length()) ? null : values.get(id);
+  }
+
+  /**
+   * Set the value for an id.
+   * @param id The id.
+   * @param value The value, which must not be null.
+   * @return the previous value, or null if there was none.
+   */
+  synchronized V put(int id, V value) {
+    if (id < 0) {
+      throw new IndexOutOfBoundsException("Negative id " + id);
+    }
+    AtomicReferenceArray<V> values = mValues;
+    if (id >= values.length()) {
+      int capacity = values.length();
+      while (capacity <= id) {
+        capacity *= 2;
+      }
+      AtomicReferenceArray<V> grown = new AtomicReferenceArray<>(capacity);
+      for (int i = 0; i < values.length(); i++) {
+        grown.set(i, values.get(i));
+      }
+      values = grown;
+      mValues = grown;
+    }
+    V oldValue = values.getAndSet(id, value);
+    if (oldValue == null) {
+      mSize++;
+    }
+    return oldValue;
+  }
+
+  /**
+   * Remove the value for an id.
+   * @param id The id.
+   * @return the removed value, or null if there was none.
+   */
+  synchronized V remove(int id) {
+    AtomicReferenceArray<V> values = mValues;
+    if (id < 0 || id >= values.length()) {
+      return null;
+    }
+    V oldValue = values.getAndSet(id, null);
+    if (oldValue != null) {
+      mSize--;
+    }
+    return oldValue;
+  }
+
+  /**
+   * Get the number of ids with values.
+   * @return the number of values.
+   */
+  synchronized int size() {
+    return mSize;
+  }
+
+  /**
+   * Get the values in order of id.
+   * @return a new list of the values.
+   */
+  synchronized List<V> values() {
+    AtomicReferenceArray<V> values = mValues;
+    List<V> list = new ArrayList<>(mSize);
+    for (int i = 0; i < values.length(); i++) {
+      V value = values.get(i);
+      if (value != null) {
+        list.add(value);
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Remove every value.
+   */
+  synchronized void clear() {
+    mValues = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    mSize = 0;
+  }
+}
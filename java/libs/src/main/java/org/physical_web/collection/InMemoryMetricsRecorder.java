@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A MetricsRecorder that keeps its measurements in memory.
+ * Latencies and sizes are kept in histograms, counts of events in counters, and the most recent
+ * value of each count in gauges.  A snapshot of everything can be taken as JSON at any time,
+ * for example to be served to a metrics scraper.
+ */
+public class InMemoryMetricsRecorder extends MetricsRecorder {
+  private final Histogram mResolveLatencies;
+  private final Histogram mResolveBatchSizes;
+  private final Histogram mIconLatencies;
+  private final Histogram mIconSizes;
+  private final Map<String, Long> mCounters;
+  private final Map<String, Long> mGauges;
+
+  /**
+   * Construct an empty InMemoryMetricsRecorder.
+   */
+  public InMemoryMetricsRecorder() {
+    mResolveLatencies = new Histogram();
+    mResolveBatchSizes = new Histogram();
+    mIconLatencies = new Histogram();
+    mIconSizes = new Histogram();
+    mCounters = new HashMap<>();
+    mGauges = new HashMap<>();
+  }
+
+  @Override
+  public void recordResolve(int batchSize, long latencyMillis, boolean succeeded) {
+    mResolveLatencies.record(latencyMillis);
+    mResolveBatchSizes.record(batchSize);
+    increment(succeeded ? "resolveSuccesses" : "resolveErrors");
+  }
+
+  @Override
+  public void recordIconDownload(long latencyMillis, int sizeBytes, boolean succeeded) {
+    mIconLatencies.record(latencyMillis);
+    if (succeeded) {
+      mIconSizes.record(sizeBytes);
+    }
+    increment(succeeded ? "iconSuccesses" : "iconErrors");
+  }
+
+  @Override
+  public synchronized void recordInFlightRequests(int count) {
+    mGauges.put("inFlightRequests", (long) count);
+  }
+
+  @Override
+  public synchronized void recordPendingCounts(int pendingResolves, int pendingIcons) {
+    mGauges.put("pendingResolves", (long) pendingResolves);
+    mGauges.put("pendingIcons", (long) pendingIcons);
+  }
+
+  @Override
+  public synchronized void recordCollectionSize(int deviceCount, int metadataCount) {
+    mGauges.put("devices", (long) deviceCount);
+    mGauges.put("metadata", (long) metadataCount);
+  }
+
+  @Override
+  public void recordCacheHit(String cacheName) {
+    increment(cacheName + "CacheHits");
+  }
+
+  @Override
+  public void recordCacheMiss(String cacheName) {
+    increment(cacheName + "CacheMisses");
+  }
+
+  @Override
+  public void recordCacheEviction(String cacheName) {
+    increment(cacheName + "CacheEvictions");
+  }
+
+  private synchronized void increment(String counterName) {
+    Long count = mCounters.get(counterName);
+    mCounters.put(counterName, count == null ? 1 : count + 1);
+  }
+
+  /**
+   * Get the current value of a counter.
+   * @param counterName The name of the counter, as it appears in the snapshot.
+   * @return the number of events counted.
+   */
+  public synchronized long getCounter(String counterName) {
+    Long count = mCounters.get(counterName);
+    return count == null ? 0 : count;
+  }
+
+  /**
+   * Get the most recent value of a gauge.
+   * @param gaugeName The name of the gauge, as it appears in the snapshot.
+   * @return the value, or 0 if it was never recorded.
+   */
+  public synchronized long getGauge(String gaugeName) {
+    Long value = mGauges.get(gaugeName);
+    return value == null ? 0 : value;
+  }
+
+  /**
+   * Take a snapshot of all measurements.
+   * The snapshot has a "histograms" object with resolveLatencyMillis, resolveBatchSize,
+   * iconLatencyMillis and iconSizeBytes, a "counters" object and a "gauges" object.
+   * @return the snapshot.
+   */
+  public JSONObject snapshot() {
+    JSONObject histograms = new JSONObject();
+    histograms.put("resolveLatencyMillis", mResolveLatencies.toJson());
+    histograms.put("resolveBatchSize", mResolveBatchSizes.toJson());
+    histograms.put("iconLatencyMillis", mIconLatencies.toJson());
+    histograms.put("iconSizeBytes", mIconSizes.toJson());
+    JSONObject snapshot = new JSONObject();
+    snapshot.put("histograms", histograms);
+    synchronized (this) {
+      snapshot.put("counters", new JSONObject(mCounters));
+      snapshot.put("gauges", new JSONObject(mGauges));
+    }
+    return snapshot;
+  }
+}
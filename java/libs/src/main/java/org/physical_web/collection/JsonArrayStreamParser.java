@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads the objects of one array in a JSON document without holding the whole document.
+ * The document must be a JSON object.  Each object in the array stored under the requested key is
+ * parsed and handed to a listener as soon as its closing brace has been read.  All other members
+ * are skipped without being parsed.
+ */
+class JsonArrayStreamParser {
+  private static final int END = -1;
+  private final Reader mReader;
+  private final StringBuilder mBuffer;
+  private int mPeeked;
+
+  /**
+   * Receives the objects of the array.
+   */
+  interface ElementListener {
+    /**
+     * Handle one object of the array.
+     * @param element The parsed object.
+     */
+    void onElement(JSONObject element);
+  }
+
+  /**
+   * Construct a JsonArrayStreamParser.
+   * @param reader The JSON document.
+   */
+  JsonArrayStreamParser(Reader reader) {
+    mReader = reader;
+    mBuffer = new StringBuilder();
+    mPeeked = END - 1;
+  }
+
+  /**
+   * Read the document, passing each object of the array under arrayKey to the listener.
+   * Array elements that are not objects are skipped.
+   * @param arrayKey The key of the array in the top level object.
+   * @param listener The listener to pass objects to.
+   * @return true if the document contained the array.
+   * @throws IOException if the document could not be read or is not valid JSON.
+   */
+  boolean parse(String arrayKey, ElementListener listener) throws IOException {
+    boolean found = false;
+    expect('{');
+    if (peekClean() == '}') {
+      read();
+      return false;
+    }
+    while (true) {
+      expect('"');
+      String key = readString();
+      expect(':');
+      if (arrayKey.equals(key) && peekClean() == '[') {
+        readArray(listener);
+        found = true;
+      } else {
+        readValue(null);
+      }
+      int c = readClean();
+      if (c == '}') {
+        return found;
+      }
+      if (c != ',') {
+        throw syntaxError("Expected ',' or '}'");
+      }
+    }
+  }
+
+  private void readArray(ElementListener listener) throws IOException {
+    expect('[');
+    if (peekClean() == ']') {
+      read();
+      return;
+    }
+    while (true) {
+      if (peekClean() == '{') {
+        mBuffer.setLength(0);
+        readValue(mBuffer);
+        JSONObject element;
+        try {
+          element = new JSONObject(mBuffer.toString());
+        } catch (JSONException e) {
+          throw new IOException(e.toString());
+        }
+        // Outside the try, so that a JSONException thrown by the listener is not reported as a
+        // syntax error in the document.
+        listener.onElement(element);
+      } else {
+        readValue(null);
+      }
+      int c = readClean();
+      if (c == ']') {
+        return;
+      }
+      if (c != ',') {
+        throw syntaxError("Expected ',' or ']'");
+      }
+    }
+  }
+
+  /**
+   * Read one value, copying its text into out unless out is null.
+   */
+  private void readValue(StringBuilder out) throws IOException {
+    int c = readClean();
+    if (c == '"') {
+      append(out, c);
+      skipString(out);
+    } else if (c == '{' || c == '[') {
+      append(out, c);
+      int depth = 1;
+      while (depth > 0) {
+        c = read();
+        if (c == END) {
+          throw syntaxError("Unterminated value");
+        }
+        append(out, c);
+        if (c == '"') {
+          skipString(out);
+        } else if (c == '{' || c == '[') {
+          depth++;
+        } else if (c == '}' || c == ']') {
+          depth--;
+        }
+      }
+    } else if (c == END) {
+      throw syntaxError("Expected a value");
+    } else {
+      // A number, true, false or null runs until the next delimiter.
+      append(out, c);
+      while (true) {
+        c = peek();
+        if (c == END || c == ',' || c == '}' || c == ']' || Character.isWhitespace(c)) {
+          return;
+        }
+        append(out, read());
+      }
+    }
+  }
+
+  /**
+   * Read the rest of a string whose opening quote has been read, copying it into out.
+   */
+  private void skipString(StringBuilder out) throws IOException {
+    while (true) {
+      int c = read();
+      if (c == END) {
+        throw syntaxError("Unterminated string");
+      }
+      append(out, c);
+      if (c == '\\') {
+        append(out, read());
+      } else if (c == '"') {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Read and decode the rest of a string whose opening quote has been read.
+   */
+  private String readString() throws IOException {
+    StringBuilder stringBuilder = new StringBuilder();
+    while (true) {
+      int c = read();
+      switch (c) {
+        case END:
+          throw syntaxError("Unterminated string");
+        case '"':
+          return stringBuilder.toString();
+        case '\\':
+          c = read();
+          switch (c) {
+            case 'b':
+              stringBuilder.append('\b');
+              break;
+            case 't':
+              stringBuilder.append('\t');
+              break;
+            case 'n':
+              stringBuilder.append('\n');
+              break;
+            case 'f':
+              stringBuilder.append('\f');
+              break;
+            case 'r':
+              stringBuilder.append('\r');
+              break;
+            case 'u':
+              char[] hex = new char[4];
+              for (int i = 0; i < hex.length; i++) {
+                hex[i] = (char) read();
+              }
+              try {
+                stringBuilder.append((char) Integer.parseInt(new String(hex), 16));
+              } catch (NumberFormatException e) {
+                throw syntaxError("Invalid escape sequence");
+              }
+              break;
+            case END:
+              throw syntaxError("Unterminated string");
+            default:
+              stringBuilder.append((char) c);
+              break;
+          }
+          break;
+        default:
+          stringBuilder.append((char) c);
+          break;
+      }
+    }
+  }
+
+  private static void append(StringBuilder out, int c) {
+    if (out != null && c != END) {
+      out.append((char) c);
+    }
+  }
+
+  private void expect(char expected) throws IOException {
+    if (readClean() != expected) {
+      throw syntaxError("Expected '" + expected + "'");
+    }
+  }
+
+  private int peekClean() throws IOException {
+    while (true) {
+      int c = peek();
+      if (c == END || !Character.isWhitespace(c)) {
+        return c;
+      }
+      read();
+    }
+  }
+
+  private int readClean() throws IOException {
+    peekClean();
+    return read();
+  }
+
+  private int peek() throws IOException {
+    if (mPeeked < END) {
+      mPeeked = mReader.read();
+    }
+    return mPeeked;
+  }
+
+  private int read() throws IOException {
+    int c = peek();
+    mPeeked = END - 1;
+    return c;
+  }
+
+  private static IOException syntaxError(String message) {
+    return new IOException("Malformed JSON response: " + message);
+  }
+}
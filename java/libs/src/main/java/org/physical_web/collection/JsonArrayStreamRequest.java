@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+
+/**
+ * A class that represents an HTTP request whose response holds an array of JSON objects.
+ * The request payload is a JSON object.  The response is parsed while it is being received, and
+ * each object of the array is passed to the callback as soon as it has been read.
+ */
+class JsonArrayStreamRequest extends Request<Boolean> {
+  private final JSONObject mJsonObject;
+  private final String mArrayKey;
+  private final RequestCallback mElementCallback;
+
+  /**
+   * Construct a JSON array stream request.
+   * @param url The url to make this HTTP request to.
+   * @param jsonObject The JSON payload.
+   * @param arrayKey The key of the array in the response object.
+   * @param callback The callback run for each object and when the response is complete.
+   * @throws MalformedURLException on invalid url
+   */
+  public JsonArrayStreamRequest(String url, JSONObject jsonObject, String arrayKey,
+      RequestCallback callback) throws MalformedURLException {
+    super(url, callback);
+    mJsonObject = jsonObject;
+    mArrayKey = arrayKey;
+    mElementCallback = callback;
+  }
+
+  /**
+   * The callback that gets run as the response is read.
+   * onResponse receives whether the response contained the array.  If an error occurs after some
+   * objects were passed to onElement, onError is still run.
+   */
+  public interface RequestCallback extends Request.RequestCallback<Boolean> {
+    /**
+     * The callback run for each object of the array, on the request thread.
+     * @param element The object.
+     */
+    void onElement(JSONObject element);
+  }
+
+  /**
+   * Helper method to make an HTTP request.
+   * @param urlConnection The HTTP connection.
+   */
+  public void writeToUrlConnection(HttpURLConnection urlConnection) throws IOException {
+    urlConnection.setDoOutput(true);
+    urlConnection.setRequestProperty("Content-Type", "application/json");
+    urlConnection.setRequestProperty("Accept", "application/json");
+    urlConnection.setRequestMethod("POST");
+    writeBody(urlConnection, mJsonObject.toString().getBytes("UTF-8"));
+  }
+
+  /**
+   * Helper method to read an HTTP response.
+   * @param is The InputStream.
+   * @return whether the response contained the array.
+   */
+  protected Boolean readInputStream(InputStream is) throws IOException {
+    JsonArrayStreamParser parser = new JsonArrayStreamParser(
+        new BufferedReader(new InputStreamReader(is, "UTF-8")));
+    return parser.parse(mArrayKey, new JsonArrayStreamParser.ElementListener() {
+      @Override
+      public void onElement(JSONObject element) {
+        if (!Thread.currentThread().isInterrupted()) {
+          mElementCallback.onElement(element);
+        }
+      }
+    });
+  }
+}
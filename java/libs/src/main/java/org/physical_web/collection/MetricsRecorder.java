@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+/**
+ * Receives measurements from PwsClient and PhysicalWebCollection.
+ * Every method does nothing by default; subclasses override the ones they want to record and
+ * forward them to a metrics system.  Methods are called from request and caller threads, often
+ * while a lock is held, so implementations must be thread-safe and quick.
+ */
+public class MetricsRecorder {
+  /**
+   * The name of the icon cache, passed to the cache methods.
+   */
+  public static final String ICON_CACHE = "icon";
+
+  /**
+   * The name of the PwsResultCache, passed to the cache methods.
+   */
+  public static final String RESULT_CACHE = "result";
+
+  /**
+   * The name of the EddystoneFrameCache, passed to the cache methods.
+   */
+  public static final String FRAME_CACHE = "frame";
+
+  /**
+   * Record a completed resolve request.
+   * @param batchSize The number of URLs in the request.
+   * @param latencyMillis The time from sending the request to the end of its response.
+   * @param succeeded Whether the request succeeded.
+   */
+  public void recordResolve(int batchSize, long latencyMillis, boolean succeeded) {}
+
+  /**
+   * Record a completed icon download.
+   * @param latencyMillis The time from sending the request to the end of its response.
+   * @param sizeBytes The size of the icon, or 0 if the download failed.
+   * @param succeeded Whether the download succeeded.
+   */
+  public void recordIconDownload(long latencyMillis, int sizeBytes, boolean succeeded) {}
+
+  /**
+   * Record the number of HTTP requests queued or running in a PwsClient.
+   * @param count The number of requests.
+   */
+  public void recordInFlightRequests(int count) {}
+
+  /**
+   * Record the number of URLs and icons a PhysicalWebCollection is waiting for.
+   * @param pendingResolves The number of broadcast URLs being resolved.
+   * @param pendingIcons The number of icons being downloaded.
+   */
+  public void recordPendingCounts(int pendingResolves, int pendingIcons) {}
+
+  /**
+   * Record the size of a PhysicalWebCollection.
+   * @param deviceCount The number of devices.
+   * @param metadataCount The number of resolved broadcast URLs.
+   */
+  public void recordCollectionSize(int deviceCount, int metadataCount) {}
+
+  /**
+   * Record a cache lookup that found its entry.
+   * @param cacheName ICON_CACHE, RESULT_CACHE or FRAME_CACHE.
+   */
+  public void recordCacheHit(String cacheName) {}
+
+  /**
+   * Record a cache lookup that did not find its entry.
+   * @param cacheName ICON_CACHE, RESULT_CACHE or FRAME_CACHE.
+   */
+  public void recordCacheMiss(String cacheName) {}
+
+  /**
+   * Record an entry evicted from a cache to make room for others.
+   * @param cacheName ICON_CACHE, RESULT_CACHE or FRAME_CACHE.
+   */
+  public void recordCacheEviction(String cacheName) {}
+}
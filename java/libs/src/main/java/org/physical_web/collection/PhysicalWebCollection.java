@@ -20,6 +20,11 @@ import org.apache.commons.codec.binary.Base64;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -31,9 +36,20 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Collection of Physical Web URL devices and related metadata.
+ * The collection may be used from several threads at once.  Devices are held in a concurrent map
+ * and metadata in a table indexed by the id of its broadcast URL, so lookups never block; only the
+ * ranked view takes a lock, which is shared by readers.
+ * URLs are interned in a UrlDictionary, so devices broadcasting the same URL share one String and
+ * site URLs are deduplicated by id.
  */
 public class PhysicalWebCollection {
   private static final int SCHEMA_VERSION = 1;
@@ -41,44 +57,444 @@ public class PhysicalWebCollection {
   private static final String DEVICES_KEY = "devices";
   private static final String METADATA_KEY = "metadata";
   private static final String ICON_MAP_KEY = "iconmap";
+  private static final long DEFAULT_ICON_CACHE_BYTES = 4 * 1024 * 1024;
+  // Dictionaries smaller than this are not worth rebuilding, however many of their URLs are gone.
+  private static final int MIN_COMPACTED_URL_COUNT = 64;
   private PwsClient mPwsClient;
-  private Map<String, UrlDevice> mDeviceIdToUrlDeviceMap;
-  private Map<String, PwsResult> mBroadcastUrlToPwsResultMap;
-  private Map<String, byte[]> mIconUrlToIconMap;
+  private ConcurrentMap<String, UrlDevice> mDeviceIdToUrlDeviceMap;
+  // Replaced as a whole by clear and compactUrlTables, so that a reader never looks up an id of
+  // one dictionary in the table of another.
+  private volatile UrlTables mUrlTables;
+  private IconCache mIconCache;
+  private volatile PwsResultIconCallback mIconRefetchCallback;
+  private IconDownloader mIconDownloader;
   private Set<String> mPendingBroadcastUrls;
-  private Set<String> mPendingIconUrls;
-  private Set<String> mFailedResolveUrls;
+  private ResolveFailureTracker mResolveFailures;
+  private ScheduledExecutorService mScheduler;
+  private ResolveBatcher mResolveBatcher;
+  private PwsResultCache mPwsResultCache;
+  private final ReadWriteLock mRankLock;
+  private Comparator<PwPair> mRankComparator;
+  private volatile MetricsRecorder mMetricsRecorder;
+  private RankedPwPairIndex mRankedPwPairIndex;
+  // Guards only its own calls; expireStaleDevices puts back a device seen again while it expires.
+  private final DeviceExpiryWheel mDeviceExpiryWheel;
+  private final ConcurrentMap<String, SightingHistory> mDeviceIdToSightingHistoryMap;
+  private final Clock mClock;
+  private volatile ProximityEstimator mProximityEstimator;
 
   /**
    * Construct a PhysicalWebCollection.
    */
   public PhysicalWebCollection() {
-    mPwsClient = new PwsClient();
-    mDeviceIdToUrlDeviceMap = new HashMap<>();
-    mBroadcastUrlToPwsResultMap = new HashMap<>();
-    mIconUrlToIconMap = new HashMap<>();
-    mPendingBroadcastUrls = new HashSet<>();
-    mPendingIconUrls = new HashSet<>();
-    mFailedResolveUrls = new HashSet<>();
+    this(new PwsClient());
+  }
+
+  /**
+   * Construct a PhysicalWebCollection that makes requests with the given client.
+   * @param pwsClient The client used to make PWS requests.
+   */
+  PhysicalWebCollection(PwsClient pwsClient) {
+    this(pwsClient, Clock.SYSTEM);
+  }
+
+  /**
+   * Construct a PhysicalWebCollection that makes requests with the given client and reads the
+   * time from the given clock.
+   * @param pwsClient The client used to make PWS requests.
+   * @param clock The clock that times device sightings.
+   */
+  PhysicalWebCollection(PwsClient pwsClient, Clock clock) {
+    mPwsClient = pwsClient;
+    mDeviceIdToUrlDeviceMap = new ConcurrentHashMap<>();
+    mUrlTables = new UrlTables();
+    mIconCache = new IconCache(DEFAULT_ICON_CACHE_BYTES);
+    mIconRefetchCallback = null;
+    mIconDownloader = new IconDownloader(pwsClient, mIconCache);
+    mPendingBroadcastUrls = newConcurrentSet();
+    mResolveFailures = new ResolveFailureTracker();
+    mScheduler = null;
+    mResolveBatcher = null;
+    mPwsResultCache = null;
+    mRankLock = new ReentrantReadWriteLock();
+    mRankComparator = null;
+    mRankedPwPairIndex = null;
+    mMetricsRecorder = null;
+    mDeviceExpiryWheel = new DeviceExpiryWheel();
+    mDeviceIdToSightingHistoryMap = new ConcurrentHashMap<>();
+    mClock = clock;
+    mProximityEstimator = null;
+  }
+
+  /**
+   * The dictionary that assigns ids to broadcast and site URLs, and the metadata indexed by the
+   * ids of its broadcast URLs.
+   */
+  private static class UrlTables {
+    final UrlDictionary urlDictionary;
+    final IdTable<PwsResult> urlIdToPwsResultTable;
+
+    UrlTables() {
+      urlDictionary = new UrlDictionary();
+      urlIdToPwsResultTable = new IdTable<>();
+    }
+
+    /**
+     * Store metadata, interning its site URL so that site URLs are deduplicated by id.
+     */
+    void putPwsResult(PwsResult pwsResult) {
+      urlDictionary.getOrAddId(pwsResult.getSiteUrl());
+      urlIdToPwsResultTable.put(urlDictionary.getOrAddId(pwsResult.getRequestUrl()), pwsResult);
+    }
+  }
+
+  private static Set<String> newConcurrentSet() {
+    return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
   }
 
   /**
    * Add a UrlDevice to the collection.
+   * Adding a device also records that it was seen now; see expireStaleDevices.  If the device has
+   * an RSSI, the sighting is recorded in its SightingHistory, which is created on the device's
+   * first sighting.
    * @param urlDevice The UrlDevice to add.
    * @return true if the device already existed in the map
    */
   public boolean addUrlDevice(UrlDevice urlDevice) {
-    boolean alreadyFound = mDeviceIdToUrlDeviceMap.containsKey(urlDevice.getId());
-    mDeviceIdToUrlDeviceMap.put(urlDevice.getId(), urlDevice);
+    urlDevice = canonicalize(urlDevice);
+    String deviceId = urlDevice.getId();
+    long now = mClock.currentTimeMillis();
+    // The device is tracked before it is stored, so that expireStaleDevices can tell that it was
+    // seen again if it is expiring meanwhile.
+    synchronized (mDeviceExpiryWheel) {
+      mDeviceExpiryWheel.touch(deviceId, urlDevice.getDeviceType(), now);
+    }
+    boolean alreadyFound = mDeviceIdToUrlDeviceMap.put(deviceId, urlDevice) != null;
+    // The rank comparator may read the sighting state, so the device's old pair is taken out of
+    // the ranked view before that state changes.
+    mRankLock.writeLock().lock();
+    try {
+      if (mRankedPwPairIndex != null) {
+        mRankedPwPairIndex.detach(deviceId);
+      }
+      if (urlDevice.hasRssi()) {
+        long timestampMillis =
+            urlDevice.hasScanTimeMillis() ? urlDevice.getScanTimeMillis() : now;
+        int txPower = urlDevice.hasTxPower() ? urlDevice.getTxPower()
+                                             : SightingHistory.UNKNOWN_TX_POWER;
+        recordSighting(deviceId, timestampMillis, urlDevice.getRssi(), txPower, now);
+      }
+      updateRankedPwPair(deviceId);
+    } finally {
+      if (mRankedPwPairIndex != null) {
+        mRankedPwPairIndex.attach();
+      }
+      mRankLock.writeLock().unlock();
+    }
+    recordCounts();
     return alreadyFound;
   }
 
+  /**
+   * Record a new sighting of a device already in the collection, without replacing the device.
+   * This is the cheap path for devices that advertise many times a second: the sighting is
+   * written into the device's SightingHistory, allocating only for its first sighting, the device
+   * is marked as seen for expireStaleDevices, and the device is moved to its new place in the
+   * ranked view.  The UrlDevice itself keeps the RSSI and TX power it was added with.
+   * @param deviceId The ID of the device.
+   * @param timestampMillis The time of the sighting.
+   * @param rssi The received signal strength in dBm.
+   * @param txPower The advertised TX power in dBm, or SightingHistory.UNKNOWN_TX_POWER.
+   * @return true if the device is in the collection, false if it must be added with
+   *     addUrlDevice.
+   */
+  public boolean updateSighting(String deviceId, long timestampMillis, int rssi, int txPower) {
+    UrlDevice urlDevice = deviceId == null ? null : mDeviceIdToUrlDeviceMap.get(deviceId);
+    if (urlDevice == null) {
+      return false;
+    }
+    long now = mClock.currentTimeMillis();
+    synchronized (mDeviceExpiryWheel) {
+      mDeviceExpiryWheel.touch(deviceId, urlDevice.getDeviceType(), now);
+    }
+    // The rank comparator may read the sighting state, so the device's pair is taken out of the
+    // ranked view while that state changes and put back in its new place afterwards.
+    mRankLock.writeLock().lock();
+    try {
+      if (mRankedPwPairIndex != null) {
+        mRankedPwPairIndex.detach(deviceId);
+      }
+      recordSighting(deviceId, timestampMillis, rssi, txPower, now);
+    } finally {
+      if (mRankedPwPairIndex != null) {
+        mRankedPwPairIndex.attach();
+      }
+      mRankLock.writeLock().unlock();
+    }
+    return true;
+  }
+
+  /**
+   * Record a sighting in a device's history, creating the history on the first sighting, and
+   * update the device's proximity estimate from the history.
+   */
+  private void recordSighting(String deviceId, long timestampMillis, int rssi, int txPower,
+                              long now) {
+    SightingHistory sightingHistory = mDeviceIdToSightingHistoryMap.get(deviceId);
+    if (sightingHistory == null) {
+      SightingHistory newSightingHistory = new SightingHistory(SightingHistory.DEFAULT_CAPACITY);
+      sightingHistory = mDeviceIdToSightingHistoryMap.putIfAbsent(deviceId, newSightingHistory);
+      if (sightingHistory == null) {
+        sightingHistory = newSightingHistory;
+      }
+    }
+    sightingHistory.add(timestampMillis, rssi, txPower);
+    ProximityEstimator proximityEstimator = mProximityEstimator;
+    if (proximityEstimator != null) {
+      proximityEstimator.update(deviceId, now, sightingHistory);
+    }
+  }
+
+  /**
+   * Get the recent sightings of a device.
+   * The history is updated in place as the device is seen again.
+   * @param deviceId The ID of the device.
+   * @return the history, or null if the device is not in the collection or has never been seen
+   *     with an RSSI.
+   */
+  public SightingHistory getSightingHistory(String deviceId) {
+    return deviceId == null ? null : mDeviceIdToSightingHistoryMap.get(deviceId);
+  }
+
+  /**
+   * Replace the URL of a device with the dictionary's String for it, so that the devices
+   * broadcasting a URL share a single copy.
+   */
+  private UrlDevice canonicalize(UrlDevice urlDevice) {
+    String url = urlDevice.getUrl();
+    UrlDictionary urlDictionary = mUrlTables.urlDictionary;
+    int urlId = urlDictionary.getOrAddId(url);
+    if (urlId < 0 || urlDictionary.isCanonical(url)) {
+      return urlDevice;
+    }
+    return urlDevice.withUrl(urlDictionary.getUrl(urlId));
+  }
+
+  /**
+   * Get the metadata of a broadcast URL.
+   */
+  private PwsResult getPwsResult(String broadcastUrl) {
+    UrlTables urlTables = mUrlTables;
+    return urlTables.urlIdToPwsResultTable.get(urlTables.urlDictionary.getId(broadcastUrl));
+  }
+
+  /**
+   * Get the number of URLs interned by the collection.
+   * @return the size of the URL dictionary.
+   */
+  int getInternedUrlCount() {
+    return mUrlTables.urlDictionary.size();
+  }
+
   /**
    * Remove a UrlDevice from the collection.
    * @param urlDevice The UrlDevice to remove.
    */
   public void removeUrlDevice(UrlDevice urlDevice) {
     mDeviceIdToUrlDeviceMap.remove(urlDevice.getId());
+    // The pair leaves the ranked view before the state the rank comparator may read goes.
+    updateRankedPwPair(urlDevice.getId());
+    mDeviceIdToSightingHistoryMap.remove(urlDevice.getId());
+    synchronized (mDeviceExpiryWheel) {
+      mDeviceExpiryWheel.remove(urlDevice.getId());
+    }
+    ProximityEstimator proximityEstimator = mProximityEstimator;
+    if (proximityEstimator != null) {
+      proximityEstimator.remove(urlDevice.getId());
+    }
+    compactUrlTables();
+    recordCounts();
+  }
+
+  /**
+   * Rebuild the URL dictionary without the URLs of devices that have left, once those make up
+   * most of it.  Ids are never reused within a dictionary, since lookups do not lock, so a long
+   * scan would otherwise keep every URL it has ever seen.  The dictionary is replaced together
+   * with the metadata it indexes, as clear does.  Each rebuild at least halves the dictionary, so
+   * its cost is spread over the URLs that were added since the previous one.
+   */
+  private void compactUrlTables() {
+    mRankLock.writeLock().lock();
+    try {
+      UrlTables urlTables = mUrlTables;
+      int urlCount = urlTables.urlDictionary.size();
+      // Each device contributes its broadcast URL, and each result its request and site URLs.
+      int maxLiveUrlCount =
+          mDeviceIdToUrlDeviceMap.size() + 2 * urlTables.urlIdToPwsResultTable.size();
+      if (urlCount < MIN_COMPACTED_URL_COUNT || urlCount <= 2 * maxLiveUrlCount) {
+        return;
+      }
+      UrlTables compactedUrlTables = new UrlTables();
+      // Devices first, so that the Strings they already share stay canonical.
+      for (UrlDevice urlDevice : mDeviceIdToUrlDeviceMap.values()) {
+        compactedUrlTables.urlDictionary.getOrAddId(urlDevice.getUrl());
+      }
+      for (PwsResult pwsResult : urlTables.urlIdToPwsResultTable.values()) {
+        compactedUrlTables.putPwsResult(pwsResult);
+      }
+      mUrlTables = compactedUrlTables;
+      if (mRankedPwPairIndex != null) {
+        mRankedPwPairIndex.setUrlDictionary(compactedUrlTables.urlDictionary);
+      }
+    } finally {
+      mRankLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Set how long devices may go unseen before expireStaleDevices removes them, for device types
+   * without a time to live of their own.  By default devices never expire.
+   * @param ttlMillis The time to live in milliseconds, or 0 to never expire devices.
+   */
+  public void setDeviceTtl(long ttlMillis) {
+    synchronized (mDeviceExpiryWheel) {
+      mDeviceExpiryWheel.setDefaultTtl(ttlMillis);
+    }
+  }
+
+  /**
+   * Set how long devices of one type may go unseen before expireStaleDevices removes them.
+   * Devices that advertise often, such as BLE beacons, can be given a shorter time to live than
+   * those found by slower discovery, such as mDNS or SSDP.
+   * @param deviceType The type, as returned by UrlDevice.getDeviceType.
+   * @param ttlMillis The time to live in milliseconds, 0 to never expire devices of the type, or
+   *     a negative value to use the time to live set with setDeviceTtl(long).
+   */
+  public void setDeviceTtl(String deviceType, long ttlMillis) {
+    synchronized (mDeviceExpiryWheel) {
+      mDeviceExpiryWheel.setTtl(deviceType, ttlMillis);
+    }
+  }
+
+  /**
+   * Remove the devices that have not been added again within the time to live of their type.
+   * Each call only visits the devices due to expire since the previous call, so it may be made as
+   * often as is convenient, such as before reading the ranked pairs.  A device added again while
+   * it is being removed is put back rather than expired.
+   * @return the removed devices.
+   */
+  public List<UrlDevice> expireStaleDevices() {
+    List<String> expiredDeviceIds;
+    synchronized (mDeviceExpiryWheel) {
+      expiredDeviceIds = mDeviceExpiryWheel.expire(mClock.currentTimeMillis());
+    }
+    if (expiredDeviceIds.isEmpty()) {
+      return new ArrayList<>();
+    }
+    int count = expiredDeviceIds.size();
+    UrlDevice[] urlDevices = new UrlDevice[count];
+    for (int i = 0; i < count; i++) {
+      urlDevices[i] = mDeviceIdToUrlDeviceMap.remove(expiredDeviceIds.get(i));
+    }
+
+    // addUrlDevice tracks a device before storing it, so one tracked again now was added since
+    // it expired, and the device removed above was, or will be replaced by, its new sighting.
+    boolean[] seenAgain = new boolean[count];
+    synchronized (mDeviceExpiryWheel) {
+      for (int i = 0; i < count; i++) {
+        seenAgain[i] = mDeviceExpiryWheel.getLastSeenMillis(expiredDeviceIds.get(i)) >= 0;
+      }
+    }
+    List<UrlDevice> expiredDevices = new ArrayList<>();
+    ProximityEstimator proximityEstimator = mProximityEstimator;
+    for (int i = 0; i < count; i++) {
+      String deviceId = expiredDeviceIds.get(i);
+      if (seenAgain[i]) {
+        if (urlDevices[i] != null) {
+          mDeviceIdToUrlDeviceMap.putIfAbsent(deviceId, urlDevices[i]);
+        }
+        updateRankedPwPair(deviceId);
+        continue;
+      }
+      // The pair leaves the ranked view before the state the rank comparator may read goes.
+      updateRankedPwPair(deviceId);
+      if (!mDeviceIdToUrlDeviceMap.containsKey(deviceId)) {
+        mDeviceIdToSightingHistoryMap.remove(deviceId);
+      }
+      if (proximityEstimator != null) {
+        proximityEstimator.remove(deviceId);
+      }
+      if (urlDevices[i] != null) {
+        expiredDevices.add(urlDevices[i]);
+      }
+    }
+    if (!expiredDevices.isEmpty()) {
+      compactUrlTables();
+      recordCounts();
+    }
+    return expiredDevices;
+  }
+
+  /**
+   * Set the estimator that is fed the SightingHistory of a device on every sighting recorded by
+   * addUrlDevice and updateSighting, and that forgets devices as they leave the collection.
+   * Sightings are timed by the collection's clock rather than their scan time, so that the
+   * estimator's idle timeout is measured in the same time base however the sightings were made.
+   * The estimator is first fed the latest sighting of every device already in the collection, so
+   * that devices restored from a serialized collection have an estimate.  Its distance comparator
+   * can then rank the collection by proximity.  The estimator evicts only devices that have left
+   * the collection, since the ranked view would not see an estimate vanish.
+   * @param proximityEstimator The estimator, or null to stop feeding one.
+   */
+  public void setProximityEstimator(ProximityEstimator proximityEstimator) {
+    mRankLock.writeLock().lock();
+    try {
+      if (mProximityEstimator != null) {
+        mProximityEstimator.setDeviceTracker(null);
+      }
+      mProximityEstimator = proximityEstimator;
+      if (proximityEstimator == null) {
+        return;
+      }
+      proximityEstimator.setDeviceTracker(new ProximityEstimator.DeviceTracker() {
+        @Override
+        public boolean isTracked(String deviceId) {
+          return mDeviceIdToUrlDeviceMap.containsKey(deviceId);
+        }
+      });
+      long now = mClock.currentTimeMillis();
+      for (Map.Entry<String, SightingHistory> entry : mDeviceIdToSightingHistoryMap.entrySet()) {
+        if (entry.getValue().size() > 0) {
+          proximityEstimator.update(entry.getKey(), now, entry.getValue());
+        }
+      }
+      // The rank comparator may read the new estimates.
+      if (mRankedPwPairIndex != null) {
+        mRankedPwPairIndex.rebuild();
+      }
+    } finally {
+      mRankLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Get the estimator set with setProximityEstimator.
+   * @return the estimator, or null if none is set.
+   */
+  public ProximityEstimator getProximityEstimator() {
+    return mProximityEstimator;
+  }
+
+  /**
+   * Get the time a device was last added to the collection.
+   * @param deviceId The ID of the device.
+   * @return the time in milliseconds since the epoch, or -1 if the device is not in the
+   *     collection.
+   */
+  public long getLastSeenMillis(String deviceId) {
+    synchronized (mDeviceExpiryWheel) {
+      return mDeviceExpiryWheel.getLastSeenMillis(deviceId);
+    }
   }
 
   /**
@@ -86,7 +502,70 @@ public class PhysicalWebCollection {
    * @param pwsResult The PwsResult to add.
    */
   public void addMetadata(PwsResult pwsResult) {
-    mBroadcastUrlToPwsResultMap.put(pwsResult.getRequestUrl(), pwsResult);
+    mRankLock.writeLock().lock();
+    try {
+      // Stored under the lock, so that compactUrlTables cannot drop it from the tables it replaces.
+      mUrlTables.putPwsResult(pwsResult);
+      if (mRankedPwPairIndex != null) {
+        // Only the devices broadcasting the URL are re-ranked.
+        for (String deviceId : mRankedPwPairIndex.getDeviceIds(pwsResult.getRequestUrl())) {
+          updateRankedPwPair(deviceId);
+        }
+      }
+    } finally {
+      mRankLock.writeLock().unlock();
+    }
+    recordCounts();
+  }
+
+  /**
+   * Set the recorder that receives measurements of this collection and of its PwsClient.
+   * @param metricsRecorder The recorder, or null to stop recording.
+   */
+  public void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+    mMetricsRecorder = metricsRecorder;
+    mPwsClient.setMetricsRecorder(metricsRecorder);
+    mIconCache.setMetricsRecorder(
+        metricsRecorder == null ? new MetricsRecorder() : metricsRecorder);
+    recordCounts();
+  }
+
+  /**
+   * Pass the device, metadata and pending counts to the metrics recorder, if there is one.
+   */
+  private void recordCounts() {
+    MetricsRecorder metricsRecorder = mMetricsRecorder;
+    if (metricsRecorder != null) {
+      metricsRecorder.recordCollectionSize(mDeviceIdToUrlDeviceMap.size(),
+                                           mUrlTables.urlIdToPwsResultTable.size());
+      metricsRecorder.recordPendingCounts(mPendingBroadcastUrls.size(),
+                                          mIconDownloader.getPendingCount());
+    }
+  }
+
+  /**
+   * Bring the ranked view up to date for one device.
+   * The pair is rebuilt from the maps while the lock is held, so whichever of several concurrent
+   * updates runs last leaves the view matching the maps.
+   */
+  private void updateRankedPwPair(String deviceId) {
+    mRankLock.writeLock().lock();
+    try {
+      if (mRankedPwPairIndex == null) {
+        return;
+      }
+      UrlDevice urlDevice = mDeviceIdToUrlDeviceMap.get(deviceId);
+      PwsResult pwsResult = urlDevice == null ? null : getPwsResult(urlDevice.getUrl());
+      if (urlDevice == null) {
+        mRankedPwPairIndex.remove(deviceId);
+      } else if (pwsResult == null) {
+        mRankedPwPairIndex.putUnresolved(urlDevice);
+      } else {
+        mRankedPwPairIndex.put(new PwPair(urlDevice, pwsResult));
+      }
+    } finally {
+      mRankLock.writeLock().unlock();
+    }
   }
 
   /**
@@ -95,28 +574,82 @@ public class PhysicalWebCollection {
    * @param icon The bitmap of the icon.
    */
   public void addIcon(String url, byte[] icon) {
-    mIconUrlToIconMap.put(url, icon);
+    mIconCache.put(url, icon);
   }
 
   /**
    * Clear results and devices.
+   * The URL dictionary is replaced together with the metadata it indexes, so that URLs seen
+   * before the collection was cleared do not stay interned.
    */
   public void clear(){
-    mDeviceIdToUrlDeviceMap.clear();
-    mBroadcastUrlToPwsResultMap.clear();
-    mIconUrlToIconMap.clear();
+    mRankLock.writeLock().lock();
+    try {
+      mDeviceIdToUrlDeviceMap.clear();
+      mDeviceIdToSightingHistoryMap.clear();
+      synchronized (mDeviceExpiryWheel) {
+        mDeviceExpiryWheel.clear();
+      }
+      ProximityEstimator proximityEstimator = mProximityEstimator;
+      if (proximityEstimator != null) {
+        proximityEstimator.clear();
+      }
+      mUrlTables = new UrlTables();
+      if (mRankedPwPairIndex != null) {
+        mRankedPwPairIndex = new RankedPwPairIndex(mRankComparator, mUrlTables.urlDictionary);
+      }
+    } finally {
+      mRankLock.writeLock().unlock();
+    }
+    mIconCache.clear();
+    mIconDownloader.clear();
     mPendingBroadcastUrls.clear();
-    mPendingIconUrls.clear();
-    mFailedResolveUrls.clear();
+    mResolveFailures.clear();
+    recordCounts();
   }
 
   /**
    * Get an Icon from the collection.
+   * If the icon was evicted from the icon cache but is still used by the metadata of a device in
+   * the collection, it is downloaded again and passed to the PwsResultIconCallback most recently
+   * given to fetchPwsResults.
    * @param url The url of the icon.
    * @return The associated icon.  This will be null if there is no icon.
    */
   public byte[] getIcon(String url) {
-    return mIconUrlToIconMap.get(url);
+    if (url != null && !mIconCache.contains(url) && mIconCache.wasEvicted(url)
+        && !mIconDownloader.isPending(url) && isIconUrlInUse(url)) {
+      PwsResultIconCallback callback = mIconRefetchCallback;
+      if (callback == null) {
+        callback = new PwsResultIconCallback() {
+          @Override
+          public void onIcon(byte[] icon) {}
+        };
+      }
+      // The download counts the miss.
+      mIconDownloader.download(url, callback);
+      return null;
+    }
+    return mIconCache.get(url);
+  }
+
+  /**
+   * Get the cache holding the icons of this collection.
+   * The cache can be used to change the icon budget and to read hit, miss and eviction counts.
+   * @return the icon cache.
+   */
+  public IconCache getIconCache() {
+    return mIconCache;
+  }
+
+  private boolean isIconUrlInUse(String iconUrl) {
+    for (UrlDevice urlDevice : mDeviceIdToUrlDeviceMap.values()) {
+      PwsResult pwsResult = getPwsResult(urlDevice.getUrl());
+      if (pwsResult != null && iconUrl.equals(pwsResult.getIconUrl())) {
+        return true;
+      }
+    }
+    return false;
   }
 
   /**
@@ -125,7 +658,7 @@ public class PhysicalWebCollection {
    * @return the UrlDevice with the given ID.
    */
   public UrlDevice getUrlDeviceById(String id) {
-    return mDeviceIdToUrlDeviceMap.get(id);
+    return id == null ? null : mDeviceIdToUrlDeviceMap.get(id);
   }
 
   /**
@@ -134,7 +667,7 @@ public class PhysicalWebCollection {
    * @return Cached metadata relevant to the given URL.
    */
   public PwsResult getMetadataByBroadcastUrl(String broadcastUrl) {
-    return mBroadcastUrlToPwsResultMap.get(broadcastUrl);
+    return getPwsResult(broadcastUrl);
   }
 
   /**
@@ -161,14 +694,14 @@ public class PhysicalWebCollection {
 
     // Serialize the URL metadata
     JSONArray metadata = new JSONArray();
-    for (PwsResult pwsResult : mBroadcastUrlToPwsResultMap.values()) {
+    for (PwsResult pwsResult : mUrlTables.urlIdToPwsResultTable.values()) {
       metadata.put(pwsResult.jsonSerialize());
     }
     jsonObject.put(METADATA_KEY, metadata);
 
     JSONObject iconMap = new JSONObject();
-    for (String iconUrl : mIconUrlToIconMap.keySet()) {
-      iconMap.put(iconUrl, new String(Base64.encodeBase64(getIcon(iconUrl)),
+    for (Map.Entry<String, byte[]> entry : mIconCache.snapshot().entrySet()) {
+      iconMap.put(entry.getKey(), new String(Base64.encodeBase64(entry.getValue()),
           Charset.forName("UTF-8")));
     }
     jsonObject.put(ICON_MAP_KEY, iconMap);
@@ -219,6 +752,76 @@ public class PhysicalWebCollection {
     return collection;
   }
 
+  /**
+   * Write a compact binary representation of this data structure.
+   * Unlike jsonSerialize, icons are stored as raw bytes and repeated strings such as URLs are
+   * stored once.  The output is streamed, so no intermediate representation is built.
+   * @param os The stream to write to.  It is flushed but not closed.
+   * @throws IOException on error
+   */
+  public void binarySerialize(OutputStream os) throws IOException {
+    BinaryEncoder encoder = new BinaryEncoder(new BufferedOutputStream(os));
+
+    // Serialize the UrlDevices
+    List<UrlDevice> urlDevices = getUrlDevices();
+    encoder.writeInt(urlDevices.size());
+    for (UrlDevice urlDevice : urlDevices) {
+      urlDevice.binarySerialize(encoder);
+    }
+
+    // Serialize the URL metadata
+    List<PwsResult> pwsResults = mUrlTables.urlIdToPwsResultTable.values();
+    encoder.writeInt(pwsResults.size());
+    for (PwsResult pwsResult : pwsResults) {
+      pwsResult.binarySerialize(encoder);
+    }
+
+    Map<String, byte[]> iconMap = mIconCache.snapshot();
+    encoder.writeInt(iconMap.size());
+    for (Map.Entry<String, byte[]> entry : iconMap.entrySet()) {
+      encoder.writeString(entry.getKey());
+      encoder.writeBytes(entry.getValue());
+    }
+    encoder.flush();
+  }
+
+  /**
+   * Populate this data structure with data written by binarySerialize.
+   * @param is The stream to read from.
+   * @return The PhysicalWebCollection represented by the serialized data.
+   * @throws IOException if the stream cannot be read or is malformed
+   * @throws PhysicalWebCollectionException on an unrecognized format version
+   */
+  public static PhysicalWebCollection binaryDeserialize(InputStream is)
+      throws IOException, PhysicalWebCollectionException {
+    BinaryDecoder decoder = new BinaryDecoder(new BufferedInputStream(is));
+    if (decoder.getFormatVersion() > BinaryEncoder.FORMAT_VERSION) {
+      throw new PhysicalWebCollectionException(
+          "Cannot handle binary format version " + decoder.getFormatVersion() + ".  "
+          + "This library only knows of binary format version " + BinaryEncoder.FORMAT_VERSION);
+    }
+    PhysicalWebCollection collection = new PhysicalWebCollection();
+
+    // Deserialize the UrlDevices
+    int urlDeviceCount = decoder.readInt();
+    for (int i = 0; i < urlDeviceCount; i++) {
+      collection.addUrlDevice(UrlDevice.binaryDeserialize(decoder));
+    }
+
+    // Deserialize the URL metadata
+    int pwsResultCount = decoder.readInt();
+    for (int i = 0; i < pwsResultCount; i++) {
+      collection.addMetadata(PwsResult.binaryDeserialize(decoder));
+    }
+
+    int iconCount = decoder.readInt();
+    for (int i = 0; i < iconCount; i++) {
+      String iconUrl = decoder.readString();
+      collection.addIcon(iconUrl, decoder.readBytes());
+    }
+    return collection;
+  }
+
   /**
    * Return a list of PwPairs sorted by rank in descending order.
    * These PwPairs will be deduplicated by siteUrls (favoring the PwPair with
@@ -237,13 +840,127 @@ public class PhysicalWebCollection {
     return removeDuplicateSiteUrls(allPwPairs);
   }
 
+  /**
+   * Set the comparator used to keep a ranked view of the collection up to date.
+   * Once set, the pairs are kept grouped and sorted as devices and metadata are added and
+   * removed, so getGroupedPwPairsSortedByRank and getTopGroupedPwPairs do not need to sort.
+   * If the comparator ranks by state outside the pairs, call updateRanking when that state
+   * changes.  Re-adding a device is enough when only that device's rank changed.
+   * @param comparator The comparator to rank pairs with, or null to stop maintaining the view.
+   */
+  public void setRankComparator(Comparator<PwPair> comparator) {
+    mRankLock.writeLock().lock();
+    try {
+      mRankComparator = comparator;
+      if (comparator == null) {
+        mRankedPwPairIndex = null;
+        return;
+      }
+      mRankedPwPairIndex = new RankedPwPairIndex(comparator, mUrlTables.urlDictionary);
+      for (String deviceId : mDeviceIdToUrlDeviceMap.keySet()) {
+        updateRankedPwPair(deviceId);
+      }
+    } finally {
+      mRankLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Get the comparator set with setRankComparator.
+   * @return the comparator, or null if none is set.
+   */
+  public Comparator<PwPair> getRankComparator() {
+    mRankLock.readLock().lock();
+    try {
+      return mRankComparator;
+    } finally {
+      mRankLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Re-sort the ranked view after state used by the rank comparator has changed.
+   */
+  public void updateRanking() {
+    mRankLock.writeLock().lock();
+    try {
+      if (mRankedPwPairIndex != null) {
+        mRankedPwPairIndex.rebuild();
+      }
+    } finally {
+      mRankLock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Return the best ranked PwPairs according to the comparator set with setRankComparator,
+   * including only the top-ranked pair from each group and the first pair for each site URL.
+   * This takes time proportional to k rather than to the size of the collection.
+   * @param k The largest number of pairs to return.
+   * @return a list of at most k PwPairs sorted by descending rank.
+   * @throws IllegalStateException if no rank comparator is set.
+   */
+  public List<PwPair> getTopGroupedPwPairs(int k) {
+    mRankLock.readLock().lock();
+    try {
+      if (mRankedPwPairIndex == null) {
+        throw new IllegalStateException("No rank comparator set");
+      }
+      return mRankedPwPairIndex.getTopPwPairs(k);
+    } finally {
+      mRankLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Count the pairs getGroupedPwPairsSortedByRank would return, without building or sorting the
+   * list.
+   * @param filter The filter pairs must pass to be counted, or null to count every pair.
+   * @return the number of pairs.
+   * @throws IllegalStateException if no rank comparator is set.
+   */
+  public int countGroupedPwPairs(PwPairFilter filter) {
+    mRankLock.readLock().lock();
+    try {
+      if (mRankedPwPairIndex == null) {
+        throw new IllegalStateException("No rank comparator set");
+      }
+      return mRankedPwPairIndex.countTopPwPairs(filter);
+    } finally {
+      mRankLock.readLock().unlock();
+    }
+  }
+
+  /**
+   * Return a list of PwPairs sorted by the comparator set with setRankComparator, including only
+   * the top-ranked pair from each group.
+   * @return a sorted list of PwPairs.
+   * @throws IllegalStateException if no rank comparator is set.
+   */
+  public List<PwPair> getGroupedPwPairsSortedByRank() {
+    return getTopGroupedPwPairs(Integer.MAX_VALUE);
+  }
+
   /**
    * Return a list of PwPairs sorted by rank in descending order, including only the top-ranked
    * pair from each group.
+   * When comparator is the one set with setRankComparator, the maintained ranked view is used.
    * @param comparator to sort pairs by
    * @return a sorted list of PwPairs.
    */
   public List<PwPair> getGroupedPwPairsSortedByRank(Comparator<PwPair> comparator) {
+    mRankLock.readLock().lock();
+    try {
+      if (mRankedPwPairIndex != null && comparator == mRankComparator) {
+        return mRankedPwPairIndex.getTopPwPairs(Integer.MAX_VALUE);
+      }
+    } finally {
+      mRankLock.readLock().unlock();
+    }
+    return sortGroupedPwPairs(comparator);
+  }
+
+  private List<PwPair> sortGroupedPwPairs(Comparator<PwPair> comparator) {
     // Get all valid PwPairs.
     List<PwPair> allPwPairs = getPwPairs();
 
@@ -257,6 +974,94 @@ public class PhysicalWebCollection {
     return removeDuplicateSiteUrls(groupedPwPairs);
   }
 
+  /**
+   * Return the best ranked PwPairs, including only the top-ranked pair from each group and the
+   * first pair for each site URL.
+   * When comparator is the one set with setRankComparator, the maintained ranked view is used.
+   * Otherwise, unless k covers the whole collection, the pairs are selected in one pass with a
+   * heap bounded by k, so neither the list of every pair nor a full sort is needed.
+   * @param k The largest number of pairs to return.
+   * @param comparator to rank pairs by
+   * @return a list of at most k PwPairs sorted by descending rank.
+   */
+  public List<PwPair> getTopPwPairs(int k, Comparator<PwPair> comparator) {
+    if (k < 0) {
+      throw new IllegalArgumentException("k must not be negative");
+    }
+    mRankLock.readLock().lock();
+    try {
+      if (mRankedPwPairIndex != null && comparator == mRankComparator) {
+        return mRankedPwPairIndex.getTopPwPairs(k);
+      }
+    } finally {
+      mRankLock.readLock().unlock();
+    }
+
+    // A heap as large as the collection costs more than sorting it.
+    if (k >= mDeviceIdToUrlDeviceMap.size()) {
+      return sortGroupedPwPairs(comparator);
+    }
+
+    // Pairs without a group are candidates as they are, but a group only offers its top pair.
+    TopPwPairSelector selector = new TopPwPairSelector(k, comparator);
+    Map<String, PwPair> groupIdToTopPwPairMap = new HashMap<>();
+    for (UrlDevice urlDevice : mDeviceIdToUrlDeviceMap.values()) {
+      PwsResult pwsResult = getPwsResult(urlDevice.getUrl());
+      if (pwsResult == null) {
+        continue;
+      }
+      PwPair pwPair = new PwPair(urlDevice, pwsResult);
+      String groupId = pwsResult.getGroupId();
+      if (groupId == null || groupId.equals("")) {
+        selector.offer(pwPair);
+        continue;
+      }
+      PwPair topPwPair = groupIdToTopPwPairMap.get(groupId);
+      if (topPwPair == null || comparator.compare(pwPair, topPwPair) < 0) {
+        groupIdToTopPwPairMap.put(groupId, pwPair);
+      }
+    }
+    for (PwPair pwPair : groupIdToTopPwPairMap.values()) {
+      selector.offer(pwPair);
+    }
+    return selector.getTopPwPairs();
+  }
+
+  /**
+   * Return the best ranked PwPairs of one group, including only the first pair for each site URL.
+   * When comparator is the one set with setRankComparator, the maintained ranked view is used.
+   * @param groupId The group ID.
+   * @param k The largest number of pairs to return.
+   * @param comparator to rank pairs by
+   * @return a list of at most k PwPairs sorted by descending rank, empty if no pair has the group
+   *     ID.
+   */
+  public List<PwPair> getTopPwPairsByGroupId(String groupId, int k,
+                                             Comparator<PwPair> comparator) {
+    if (k < 0) {
+      throw new IllegalArgumentException("k must not be negative");
+    }
+    mRankLock.readLock().lock();
+    try {
+      if (mRankedPwPairIndex != null && comparator == mRankComparator) {
+        return mRankedPwPairIndex.getTopPwPairsByGroupId(groupId, k);
+      }
+    } finally {
+      mRankLock.readLock().unlock();
+    }
+
+    TopPwPairSelector selector = new TopPwPairSelector(k, comparator);
+    if (groupId != null && !groupId.equals("")) {
+      for (UrlDevice urlDevice : mDeviceIdToUrlDeviceMap.values()) {
+        PwsResult pwsResult = getPwsResult(urlDevice.getUrl());
+        if (pwsResult != null && groupId.equals(pwsResult.getGroupId())) {
+          selector.offer(new PwPair(urlDevice, pwsResult));
+        }
+      }
+    }
+    return selector.getTopPwPairs();
+  }
+
   /**
    * Return a list of all pairs of valid URL devices and corresponding URL metadata.
    * @return list of PwPairs.
@@ -264,7 +1069,7 @@ public class PhysicalWebCollection {
   public List<PwPair> getPwPairs() {
     List<PwPair> allPwPairs = new ArrayList<>();
     for (UrlDevice urlDevice : mDeviceIdToUrlDeviceMap.values()) {
-      PwsResult pwsResult = mBroadcastUrlToPwsResultMap.get(urlDevice.getUrl());
+      PwsResult pwsResult = getPwsResult(urlDevice.getUrl());
       if (pwsResult != null) {
         allPwPairs.add(new PwPair(urlDevice, pwsResult));
       }
@@ -276,15 +1081,11 @@ public class PhysicalWebCollection {
    * Return the top-ranked PwPair for a given group ID.
    * @param groupId
    * @param comparator to sort pairs by
-   * @return a PwPair.
+   * @return a PwPair, or null if no pair has the group ID.
    */
   public PwPair getTopRankedPwPairByGroupId(String groupId, Comparator<PwPair> comparator) {
-    for (PwPair pwPair : getGroupedPwPairsSortedByRank(comparator)) {
-      if (pwPair.getPwsResult().getGroupId().equals(groupId)) {
-        return pwPair;
-      }
-    }
-    return null;
+    List<PwPair> topPwPairs = getTopPwPairsByGroupId(groupId, 1, comparator);
+    return topPwPairs.isEmpty() ? null : topPwPairs.get(0);
   }
 
   /**
@@ -292,13 +1093,11 @@ public class PhysicalWebCollection {
    * @param allPwPairs input PwPairs list.
    * @return filtered PwPairs list with all duplicated site URLs removed.
    */
-  private static List<PwPair> removeDuplicateSiteUrls(List<PwPair> allPwPairs) {
+  private List<PwPair> removeDuplicateSiteUrls(List<PwPair> allPwPairs) {
     List<PwPair> filteredPwPairs = new ArrayList<>();
-    Set<String> siteUrls = new HashSet<>();
+    UrlDictionary.UrlSet siteUrls = new UrlDictionary.UrlSet(mUrlTables.urlDictionary);
     for (PwPair pwPair : allPwPairs) {
-      String siteUrl = pwPair.getPwsResult().getSiteUrl();
-      if (!siteUrls.contains(siteUrl)) {
-        siteUrls.add(siteUrl);
+      if (siteUrls.add(pwPair.getPwsResult().getSiteUrl())) {
         filteredPwPairs.add(pwPair);
       }
     }
@@ -365,26 +1164,89 @@ public class PhysicalWebCollection {
     mPwsClient.setEndpoint(pwsEndpoint, pwsApiVersion, pwsApiKey);
   }
 
-  private class AugmentedPwsResultIconCallback extends PwsResultIconCallback {
-    private String mUrl;
-    private PwsResultIconCallback mCallback;
+  /**
+   * Set the PWS endpoints to resolve URLs with, in order of preference.
+   * @param pwsEndpoints The endpoints to use.
+   * @see PwsClient#setEndpoints
+   */
+  public void setPwsEndpoints(List<PwsEndpoint> pwsEndpoints) {
+    mPwsClient.setEndpoints(pwsEndpoints);
+  }
 
-    AugmentedPwsResultIconCallback(String url, PwsResultIconCallback callback) {
-      mUrl = url;
-      mCallback = callback;
+  /**
+   * Batch the resolve requests made by fetchPwsResults.
+   * The first URLs found after a quiet period are sent right away.  URLs found within windowMillis
+   * of a request are gathered and sent together when the window ends, or as soon as maxBatchSize
+   * URLs are waiting.  URLs waiting for a batch under the previous settings are passed on to
+   * the new ones.
+   * @param windowMillis How long to gather URLs after a request, or 0 to disable batching.
+   * @param maxBatchSize The largest number of URLs to send in one request.
+   */
+  public void setResolveBatching(long windowMillis, int maxBatchSize) {
+    Map<PwsResultCallback, List<String>> queuedUrls = null;
+    synchronized (this) {
+      ResolveBatcher resolveBatcher = windowMillis <= 0 ? null
+          : new ResolveBatcher(mPwsClient, getScheduler(), windowMillis, maxBatchSize);
+      if (mResolveBatcher != null) {
+        queuedUrls = mResolveBatcher.cancel();
+      }
+      mResolveBatcher = resolveBatcher;
     }
+    // The queued URLs are still pending, so dropping them would keep them from ever resolving.
+    if (queuedUrls != null) {
+      for (Map.Entry<PwsResultCallback, List<String>> entry : queuedUrls.entrySet()) {
+        resolve(entry.getValue(), entry.getKey());
+      }
+    }
+  }
+
+  /**
+   * Set the cache consulted before resolving URLs with the PWS.
+   * Results found in the cache are delivered to the PwsResultCallback passed to fetchPwsResults
+   * without making a request, and results received from the PWS are stored in the cache.
+   * @param pwsResultCache The cache to use, or null to always resolve with the PWS.
+   */
+  public synchronized void setPwsResultCache(PwsResultCache pwsResultCache) {
+    mPwsResultCache = pwsResultCache;
+  }
+
+  /**
+   * Set how URLs that failed to resolve are held back and retried.
+   * URLs that the PWS has no metadata for are not requested again for failureTtlMillis.  URLs in
+   * a request that failed are retried up to maxRetries times.  The delay before each retry doubles
+   * from initialBackoffMillis up to maxBackoffMillis, and a random part of it is left out so that
+   * clients do not retry in step.  URLs whose retries all failed are held back like absent ones.
+   * @param failureTtlMillis How long absent and failed URLs are held back.
+   * @param initialBackoffMillis The delay before the first retry.
+   * @param maxBackoffMillis The longest delay before a retry.
+   * @param maxRetries The number of retries after a failed request, or 0 to never retry.
+   */
+  public void setResolveRetryPolicy(long failureTtlMillis, long initialBackoffMillis,
+                                    long maxBackoffMillis, int maxRetries) {
+    mResolveFailures.setPolicy(failureTtlMillis, initialBackoffMillis, maxBackoffMillis,
+                               maxRetries);
+  }
+
+  private synchronized PwsResultCache getPwsResultCache() {
+    return mPwsResultCache;
+  }
 
-    @Override
-    public void onIcon(byte[] icon) {
-      mPendingIconUrls.remove(mUrl);
-      addIcon(mUrl, icon);
-      mCallback.onIcon(icon);
+  private synchronized ScheduledExecutorService getScheduler() {
+    if (mScheduler == null) {
+      mScheduler = DaemonThreadFactory.newIdleScheduler("PhysicalWebCollection");
     }
+    return mScheduler;
+  }
 
-    @Override
-    public void onError(int httpResponseCode, Exception e) {
-      mPendingIconUrls.remove(mUrl);
-      mCallback.onError(httpResponseCode, e);
+  private void resolve(Collection<String> broadcastUrls, PwsResultCallback pwsResultCallback) {
+    ResolveBatcher resolveBatcher;
+    synchronized (this) {
+      resolveBatcher = mResolveBatcher;
+    }
+    if (resolveBatcher == null) {
+      mPwsClient.resolve(broadcastUrls, pwsResultCallback);
+    } else {
+      resolveBatcher.resolve(broadcastUrls, pwsResultCallback);
     }
   }
 
@@ -395,80 +1257,227 @@ public class PhysicalWebCollection {
    * @param pwsResultCallback The callback to run when we get an HTTPResponse.
    * If this value is null, we will not fetch the PwsResults, only icons.
    * @param pwsResultIconCallback The callback to run when we get a favicon.
-   * If this value is null, we will not fetch the icons.
+   * If this value is null, we will not fetch the icons.  Each icon is downloaded once even when
+   * many results share it, and icons that are already cached are passed to it right away.
+   */
+  public void fetchPwsResults(PwsResultCallback pwsResultCallback,
+                              PwsResultIconCallback pwsResultIconCallback) {
+    requestPwsResults(pwsResultCallback, pwsResultIconCallback);
+  }
+
+  /**
+   * Fetch results from the PWS for all broadcast URLs, returning a future instead of taking a
+   * callback.  The future maps each broadcast URL that this call resolved, from the PWS or from
+   * the PwsResultCache, to its result.  URLs that are already resolved, or already being resolved
+   * by an earlier call, are not included.  The future fails with a PwsException if a request
+   * fails; the failed URLs are still retried as set by setResolveRetryPolicy.
+   * Icons are not fetched.
+   * @return the future results.
+   */
+  public PwsFuture<Map<String, PwsResult>> fetchPwsResultsAsync() {
+    ResolveFutureCallback callback = new ResolveFutureCallback();
+    callback.expect(requestPwsResults(callback, null));
+    return callback.getFuture();
+  }
+
+  /**
+   * Fetch an icon, returning a future instead of taking a callback.
+   * A cached icon completes the future right away, and an icon that is already being downloaded
+   * is not requested again.
+   * @param iconUrl The URL of the icon.
+   * @return the future icon, which fails with a PwsException if the icon cannot be downloaded.
+   */
+  public PwsFuture<byte[]> fetchIcon(String iconUrl) {
+    if (iconUrl == null) {
+      return mPwsClient.fetchIcon(iconUrl);
+    }
+    IconFutureCallback callback = new IconFutureCallback();
+    mIconDownloader.download(iconUrl, callback);
+    return callback.getFuture();
+  }
+
+  /**
+   * Make the requests for fetchPwsResults.
+   * @return the broadcast URLs that results will be reported for.
    */
-  public void fetchPwsResults(final PwsResultCallback pwsResultCallback,
-                              final PwsResultIconCallback pwsResultIconCallback) {
+  private Set<String> requestPwsResults(final PwsResultCallback pwsResultCallback,
+                                        final PwsResultIconCallback pwsResultIconCallback) {
+    if (pwsResultIconCallback != null) {
+      mIconRefetchCallback = pwsResultIconCallback;
+    }
+
     // Get new URLs to fetch.
+    final PwsResultCache pwsResultCache = getPwsResultCache();
     Set<String> newResolveUrls = new HashSet<>();
     Set<String> newIconUrls = new HashSet<>();
+    List<PwsResult> cachedResults = new ArrayList<>();
     for (UrlDevice urlDevice : mDeviceIdToUrlDeviceMap.values()) {
       String url = urlDevice.getUrl();
-      if (!mPendingBroadcastUrls.contains(url) && !mFailedResolveUrls.contains(url)) {
-        PwsResult pwsResult = mBroadcastUrlToPwsResultMap.get(url);
+      if (!mPendingBroadcastUrls.contains(url) && !mResolveFailures.isHeldBack(url)) {
+        PwsResult pwsResult = getPwsResult(url);
+        if (pwsResult == null && pwsResultCallback != null && pwsResultCache != null) {
+          pwsResult = pwsResultCache.get(url);
+          recordResultCacheLookup(pwsResult != null);
+          if (pwsResult != null) {
+            addMetadata(pwsResult);
+            cachedResults.add(pwsResult);
+          }
+        }
+        // Adding to a pending set claims the URL, so concurrent calls never fetch it twice.
         if (pwsResult == null) {
-          newResolveUrls.add(url);
-          mPendingBroadcastUrls.add(url);
-        } else if (pwsResult.hasIconUrl()
-            && !mPendingIconUrls.contains(pwsResult.getIconUrl())
-            && !mIconUrlToIconMap.containsKey(pwsResult.getIconUrl())) {
+          if (pwsResultCallback != null && mPendingBroadcastUrls.add(url)) {
+            newResolveUrls.add(url);
+          }
+        } else if (pwsResult.hasIconUrl() && !mIconCache.contains(pwsResult.getIconUrl())
+            && !mIconCache.isTooLarge(pwsResult.getIconUrl())) {
           newIconUrls.add(pwsResult.getIconUrl());
-          mPendingIconUrls.add(pwsResult.getIconUrl());
         }
       }
     }
 
     // Make the resolve request.
-    final Set<String> finalResolveUrls = newResolveUrls;
     PwsResultCallback augmentedCallback = new PwsResultCallback() {
       @Override
       public void onPwsResult(PwsResult pwsResult) {
         addMetadata(pwsResult);
-        if (pwsResultIconCallback != null) {
-            PwsResultIconCallback augmentedIconCallback =
-                new AugmentedPwsResultIconCallback(pwsResult.getIconUrl(), pwsResultIconCallback);
-            mPwsClient.downloadIcon(pwsResult.getIconUrl(), augmentedIconCallback);
+        mResolveFailures.remove(pwsResult.getRequestUrl());
+        mPendingBroadcastUrls.remove(pwsResult.getRequestUrl());
+        if (pwsResultCache != null) {
+          pwsResultCache.put(pwsResult);
         }
+        if (pwsResultIconCallback != null && pwsResult.hasIconUrl()) {
+          mIconDownloader.downloadIfCacheable(pwsResult.getIconUrl(), pwsResultIconCallback);
+        }
+        recordCounts();
         pwsResultCallback.onPwsResult(pwsResult);
       }
 
       @Override
       public void onPwsResultAbsent(String url) {
-        mFailedResolveUrls.add(url);
+        mResolveFailures.onAbsent(url);
+        mPendingBroadcastUrls.remove(url);
+        recordCounts();
         pwsResultCallback.onPwsResultAbsent(url);
       }
 
       @Override
       public void onPwsResultError(Collection<String> urls, int httpResponseCode, Exception e) {
+        List<String> retryUrls = new ArrayList<>();
+        int attempt = mResolveFailures.onError(urls, retryUrls);
+        mPendingBroadcastUrls.removeAll(urls);
+        if (attempt > 0) {
+          scheduleRetry(retryUrls, attempt, this);
+        }
+        recordCounts();
         pwsResultCallback.onPwsResultError(urls, httpResponseCode, e);
       }
 
       @Override
       public void onResponseReceived(long durationMillis) {
-        for (String url : finalResolveUrls) {
-          mPendingBroadcastUrls.remove(url);
-        }
         pwsResultCallback.onResponseReceived(durationMillis);
       }
     };
+    Set<String> requestedUrls = new HashSet<>(newResolveUrls);
+    if (pwsResultCallback != null) {
+      for (PwsResult pwsResult : cachedResults) {
+        requestedUrls.add(pwsResult.getRequestUrl());
+        pwsResultCallback.onPwsResult(pwsResult);
+      }
+    }
     if (pwsResultCallback != null && newResolveUrls.size() > 0) {
-      mPwsClient.resolve(newResolveUrls, augmentedCallback);
+      resolve(newResolveUrls, augmentedCallback);
     }
 
-    // Make the icon requests.
+    // Make the icon requests.  Icons already being downloaded are not requested again, and icons
+    // too large to cache are not requested at all, since they would be on every call.
     if (pwsResultIconCallback != null) {
-      for (final String iconUrl : newIconUrls) {
-        PwsResultIconCallback augmentedIconCallback =
-            new AugmentedPwsResultIconCallback(iconUrl, pwsResultIconCallback);
-        mPwsClient.downloadIcon(iconUrl, augmentedIconCallback);
+      for (String iconUrl : newIconUrls) {
+        mIconDownloader.downloadIfCacheable(iconUrl, pwsResultIconCallback);
+      }
+    }
+    recordCounts();
+    return requestedUrls;
+  }
+
+  private void recordResultCacheLookup(boolean hit) {
+    MetricsRecorder metricsRecorder = mMetricsRecorder;
+    if (metricsRecorder == null) {
+      return;
+    }
+    if (hit) {
+      metricsRecorder.recordCacheHit(MetricsRecorder.RESULT_CACHE);
+    } else {
+      metricsRecorder.recordCacheMiss(MetricsRecorder.RESULT_CACHE);
+    }
+  }
+
+  private void scheduleRetry(final List<String> broadcastUrls, final int attempt,
+                             final PwsResultCallback pwsResultCallback) {
+    getScheduler().schedule(new Runnable() {
+      @Override
+      public void run() {
+        retryResolve(broadcastUrls, attempt, pwsResultCallback);
+      }
+    }, mResolveFailures.getBackoffMillis(attempt), TimeUnit.MILLISECONDS);
+  }
+
+  private void retryResolve(List<String> broadcastUrls, int attempt,
+                            PwsResultCallback pwsResultCallback) {
+    Set<String> retryUrls = new HashSet<>();
+    for (String url : mResolveFailures.startRetry(broadcastUrls, attempt)) {
+      if (getPwsResult(url) != null || !isBroadcastUrlInUse(url)) {
+        mResolveFailures.remove(url);
+      } else if (mPendingBroadcastUrls.add(url)) {
+        retryUrls.add(url);
+      }
+    }
+    if (!retryUrls.isEmpty()) {
+      resolve(retryUrls, pwsResultCallback);
+    }
+  }
+
+  private boolean isBroadcastUrlInUse(String broadcastUrl) {
+    for (UrlDevice urlDevice : mDeviceIdToUrlDeviceMap.values()) {
+      if (broadcastUrl.equals(urlDevice.getUrl())) {
+        return true;
       }
     }
+    return false;
+  }
+
+  /**
+   * Get the state of a broadcast URL's resolution.
+   * @param broadcastUrl The broadcast URL.
+   * @return the resolve status of the URL.
+   */
+  public ResolveStatus getResolveStatus(String broadcastUrl) {
+    if (broadcastUrl == null) {
+      return ResolveStatus.UNRESOLVED;
+    }
+    if (getPwsResult(broadcastUrl) != null) {
+      return ResolveStatus.RESOLVED;
+    }
+    if (mPendingBroadcastUrls.contains(broadcastUrl)) {
+      return ResolveStatus.PENDING;
+    }
+    ResolveStatus status = mResolveFailures.getStatus(broadcastUrl);
+    return status == null ? ResolveStatus.UNRESOLVED : status;
   }
 
   /**
    * Cancel all current HTTP requests.
+   * URLs and icons that were waiting on a cancelled request, and URLs waiting for a retry, will be
+   * requested again by the next call to fetchPwsResults.
    */
   public void cancelAllRequests() {
+    synchronized (this) {
+      if (mResolveBatcher != null) {
+        mResolveBatcher.cancel();
+      }
+    }
     mPwsClient.cancelAllRequests();
+    mPendingBroadcastUrls.clear();
+    mResolveFailures.cancelRetries();
+    mIconDownloader.clear();
   }
 }
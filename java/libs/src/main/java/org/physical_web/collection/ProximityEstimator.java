@@ -0,0 +1,523 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.Comparator;
+
+/**
+ * Estimates how far devices are from the signal strength of their sightings.
+ * Each device's RSSI is smoothed with the selected filter, and its distance is estimated from the
+ * smoothed RSSI and the TX power the device advertises, calibrated at 0 m as Eddystone's is.
+ * The sightings themselves are read from each device's SightingHistory, and the estimator keeps
+ * only the filter state derived from them.
+ *
+ * The state of each device is held in primitive arrays indexed by a slot, and slots are found
+ * through an open-addressing table, so updating a device does not allocate.  The number of
+ * devices is bounded: when the estimator is full, idle devices are evicted first, and then the
+ * device updated least recently.  An estimator fed by a PhysicalWebCollection evicts only
+ * devices that have left the collection, and does not track new devices while it is full of
+ * devices still in it.
+ */
+public class ProximityEstimator {
+  /**
+   * The filters that can smooth RSSI.
+   */
+  public enum Filter {
+    /**
+     * Exponentially weighted moving average: each sighting moves the estimate by a fixed
+     * fraction of its difference from it.
+     */
+    EWMA,
+    /**
+     * One-dimensional Kalman filter, which weighs each sighting by how uncertain the estimate is.
+     */
+    KALMAN,
+    /**
+     * Median of the last sightings, which ignores occasional outliers.
+     */
+    MEDIAN
+  }
+
+  /**
+   * Tells an estimator which devices are still in use, so that it evicts only the others.
+   */
+  interface DeviceTracker {
+    /**
+     * Check whether a device is still in use.
+     * @param deviceId The ID of the device.
+     * @return true if the device must not be evicted.
+     */
+    boolean isTracked(String deviceId);
+  }
+
+  private static final int INITIAL_CAPACITY = 16;
+  // The RSSI lost over the first meter, between the 0 m calibration and 1 m.
+  private static final double LOSS_AT_ONE_METER = 41;
+  private final Filter mFilter;
+  private final double mEwmaAlpha;
+  private final double mProcessNoise;
+  private final double mMeasurementNoise;
+  private final int mMedianWindow;
+  private final double mPathLossExponent;
+  private final int mMaxDevices;
+  private final long mIdleTimeoutMillis;
+  private final Comparator<PwPair> mDistanceComparator;
+  private DeviceTracker mDeviceTracker;
+  // Per-device state, indexed by slot.  Slots 0 to mSize - 1 are in use.
+  private String[] mDeviceIds;
+  private double[] mSmoothedRssis;
+  private double[] mVariances;
+  private short[] mTxPowers;
+  private long[] mLastUpdateMillis;
+  private int mSize;
+  // Slots hold slot + 1, with 0 marking an empty slot.
+  private int[] mTable;
+  // The RSSIs the median filter sorts, copied from a SightingHistory.
+  private final int[] mSortBuffer;
+
+  /**
+   * Builder class for constructing ProximityEstimators.
+   */
+  public static class Builder {
+    private Filter mFilter;
+    private double mEwmaAlpha;
+    private double mProcessNoise;
+    private double mMeasurementNoise;
+    private int mMedianWindow;
+    private double mPathLossExponent;
+    private int mMaxDevices;
+    private long mIdleTimeoutMillis;
+
+    /**
+     * Construct a ProximityEstimator Builder with a Kalman filter.
+     */
+    public Builder() {
+      mFilter = Filter.KALMAN;
+      mEwmaAlpha = 0.25;
+      mProcessNoise = 0.5;
+      mMeasurementNoise = 10;
+      mMedianWindow = 5;
+      mPathLossExponent = 2;
+      mMaxDevices = 256;
+      mIdleTimeoutMillis = 30000;
+    }
+
+    /**
+     * Sets the filter that smooths RSSI.
+     * @param filter The filter.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setFilter(Filter filter) {
+      if (filter == null) {
+        throw new NullPointerException("Null filter.");
+      }
+      mFilter = filter;
+      return this;
+    }
+
+    /**
+     * Sets the weight of each sighting for the EWMA filter.
+     * @param alpha The weight, greater than 0 and at most 1.  Larger weights follow changes
+     *     faster but smooth less.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setEwmaAlpha(double alpha) {
+      if (!(alpha > 0 && alpha <= 1)) {
+        throw new IllegalArgumentException("alpha must be in (0, 1]");
+      }
+      mEwmaAlpha = alpha;
+      return this;
+    }
+
+    /**
+     * Sets the noise of the Kalman filter.
+     * @param processNoise How much the true RSSI is expected to vary between sightings, as a
+     *     variance in dBm squared.
+     * @param measurementNoise How much a sighting's RSSI varies around the true RSSI, as a
+     *     variance in dBm squared.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setKalmanNoise(double processNoise, double measurementNoise) {
+      if (!(processNoise >= 0) || !(measurementNoise > 0)) {
+        throw new IllegalArgumentException("processNoise must be at least 0 and "
+            + "measurementNoise greater than 0");
+      }
+      mProcessNoise = processNoise;
+      mMeasurementNoise = measurementNoise;
+      return this;
+    }
+
+    /**
+     * Sets the number of sightings the median filter takes the median of.
+     * @param size The number of sightings, between 1 and the number a SightingHistory keeps.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setMedianWindow(int size) {
+      if (size < 1 || size > SightingHistory.DEFAULT_CAPACITY) {
+        throw new IllegalArgumentException("size must be between 1 and "
+            + SightingHistory.DEFAULT_CAPACITY);
+      }
+      mMedianWindow = size;
+      return this;
+    }
+
+    /**
+     * Sets how fast the signal weakens with distance, 2 in free space and more indoors.
+     * @param exponent The path loss exponent.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setPathLossExponent(double exponent) {
+      if (!(exponent > 0)) {
+        throw new IllegalArgumentException("exponent must be positive");
+      }
+      mPathLossExponent = exponent;
+      return this;
+    }
+
+    /**
+     * Sets the largest number of devices tracked at once.
+     * @param maxDevices The number of devices.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setMaxDevices(int maxDevices) {
+      if (maxDevices <= 0) {
+        throw new IllegalArgumentException("maxDevices must be positive");
+      }
+      mMaxDevices = maxDevices;
+      return this;
+    }
+
+    /**
+     * Sets how long a device may go without an update before it may be evicted.
+     * @param idleTimeoutMillis The time in milliseconds.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setIdleTimeoutMillis(long idleTimeoutMillis) {
+      if (idleTimeoutMillis <= 0) {
+        throw new IllegalArgumentException("idleTimeoutMillis must be positive");
+      }
+      mIdleTimeoutMillis = idleTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Create a ProximityEstimator object.
+     * @return the new ProximityEstimator.
+     */
+    public ProximityEstimator build() {
+      return new ProximityEstimator(this);
+    }
+  }
+
+  private ProximityEstimator(Builder builder) {
+    mFilter = builder.mFilter;
+    mEwmaAlpha = builder.mEwmaAlpha;
+    mProcessNoise = builder.mProcessNoise;
+    mMeasurementNoise = builder.mMeasurementNoise;
+    mMedianWindow = builder.mMedianWindow;
+    mPathLossExponent = builder.mPathLossExponent;
+    mMaxDevices = builder.mMaxDevices;
+    mIdleTimeoutMillis = builder.mIdleTimeoutMillis;
+    mSortBuffer = new int[mMedianWindow];
+    allocate(Math.min(INITIAL_CAPACITY, mMaxDevices));
+    mSize = 0;
+    mDeviceTracker = null;
+    mDistanceComparator = new Comparator<PwPair>() {
+      @Override
+      public int compare(PwPair lhs, PwPair rhs) {
+        return Double.compare(getDistance(lhs.getUrlDevice().getId()),
+                              getDistance(rhs.getUrlDevice().getId()));
+      }
+    };
+  }
+
+  /**
+   * Fold the most recent sighting of a device into its estimate.
+   * @param deviceId The ID of the device.
+   * @param nowMillis The current time, used to find idle devices.
+   * @param sightingHistory The sightings of the device, holding at least one.  The median filter
+   *     reads its window from the history.  A new device is not tracked if the estimator is full
+   *     and no device may be evicted.
+   */
+  public synchronized void update(String deviceId, long nowMillis,
+                                  SightingHistory sightingHistory) {
+    int rssi = sightingHistory.getRssi(0);
+    int txPower = sightingHistory.getTxPower(0);
+    int slot = findSlot(deviceId);
+    if (slot < 0) {
+      slot = addDevice(deviceId, nowMillis);
+      if (slot < 0) {
+        return;
+      }
+    }
+    mLastUpdateMillis[slot] = nowMillis;
+    if (txPower != SightingHistory.UNKNOWN_TX_POWER) {
+      mTxPowers[slot] = (short) txPower;
+    }
+
+    double smoothedRssi = mSmoothedRssis[slot];
+    switch (mFilter) {
+      case EWMA:
+        mSmoothedRssis[slot] = Double.isNaN(smoothedRssi)
+            ? rssi : smoothedRssi + mEwmaAlpha * (rssi - smoothedRssi);
+        break;
+      case KALMAN:
+        if (Double.isNaN(smoothedRssi)) {
+          mSmoothedRssis[slot] = rssi;
+          mVariances[slot] = mMeasurementNoise;
+        } else {
+          double variance = mVariances[slot] + mProcessNoise;
+          double gain = variance / (variance + mMeasurementNoise);
+          mSmoothedRssis[slot] = smoothedRssi + gain * (rssi - smoothedRssi);
+          mVariances[slot] = (1 - gain) * variance;
+        }
+        break;
+      default:
+        mSmoothedRssis[slot] = getMedianRssi(sightingHistory);
+        break;
+    }
+  }
+
+  private double getMedianRssi(SightingHistory sightingHistory) {
+    int size = sightingHistory.copyRssis(mSortBuffer);
+    // The window is small, so sorting it in place by insertion is quickest.
+    for (int i = 1; i < size; i++) {
+      int value = mSortBuffer[i];
+      int j = i - 1;
+      while (j >= 0 && mSortBuffer[j] > value) {
+        mSortBuffer[j + 1] = mSortBuffer[j];
+        j--;
+      }
+      mSortBuffer[j + 1] = value;
+    }
+    int middle = size / 2;
+    return size % 2 == 1
+        ? mSortBuffer[middle] : (mSortBuffer[middle - 1] + mSortBuffer[middle]) / 2.0;
+  }
+
+  /**
+   * Get the smoothed RSSI of a device.
+   * @param deviceId The ID of the device.
+   * @return the RSSI in dBm, or NaN if the device is not tracked.
+   */
+  public synchronized double getSmoothedRssi(String deviceId) {
+    int slot = findSlot(deviceId);
+    return slot < 0 ? Double.NaN : mSmoothedRssis[slot];
+  }
+
+  /**
+   * Get the estimated distance to a device.
+   * @param deviceId The ID of the device.
+   * @return the distance in meters, or positive infinity if the device is not tracked or its TX
+   *     power is not known.
+   */
+  public synchronized double getDistance(String deviceId) {
+    int slot = findSlot(deviceId);
+    if (slot < 0 || mTxPowers[slot] == SightingHistory.UNKNOWN_TX_POWER) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return Math.pow(10, (mTxPowers[slot] - LOSS_AT_ONE_METER - mSmoothedRssis[slot])
+                        / (10 * mPathLossExponent));
+  }
+
+  /**
+   * Get a comparator that ranks nearer devices first, for use with getPwPairsSortedByRank or
+   * setRankComparator.  Devices with no distance estimate rank last.
+   * @return the comparator.
+   */
+  public Comparator<PwPair> getDistanceComparator() {
+    return mDistanceComparator;
+  }
+
+  /**
+   * Set the tracker that decides which devices may be evicted.
+   * @param deviceTracker The tracker, or null to let any device be evicted.
+   */
+  synchronized void setDeviceTracker(DeviceTracker deviceTracker) {
+    mDeviceTracker = deviceTracker;
+  }
+
+  private boolean isEvictable(int slot) {
+    return mDeviceTracker == null || !mDeviceTracker.isTracked(mDeviceIds[slot]);
+  }
+
+  /**
+   * Stop tracking the devices that have not been updated within the idle timeout.
+   * Devices still in the collection feeding the estimator are kept.
+   * @param nowMillis The current time, in the time base of the sightings.
+   * @return the number of devices evicted.
+   */
+  public synchronized int evictIdleDevices(long nowMillis) {
+    int evictedCount = 0;
+    // Removing a slot moves the last slot into it, and that slot has already been checked.
+    for (int slot = mSize - 1; slot >= 0; slot--) {
+      if (nowMillis - mLastUpdateMillis[slot] >= mIdleTimeoutMillis && isEvictable(slot)) {
+        removeSlot(slot);
+        evictedCount++;
+      }
+    }
+    return evictedCount;
+  }
+
+  /**
+   * Stop tracking a device.
+   * @param deviceId The ID of the device.
+   */
+  public synchronized void remove(String deviceId) {
+    int slot = findSlot(deviceId);
+    if (slot >= 0) {
+      removeSlot(slot);
+    }
+  }
+
+  /**
+   * Stop tracking every device.
+   */
+  public synchronized void clear() {
+    allocate(Math.min(INITIAL_CAPACITY, mMaxDevices));
+    mSize = 0;
+  }
+
+  /**
+   * Get the number of devices tracked.
+   * @return the number of devices.
+   */
+  public synchronized int size() {
+    return mSize;
+  }
+
+  /**
+   * Give a device a slot, evicting another if the estimator is full.
+   * @return the slot, or -1 if the estimator is full and no device may be evicted.
+   */
+  private int addDevice(String deviceId, long timestampMillis) {
+    if (mSize == mMaxDevices) {
+      evictIdleDevices(timestampMillis);
+    }
+    if (mSize == mMaxDevices) {
+      int oldestSlot = -1;
+      for (int slot = 0; slot < mSize; slot++) {
+        if ((oldestSlot < 0 || mLastUpdateMillis[slot] < mLastUpdateMillis[oldestSlot])
+            && isEvictable(slot)) {
+          oldestSlot = slot;
+        }
+      }
+      if (oldestSlot < 0) {
+        return -1;
+      }
+      removeSlot(oldestSlot);
+    }
+    if (mSize == mDeviceIds.length) {
+      grow();
+    }
+
+    int slot = mSize++;
+    mDeviceIds[slot] = deviceId;
+    mSmoothedRssis[slot] = Double.NaN;
+    mVariances[slot] = 0;
+    mTxPowers[slot] = (short) SightingHistory.UNKNOWN_TX_POWER;
+    insertIntoTable(slot);
+    return slot;
+  }
+
+  private void removeSlot(int slot) {
+    deleteFromTable(findTableIndex(mDeviceIds[slot]));
+    int lastSlot = --mSize;
+    if (slot != lastSlot) {
+      // Keep the slots dense by moving the last one into the hole.
+      mTable[findTableIndex(mDeviceIds[lastSlot])] = slot + 1;
+      mDeviceIds[slot] = mDeviceIds[lastSlot];
+      mSmoothedRssis[slot] = mSmoothedRssis[lastSlot];
+      mVariances[slot] = mVariances[lastSlot];
+      mTxPowers[slot] = mTxPowers[lastSlot];
+      mLastUpdateMillis[slot] = mLastUpdateMillis[lastSlot];
+    }
+    mDeviceIds[lastSlot] = null;
+  }
+
+  private int findSlot(String deviceId) {
+    if (deviceId == null) {
+      return -1;
+    }
+    return mTable[findTableIndex(deviceId)] - 1;
+  }
+
+  /**
+   * Get the table index holding a device, or the empty index where it would go.
+   */
+  private int findTableIndex(String deviceId) {
+    int mask = mTable.length - 1;
+    int index = getHomeIndex(deviceId, mask);
+    while (mTable[index] != 0 && !mDeviceIds[mTable[index] - 1].equals(deviceId)) {
+      index = (index + 1) & mask;
+    }
+    return index;
+  }
+
+  private static int getHomeIndex(String deviceId, int mask) {
+    int hash = deviceId.hashCode();
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  private void insertIntoTable(int slot) {
+    mTable[findTableIndex(mDeviceIds[slot])] = slot + 1;
+  }
+
+  /**
+   * Empty a table index, shifting later entries of the same probe run back so that lookups
+   * still find them.
+   */
+  private void deleteFromTable(int index) {
+    int mask = mTable.length - 1;
+    int hole = index;
+    mTable[hole] = 0;
+    for (int i = (hole + 1) & mask; mTable[i] != 0; i = (i + 1) & mask) {
+      int home = getHomeIndex(mDeviceIds[mTable[i] - 1], mask);
+      if (((i - home) & mask) >= ((i - hole) & mask)) {
+        mTable[hole] = mTable[i];
+        mTable[i] = 0;
+        hole = i;
+      }
+    }
+  }
+
+  private void allocate(int capacity) {
+    mDeviceIds = new String[capacity];
+    mSmoothedRssis = new double[capacity];
+    mVariances = new double[capacity];
+    mTxPowers = new short[capacity];
+    mLastUpdateMillis = new long[capacity];
+    // Keep the table at most half full.
+    mTable = new int[Integer.highestOneBit(capacity) * 4];
+  }
+
+  private void grow() {
+    String[] deviceIds = mDeviceIds;
+    double[] smoothedRssis = mSmoothedRssis;
+    double[] variances = mVariances;
+    short[] txPowers = mTxPowers;
+    long[] lastUpdateMillis = mLastUpdateMillis;
+    allocate((int) Math.min((long) deviceIds.length * 2, mMaxDevices));
+    System.arraycopy(deviceIds, 0, mDeviceIds, 0, mSize);
+    System.arraycopy(smoothedRssis, 0, mSmoothedRssis, 0, mSize);
+    System.arraycopy(variances, 0, mVariances, 0, mSize);
+    System.arraycopy(txPowers, 0, mTxPowers, 0, mSize);
+    System.arraycopy(lastUpdateMillis, 0, mLastUpdateMillis, 0, mSize);
+    for (int slot = 0; slot < mSize; slot++) {
+      insertIntoTable(slot);
+    }
+  }
+}
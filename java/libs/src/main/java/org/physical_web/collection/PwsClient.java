@@ -22,11 +22,20 @@ import org.json.JSONObject;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * HTTP client that makes requests to the Physical Web Service.
@@ -34,13 +43,25 @@ import java.util.Set;
 public class PwsClient {
   private static final String DEFAULT_PWS_ENDPOINT = "https://url-caster.appspot.com";
   private static final int DEFAULT_PWS_VERSION = 1;
-  private static final String V1_RESOLVE_SCAN_PATH = "resolve-scan";
-  private static final String V2_RESOLVE_SCAN_PATH = "v1alpha1/urls:resolve";
   private static final String UKNOWN_API_ERROR_MESSAGE = "Unknown API Version";
-  private String mPwsEndpoint;
-  private String apiKey;
-  private int apiVersion;
-  private List<Thread> mThreads;
+  private static final int DEFAULT_CORE_POOL_SIZE = 2;
+  private static final int DEFAULT_MAX_POOL_SIZE = 4;
+  private static final int DEFAULT_QUEUE_CAPACITY = 64;
+  private static final long IDLE_THREAD_TIMEOUT_SECONDS = 30;
+  private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 4;
+  private static final double MAX_HEALTHY_ERROR_RATE = 0.5;
+  private static final double HEDGE_PERCENTILE = 95;
+  private static final long DEFAULT_HEDGE_DELAY_MILLIS = 1000;
+  private List<PwsEndpointStats> mEndpointStats;
+  private boolean mHedgingEnabled;
+  private long mMinHedgeDelayMillis;
+  private ScheduledExecutorService mScheduler;
+  private long mCancelGeneration;
+  private MetricsRecorder mMetricsRecorder;
+  private ThreadPoolExecutor mExecutor;
+  private Set<RequestTask> mRequestTasks;
+  private HostConnectionLimiter mConnectionLimiter;
+  private boolean mCompressRequestBodies;
 
   /**
    * Construct a PwsClient.
@@ -66,7 +87,78 @@ public class PwsClient {
    */
   public PwsClient(String pwsEndpoint, int pwsApiVersion, String pwsApiKey) {
     setEndpoint(pwsEndpoint, pwsApiVersion, pwsApiKey);
-    mThreads = new ArrayList<>();
+    mRequestTasks = Collections.newSetFromMap(new ConcurrentHashMap<RequestTask, Boolean>());
+    configureRequestExecutor(DEFAULT_CORE_POOL_SIZE, DEFAULT_MAX_POOL_SIZE,
+        DEFAULT_QUEUE_CAPACITY, new ThreadPoolExecutor.AbortPolicy());
+    mConnectionLimiter = new HostConnectionLimiter(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+    mCompressRequestBodies = false;
+    mHedgingEnabled = false;
+    mMinHedgeDelayMillis = 0;
+    mScheduler = null;
+    mCancelGeneration = 0;
+    mMetricsRecorder = new MetricsRecorder();
+  }
+
+  /**
+   * Set whether HTTP connections are kept alive and reused between requests.
+   * Reusing connections saves a TCP and TLS handshake on each request to the same host.
+   * The JVM keeps at most http.maxConnections (5 by default) idle connections per host, so
+   * maxConnectionsPerHost should not exceed that value.
+   * @param enabled Whether connections should be reused.
+   * @param maxConnectionsPerHost The number of connections that may be open to one host.
+   */
+  public synchronized void setConnectionReuse(boolean enabled, int maxConnectionsPerHost) {
+    mConnectionLimiter = enabled ? new HostConnectionLimiter(maxConnectionsPerHost) : null;
+  }
+
+  /**
+   * Set the recorder that receives resolve and icon download measurements.
+   * @param metricsRecorder The recorder, or null to stop recording.
+   */
+  public synchronized void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+    mMetricsRecorder = metricsRecorder == null ? new MetricsRecorder() : metricsRecorder;
+  }
+
+  private synchronized MetricsRecorder getMetricsRecorder() {
+    return mMetricsRecorder;
+  }
+
+  private static long getElapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+
+  /**
+   * Set whether resolve request bodies are sent gzipped.
+   * Responses are always requested with gzip encoding.  Only enable this for endpoints that accept
+   * gzipped requests.
+   * @param enabled Whether request bodies should be compressed.
+   */
+  public synchronized void setRequestCompression(boolean enabled) {
+    mCompressRequestBodies = enabled;
+  }
+
+  /**
+   * Configure the executor that runs resolve and icon requests.
+   * Requests that are already queued on the previous executor are allowed to finish.
+   * A request rejected by the executor is reported to its callback as an error with an HTTP
+   * response code of 0, unless the rejection handler runs it.  This includes requests a handler
+   * such as DiscardPolicy or DiscardOldestPolicy drops, so that every request completes.
+   * @param corePoolSize The number of threads kept while requests are being made.
+   * @param maxPoolSize The maximum number of threads, used once the queue is full.
+   * @param queueCapacity The number of requests that may wait for a thread.
+   * @param rejectionHandler The policy applied when both the threads and the queue are full.
+   */
+  public synchronized void configureRequestExecutor(int corePoolSize, int maxPoolSize,
+      int queueCapacity, RejectedExecutionHandler rejectionHandler) {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(corePoolSize, maxPoolSize,
+        IDLE_THREAD_TIMEOUT_SECONDS, TimeUnit.SECONDS,
+        new RequestQueue(queueCapacity), new DaemonThreadFactory("PwsClient"),
+        new DropReportingHandler(rejectionHandler));
+    executor.allowCoreThreadTimeOut(true);
+    if (mExecutor != null) {
+      mExecutor.shutdown();
+    }
+    mExecutor = executor;
   }
 
   /**
@@ -85,162 +177,399 @@ public class PwsClient {
    * @param pwsApiKey The new PWS API key.
    */
   public void setEndpoint(String pwsEndpoint, int pwsApiVersion, String pwsApiKey) {
-    if ((pwsApiKey == null || pwsApiKey.isEmpty()) && pwsApiVersion >= 2){
-      throw new RuntimeException("API Version 2 or higher requires an API key");
+    setEndpoints(Collections.singletonList(new PwsEndpoint(pwsEndpoint, pwsApiVersion, pwsApiKey)));
+  }
+
+  /**
+   * Set the endpoints that resolve requests may be sent to, in order of preference.
+   * Each request goes to the endpoint that has recently answered fastest without errors.
+   * Endpoints that have not answered yet come after those that have, in the given order.  If the
+   * request fails, it is sent to the next endpoint.
+   * @param pwsEndpoints The endpoints to use.
+   */
+  public void setEndpoints(List<PwsEndpoint> pwsEndpoints) {
+    if (pwsEndpoints.isEmpty()) {
+      throw new IllegalArgumentException("At least one endpoint is required");
+    }
+    List<PwsEndpointStats> endpointStats = new ArrayList<>();
+    for (PwsEndpoint pwsEndpoint : pwsEndpoints) {
+      endpointStats.add(new PwsEndpointStats(pwsEndpoint));
+    }
+    synchronized (this) {
+      mEndpointStats = endpointStats;
     }
-    mPwsEndpoint = pwsEndpoint;
-    apiVersion = pwsApiVersion;
-    apiKey = pwsApiKey;
   }
 
-  private String constructPwsResolveUrl() {
-    switch(apiVersion){
-      case 1:
-        return mPwsEndpoint + "/" + V1_RESOLVE_SCAN_PATH;
-      case 2:
-       return mPwsEndpoint + "/" + V2_RESOLVE_SCAN_PATH + "?key=" + apiKey;
-      default:
-        throw new RuntimeException(UKNOWN_API_ERROR_MESSAGE);
+  /**
+   * Set whether a resolve request is also sent to a second endpoint when the first is slow.
+   * The second request is sent once the first has gone unanswered for longer than 95% of the
+   * first endpoint's recent requests, or minDelayMillis if that is longer.  Whichever endpoint
+   * answers first provides the results, and the other request is cancelled.
+   * @param enabled Whether hedged requests are sent.
+   * @param minDelayMillis The shortest time to wait before sending a hedged request.
+   */
+  public synchronized void setHedging(boolean enabled, long minDelayMillis) {
+    mHedgingEnabled = enabled;
+    mMinHedgeDelayMillis = minDelayMillis;
+  }
+
+  /**
+   * Order the endpoints from the most to the least suitable for the next request.
+   */
+  private List<PwsEndpointStats> rankEndpoints() {
+    List<PwsEndpointStats> endpointStats;
+    synchronized (this) {
+      endpointStats = new ArrayList<>(mEndpointStats);
+    }
+    // Insertion sort keeps the configured order among endpoints that rank equally.
+    List<PwsEndpointStats> ranked = new ArrayList<>(endpointStats.size());
+    for (PwsEndpointStats stats : endpointStats) {
+      int index = ranked.size();
+      while (index > 0 && ranksBefore(stats, ranked.get(index - 1))) {
+        index--;
+      }
+      ranked.add(index, stats);
+    }
+    return ranked;
+  }
+
+  private static boolean ranksBefore(PwsEndpointStats lhs, PwsEndpointStats rhs) {
+    boolean lhsHealthy = lhs.getErrorRate() < MAX_HEALTHY_ERROR_RATE;
+    boolean rhsHealthy = rhs.getErrorRate() < MAX_HEALTHY_ERROR_RATE;
+    if (lhsHealthy != rhsHealthy) {
+      return lhsHealthy;
+    }
+    if (!lhsHealthy) {
+      return lhs.getErrorRate() < rhs.getErrorRate();
+    }
+    if (lhs.hasLatency() != rhs.hasLatency()) {
+      return lhs.hasLatency();
+    }
+    return lhs.hasLatency() && lhs.getLatencyMillis() < rhs.getLatencyMillis();
+  }
+
+  private synchronized long getHedgeDelayMillis(PwsEndpointStats stats) {
+    if (!mHedgingEnabled) {
+      return -1;
+    }
+    long p95 = stats.getLatencyPercentileMillis(HEDGE_PERCENTILE);
+    return Math.max(mMinHedgeDelayMillis, p95 < 0 ? DEFAULT_HEDGE_DELAY_MILLIS : p95);
+  }
+
+  private synchronized ScheduledExecutorService getScheduler() {
+    if (mScheduler == null) {
+      mScheduler = DaemonThreadFactory.newIdleScheduler("PwsClientHedge");
     }
+    return mScheduler;
   }
 
   /**
    * Send an HTTP request to the PWS to resolve a set of URLs.
+   * Each result is passed to the callback as soon as it has been read from the response, so
+   * large responses are never held in memory as a whole.  If the response breaks off, only the
+   * URLs whose results were not read are reported as errors.
    * @param broadcastUrls The URLs to resolve.
    * @param pwsResultCallback The callback to be run when the response is received.
    */
   public void resolve(final Collection<String> broadcastUrls,
                       final PwsResultCallback pwsResultCallback) {
-    // Create the response callback.
-    final long startTime = new Date().getTime();
-    JsonObjectRequest.RequestCallback requestCallback = new JsonObjectRequest.RequestCallback() {
-      private void recordResponse() {
-        pwsResultCallback.onResponseReceived(new Date().getTime() - startTime);
+    new HedgedResolve(broadcastUrls, pwsResultCallback, rankEndpoints()).start();
+  }
+
+  /**
+   * A resolve request that may be sent to several endpoints, of which the first to answer wins.
+   * Callbacks from the other requests are ignored, so the caller hears from exactly one.
+   */
+  private class HedgedResolve implements Runnable {
+    private final Collection<String> mBroadcastUrls;
+    private final PwsResultCallback mPwsResultCallback;
+    private final List<PwsEndpointStats> mEndpoints;
+    private final long mStartTime;
+    private final long mCancelGeneration;
+    private final List<Attempt> mAttempts;
+    private int mRunningAttempts;
+    private Attempt mWinner;
+    private boolean mResponseRecorded;
+
+    HedgedResolve(Collection<String> broadcastUrls, PwsResultCallback pwsResultCallback,
+        List<PwsEndpointStats> endpoints) {
+      mBroadcastUrls = broadcastUrls;
+      mPwsResultCallback = pwsResultCallback;
+      mEndpoints = endpoints;
+      mStartTime = System.nanoTime();
+      mCancelGeneration = getCancelGeneration();
+      mAttempts = new ArrayList<>();
+      mRunningAttempts = 0;
+      mWinner = null;
+      mResponseRecorded = false;
+    }
+
+    void start() {
+      long hedgeDelayMillis = getHedgeDelayMillis(mEndpoints.get(0));
+      startNextAttempt();
+      if (hedgeDelayMillis >= 0 && mEndpoints.size() > 1) {
+        getScheduler().schedule(this, hedgeDelayMillis, TimeUnit.MILLISECONDS);
       }
+    }
 
-      private PwsResult getPwsResult(JSONObject jsonUrlMetadata){
-        switch(apiVersion){
-          case 1:
-            return getV1PwsResult(jsonUrlMetadata);
-          case 2:
-            return getV2PwsResult(jsonUrlMetadata);
-          default:
-            throw new RuntimeException(UKNOWN_API_ERROR_MESSAGE);
+    /**
+     * Send the hedged request if no endpoint has answered yet.
+     */
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (mWinner != null || mCancelGeneration != getCancelGeneration()) {
+          return;
         }
       }
+      startNextAttempt();
+    }
 
-      private PwsResult getV1PwsResult(JSONObject jsonUrlMetadata){
-        try {
-          return new PwsResult.Builder(
-              jsonUrlMetadata.getString("id"), jsonUrlMetadata.getString("url"))
-              .setTitle(jsonUrlMetadata.optString("title"))
-              .setDescription(jsonUrlMetadata.optString("description"))
-              .setIconUrl(jsonUrlMetadata.optString("icon"))
-              .setGroupId(jsonUrlMetadata.optString("groupId"))
-              .build();
-        } catch (JSONException e) {
-          return null;
+    /**
+     * Send the request to the next endpoint that has not been tried.
+     * @return false if every endpoint has been tried.
+     */
+    private boolean startNextAttempt() {
+      Attempt attempt;
+      synchronized (this) {
+        if (mAttempts.size() >= mEndpoints.size()) {
+          return false;
         }
+        attempt = new Attempt(mEndpoints.get(mAttempts.size()));
+        mAttempts.add(attempt);
+        mRunningAttempts++;
       }
 
-      private PwsResult getV2PwsResult(JSONObject jsonUrlMetadata){
-        try {
-          JSONObject jsonPageInfo = jsonUrlMetadata.getJSONObject("pageInfo");
-          return new PwsResult.Builder(
-              jsonUrlMetadata.getString("scannedUrl"), jsonUrlMetadata.getString("resolvedUrl"))
-              .setTitle(jsonPageInfo.optString("title"))
-              .setDescription(jsonPageInfo.optString("description"))
-              .setIconUrl(jsonPageInfo.optString("icon"))
-              .build();
-        } catch (JSONException e) {
-          return null;
+      PwsEndpoint endpoint = attempt.mStats.getEndpoint();
+      JSONObject payload = new JSONObject();
+      try {
+        JSONArray urls = new JSONArray();
+        for (String url : mBroadcastUrls) {
+          JSONObject obj = new JSONObject();
+          obj.put("url", url);
+          urls.put(obj);
+        }
+        payload.put(endpoint.getRequestUrlsKey(), urls);
+      } catch (JSONException e) {
+        attempt.onError(0, e);
+        return true;
+      }
+      Request request;
+      try {
+        request = new JsonArrayStreamRequest(endpoint.getResolveUrl(), payload,
+            endpoint.getResponseResultsKey(), attempt);
+      } catch (MalformedURLException e) {
+        attempt.onError(0, e);
+        return true;
+      }
+      RequestTask task = makeRequest(request);
+      synchronized (this) {
+        attempt.mTask = task;
+        if (mWinner != null && mWinner != attempt && task != null) {
+          task.cancel(true);
         }
       }
+      return true;
+    }
 
-      public void onResponse(JSONObject result) {
-        recordResponse();
-
-        // Build the metadata from the response.
-        JSONArray foundMetadata;
-        String jsonKey;
-        switch(apiVersion){
-          case 1:
-            jsonKey = "metadata";
-            break;
-          case 2:
-            jsonKey = "results";
-            break;
-          default:
-            throw new RuntimeException(UKNOWN_API_ERROR_MESSAGE);
+    /**
+     * Make an attempt the one whose callbacks reach the caller, cancelling the others.
+     * @return true if the attempt is the winner.
+     */
+    private boolean claim(Attempt attempt) {
+      List<RequestTask> losers = new ArrayList<>();
+      synchronized (this) {
+        if (mWinner == null) {
+          mWinner = attempt;
+          for (Attempt other : mAttempts) {
+            if (other != attempt && other.mTask != null) {
+              losers.add(other.mTask);
+            }
+          }
+        }
+        if (mWinner != attempt) {
+          return false;
         }
+      }
+      for (RequestTask loser : losers) {
+        loser.cancel(true);
+      }
+      recordResponse();
+      return true;
+    }
 
-        try {
-          foundMetadata = result.getJSONArray(jsonKey);
-        } catch (JSONException e) {
-          pwsResultCallback.onPwsResultError(broadcastUrls, 200, e);
+    private synchronized boolean takeResponseRecorded() {
+      boolean recorded = mResponseRecorded;
+      mResponseRecorded = true;
+      return recorded;
+    }
+
+    private void recordResponse() {
+      if (!takeResponseRecorded()) {
+        mPwsResultCallback.onResponseReceived(getElapsedMillis(mStartTime));
+      }
+    }
+
+    /**
+     * Handle a failed attempt that did not win.  The error is reported only if no other
+     * endpoint is left to answer.
+     */
+    private void onAttemptFailed(int responseCode, Exception e) {
+      synchronized (this) {
+        mRunningAttempts--;
+        if (mWinner != null || mCancelGeneration != getCancelGeneration()) {
+          return;
+        }
+      }
+      // Fail over to the next endpoint right away rather than waiting for the hedge delay.
+      if (startNextAttempt()) {
+        return;
+      }
+      synchronized (this) {
+        if (mRunningAttempts > 0 || mWinner != null) {
           return;
         }
+        mWinner = mAttempts.get(mAttempts.size() - 1);
+      }
+      recordResponse();
+      recordResolve(false);
+      mPwsResultCallback.onPwsResultError(mBroadcastUrls, responseCode, e);
+    }
+
+    private void recordResolve(boolean succeeded) {
+      getMetricsRecorder().recordResolve(mBroadcastUrls.size(), getElapsedMillis(mStartTime),
+          succeeded);
+    }
+
+    /**
+     * The request to one endpoint.
+     */
+    private class Attempt implements JsonArrayStreamRequest.RequestCallback {
+      private final PwsEndpointStats mStats;
+      private final long mAttemptStartTime;
+      // Results are reported as they are parsed, so these are only touched by the request thread.
+      private final Set<String> mFoundUrls;
+      private boolean mLatencyRecorded;
+      private RequestTask mTask;
 
-        // Loop through the metadata for each url.
-        Set<String> foundUrls = new HashSet<>();
-        for (int i = 0; i < foundMetadata.length(); i++) {
+      Attempt(PwsEndpointStats stats) {
+        mStats = stats;
+        mAttemptStartTime = System.nanoTime();
+        mFoundUrls = new HashSet<>();
+        mLatencyRecorded = false;
+      }
+
+      private boolean claimResponse() {
+        if (!mLatencyRecorded) {
+          mLatencyRecorded = true;
+          mStats.recordSuccess(getElapsedMillis(mAttemptStartTime));
+        }
+        return claim(this);
+      }
 
-          JSONObject jsonUrlMetadata = foundMetadata.getJSONObject(i);
-          PwsResult pwsResult = getPwsResult(jsonUrlMetadata);
+      @Override
+      public void onElement(JSONObject jsonUrlMetadata) {
+        if (!claimResponse()) {
+          return;
+        }
+        PwsResult pwsResult = parsePwsResult(jsonUrlMetadata, mStats.getEndpoint().getApiVersion());
+        if (pwsResult == null) {
+          return;
+        }
+        mPwsResultCallback.onPwsResult(pwsResult);
+        // Only once the callback has returned, so that a URL whose callback threw is still
+        // reported as an error.
+        mFoundUrls.add(pwsResult.getRequestUrl());
+      }
 
-          pwsResultCallback.onPwsResult(pwsResult);
-          foundUrls.add(pwsResult.getRequestUrl());
+      @Override
+      public void onResponse(Boolean foundMetadata) {
+        if (!claimResponse()) {
+          return;
+        }
+        recordResolve(foundMetadata);
+        if (!foundMetadata) {
+          mPwsResultCallback.onPwsResultError(getMissedUrls(), 200, new JSONException(
+              "Response has no " + mStats.getEndpoint().getResponseResultsKey()));
+          return;
         }
 
         // See which urls the PWS didn't give us a response for.
-        Set<String> missed = new HashSet<>(broadcastUrls);
-        missed.removeAll(foundUrls);
-        for (String url : missed) {
-          pwsResultCallback.onPwsResultAbsent(url);
+        for (String url : getMissedUrls()) {
+          mPwsResultCallback.onPwsResultAbsent(url);
         }
       }
 
+      @Override
       public void onError(int responseCode, Exception e) {
-        recordResponse();
-        pwsResultCallback.onPwsResultError(broadcastUrls, responseCode, e);
+        mStats.recordError();
+        boolean isWinner;
+        synchronized (HedgedResolve.this) {
+          isWinner = mWinner == this;
+        }
+        if (!isWinner) {
+          onAttemptFailed(responseCode, e);
+          return;
+        }
+        recordResolve(false);
+        // Results read before the error have already been reported.
+        Set<String> missed = getMissedUrls();
+        if (!missed.isEmpty()) {
+          mPwsResultCallback.onPwsResultError(missed, responseCode, e);
+        }
       }
-    };
 
-    // Create the request.
-    String targetUrl = constructPwsResolveUrl();
-    JSONObject payload = new JSONObject();
-    try {
-      JSONArray urls = new JSONArray();
-      for (String url : broadcastUrls) {
-        JSONObject obj = new JSONObject();
-        obj.put("url", url);
-        urls.put(obj);
-      }
-      String jsonKey;
-      switch(apiVersion){
-        case 1:
-          jsonKey = "objects";
-          break;
-        case 2:
-          jsonKey = "urls";
-          break;
-        default:
-          throw new RuntimeException(UKNOWN_API_ERROR_MESSAGE);
+      private Set<String> getMissedUrls() {
+        Set<String> missed = new HashSet<>(mBroadcastUrls);
+        missed.removeAll(mFoundUrls);
+        return missed;
       }
-      payload.put(jsonKey, urls);
+    }
+  }
 
+  /**
+   * Build a PwsResult from one element of a resolve response.
+   * @param jsonUrlMetadata The metadata of one URL.
+   * @param apiVersion The API version the response came from.
+   * @return the result, or null if the element is missing required fields.
+   */
+  static PwsResult parsePwsResult(JSONObject jsonUrlMetadata, int apiVersion) {
+    switch(apiVersion){
+      case 1:
+        return getV1PwsResult(jsonUrlMetadata);
+      case 2:
+        return getV2PwsResult(jsonUrlMetadata);
+      default:
+        throw new RuntimeException(UKNOWN_API_ERROR_MESSAGE);
+    }
+  }
+
+  private static PwsResult getV1PwsResult(JSONObject jsonUrlMetadata){
+    try {
+      return new PwsResult.Builder(
+          jsonUrlMetadata.getString("id"), jsonUrlMetadata.getString("url"))
+          .setTitle(jsonUrlMetadata.optString("title"))
+          .setDescription(jsonUrlMetadata.optString("description"))
+          .setIconUrl(jsonUrlMetadata.optString("icon"))
+          .setGroupId(jsonUrlMetadata.optString("groupId"))
+          .build();
     } catch (JSONException e) {
-      pwsResultCallback.onPwsResultError(broadcastUrls, 0, e);
-      return;
+      return null;
     }
-    Request request;
+  }
+
+  private static PwsResult getV2PwsResult(JSONObject jsonUrlMetadata){
     try {
-      request = new JsonObjectRequest(targetUrl, payload, requestCallback);
-    } catch (MalformedURLException e) {
-      pwsResultCallback.onPwsResultError(broadcastUrls, 0, e);
-      return;
+      JSONObject jsonPageInfo = jsonUrlMetadata.getJSONObject("pageInfo");
+      return new PwsResult.Builder(
+          jsonUrlMetadata.getString("scannedUrl"), jsonUrlMetadata.getString("resolvedUrl"))
+          .setTitle(jsonPageInfo.optString("title"))
+          .setDescription(jsonPageInfo.optString("description"))
+          .setIconUrl(jsonPageInfo.optString("icon"))
+          .build();
+    } catch (JSONException e) {
+      return null;
     }
-    makeRequest(request);
   }
 
   /**
@@ -249,12 +578,15 @@ public class PwsClient {
    * @param pwsResultIconCallback The callback to run on an HTTP response.
    */
   public void downloadIcon(final String url, final PwsResultIconCallback pwsResultIconCallback) {
+    final long startTime = System.nanoTime();
     BitmapRequest.RequestCallback requestCallback = new BitmapRequest.RequestCallback() {
       public void onResponse(byte[] result) {
+        getMetricsRecorder().recordIconDownload(getElapsedMillis(startTime), result.length, true);
         pwsResultIconCallback.onIcon(result);
       }
 
       public void onError(int responseCode, Exception e) {
+        getMetricsRecorder().recordIconDownload(getElapsedMillis(startTime), 0, false);
         pwsResultIconCallback.onError(responseCode, e);
       }
     };
@@ -269,26 +601,228 @@ public class PwsClient {
     makeRequest(request);
   }
 
+  /**
+   * Resolve a set of URLs, returning a future instead of taking a callback.
+   * The future maps each resolved URL to its result, leaving out URLs the PWS has no metadata
+   * for.  It fails with a PwsException if the request fails for any of the URLs.
+   * @param broadcastUrls The URLs to resolve.
+   * @return the future result of the request.
+   */
+  public PwsFuture<Map<String, PwsResult>> resolveAsync(Collection<String> broadcastUrls) {
+    ResolveFutureCallback callback = new ResolveFutureCallback();
+    callback.expect(broadcastUrls);
+    if (!broadcastUrls.isEmpty()) {
+      resolve(broadcastUrls, callback);
+    }
+    return callback.getFuture();
+  }
+
+  /**
+   * Fetch an icon, returning a future instead of taking a callback.
+   * The future fails with a PwsException if the icon cannot be downloaded.
+   * @param url The icon URL returned by the PWS.
+   * @return the future icon.
+   */
+  public PwsFuture<byte[]> fetchIcon(String url) {
+    IconFutureCallback callback = new IconFutureCallback();
+    downloadIcon(url, callback);
+    return callback.getFuture();
+  }
+
   /**
    * Cancel all current HTTP requests.
+   * Requests that have not started yet are dropped, and requests in progress will not invoke
+   * their callbacks.
    */
   public void cancelAllRequests() {
-    for (Thread thread : mThreads) {
-      thread.interrupt();
+    synchronized (this) {
+      mCancelGeneration++;
+    }
+    for (RequestTask task : new ArrayList<>(mRequestTasks)) {
+      task.cancel(true);
     }
-    mThreads.clear();
+    mRequestTasks.clear();
+    synchronized (this) {
+      mExecutor.purge();
+    }
+    recordInFlightRequests();
+  }
+
+  private void recordInFlightRequests() {
+    getMetricsRecorder().recordInFlightRequests(mRequestTasks.size());
   }
 
-  private void makeRequest(Request request) {
-    // Remove all threads that are no longer alive.
-    for (Iterator<Thread> iterator = mThreads.iterator(); iterator.hasNext();) {
-      if (!iterator.next().isAlive()) {
-        iterator.remove();
+  private synchronized long getCancelGeneration() {
+    return mCancelGeneration;
+  }
+
+  /**
+   * Submit a request to the executor, once a connection to its host is free.
+   * A request to a host at its connection limit waits in the limiter's queue for that host rather
+   * than on a pool thread, so it does not hold up requests to other hosts.
+   * @return the handle of the request, or null if the executor rejected it.
+   */
+  private RequestTask makeRequest(final Request<?> request) {
+    HostConnectionLimiter connectionLimiter;
+    synchronized (this) {
+      connectionLimiter = mConnectionLimiter;
+      request.setConnectionLimiter(connectionLimiter);
+      request.setCompressRequestBody(mCompressRequestBodies);
+    }
+    final RequestTask task = new RequestTask(request);
+    mRequestTasks.add(task);
+    recordInFlightRequests();
+    if (connectionLimiter != null) {
+      boolean acquired = connectionLimiter.acquire(request.getUrl(), new Runnable() {
+        @Override
+        public void run() {
+          request.onConnectionAcquired();
+          dispatch(task);
+        }
+      });
+      if (!acquired) {
+        return task;
       }
+      request.onConnectionAcquired();
+    }
+    return dispatch(task) ? task : null;
+  }
+
+  /**
+   * Submit a request holding its connection to the executor.
+   * @return false if the request was cancelled meanwhile or the executor rejected it.
+   */
+  private boolean dispatch(RequestTask task) {
+    if (task.isDone()) {
+      // Cancelled while waiting for a connection.
+      task.mRequest.releaseConnectionPermit();
+      return false;
+    }
+    ThreadPoolExecutor executor;
+    synchronized (this) {
+      executor = mExecutor;
+    }
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      mRequestTasks.remove(task);
+      task.mRequest.releaseConnectionPermit();
+      task.mRequest.reject(e);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Report a request that a rejection handler dropped, if it has not started.
+   */
+  private static void rejectDropped(Runnable runnable) {
+    if (runnable instanceof RequestTask) {
+      ((RequestTask) runnable).rejectIfNotStarted(
+          new RejectedExecutionException("Request dropped by the rejection handler"));
+    }
+  }
+
+  /**
+   * Queue of the request executor.
+   * Worker threads wait for requests with take or a timed poll, so a request removed with an
+   * untimed poll was dropped by a rejection handler, as DiscardOldestPolicy does.
+   */
+  private static class RequestQueue extends ArrayBlockingQueue<Runnable> {
+    private static final long serialVersionUID = 1L;
+
+    RequestQueue(int capacity) {
+      super(capacity);
+    }
+
+    @Override
+    public Runnable poll() {
+      Runnable runnable = super.poll();
+      rejectDropped(runnable);
+      return runnable;
+    }
+  }
+
+  /**
+   * Applies a caller's rejection handler and reports the request if the handler drops it, as
+   * DiscardPolicy does, instead of running, queueing or throwing.
+   */
+  private static class DropReportingHandler implements RejectedExecutionHandler {
+    private final RejectedExecutionHandler mHandler;
+
+    DropReportingHandler(RejectedExecutionHandler handler) {
+      mHandler = handler;
+    }
+
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+      mHandler.rejectedExecution(runnable, executor);
+      if (!executor.getQueue().contains(runnable)) {
+        rejectDropped(runnable);
+      }
+    }
+  }
+
+  /**
+   * The handle for a request submitted to the executor.
+   */
+  private class RequestTask extends FutureTask<Void> {
+    private final Request<?> mRequest;
+    // Set by whichever comes first of running the request and reporting it dropped.
+    private final AtomicBoolean mStarted;
+
+    RequestTask(Request<?> request) {
+      super(request, null);
+      mRequest = request;
+      mStarted = new AtomicBoolean(false);
     }
 
-    // Start the new thread and record it.
-    request.start();
-    mThreads.add(request);
+    @Override
+    public void run() {
+      if (mStarted.compareAndSet(false, true)) {
+        try {
+          super.run();
+        } finally {
+          // The request gives its connection back once it has closed it.  This only covers a
+          // task cancelled just before the request would have run.
+          mRequest.releaseConnectionPermit();
+        }
+      }
+    }
+
+    /**
+     * Report the request as rejected and complete the task, unless it has already started.
+     * @param e The exception passed to the request's callback.
+     */
+    void rejectIfNotStarted(Exception e) {
+      if (mStarted.compareAndSet(false, true)) {
+        mRequest.releaseConnectionPermit();
+        mRequest.reject(e);
+        cancel(false);
+      }
+    }
+
+    /**
+     * Fail loudly if a callback throws, as a request running on its own thread once did, rather
+     * than leaving the exception in a future nobody reads.
+     */
+    @Override
+    protected void setException(Throwable t) {
+      super.setException(t);
+      Thread thread = Thread.currentThread();
+      thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+    }
+
+    @Override
+    protected void done() {
+      // A request that never ran still holds its connection.  One cancelled while running is
+      // only interrupted, which does not stop its I/O, so it keeps the connection until run
+      // returns; handing it on now would let the host exceed its connection limit.
+      if (!mStarted.get()) {
+        mRequest.releaseConnectionPermit();
+      }
+      mRequestTasks.remove(this);
+      recordInFlightRequests();
+    }
   }
 }
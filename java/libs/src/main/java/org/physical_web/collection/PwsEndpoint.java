@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+/**
+ * A Physical Web Service endpoint: its URL, the API version it speaks, and the API key to use.
+ */
+public class PwsEndpoint {
+  private static final String V1_RESOLVE_SCAN_PATH = "resolve-scan";
+  private static final String V2_RESOLVE_SCAN_PATH = "v1alpha1/urls:resolve";
+  private final String mUrl;
+  private final int mApiVersion;
+  private final String mApiKey;
+
+  /**
+   * Construct a PwsEndpoint that needs no API key.
+   * @param url The URL of the endpoint.
+   * @param apiVersion The API version the endpoint uses.
+   */
+  public PwsEndpoint(String url, int apiVersion) {
+    this(url, apiVersion, null);
+  }
+
+  /**
+   * Construct a PwsEndpoint.
+   * @param url The URL of the endpoint.
+   * @param apiVersion The API version the endpoint uses.
+   * @param apiKey The API key to access the endpoint.
+   */
+  public PwsEndpoint(String url, int apiVersion, String apiKey) {
+    if ((apiKey == null || apiKey.isEmpty()) && apiVersion >= 2) {
+      throw new RuntimeException("API Version 2 or higher requires an API key");
+    }
+    if (apiVersion != 1 && apiVersion != 2) {
+      throw new RuntimeException("Unknown API Version");
+    }
+    mUrl = url;
+    mApiVersion = apiVersion;
+    mApiKey = apiKey;
+  }
+
+  /**
+   * Fetches the URL of the endpoint.
+   * @return the URL.
+   */
+  public String getUrl() {
+    return mUrl;
+  }
+
+  /**
+   * Fetches the API version of the endpoint.
+   * @return the API version.
+   */
+  public int getApiVersion() {
+    return mApiVersion;
+  }
+
+  /**
+   * Fetches the API key of the endpoint.
+   * @return the API key, or null if there is none.
+   */
+  public String getApiKey() {
+    return mApiKey;
+  }
+
+  /**
+   * Get the URL that resolve requests are sent to.
+   * @return the resolve URL.
+   */
+  String getResolveUrl() {
+    if (mApiVersion == 1) {
+      return mUrl + "/" + V1_RESOLVE_SCAN_PATH;
+    }
+    return mUrl + "/" + V2_RESOLVE_SCAN_PATH + "?key=" + mApiKey;
+  }
+
+  /**
+   * Get the key of the URL list in resolve requests.
+   * @return the request key.
+   */
+  String getRequestUrlsKey() {
+    return mApiVersion == 1 ? "objects" : "urls";
+  }
+
+  /**
+   * Get the key of the result list in resolve responses.
+   * @return the response key.
+   */
+  String getResponseResultsKey() {
+    return mApiVersion == 1 ? "metadata" : "results";
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.Arrays;
+
+/**
+ * Tracks how quickly and how reliably an endpoint answers requests.
+ * Latency and error rate are exponentially weighted moving averages, so recent requests count
+ * the most.  A window of recent latencies is kept to estimate high percentiles.
+ */
+class PwsEndpointStats {
+  private static final double WEIGHT = 0.2;
+  private static final int LATENCY_WINDOW = 64;
+  private static final int MIN_PERCENTILE_SAMPLES = 8;
+  private final PwsEndpoint mEndpoint;
+  private final long[] mLatencies;
+  private int mLatencyCount;
+  private int mNextLatency;
+  private double mLatencyMillis;
+  private double mErrorRate;
+
+  /**
+   * Construct a PwsEndpointStats.
+   * @param endpoint The endpoint to track.
+   */
+  PwsEndpointStats(PwsEndpoint endpoint) {
+    mEndpoint = endpoint;
+    mLatencies = new long[LATENCY_WINDOW];
+    mLatencyCount = 0;
+    mNextLatency = 0;
+    mLatencyMillis = 0;
+    mErrorRate = 0;
+  }
+
+  /**
+   * Fetches the tracked endpoint.
+   * @return the endpoint.
+   */
+  PwsEndpoint getEndpoint() {
+    return mEndpoint;
+  }
+
+  /**
+   * Record a request that the endpoint answered.
+   * @param latencyMillis The time until the response started.
+   */
+  synchronized void recordSuccess(long latencyMillis) {
+    mLatencyMillis = mLatencyCount == 0
+        ? latencyMillis : mLatencyMillis + WEIGHT * (latencyMillis - mLatencyMillis);
+    mErrorRate -= WEIGHT * mErrorRate;
+    mLatencies[mNextLatency] = latencyMillis;
+    mNextLatency = (mNextLatency + 1) % LATENCY_WINDOW;
+    mLatencyCount++;
+  }
+
+  /**
+   * Record a request that failed.
+   */
+  synchronized void recordError() {
+    mErrorRate += WEIGHT * (1 - mErrorRate);
+  }
+
+  /**
+   * Check whether the endpoint has answered any request.
+   * @return true if a latency has been recorded.
+   */
+  synchronized boolean hasLatency() {
+    return mLatencyCount > 0;
+  }
+
+  /**
+   * Get the average latency, weighted towards recent requests.
+   * @return the latency in milliseconds, or 0 if no request has been answered.
+   */
+  synchronized double getLatencyMillis() {
+    return mLatencyMillis;
+  }
+
+  /**
+   * Get the error rate, weighted towards recent requests.
+   * @return the fraction of requests that failed, between 0 and 1.
+   */
+  synchronized double getErrorRate() {
+    return mErrorRate;
+  }
+
+  /**
+   * Estimate a latency percentile from the recent requests.
+   * @param percentile The percentile, between 0 and 100.
+   * @return the latency in milliseconds, or -1 if too few requests have been answered.
+   */
+  synchronized long getLatencyPercentileMillis(double percentile) {
+    int count = Math.min(mLatencyCount, LATENCY_WINDOW);
+    if (count < MIN_PERCENTILE_SAMPLES) {
+      return -1;
+    }
+    long[] latencies = Arrays.copyOf(mLatencies, count);
+    Arrays.sort(latencies);
+    int index = (int) Math.ceil(percentile / 100 * count) - 1;
+    return latencies[Math.max(0, Math.min(count - 1, index))];
+  }
+}
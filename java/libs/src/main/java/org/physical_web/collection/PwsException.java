@@ -0,0 +1,42 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+/**
+ * Exception class used when a request to the Physical Web Service or for an icon fails.
+ */
+public class PwsException extends Exception {
+  private static final long serialVersionUID = 1L;
+  private final int mHttpResponseCode;
+
+  /**
+   * Construct a PwsException.
+   * @param httpResponseCode The HTTP response code, or 0 if a response was never received.
+   * @param cause The exception encountered by the request.
+   */
+  public PwsException(int httpResponseCode, Exception cause) {
+    super("Request failed with HTTP response code " + httpResponseCode, cause);
+    mHttpResponseCode = httpResponseCode;
+  }
+
+  /**
+   * Fetches the HTTP response code of the failed request.
+   * @return the HTTP response code, or 0 if a response was never received.
+   */
+  public int getHttpResponseCode() {
+    return mHttpResponseCode;
+  }
+}
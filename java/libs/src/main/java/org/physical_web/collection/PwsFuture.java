@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The result of an asynchronous PWS request.
+ * Besides blocking with get, with or without a timeout, callers can register listeners that run
+ * on an executor of their choice once the request completes, which lets several requests be
+ * started together and joined without dedicating a thread to each one.
+ * @param <T> The type of the result.
+ */
+public class PwsFuture<T> implements Future<T> {
+  private T mResult;
+  private Throwable mException;
+  private boolean mDone;
+  private boolean mCancelled;
+  private List<Runnable> mListeners;
+
+  /**
+   * Construct an incomplete PwsFuture.
+   */
+  PwsFuture() {
+    mListeners = new ArrayList<>();
+  }
+
+  /**
+   * Run a listener once this future completes, fails or is cancelled.
+   * If the future is already done, the listener is passed to the executor right away.
+   * @param listener The listener to run.
+   * @param executor The executor to run the listener on.
+   */
+  public void addListener(Runnable listener, Executor executor) {
+    final Runnable listenerTask = createListenerTask(listener, executor);
+    synchronized (this) {
+      if (!mDone) {
+        mListeners.add(listenerTask);
+        return;
+      }
+    }
+    listenerTask.run();
+  }
+
+  private static Runnable createListenerTask(final Runnable listener, final Executor executor) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        executor.execute(listener);
+      }
+    };
+  }
+
+  /**
+   * Complete this future with a result.
+   * @param result The result.
+   * @return false if the future was already done.
+   */
+  boolean complete(T result) {
+    return finish(result, null, false);
+  }
+
+  /**
+   * Complete this future with a failure.
+   * @param exception The reason the request failed.
+   * @return false if the future was already done.
+   */
+  boolean completeExceptionally(Throwable exception) {
+    return finish(null, exception, false);
+  }
+
+  /**
+   * Cancel this future.  The request itself keeps running, but its result is discarded.
+   * @param mayInterruptIfRunning Ignored, since requests run on threads owned by PwsClient.
+   * @return false if the future was already done.
+   */
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return finish(null, null, true);
+  }
+
+  /**
+   * Record the outcome and mark the future done in one step, so that only the first of several
+   * racing completions is kept, and then run the listeners outside the lock.
+   */
+  private boolean finish(T result, Throwable exception, boolean cancelled) {
+    List<Runnable> listeners;
+    synchronized (this) {
+      if (mDone) {
+        return false;
+      }
+      mResult = result;
+      mException = exception;
+      mCancelled = cancelled;
+      mDone = true;
+      listeners = mListeners;
+      mListeners = null;
+      notifyAll();
+    }
+    for (Runnable listener : listeners) {
+      listener.run();
+    }
+    return true;
+  }
+
+  @Override
+  public synchronized boolean isCancelled() {
+    return mCancelled;
+  }
+
+  @Override
+  public synchronized boolean isDone() {
+    return mDone;
+  }
+
+  @Override
+  public synchronized T get() throws InterruptedException, ExecutionException {
+    while (!mDone) {
+      wait();
+    }
+    return getResult();
+  }
+
+  @Override
+  public synchronized T get(long timeout, TimeUnit unit)
+      throws InterruptedException, ExecutionException, TimeoutException {
+    long deadline = System.nanoTime() + unit.toNanos(timeout);
+    while (!mDone) {
+      long remainingNanos = deadline - System.nanoTime();
+      if (remainingNanos <= 0) {
+        throw new TimeoutException();
+      }
+      TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+    }
+    return getResult();
+  }
+
+  private T getResult() throws ExecutionException {
+    if (mCancelled) {
+      throw new CancellationException();
+    }
+    if (mException != null) {
+      throw new ExecutionException(mException);
+    }
+    return mResult;
+  }
+}
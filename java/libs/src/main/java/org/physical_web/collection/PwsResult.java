@@ -19,6 +19,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * Metadata returned from the Physical Web Service for a single URL.
  */
@@ -36,7 +40,7 @@ public class PwsResult {
   private String mDescription;
   private String mIconUrl;
   private String mGroupId;
-  private JSONObject mExtraData;
+  private ExtraData mExtraData;
 
   /**
    * Construct a PwsResult.
@@ -51,13 +55,20 @@ public class PwsResult {
   public PwsResult(
       String requestUrl, String siteUrl, String title, String description, String iconUrl,
       String groupId, JSONObject extraData) {
+    this(requestUrl, siteUrl, title, description, iconUrl, groupId,
+        ExtraData.fromJsonObject(extraData));
+  }
+
+  private PwsResult(
+      String requestUrl, String siteUrl, String title, String description, String iconUrl,
+      String groupId, ExtraData extraData) {
     mRequestUrl = requestUrl;
     mSiteUrl = siteUrl;
     mIconUrl = (iconUrl == null || iconUrl.isEmpty()) ? null : iconUrl;
     mTitle = (title == null || title.isEmpty()) ? null : title;
     mDescription = (description == null || description.isEmpty()) ? null : description;
     mGroupId = (groupId == null || groupId.isEmpty()) ? null : groupId;
-    mExtraData = extraData == null ? new JSONObject() : new JSONObject(extraData.toString());
+    mExtraData = extraData;
   }
 
   /**
@@ -66,7 +77,7 @@ public class PwsResult {
    * @param siteUrl The site URL, as reported by the PWS.
    */
   public PwsResult(String requestUrl, String siteUrl) {
-    this(requestUrl, siteUrl, null, null, null, null, null);
+    this(requestUrl, siteUrl, null, null, null, null, ExtraData.EMPTY);
   }
 
   /**
@@ -79,7 +90,7 @@ public class PwsResult {
     private String mNewDescription;
     private String mNewIconUrl;
     private String mNewGroupId;
-    private JSONObject mNewExtraData;
+    private ExtraData mNewExtraData;
 
     /**
      * Construct a PwsResult Builder.
@@ -93,7 +104,7 @@ public class PwsResult {
       mNewDescription = null;
       mNewIconUrl = null;
       mNewGroupId = null;
-      mNewExtraData = new JSONObject();
+      mNewExtraData = ExtraData.EMPTY;
     }
 
     /**
@@ -107,7 +118,7 @@ public class PwsResult {
       mNewTitle = pwsResult.mTitle;
       mNewDescription = pwsResult.mDescription;
       mNewGroupId = pwsResult.mGroupId;
-      mNewExtraData = new JSONObject(pwsResult.mExtraData.toString());
+      mNewExtraData = pwsResult.mExtraData;
     }
 
     /**
@@ -156,7 +167,7 @@ public class PwsResult {
      * @return the Builder object for chaining operations.
      */
     public Builder setExtra(JSONObject extraData) {
-      mNewExtraData = extraData == null ? new JSONObject() : new JSONObject(extraData.toString());
+      mNewExtraData = ExtraData.fromJsonObject(extraData);
       return this;
     }
 
@@ -166,7 +177,7 @@ public class PwsResult {
      * @return the Builder object for chaining operations.
      */
     public Builder addExtra(String key, boolean value) {
-      mNewExtraData.put(key, value);
+      mNewExtraData = mNewExtraData.with(key, value);
       return this;
     }
 
@@ -176,7 +187,7 @@ public class PwsResult {
      * @return the Builder object for chaining operations.
      */
     public Builder addExtra(String key, int value) {
-      mNewExtraData.put(key, value);
+      mNewExtraData = mNewExtraData.with(key, value);
       return this;
     }
 
@@ -186,7 +197,7 @@ public class PwsResult {
      * @return the Builder object for chaining operations.
      */
     public Builder addExtra(String key, long value) {
-      mNewExtraData.put(key, value);
+      mNewExtraData = mNewExtraData.with(key, value);
       return this;
     }
 
@@ -197,7 +208,7 @@ public class PwsResult {
      * @return the Builder object for chaining operations.
      */
     public Builder addExtra(String key, Object value) {
-      mNewExtraData.put(key, value);
+      mNewExtraData = mNewExtraData.with(key, value);
       return this;
     }
 
@@ -317,7 +328,7 @@ public class PwsResult {
    * @return The stored value or false if it doesn't exist in specified form.
    */
   public boolean optExtraBoolean(String key) {
-    return mExtraData.optBoolean(key);
+    return mExtraData.optBoolean(key, false);
   }
 
   /**
@@ -347,7 +358,7 @@ public class PwsResult {
    * @return The stored value or 0 if it doesn't exist in specified form.
    */
   public int optExtraInt(String key) {
-    return mExtraData.optInt(key);
+    return mExtraData.optInt(key, 0);
   }
 
   /**
@@ -377,7 +388,7 @@ public class PwsResult {
    * @return The stored value or 0 if it doesn't exist in specified form.
    */
   public long optExtraLong(String key) {
-    return mExtraData.optLong(key);
+    return mExtraData.optLong(key, 0);
   }
 
   /**
@@ -407,7 +418,7 @@ public class PwsResult {
    * @return The stored value or 0 if it doesn't exist in specified form.
    */
   public double optExtraDouble(String key) {
-    return mExtraData.optDouble(key);
+    return mExtraData.optDouble(key, Double.NaN);
   }
 
   /**
@@ -437,7 +448,7 @@ public class PwsResult {
    * @return The stored value or null if it doesn't exist in specified form.
    */
   public String optExtraString(String key) {
-    return mExtraData.optString(key);
+    return mExtraData.optString(key, "");
   }
 
   /**
@@ -510,7 +521,7 @@ public class PwsResult {
       jsonObject.put(GROUPID_KEY, mGroupId);
     }
     if (mExtraData.length() > 0) {
-      jsonObject.put(EXTRA_KEY, mExtraData);
+      jsonObject.put(EXTRA_KEY, mExtraData.toJsonObject());
     }
     return jsonObject;
   }
@@ -529,4 +540,48 @@ public class PwsResult {
         .setGroupId(jsonObject.optString(GROUPID_KEY))
         .build();
   }
+
+  /**
+   * Write a compact binary representation of this data structure.
+   * @param os The stream to write to.
+   * @throws IOException on error
+   */
+  public void binarySerialize(OutputStream os) throws IOException {
+    BinaryEncoder encoder = new BinaryEncoder(os);
+    binarySerialize(encoder);
+    encoder.flush();
+  }
+
+  /**
+   * Read a PwsResult written by binarySerialize.
+   * @param is The stream to read from.
+   * @return The PwsResult represented by the serialized data.
+   * @throws IOException on invalid or unrecognized input
+   */
+  public static PwsResult binaryDeserialize(InputStream is) throws IOException {
+    BinaryDecoder decoder = new BinaryDecoder(is);
+    decoder.checkFormatVersion();
+    return binaryDeserialize(decoder);
+  }
+
+  void binarySerialize(BinaryEncoder encoder) throws IOException {
+    encoder.writeString(mRequestUrl);
+    encoder.writeString(mSiteUrl);
+    encoder.writeString(mTitle);
+    encoder.writeString(mDescription);
+    encoder.writeString(mIconUrl);
+    encoder.writeString(mGroupId);
+    encoder.writeJsonObject(mExtraData.getJsonView());
+  }
+
+  static PwsResult binaryDeserialize(BinaryDecoder decoder) throws IOException {
+    String requestUrl = decoder.readString();
+    String siteUrl = decoder.readString();
+    String title = decoder.readString();
+    String description = decoder.readString();
+    String iconUrl = decoder.readString();
+    String groupId = decoder.readString();
+    return new PwsResult(requestUrl, siteUrl, title, description, iconUrl, groupId,
+        ExtraData.fromJsonObject(decoder.readJsonObject()));
+  }
 }
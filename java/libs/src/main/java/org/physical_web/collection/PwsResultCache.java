@@ -0,0 +1,48 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+/**
+ * Storage for PwsResults that outlives a PhysicalWebCollection.
+ * A PhysicalWebCollection consults its cache before asking the Physical Web Service to resolve a
+ * URL, and stores every result it receives from the service.  Implementations must be safe to
+ * call from multiple threads.
+ */
+public interface PwsResultCache {
+  /**
+   * Fetch a cached result.
+   * @param broadcastUrl The URL broadcasted by the device.
+   * @return The cached result, or null if there is no result or it has expired.
+   */
+  PwsResult get(String broadcastUrl);
+
+  /**
+   * Store a result, replacing any result previously stored for the same request URL.
+   * @param pwsResult The result returned by the Physical Web Service.
+   */
+  void put(PwsResult pwsResult);
+
+  /**
+   * Remove a result from the cache.
+   * @param broadcastUrl The URL broadcasted by the device.
+   */
+  void remove(String broadcastUrl);
+
+  /**
+   * Remove all results from the cache.
+   */
+  void clear();
+}
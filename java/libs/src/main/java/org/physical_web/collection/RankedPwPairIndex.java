@@ -0,0 +1,343 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Keeps the PwPairs of a collection ranked, grouped and deduplicated as pairs come and go.
+ * Each group is kept in a sorted set so that its top-ranked pair is known without sorting.  The
+ * candidates, which are the top pair of each group and every ungrouped pair, are kept in a sorted
+ * set as well, so adding and removing a pair costs O(log n).  Reading the top k pairs walks the
+ * candidates and skips repeated site URLs.
+ *
+ * A sorted set finds a pair with the comparator, so a comparator that ranks by changing state,
+ * such as a smoothed distance, must see the state the pair was inserted with.  Callers detach a
+ * device's pair before changing its ranking state and attach it afterwards.  A pair whose state
+ * changed anyway is still removed, by a linear search for it, and rebuild re-sorts the whole
+ * index.
+ *
+ * The index also remembers the broadcast URL of every device it is told about, including those
+ * without metadata, so that metadata arriving for a URL only re-ranks the devices broadcasting it.
+ */
+class RankedPwPairIndex {
+  private final Comparator<PwPair> mComparator;
+  private UrlDictionary mUrlDictionary;
+  private final Map<String, PwPair> mDeviceIdToPwPairMap;
+  private final Map<String, TreeSet<PwPair>> mGroupIdToPwPairsMap;
+  private final TreeSet<PwPair> mCandidates;
+  private final Map<String, String> mDeviceIdToBroadcastUrlMap;
+  private final Map<String, Set<String>> mBroadcastUrlToDeviceIdsMap;
+  private PwPair mDetachedPwPair;
+
+  /**
+   * Construct a RankedPwPairIndex.
+   * @param comparator The comparator that ranks pairs, best first.
+   * @param urlDictionary The dictionary used to deduplicate site URLs.
+   */
+  RankedPwPairIndex(final Comparator<PwPair> comparator, UrlDictionary urlDictionary) {
+    mUrlDictionary = urlDictionary;
+    // Break ties by device ID so that the order does not depend on insertion order, and so that
+    // only the pair of the same device compares equal.
+    mComparator = new Comparator<PwPair>() {
+      @Override
+      public int compare(PwPair lhs, PwPair rhs) {
+        int result = comparator.compare(lhs, rhs);
+        if (result != 0) {
+          return result;
+        }
+        return lhs.getUrlDevice().getId().compareTo(rhs.getUrlDevice().getId());
+      }
+    };
+    mDeviceIdToPwPairMap = new HashMap<>();
+    mGroupIdToPwPairsMap = new HashMap<>();
+    mCandidates = new TreeSet<>(mComparator);
+    mDeviceIdToBroadcastUrlMap = new HashMap<>();
+    mBroadcastUrlToDeviceIdsMap = new HashMap<>();
+    mDetachedPwPair = null;
+  }
+
+  /**
+   * Deduplicate site URLs with a new dictionary, such as one the collection has compacted.
+   * @param urlDictionary The dictionary used to deduplicate site URLs.
+   */
+  void setUrlDictionary(UrlDictionary urlDictionary) {
+    mUrlDictionary = urlDictionary;
+  }
+
+  /**
+   * Add a pair, replacing any pair for the same device.
+   * @param pwPair The pair to add.
+   */
+  void put(PwPair pwPair) {
+    String deviceId = pwPair.getUrlDevice().getId();
+    removePwPair(deviceId);
+    mDeviceIdToPwPairMap.put(deviceId, pwPair);
+    setBroadcastUrl(deviceId, pwPair.getUrlDevice().getUrl());
+    link(pwPair);
+  }
+
+  /**
+   * Record a device that has no metadata, removing any pair for it.
+   * @param urlDevice The device.
+   */
+  void putUnresolved(UrlDevice urlDevice) {
+    removePwPair(urlDevice.getId());
+    setBroadcastUrl(urlDevice.getId(), urlDevice.getUrl());
+  }
+
+  /**
+   * Remove the pair for a device, and forget the device.
+   * @param deviceId The ID of the device.
+   */
+  void remove(String deviceId) {
+    removePwPair(deviceId);
+    setBroadcastUrl(deviceId, null);
+  }
+
+  /**
+   * Get the devices broadcasting a URL, with or without metadata.
+   * @param broadcastUrl The URL.
+   * @return a new list of the device IDs.
+   */
+  List<String> getDeviceIds(String broadcastUrl) {
+    Set<String> deviceIds = mBroadcastUrlToDeviceIdsMap.get(broadcastUrl);
+    return deviceIds == null ? new ArrayList<String>() : new ArrayList<>(deviceIds);
+  }
+
+  /**
+   * Take a device's pair out of the ranking, before the state its rank depends on changes.
+   * The pair stays in the index, and must be put back with attach before any other change.
+   * @param deviceId The ID of the device.
+   */
+  void detach(String deviceId) {
+    PwPair pwPair = mDeviceIdToPwPairMap.get(deviceId);
+    if (pwPair == null || mDetachedPwPair != null) {
+      return;
+    }
+    unlink(pwPair);
+    mDetachedPwPair = pwPair;
+  }
+
+  /**
+   * Put the pair taken out by detach back in the position its current ranking state calls for.
+   * Unlike put, this never drops and recreates the pair's group.
+   */
+  void attach() {
+    PwPair pwPair = mDetachedPwPair;
+    if (pwPair != null) {
+      mDetachedPwPair = null;
+      link(pwPair);
+    }
+  }
+
+  /**
+   * Remove all pairs and devices.
+   */
+  void clear() {
+    mDeviceIdToPwPairMap.clear();
+    mGroupIdToPwPairsMap.clear();
+    mCandidates.clear();
+    mDeviceIdToBroadcastUrlMap.clear();
+    mBroadcastUrlToDeviceIdsMap.clear();
+    mDetachedPwPair = null;
+  }
+
+  /**
+   * Re-sort every group and the candidates, for use after the ranking state has changed.
+   */
+  void rebuild() {
+    attach();
+    Collection<PwPair> pwPairs = mDeviceIdToPwPairMap.values();
+    mGroupIdToPwPairsMap.clear();
+    mCandidates.clear();
+    for (PwPair pwPair : pwPairs) {
+      link(pwPair);
+    }
+  }
+
+  /**
+   * Get the best ranked pairs, including only the top pair of each group and only the first pair
+   * with each site URL.
+   * @param k The largest number of pairs to return.
+   * @return the pairs in descending order of rank.
+   */
+  List<PwPair> getTopPwPairs(int k) {
+    return getTopPwPairs(mCandidates, k);
+  }
+
+  /**
+   * Count the pairs getTopPwPairs would return with no limit, without building the list.
+   * @param filter The filter pairs must pass to be counted, or null to count every pair.  It is
+   *     applied after site URLs are deduplicated, as a caller filtering the list would.
+   * @return the number of pairs.
+   */
+  int countTopPwPairs(PwPairFilter filter) {
+    int count = 0;
+    UrlDictionary.UrlSet siteUrls = new UrlDictionary.UrlSet(mUrlDictionary);
+    for (PwPair pwPair : mCandidates) {
+      if (siteUrls.add(pwPair.getPwsResult().getSiteUrl())
+          && (filter == null || filter.accept(pwPair))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Get the best ranked pairs of one group, including only the first pair with each site URL.
+   * @param groupId The group ID.
+   * @param k The largest number of pairs to return.
+   * @return the pairs in descending order of rank.
+   */
+  List<PwPair> getTopPwPairsByGroupId(String groupId, int k) {
+    TreeSet<PwPair> group = groupId == null ? null : mGroupIdToPwPairsMap.get(groupId);
+    if (group == null) {
+      return new ArrayList<>();
+    }
+    return getTopPwPairs(group, k);
+  }
+
+  private List<PwPair> getTopPwPairs(TreeSet<PwPair> pwPairs, int k) {
+    List<PwPair> topPwPairs = new ArrayList<>(Math.min(k, pwPairs.size()));
+    UrlDictionary.UrlSet siteUrls = new UrlDictionary.UrlSet(mUrlDictionary);
+    for (PwPair pwPair : pwPairs) {
+      if (topPwPairs.size() >= k) {
+        break;
+      }
+      if (siteUrls.add(pwPair.getPwsResult().getSiteUrl())) {
+        topPwPairs.add(pwPair);
+      }
+    }
+    return topPwPairs;
+  }
+
+  private static String getGroupId(PwPair pwPair) {
+    String groupId = pwPair.getPwsResult().getGroupId();
+    return (groupId == null || groupId.isEmpty()) ? null : groupId;
+  }
+
+  private void removePwPair(String deviceId) {
+    PwPair pwPair = mDeviceIdToPwPairMap.remove(deviceId);
+    if (pwPair == null) {
+      return;
+    }
+    if (pwPair == mDetachedPwPair) {
+      mDetachedPwPair = null;
+    } else {
+      unlink(pwPair);
+    }
+    String groupId = getGroupId(pwPair);
+    TreeSet<PwPair> group = groupId == null ? null : mGroupIdToPwPairsMap.get(groupId);
+    if (group != null && group.isEmpty()) {
+      mGroupIdToPwPairsMap.remove(groupId);
+    }
+  }
+
+  /**
+   * Add a pair to its group and, if it is the group's top pair, to the candidates.
+   */
+  private void link(PwPair pwPair) {
+    String groupId = getGroupId(pwPair);
+    if (groupId == null) {
+      mCandidates.add(pwPair);
+      return;
+    }
+    TreeSet<PwPair> group = mGroupIdToPwPairsMap.get(groupId);
+    if (group == null) {
+      group = new TreeSet<>(mComparator);
+      mGroupIdToPwPairsMap.put(groupId, group);
+    }
+    PwPair oldTopPair = group.isEmpty() ? null : group.first();
+    group.add(pwPair);
+    if (group.first() == pwPair) {
+      if (oldTopPair != null) {
+        removeFrom(mCandidates, oldTopPair);
+      }
+      mCandidates.add(pwPair);
+    }
+  }
+
+  /**
+   * Remove a pair from its group and the candidates, promoting the group's next pair if the pair
+   * was its top pair.  An emptied group is kept.
+   */
+  private void unlink(PwPair pwPair) {
+    String groupId = getGroupId(pwPair);
+    if (groupId == null) {
+      removeFrom(mCandidates, pwPair);
+      return;
+    }
+    TreeSet<PwPair> group = mGroupIdToPwPairsMap.get(groupId);
+    boolean wasTopPair = group.first() == pwPair;
+    removeFrom(group, pwPair);
+    if (wasTopPair) {
+      removeFrom(mCandidates, pwPair);
+      if (!group.isEmpty()) {
+        mCandidates.add(group.first());
+      }
+    }
+  }
+
+  /**
+   * Remove a pair from a set, searching for it by identity if its rank changed since it was
+   * added.  Only a pair for the same device compares equal, and the index holds one per device.
+   */
+  private static void removeFrom(TreeSet<PwPair> pwPairs, PwPair pwPair) {
+    if (pwPairs.remove(pwPair)) {
+      return;
+    }
+    for (Iterator<PwPair> iterator = pwPairs.iterator(); iterator.hasNext();) {
+      if (iterator.next() == pwPair) {
+        iterator.remove();
+        return;
+      }
+    }
+  }
+
+  private void setBroadcastUrl(String deviceId, String broadcastUrl) {
+    String oldBroadcastUrl = broadcastUrl == null ? mDeviceIdToBroadcastUrlMap.remove(deviceId)
+                                                  : mDeviceIdToBroadcastUrlMap.put(deviceId,
+                                                                                   broadcastUrl);
+    if (oldBroadcastUrl != null && oldBroadcastUrl.equals(broadcastUrl)) {
+      return;
+    }
+    if (oldBroadcastUrl != null) {
+      Set<String> deviceIds = mBroadcastUrlToDeviceIdsMap.get(oldBroadcastUrl);
+      deviceIds.remove(deviceId);
+      if (deviceIds.isEmpty()) {
+        mBroadcastUrlToDeviceIdsMap.remove(oldBroadcastUrl);
+      }
+    }
+    if (broadcastUrl != null) {
+      Set<String> deviceIds = mBroadcastUrlToDeviceIdsMap.get(broadcastUrl);
+      if (deviceIds == null) {
+        deviceIds = new HashSet<>();
+        mBroadcastUrlToDeviceIdsMap.put(broadcastUrl, deviceIds);
+      }
+      deviceIds.add(deviceId);
+    }
+  }
+}
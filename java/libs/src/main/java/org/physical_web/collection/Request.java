@@ -16,20 +16,33 @@
 package org.physical_web.collection;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * A class that represents an http request.
  * This is to be used as a base class for more specific request classes.
+ * Requests are run by the executor owned by the PwsClient that created them, once their
+ * connection limiter has a connection to their host for them.
  * @param <T> The type representing the request payload.
  */
-abstract class Request<T> extends Thread {
+abstract class Request<T> implements Runnable {
+  private static final String GZIP_ENCODING = "gzip";
+  // Reading more than this of a response nobody wants costs more than opening a new connection.
+  private static final int MAX_DRAIN_BYTES = 16 * 1024;
   private URL mUrl;
   private RequestCallback<T> mCallback;
+  private HostConnectionLimiter mConnectionLimiter;
+  private final AtomicBoolean mHoldsConnection;
+  private boolean mCompressRequestBody;
 
   /**
    * Construct a Request object.
@@ -40,6 +53,51 @@ abstract class Request<T> extends Thread {
   public Request(String url, RequestCallback<T> callback) throws MalformedURLException {
     mUrl = new URL(url);
     mCallback = callback;
+    mConnectionLimiter = null;
+    mHoldsConnection = new AtomicBoolean(false);
+    mCompressRequestBody = false;
+  }
+
+  /**
+   * Keep the connection alive for reuse once the response has been read.
+   * When no limiter is set, the connection is closed after each request.
+   * @param connectionLimiter The limiter bounding the connections open to each host, or null.
+   */
+  public void setConnectionLimiter(HostConnectionLimiter connectionLimiter) {
+    mConnectionLimiter = connectionLimiter;
+  }
+
+  /**
+   * Get the URL this request is made to.
+   * @return the URL.
+   */
+  public URL getUrl() {
+    return mUrl;
+  }
+
+  /**
+   * Record that the connection limiter has given this request a connection, which it must give
+   * back with releaseConnectionPermit once it is done or will never run.
+   */
+  public void onConnectionAcquired() {
+    mHoldsConnection.set(true);
+  }
+
+  /**
+   * Give back the connection taken from the connection limiter, if it is still held.
+   */
+  public void releaseConnectionPermit() {
+    if (mHoldsConnection.compareAndSet(true, false)) {
+      mConnectionLimiter.release(mUrl);
+    }
+  }
+
+  /**
+   * Gzip the request body before sending it.
+   * @param compressRequestBody Whether the request body should be compressed.
+   */
+  public void setCompressRequestBody(boolean compressRequestBody) {
+    mCompressRequestBody = compressRequestBody;
   }
 
   /**
@@ -67,32 +125,157 @@ abstract class Request<T> extends Thread {
   @Override
   public void run() {
     // Setup some values
+    HostConnectionLimiter connectionLimiter = mConnectionLimiter;
     HttpURLConnection urlConnection = null;
     T result = null;
     InputStream inputStream = null;
     int responseCode = 0;
-    IOException ioException = null;
+    Exception requestException = null;
 
     // Make the request
     try {
       urlConnection = (HttpURLConnection) mUrl.openConnection();
+      urlConnection.setRequestProperty("Accept-Encoding", GZIP_ENCODING);
       writeToUrlConnection(urlConnection);
       responseCode = urlConnection.getResponseCode();
-      inputStream = new BufferedInputStream(urlConnection.getInputStream());
+      inputStream = getResponseStream(urlConnection, urlConnection.getInputStream());
       result = readInputStream(inputStream);
     } catch (IOException e) {
-      ioException = e;
+      requestException = e;
+    } catch (RuntimeException e) {
+      // Includes exceptions thrown by callbacks run while the response is read.
+      requestException = e;
     } finally {
-      if (urlConnection != null) {
-        urlConnection.disconnect();
+      if (connectionLimiter == null) {
+        if (urlConnection != null) {
+          urlConnection.disconnect();
+        }
+      } else {
+        releaseConnection(urlConnection, inputStream);
+        releaseConnectionPermit();
       }
     }
 
+    // A cancelled request does not report back to its caller.
+    if (Thread.currentThread().isInterrupted()) {
+      return;
+    }
+
     // Call the callback
-    if (ioException == null) {
+    if (requestException == null) {
       mCallback.onResponse(result);
     } else {
-      mCallback.onError(responseCode, ioException);
+      mCallback.onError(responseCode, requestException);
+    }
+  }
+
+  /**
+   * Report that this request could not be scheduled.
+   * @param e The exception describing why the request was not run.
+   */
+  public void reject(Exception e) {
+    mCallback.onError(0, e);
+  }
+
+  /**
+   * Helper method to write a request body, compressing it if requested.
+   * @param urlConnection The HTTP connection.
+   * @param body The bytes of the request body.
+   * @throws IOException on error
+   */
+  protected void writeBody(HttpURLConnection urlConnection, byte[] body) throws IOException {
+    if (mCompressRequestBody) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length);
+      GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+      gzipOutputStream.write(body);
+      gzipOutputStream.close();
+      body = compressed.toByteArray();
+      urlConnection.setRequestProperty("Content-Encoding", GZIP_ENCODING);
+    }
+    urlConnection.setFixedLengthStreamingMode(body.length);
+    OutputStream os = urlConnection.getOutputStream();
+    try {
+      os.write(body);
+    } finally {
+      os.close();
+    }
+  }
+
+  /**
+   * Helper method to read a whole stream into memory.
+   * @param is The InputStream.
+   * @return The bytes read from the stream.
+   * @throws IOException on error
+   */
+  protected static byte[] readFully(InputStream is) throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    byte[] buffer = new byte[4096];
+    int len;
+    while ((len = is.read(buffer)) != -1) {
+      os.write(buffer, 0, len);
+    }
+    return os.toByteArray();
+  }
+
+  private static InputStream getResponseStream(HttpURLConnection urlConnection, InputStream is)
+      throws IOException {
+    InputStream bufferedStream = new BufferedInputStream(is);
+    if (GZIP_ENCODING.equalsIgnoreCase(urlConnection.getContentEncoding())) {
+      return new GZIPInputStream(bufferedStream);
+    }
+    return bufferedStream;
+  }
+
+  /**
+   * Consume and close the response so that the connection can be kept alive for the next request.
+   * Only up to MAX_DRAIN_BYTES are read.  The connection of a longer response, or of a request
+   * that was cancelled, is closed instead.
+   */
+  private static void releaseConnection(HttpURLConnection urlConnection, InputStream inputStream) {
+    if (urlConnection == null) {
+      return;
+    }
+    boolean cancelled = Thread.currentThread().isInterrupted();
+    InputStream is = inputStream;
+    if (is == null && !cancelled) {
+      is = urlConnection.getErrorStream();
+      if (is == null) {
+        return;
+      }
+    }
+    boolean drained = is != null && !cancelled && drain(is);
+    // Closing the stream first would let the JDK read the rest of the response in the background
+    // and put the connection back in its pool anyway.
+    if (!drained) {
+      urlConnection.disconnect();
+    }
+    if (is != null) {
+      try {
+        is.close();
+      } catch (IOException e) {
+        urlConnection.disconnect();
+      }
+    }
+  }
+
+  /**
+   * Read a response to its end, unless it is longer than MAX_DRAIN_BYTES.
+   * @return true if the end was reached.
+   */
+  private static boolean drain(InputStream is) {
+    try {
+      byte[] buffer = new byte[1024];
+      int remaining = MAX_DRAIN_BYTES;
+      int count;
+      while ((count = is.read(buffer)) != -1) {
+        remaining -= count;
+        if (remaining < 0) {
+          return false;
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      return false;
     }
   }
 
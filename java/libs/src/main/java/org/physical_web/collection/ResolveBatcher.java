@@ -0,0 +1,212 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Groups resolve requests for URLs that are discovered close together in time.
+ * URLs that arrive while no batch window is open are sent immediately and open a window.  URLs
+ * that arrive during the window are held until the window closes or the batch is full, and are
+ * then sent in a single request.
+ */
+class ResolveBatcher {
+  private final PwsClient mPwsClient;
+  private final ScheduledExecutorService mScheduler;
+  private final long mWindowMillis;
+  private final int mMaxBatchSize;
+  private Map<String, PwsResultCallback> mQueuedUrls;
+  private ScheduledFuture<?> mWindow;
+  private long mWindowGeneration;
+
+  /**
+   * Construct a ResolveBatcher.
+   * @param pwsClient The client used to send resolve requests.
+   * @param scheduler The scheduler used to close batch windows.
+   * @param windowMillis How long URLs are gathered after a request is sent.
+   * @param maxBatchSize The largest number of URLs sent in one request.
+   */
+  ResolveBatcher(PwsClient pwsClient, ScheduledExecutorService scheduler, long windowMillis,
+      int maxBatchSize) {
+    if (windowMillis <= 0 || maxBatchSize < 1) {
+      throw new IllegalArgumentException("Batch window and size must be positive");
+    }
+    mPwsClient = pwsClient;
+    mScheduler = scheduler;
+    mWindowMillis = windowMillis;
+    mMaxBatchSize = maxBatchSize;
+    mQueuedUrls = new LinkedHashMap<>();
+    mWindow = null;
+    mWindowGeneration = 0;
+  }
+
+  /**
+   * Resolve a set of URLs, either now or as part of the next batch.
+   * @param broadcastUrls The URLs to resolve.
+   * @param pwsResultCallback The callback to run for results concerning these URLs.
+   */
+  void resolve(Collection<String> broadcastUrls, PwsResultCallback pwsResultCallback) {
+    List<Map<String, PwsResultCallback>> batches = new ArrayList<>();
+    synchronized (this) {
+      for (String url : broadcastUrls) {
+        mQueuedUrls.put(url, pwsResultCallback);
+      }
+      if (mWindow == null) {
+        // Nothing was sent recently, so don't hold back the first results of a scan.
+        drainQueue(batches, 1);
+        openWindow();
+      } else {
+        drainQueue(batches, mMaxBatchSize);
+      }
+    }
+    send(batches);
+  }
+
+  /**
+   * Stop batching, and hand back the URLs waiting for the next batch.
+   * @return the URLs that were waiting, grouped by the callback that asked for them.
+   */
+  synchronized Map<PwsResultCallback, List<String>> cancel() {
+    Map<PwsResultCallback, List<String>> queuedUrls = groupByCallback(mQueuedUrls.keySet(),
+                                                                      mQueuedUrls);
+    mQueuedUrls.clear();
+    if (mWindow != null) {
+      mWindow.cancel(false);
+      mWindow = null;
+    }
+    return queuedUrls;
+  }
+
+  private static Map<PwsResultCallback, List<String>> groupByCallback(
+      Collection<String> urls, Map<String, PwsResultCallback> callbacks) {
+    Map<PwsResultCallback, List<String>> urlsByCallback = new HashMap<>();
+    for (String url : urls) {
+      PwsResultCallback callback = callbacks.get(url);
+      if (callback == null) {
+        continue;
+      }
+      List<String> callbackUrls = urlsByCallback.get(callback);
+      if (callbackUrls == null) {
+        callbackUrls = new ArrayList<>();
+        urlsByCallback.put(callback, callbackUrls);
+      }
+      callbackUrls.add(url);
+    }
+    return urlsByCallback;
+  }
+
+  private void openWindow() {
+    final long generation = ++mWindowGeneration;
+    mWindow = mScheduler.schedule(new Runnable() {
+      @Override
+      public void run() {
+        onWindowClosed(generation);
+      }
+    }, mWindowMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private void onWindowClosed(long generation) {
+    List<Map<String, PwsResultCallback>> batches = new ArrayList<>();
+    synchronized (this) {
+      if (generation != mWindowGeneration || mWindow == null) {
+        // This window was cancelled.
+        return;
+      }
+      if (mQueuedUrls.isEmpty()) {
+        mWindow = null;
+        return;
+      }
+      drainQueue(batches, 1);
+      openWindow();
+    }
+    send(batches);
+  }
+
+  /**
+   * Move queued URLs into full batches, and into a partial batch if at least minBatchSize URLs
+   * are left over.
+   */
+  private void drainQueue(List<Map<String, PwsResultCallback>> batches, int minBatchSize) {
+    while (mQueuedUrls.size() >= minBatchSize && !mQueuedUrls.isEmpty()) {
+      Map<String, PwsResultCallback> batch = new LinkedHashMap<>();
+      for (Map.Entry<String, PwsResultCallback> entry : mQueuedUrls.entrySet()) {
+        if (batch.size() == mMaxBatchSize) {
+          break;
+        }
+        batch.put(entry.getKey(), entry.getValue());
+      }
+      mQueuedUrls.keySet().removeAll(batch.keySet());
+      batches.add(batch);
+    }
+  }
+
+  private void send(List<Map<String, PwsResultCallback>> batches) {
+    for (Map<String, PwsResultCallback> batch : batches) {
+      mPwsClient.resolve(new ArrayList<>(batch.keySet()), new BatchCallback(batch));
+    }
+  }
+
+  /**
+   * Dispatches the results of a batched request to the callbacks that asked for each URL.
+   */
+  private static class BatchCallback extends PwsResultCallback {
+    private final Map<String, PwsResultCallback> mCallbacks;
+
+    BatchCallback(Map<String, PwsResultCallback> callbacks) {
+      mCallbacks = callbacks;
+    }
+
+    @Override
+    public void onPwsResult(PwsResult pwsResult) {
+      PwsResultCallback callback = mCallbacks.get(pwsResult.getRequestUrl());
+      if (callback != null) {
+        callback.onPwsResult(pwsResult);
+      }
+    }
+
+    @Override
+    public void onPwsResultAbsent(String url) {
+      PwsResultCallback callback = mCallbacks.get(url);
+      if (callback != null) {
+        callback.onPwsResultAbsent(url);
+      }
+    }
+
+    @Override
+    public void onPwsResultError(Collection<String> urls, int httpResponseCode, Exception e) {
+      Map<PwsResultCallback, List<String>> urlsByCallback = groupByCallback(urls, mCallbacks);
+      for (Map.Entry<PwsResultCallback, List<String>> entry : urlsByCallback.entrySet()) {
+        entry.getKey().onPwsResultError(entry.getValue(), httpResponseCode, e);
+      }
+    }
+
+    @Override
+    public void onResponseReceived(long durationMillis) {
+      for (PwsResultCallback callback : new HashSet<>(mCallbacks.values())) {
+        callback.onResponseReceived(durationMillis);
+      }
+    }
+  }
+}
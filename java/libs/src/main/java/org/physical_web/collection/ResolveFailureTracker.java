@@ -0,0 +1,250 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Remembers which broadcast URLs failed to resolve, and decides when they may be tried again.
+ * URLs that the PWS had no metadata for are held back for a fixed time.  URLs whose request
+ * failed are retried with exponential backoff and jitter, up to a bounded number of times, and
+ * are then held back like absent URLs.
+ */
+class ResolveFailureTracker {
+  static final long DEFAULT_FAILURE_TTL_MILLIS = 10 * 60 * 1000;
+  static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 1000;
+  static final long DEFAULT_MAX_BACKOFF_MILLIS = 60 * 1000;
+  static final int DEFAULT_MAX_RETRIES = 3;
+  private static final int MIN_PURGE_SIZE = 64;
+  private final Clock mClock;
+  private final Random mRandom;
+  private final Map<String, Failure> mFailures;
+  private long mFailureTtlMillis;
+  private long mInitialBackoffMillis;
+  private long mMaxBackoffMillis;
+  private int mMaxRetries;
+  private int mPurgeSize;
+
+  private static class Failure {
+    ResolveStatus status;
+    long expiresAt;
+    int errorCount;
+    boolean retryScheduled;
+  }
+
+  /**
+   * Construct a ResolveFailureTracker with the default policy.
+   */
+  ResolveFailureTracker() {
+    this(Clock.SYSTEM, new Random());
+  }
+
+  ResolveFailureTracker(Clock clock, Random random) {
+    mClock = clock;
+    mRandom = random;
+    mFailures = new HashMap<>();
+    mPurgeSize = MIN_PURGE_SIZE;
+    setPolicy(DEFAULT_FAILURE_TTL_MILLIS, DEFAULT_INITIAL_BACKOFF_MILLIS,
+              DEFAULT_MAX_BACKOFF_MILLIS, DEFAULT_MAX_RETRIES);
+  }
+
+  /**
+   * Set how failures are held back and retried.
+   * @param failureTtlMillis How long absent and failed URLs are held back.
+   * @param initialBackoffMillis The delay before the first retry.
+   * @param maxBackoffMillis The longest delay before a retry.
+   * @param maxRetries The number of retries after a failed request, or 0 to never retry.
+   */
+  synchronized void setPolicy(long failureTtlMillis, long initialBackoffMillis,
+                              long maxBackoffMillis, int maxRetries) {
+    if (failureTtlMillis < 0 || initialBackoffMillis <= 0
+        || maxBackoffMillis < initialBackoffMillis || maxRetries < 0) {
+      throw new IllegalArgumentException("Invalid resolve retry policy");
+    }
+    mFailureTtlMillis = failureTtlMillis;
+    mInitialBackoffMillis = initialBackoffMillis;
+    mMaxBackoffMillis = maxBackoffMillis;
+    mMaxRetries = maxRetries;
+  }
+
+  /**
+   * Check whether a URL should be left out of resolve requests.
+   * @param url The broadcast URL.
+   * @return true if the URL is held back or waiting for a retry.
+   */
+  synchronized boolean isHeldBack(String url) {
+    Failure failure = getFailure(url);
+    return failure != null && (failure.status != ResolveStatus.RETRYING || failure.retryScheduled);
+  }
+
+  /**
+   * Get the failure state of a URL.
+   * @param url The broadcast URL.
+   * @return ABSENT, RETRYING or FAILED, or null if the URL has no unexpired failure.
+   */
+  synchronized ResolveStatus getStatus(String url) {
+    Failure failure = getFailure(url);
+    return failure == null ? null : failure.status;
+  }
+
+  /**
+   * Forget the failures of a URL, once it has resolved or is no longer needed.
+   * @param url The broadcast URL.
+   */
+  synchronized void remove(String url) {
+    mFailures.remove(url);
+  }
+
+  /**
+   * Record that the PWS had no metadata for a URL.
+   * @param url The broadcast URL.
+   */
+  synchronized void onAbsent(String url) {
+    Failure failure = new Failure();
+    failure.status = ResolveStatus.ABSENT;
+    failure.expiresAt = mClock.currentTimeMillis() + mFailureTtlMillis;
+    mFailures.put(url, failure);
+    purgeIfLarge();
+  }
+
+  /**
+   * Record that a request for some URLs failed, and choose which of them to retry.
+   * @param urls The broadcast URLs of the failed request.
+   * @param retryUrls Receives the URLs that should be retried.
+   * @return the attempt number of the retry, which is passed to getBackoffMillis and
+   *     startRetry, or 0 if no URL should be retried.
+   */
+  synchronized int onError(Collection<String> urls, Collection<String> retryUrls) {
+    int attempt = 0;
+    long now = mClock.currentTimeMillis();
+    List<Failure> retries = new ArrayList<>();
+    for (String url : urls) {
+      Failure failure = mFailures.get(url);
+      if (failure == null || failure.status != ResolveStatus.RETRYING) {
+        failure = new Failure();
+        failure.status = ResolveStatus.RETRYING;
+        mFailures.put(url, failure);
+      }
+      failure.errorCount++;
+      if (failure.errorCount > mMaxRetries) {
+        failure.status = ResolveStatus.FAILED;
+        failure.expiresAt = now + mFailureTtlMillis;
+      } else {
+        failure.retryScheduled = true;
+        retries.add(failure);
+        retryUrls.add(url);
+        attempt = Math.max(attempt, failure.errorCount);
+      }
+    }
+    // URLs of one batch share a retry, so they all wait as long as the most retried one.
+    for (Failure failure : retries) {
+      failure.errorCount = attempt;
+    }
+    purgeIfLarge();
+    return attempt;
+  }
+
+  /**
+   * Get the delay before a retry: exponential in the attempt number, capped, with the upper
+   * half chosen at random so that many clients do not retry in step.
+   * @param attempt The attempt number returned by onError.
+   * @return the delay in milliseconds.
+   */
+  synchronized long getBackoffMillis(int attempt) {
+    long backoff = mInitialBackoffMillis;
+    for (int i = 1; i < attempt && backoff < mMaxBackoffMillis; i++) {
+      backoff *= 2;
+    }
+    backoff = Math.min(backoff, mMaxBackoffMillis);
+    long half = backoff / 2;
+    return backoff - half + (long) (mRandom.nextDouble() * half);
+  }
+
+  /**
+   * Release URLs whose retry is due, so that they can be requested again.
+   * @param urls The URLs passed to onError.
+   * @param attempt The attempt number returned by onError.
+   * @return the URLs that are still waiting for this retry.
+   */
+  synchronized List<String> startRetry(Collection<String> urls, int attempt) {
+    List<String> dueUrls = new ArrayList<>();
+    for (String url : urls) {
+      Failure failure = mFailures.get(url);
+      if (failure != null && failure.status == ResolveStatus.RETRYING
+          && failure.retryScheduled && failure.errorCount == attempt) {
+        failure.retryScheduled = false;
+        dueUrls.add(url);
+      }
+    }
+    return dueUrls;
+  }
+
+  /**
+   * Forget the URLs waiting for a retry, so that they are requested again right away.
+   */
+  synchronized void cancelRetries() {
+    List<String> retryingUrls = new ArrayList<>();
+    for (Map.Entry<String, Failure> entry : mFailures.entrySet()) {
+      if (entry.getValue().status == ResolveStatus.RETRYING) {
+        retryingUrls.add(entry.getKey());
+      }
+    }
+    for (String url : retryingUrls) {
+      mFailures.remove(url);
+    }
+  }
+
+  /**
+   * Forget all failures.
+   */
+  synchronized void clear() {
+    mFailures.clear();
+  }
+
+  /**
+   * Drop expired failures once the map has doubled in size since the last purge, so URLs that are
+   * never looked up again do not accumulate.
+   */
+  private void purgeIfLarge() {
+    if (mFailures.size() < mPurgeSize) {
+      return;
+    }
+    long now = mClock.currentTimeMillis();
+    for (Iterator<Failure> failures = mFailures.values().iterator(); failures.hasNext();) {
+      Failure failure = failures.next();
+      if (failure.status != ResolveStatus.RETRYING && failure.expiresAt <= now) {
+        failures.remove();
+      }
+    }
+    mPurgeSize = Math.max(MIN_PURGE_SIZE, 2 * mFailures.size());
+  }
+
+  private Failure getFailure(String url) {
+    Failure failure = mFailures.get(url);
+    if (failure != null && failure.status != ResolveStatus.RETRYING
+        && failure.expiresAt <= mClock.currentTimeMillis()) {
+      mFailures.remove(url);
+      return null;
+    }
+    return failure;
+  }
+}
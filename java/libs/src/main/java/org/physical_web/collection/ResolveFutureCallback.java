@@ -0,0 +1,112 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A PwsResultCallback that completes a PwsFuture once every expected URL has been reported.
+ * The future's result maps each resolved broadcast URL to its PwsResult; URLs the PWS had no
+ * metadata for are left out.  If any expected URL was reported as an error, the future fails
+ * with a PwsException instead.
+ */
+class ResolveFutureCallback extends PwsResultCallback {
+  private final PwsFuture<Map<String, PwsResult>> mFuture;
+  private final Map<String, PwsResult> mResults;
+  private final Set<String> mReportedUrls;
+  private Set<String> mExpectedUrls;
+  private PwsException mException;
+
+  /**
+   * Construct a ResolveFutureCallback.
+   */
+  ResolveFutureCallback() {
+    mFuture = new PwsFuture<>();
+    mResults = new HashMap<>();
+    mReportedUrls = new HashSet<>();
+    mExpectedUrls = null;
+    mException = null;
+  }
+
+  /**
+   * Get the future completed by this callback.
+   * @return the future.
+   */
+  PwsFuture<Map<String, PwsResult>> getFuture() {
+    return mFuture;
+  }
+
+  /**
+   * Set the URLs to wait for.  URLs that were reported before this call count as done.
+   * @param broadcastUrls The URLs to wait for.
+   */
+  void expect(Collection<String> broadcastUrls) {
+    synchronized (this) {
+      mExpectedUrls = new HashSet<>(broadcastUrls);
+    }
+    completeIfDone();
+  }
+
+  @Override
+  public void onPwsResult(PwsResult pwsResult) {
+    synchronized (this) {
+      mResults.put(pwsResult.getRequestUrl(), pwsResult);
+      mReportedUrls.add(pwsResult.getRequestUrl());
+    }
+    completeIfDone();
+  }
+
+  @Override
+  public void onPwsResultAbsent(String url) {
+    synchronized (this) {
+      mReportedUrls.add(url);
+    }
+    completeIfDone();
+  }
+
+  @Override
+  public void onPwsResultError(Collection<String> urls, int httpResponseCode, Exception e) {
+    synchronized (this) {
+      mReportedUrls.addAll(urls);
+      if (mException == null) {
+        mException = new PwsException(httpResponseCode, e);
+      }
+    }
+    completeIfDone();
+  }
+
+  private void completeIfDone() {
+    Map<String, PwsResult> results;
+    PwsException exception;
+    synchronized (this) {
+      if (mExpectedUrls == null || mFuture.isDone() || !mReportedUrls.containsAll(mExpectedUrls)) {
+        return;
+      }
+      results = new HashMap<>(mResults);
+      results.keySet().retainAll(mExpectedUrls);
+      exception = mException;
+    }
+    if (exception != null) {
+      mFuture.completeExceptionally(exception);
+    } else {
+      mFuture.complete(results);
+    }
+  }
+}
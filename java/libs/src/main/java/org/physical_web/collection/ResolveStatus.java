@@ -0,0 +1,52 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+/**
+ * The state of a broadcast URL's resolution in a PhysicalWebCollection.
+ */
+public enum ResolveStatus {
+  /**
+   * The URL has not been resolved, or an earlier failure has expired.
+   */
+  UNRESOLVED,
+
+  /**
+   * A resolve request for the URL is in progress.
+   */
+  PENDING,
+
+  /**
+   * Metadata for the URL is in the collection.
+   */
+  RESOLVED,
+
+  /**
+   * The PWS had no metadata for the URL.  It will not be requested again until the failure
+   * expires.
+   */
+  ABSENT,
+
+  /**
+   * The last request for the URL failed, and it will be retried after a backoff.
+   */
+  RETRYING,
+
+  /**
+   * Every retry for the URL failed.  It will not be requested again until the failure expires.
+   */
+  FAILED
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+/**
+ * The most recent sightings of a device: when it was seen, at what RSSI and with what advertised
+ * TX power.
+ * Sightings are written into fixed-size primitive arrays used as a ring, so recording one does
+ * not allocate, and the oldest sighting is overwritten once the ring is full.
+ * Sightings are indexed from 0 for the most recent.
+ */
+public final class SightingHistory {
+  /**
+   * The TX power of sightings whose TX power is not known.
+   */
+  public static final int UNKNOWN_TX_POWER = Short.MIN_VALUE;
+  static final int DEFAULT_CAPACITY = 16;
+  private final long[] mTimestamps;
+  private final short[] mRssis;
+  private final short[] mTxPowers;
+  // The index of the next sighting to write.
+  private int mHead;
+  private int mSize;
+
+  /**
+   * Construct an empty SightingHistory.
+   * @param capacity The number of sightings kept.
+   */
+  SightingHistory(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    mTimestamps = new long[capacity];
+    mRssis = new short[capacity];
+    mTxPowers = new short[capacity];
+    mHead = 0;
+    mSize = 0;
+  }
+
+  /**
+   * Record a sighting, overwriting the oldest one if the history is full.
+   * @param timestampMillis The time of the sighting.
+   * @param rssi The received signal strength in dBm.
+   * @param txPower The advertised TX power in dBm, or UNKNOWN_TX_POWER.
+   */
+  synchronized void add(long timestampMillis, int rssi, int txPower) {
+    mTimestamps[mHead] = timestampMillis;
+    mRssis[mHead] = toShort(rssi);
+    mTxPowers[mHead] = toShort(txPower);
+    mHead = mHead + 1 == mTimestamps.length ? 0 : mHead + 1;
+    if (mSize < mTimestamps.length) {
+      mSize++;
+    }
+  }
+
+  private static short toShort(int value) {
+    return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+  }
+
+  /**
+   * Get the number of sightings the history keeps.
+   * @return the capacity.
+   */
+  public int getCapacity() {
+    return mTimestamps.length;
+  }
+
+  /**
+   * Get the number of sightings recorded, up to the capacity.
+   * @return the number of sightings.
+   */
+  public synchronized int size() {
+    return mSize;
+  }
+
+  /**
+   * Get the time of a sighting.
+   * @param index The index of the sighting, 0 for the most recent.
+   * @return the time in milliseconds.
+   */
+  public synchronized long getTimestampMillis(int index) {
+    return mTimestamps[toArrayIndex(index)];
+  }
+
+  /**
+   * Get the RSSI of a sighting.
+   * @param index The index of the sighting, 0 for the most recent.
+   * @return the RSSI in dBm.
+   */
+  public synchronized int getRssi(int index) {
+    return mRssis[toArrayIndex(index)];
+  }
+
+  /**
+   * Get the TX power of a sighting.
+   * @param index The index of the sighting, 0 for the most recent.
+   * @return the TX power in dBm, or UNKNOWN_TX_POWER.
+   */
+  public synchronized int getTxPower(int index) {
+    return mTxPowers[toArrayIndex(index)];
+  }
+
+  /**
+   * Copy the RSSIs of the recorded sightings, most recent first.
+   * @param rssis The array to fill, which should hold at least size() values.
+   * @return the number of values copied.
+   */
+  public synchronized int copyRssis(int[] rssis) {
+    int count = Math.min(mSize, rssis.length);
+    for (int i = 0; i < count; i++) {
+      rssis[i] = mRssis[toArrayIndex(i)];
+    }
+    return count;
+  }
+
+  private int toArrayIndex(int index) {
+    if (index < 0 || index >= mSize) {
+      throw new IndexOutOfBoundsException("No sighting " + index + " of " + mSize);
+    }
+    int arrayIndex = mHead - 1 - index;
+    return arrayIndex < 0 ? arrayIndex + mTimestamps.length : arrayIndex;
+  }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects the k best ranked PwPairs offered to it, keeping only the best pair for each site URL.
+ * The selected pairs are kept in a bounded heap with the worst of them at the root, so each offer
+ * costs O(log k) and memory is proportional to k rather than to the number of pairs offered.
+ * Ties are broken by device ID, as in RankedPwPairIndex.
+ */
+class TopPwPairSelector {
+  private static final int INITIAL_CAPACITY = 16;
+  private final int mK;
+  private final Comparator<PwPair> mComparator;
+  private final Map<String, Integer> mSiteUrlToIndexMap;
+  private PwPair[] mHeap;
+  private int mSize;
+
+  /**
+   * Construct a TopPwPairSelector.
+   * @param k The largest number of pairs to select.
+   * @param comparator The comparator that ranks pairs, best first.
+   */
+  TopPwPairSelector(int k, final Comparator<PwPair> comparator) {
+    mK = Math.max(0, k);
+    mComparator = new Comparator<PwPair>() {
+      @Override
+      public int compare(PwPair lhs, PwPair rhs) {
+        int result = comparator.compare(lhs, rhs);
+        if (result != 0) {
+          return result;
+        }
+        return lhs.getUrlDevice().getId().compareTo(rhs.getUrlDevice().getId());
+      }
+    };
+    mSiteUrlToIndexMap = new HashMap<>();
+    mHeap = new PwPair[Math.min(mK, INITIAL_CAPACITY)];
+    mSize = 0;
+  }
+
+  /**
+   * Offer a pair for selection.
+   * @param pwPair The pair.
+   */
+  void offer(PwPair pwPair) {
+    if (mK == 0) {
+      return;
+    }
+    String siteUrl = pwPair.getPwsResult().getSiteUrl();
+    Integer index = mSiteUrlToIndexMap.get(siteUrl);
+    if (index != null) {
+      // Only one pair per site URL is kept, so a better one takes the other's place.  Being
+      // better, it can only move away from the root.
+      if (mComparator.compare(pwPair, mHeap[index]) < 0) {
+        mHeap[index] = pwPair;
+        siftDown(index);
+      }
+      return;
+    }
+
+    if (mSize < mK) {
+      if (mSize == mHeap.length) {
+        mHeap = Arrays.copyOf(mHeap, (int) Math.min((long) mHeap.length * 2, mK));
+      }
+      mHeap[mSize] = pwPair;
+      mSiteUrlToIndexMap.put(siteUrl, mSize);
+      siftUp(mSize++);
+    } else if (mComparator.compare(pwPair, mHeap[0]) < 0) {
+      mSiteUrlToIndexMap.remove(mHeap[0].getPwsResult().getSiteUrl());
+      mHeap[0] = pwPair;
+      mSiteUrlToIndexMap.put(siteUrl, 0);
+      siftDown(0);
+    }
+  }
+
+  /**
+   * Get the selected pairs.
+   * @return a new list of the pairs in descending order of rank.
+   */
+  List<PwPair> getTopPwPairs() {
+    List<PwPair> topPwPairs = new ArrayList<>(mSize);
+    for (int i = 0; i < mSize; i++) {
+      topPwPairs.add(mHeap[i]);
+    }
+    Collections.sort(topPwPairs, mComparator);
+    return topPwPairs;
+  }
+
+  private void siftUp(int index) {
+    PwPair pwPair = mHeap[index];
+    while (index > 0) {
+      int parent = (index - 1) / 2;
+      if (mComparator.compare(pwPair, mHeap[parent]) <= 0) {
+        break;
+      }
+      move(parent, index);
+      index = parent;
+    }
+    set(index, pwPair);
+  }
+
+  private void siftDown(int index) {
+    PwPair pwPair = mHeap[index];
+    while (true) {
+      int child = 2 * index + 1;
+      if (child >= mSize) {
+        break;
+      }
+      if (child + 1 < mSize && mComparator.compare(mHeap[child + 1], mHeap[child]) > 0) {
+        child++;
+      }
+      if (mComparator.compare(pwPair, mHeap[child]) >= 0) {
+        break;
+      }
+      move(child, index);
+      index = child;
+    }
+    set(index, pwPair);
+  }
+
+  private void move(int from, int to) {
+    set(to, mHeap[from]);
+  }
+
+  private void set(int index, PwPair pwPair) {
+    mHeap[index] = pwPair;
+    mSiteUrlToIndexMap.put(pwPair.getPwsResult().getSiteUrl(), index);
+  }
+}
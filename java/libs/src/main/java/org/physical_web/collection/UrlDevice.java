@@ -19,6 +19,10 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
 /**
  * The class defining a Physical Web URL device.
  */
@@ -26,9 +30,26 @@ public class UrlDevice {
   private static final String ID_KEY = "id";
   private static final String URL_KEY = "url";
   private static final String EXTRA_KEY = "extra";
+  // The sighting fields are kept in the extra data under these keys, so serialized devices keep
+  // their format.
+  private static final String RSSI_KEY = "rssi";
+  private static final String TX_POWER_KEY = "tx";
+  private static final String DEVICE_TYPE_KEY = "type";
+  private static final String SCAN_TIME_KEY = "scantime";
+  private static final String PUBLIC_KEY = "public";
+  private static final int HAS_RSSI = 1;
+  private static final int HAS_TX_POWER = 1 << 1;
+  private static final int HAS_SCAN_TIME = 1 << 2;
+  private static final int HAS_PUBLIC = 1 << 3;
   private final String mId;
   private final String mUrl;
-  private final JSONObject mExtraData;
+  private final ExtraData mExtraData;
+  private final int mSightingFields;
+  private final int mRssi;
+  private final int mTxPower;
+  private final long mScanTimeMillis;
+  private final boolean mPublic;
+  private final String mDeviceType;
 
   /**
    * Construct a UrlDevice.
@@ -36,10 +57,31 @@ public class UrlDevice {
    * @param url The URL broadcasted by the device.
    * @param extraData Extra data to associate with this UrlDevice.
    */
-  private UrlDevice(String id, String url, JSONObject extraData) {
+  private UrlDevice(String id, String url, ExtraData extraData) {
     mId = id;
     mUrl = url;
-    mExtraData = extraData == null ? new JSONObject() : new JSONObject(extraData.toString());
+    mExtraData = extraData;
+
+    // Copy the sighting fields out of the extra data so that reading them is a field access.
+    int sightingFields = 0;
+    if (extraData.hasNumber(RSSI_KEY)) {
+      sightingFields |= HAS_RSSI;
+    }
+    if (extraData.hasNumber(TX_POWER_KEY)) {
+      sightingFields |= HAS_TX_POWER;
+    }
+    if (extraData.hasNumber(SCAN_TIME_KEY)) {
+      sightingFields |= HAS_SCAN_TIME;
+    }
+    if (extraData.hasBoolean(PUBLIC_KEY)) {
+      sightingFields |= HAS_PUBLIC;
+    }
+    mSightingFields = sightingFields;
+    mRssi = extraData.optInt(RSSI_KEY, 0);
+    mTxPower = extraData.optInt(TX_POWER_KEY, 0);
+    mScanTimeMillis = extraData.optLong(SCAN_TIME_KEY, 0);
+    mPublic = extraData.optBoolean(PUBLIC_KEY, false);
+    mDeviceType = extraData.optString(DEVICE_TYPE_KEY, null);
   }
 
   /**
@@ -48,7 +90,17 @@ public class UrlDevice {
    * @param url The URL broadcasted by the device.
    */
   public UrlDevice(String id, String url) {
-    this(id, url, null);
+    this(id, url, ExtraData.EMPTY);
+  }
+
+  /**
+   * Copy this device with its URL held in another String, such as the canonical one of a
+   * UrlDictionary.
+   * @param url A URL equal to the device's URL.
+   * @return the copy.
+   */
+  UrlDevice withUrl(String url) {
+    return new UrlDevice(mId, url, mExtraData);
   }
 
   /**
@@ -57,7 +109,7 @@ public class UrlDevice {
   public static class Builder {
     private String mNewId;
     private String mNewUrl;
-    private JSONObject mNewExtraData;
+    private ExtraData mNewExtraData;
 
     /**
      * Construct a UrlDevice Builder.
@@ -67,7 +119,7 @@ public class UrlDevice {
     public Builder(String id, String url) {
       mNewId = id;
       mNewUrl = url;
-      mNewExtraData = new JSONObject();
+      mNewExtraData = ExtraData.EMPTY;
     }
 
     /**
@@ -77,7 +129,7 @@ public class UrlDevice {
     public Builder(UrlDevice urlDevice) {
       mNewId = urlDevice.mId;
       mNewUrl = urlDevice.mUrl;
-      mNewExtraData = new JSONObject(urlDevice.mExtraData.toString());
+      mNewExtraData = urlDevice.mExtraData;
     }
 
     /**
@@ -86,7 +138,7 @@ public class UrlDevice {
      * @return the Builder object for chaining operations.
      */
     public Builder setExtra(JSONObject extraData) {
-      mNewExtraData = extraData == null ? new JSONObject() : new JSONObject(extraData.toString());
+      mNewExtraData = ExtraData.fromJsonObject(extraData);
       return this;
     }
 
@@ -96,7 +148,7 @@ public class UrlDevice {
      * @return the Builder object for chaining operations.
      */
     public Builder addExtra(String key, boolean value) {
-      mNewExtraData.put(key, value);
+      mNewExtraData = mNewExtraData.with(key, value);
       return this;
     }
 
@@ -106,7 +158,7 @@ public class UrlDevice {
      * @return the Builder object for chaining operations.
      */
     public Builder addExtra(String key, int value) {
-      mNewExtraData.put(key, value);
+      mNewExtraData = mNewExtraData.with(key, value);
       return this;
     }
 
@@ -116,7 +168,7 @@ public class UrlDevice {
      * @return the Builder object for chaining operations.
      */
     public Builder addExtra(String key, long value) {
-      mNewExtraData.put(key, value);
+      mNewExtraData = mNewExtraData.with(key, value);
       return this;
     }
 
@@ -127,7 +179,57 @@ public class UrlDevice {
      * @return the Builder object for chaining operations.
      */
     public Builder addExtra(String key, Object value) {
-      mNewExtraData.put(key, value);
+      mNewExtraData = mNewExtraData.with(key, value);
+      return this;
+    }
+
+    /**
+     * Sets the received signal strength of the device.
+     * @param rssi The RSSI in dBm.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setRssi(int rssi) {
+      mNewExtraData = mNewExtraData.with(RSSI_KEY, rssi);
+      return this;
+    }
+
+    /**
+     * Sets the transmit power the device advertises.
+     * @param txPower The TX power in dBm.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setTxPower(int txPower) {
+      mNewExtraData = mNewExtraData.with(TX_POWER_KEY, txPower);
+      return this;
+    }
+
+    /**
+     * Sets the type of the device, such as the way it was discovered.
+     * @param deviceType The type, or null to clear it.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setDeviceType(String deviceType) {
+      mNewExtraData = mNewExtraData.with(DEVICE_TYPE_KEY, (Object) deviceType);
+      return this;
+    }
+
+    /**
+     * Sets the time the device was seen.
+     * @param scanTimeMillis The time in milliseconds.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setScanTimeMillis(long scanTimeMillis) {
+      mNewExtraData = mNewExtraData.with(SCAN_TIME_KEY, scanTimeMillis);
+      return this;
+    }
+
+    /**
+     * Sets whether the URL of the device may be sent to the PWS.
+     * @param isPublic Whether the device is public.
+     * @return the Builder object for chaining operations.
+     */
+    public Builder setPublic(boolean isPublic) {
+      mNewExtraData = mNewExtraData.with(PUBLIC_KEY, isPublic);
       return this;
     }
 
@@ -158,6 +260,92 @@ public class UrlDevice {
     return mUrl;
   }
 
+  /**
+   * Checks if the received signal strength is known.
+   * @return true if the device has an RSSI.
+   */
+  public boolean hasRssi() {
+    return (mSightingFields & HAS_RSSI) != 0;
+  }
+
+  /**
+   * Fetches the received signal strength of the device.
+   * @return The RSSI in dBm.
+   * @throws IllegalStateException If the device has no RSSI.
+   */
+  public int getRssi() {
+    checkSightingField(HAS_RSSI, RSSI_KEY);
+    return mRssi;
+  }
+
+  /**
+   * Checks if the advertised transmit power is known.
+   * @return true if the device has a TX power.
+   */
+  public boolean hasTxPower() {
+    return (mSightingFields & HAS_TX_POWER) != 0;
+  }
+
+  /**
+   * Fetches the transmit power the device advertises.
+   * @return The TX power in dBm.
+   * @throws IllegalStateException If the device has no TX power.
+   */
+  public int getTxPower() {
+    checkSightingField(HAS_TX_POWER, TX_POWER_KEY);
+    return mTxPower;
+  }
+
+  /**
+   * Fetches the type of the device.
+   * @return The type, or null if it is not set.
+   */
+  public String getDeviceType() {
+    return mDeviceType;
+  }
+
+  /**
+   * Checks if the time the device was seen is known.
+   * @return true if the device has a scan time.
+   */
+  public boolean hasScanTimeMillis() {
+    return (mSightingFields & HAS_SCAN_TIME) != 0;
+  }
+
+  /**
+   * Fetches the time the device was seen.
+   * @return The scan time in milliseconds.
+   * @throws IllegalStateException If the device has no scan time.
+   */
+  public long getScanTimeMillis() {
+    checkSightingField(HAS_SCAN_TIME, SCAN_TIME_KEY);
+    return mScanTimeMillis;
+  }
+
+  /**
+   * Checks if the device was marked as public or private.
+   * @return true if isPublic can be called.
+   */
+  public boolean hasPublic() {
+    return (mSightingFields & HAS_PUBLIC) != 0;
+  }
+
+  /**
+   * Checks if the URL of the device may be sent to the PWS.
+   * @return Whether the device is public.
+   * @throws IllegalStateException If the device was not marked as public or private.
+   */
+  public boolean isPublic() {
+    checkSightingField(HAS_PUBLIC, PUBLIC_KEY);
+    return mPublic;
+  }
+
+  private void checkSightingField(int field, String key) {
+    if ((mSightingFields & field) == 0) {
+      throw new IllegalStateException("Device " + mId + " has no " + key);
+    }
+  }
+
   /**
    * Get extra boolean value.
    * @param key The key of the stored value.
@@ -174,7 +362,7 @@ public class UrlDevice {
    * @return The stored value or false if it doesn't exist in specified form.
    */
   public boolean optExtraBoolean(String key) {
-    return mExtraData.optBoolean(key);
+    return mExtraData.optBoolean(key, false);
   }
 
   /**
@@ -204,7 +392,7 @@ public class UrlDevice {
    * @return The stored value or 0 if it doesn't exist in specified form.
    */
   public int optExtraInt(String key) {
-    return mExtraData.optInt(key);
+    return mExtraData.optInt(key, 0);
   }
 
   /**
@@ -234,7 +422,7 @@ public class UrlDevice {
    * @return The stored value or 0 if it doesn't exist in specified form.
    */
   public long optExtraLong(String key) {
-    return mExtraData.optLong(key);
+    return mExtraData.optLong(key, 0);
   }
 
   /**
@@ -264,7 +452,7 @@ public class UrlDevice {
    * @return The stored value or 0 if it doesn't exist in specified form.
    */
   public double optExtraDouble(String key) {
-    return mExtraData.optDouble(key);
+    return mExtraData.optDouble(key, Double.NaN);
   }
 
   /**
@@ -294,7 +482,7 @@ public class UrlDevice {
    * @return The stored value or null if it doesn't exist in specified form.
    */
   public String optExtraString(String key) {
-    return mExtraData.optString(key);
+    return mExtraData.optString(key, "");
   }
 
   /**
@@ -356,7 +544,7 @@ public class UrlDevice {
     jsonObject.put(URL_KEY, mUrl);
 
     if (mExtraData.length() > 0) {
-      jsonObject.put(EXTRA_KEY, mExtraData);
+      jsonObject.put(EXTRA_KEY, mExtraData.toJsonObject());
     }
 
     return jsonObject;
@@ -373,6 +561,41 @@ public class UrlDevice {
        .build();
   }
 
+  /**
+   * Write a compact binary representation of this data structure.
+   * @param os The stream to write to.
+   * @throws IOException on error
+   */
+  public void binarySerialize(OutputStream os) throws IOException {
+    BinaryEncoder encoder = new BinaryEncoder(os);
+    binarySerialize(encoder);
+    encoder.flush();
+  }
+
+  /**
+   * Read a UrlDevice written by binarySerialize.
+   * @param is The stream to read from.
+   * @return The UrlDevice represented by the serialized data.
+   * @throws IOException on invalid or unrecognized input
+   */
+  public static UrlDevice binaryDeserialize(InputStream is) throws IOException {
+    BinaryDecoder decoder = new BinaryDecoder(is);
+    decoder.checkFormatVersion();
+    return binaryDeserialize(decoder);
+  }
+
+  void binarySerialize(BinaryEncoder encoder) throws IOException {
+    encoder.writeString(mId);
+    encoder.writeString(mUrl);
+    encoder.writeJsonObject(mExtraData.getJsonView());
+  }
+
+  static UrlDevice binaryDeserialize(BinaryDecoder decoder) throws IOException {
+    String id = decoder.readString();
+    String url = decoder.readString();
+    return new UrlDevice(id, url, ExtraData.fromJsonObject(decoder.readJsonObject()));
+  }
+
   /**
    * Return a hash code for this SimpleUrlDevice.
    * This calculation does not include the extra data.
@@ -0,0 +1,280 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Assigns dense integer ids to URLs and keeps one canonical String for each URL.
+ * Ids start at 0 and are never reused, so an id read on one thread names the same URL on every
+ * other thread, and tables indexed by id need no further synchronization with the dictionary.
+ * The ids are held in an open-addressing table of ints, so lookups do not box.
+ *
+ * Additions are serialized, but lookups of URLs that already have ids do not lock.  A lookup may
+ * race with an addition and see a slot before the URL it names; it then retries under the lock.
+ * Since ids are never reused, any id the lock-free path does find is the right one.
+ */
+class UrlDictionary {
+  private static final int INITIAL_CAPACITY = 16;
+  // Growing publishes mUrls and mHashes before mTable, so a reader that sees a table also sees
+  // arrays holding every id in it.
+  private volatile String[] mUrls;
+  private volatile int[] mHashes;
+  // Slots hold id + 1, with 0 marking an empty slot.
+  private volatile int[] mTable;
+  private int mSize;
+
+  /**
+   * Construct an empty UrlDictionary.
+   */
+  UrlDictionary() {
+    mUrls = new String[INITIAL_CAPACITY];
+    mHashes = new int[INITIAL_CAPACITY];
+    mTable = new int[INITIAL_CAPACITY * 2];
+    mSize = 0;
+  }
+
+  /**
+   * Get the id of a URL, assigning the next id if the URL is new.
+   * @param url The URL.
+   * @return the id, or -1 if url is null.
+   */
+  int getOrAddId(String url) {
+    int id = getId(url);
+    return (id >= 0 || url == null) ? id : addId(url);
+  }
+
+  private synchronized int addId(String url) {
+    int hash = url.hashCode();
+    int slot = findSlot(url, hash);
+    if (mTable[slot] != 0) {
+      return mTable[slot] - 1;
+    }
+    if (mSize == mUrls.length) {
+      grow();
+      slot = findSlot(url, hash);
+    }
+    int id = mSize++;
+    mHashes[id] = hash;
+    mUrls[id] = url;
+    mTable[slot] = id + 1;
+    return id;
+  }
+
+  /**
+   * Get the id of a URL without adding it.
+   * @param url The URL.
+   * @return the id, or -1 if url is null or has no id.
+   */
+  int getId(String url) {
+    if (url == null) {
+      return -1;
+    }
+    int hash = url.hashCode();
+    int id = peekId(url, hash);
+    return id >= 0 ? id : getIdLocked(url, hash);
+  }
+
+  /**
+   * Get the id of a URL without locking, which may miss a URL being added concurrently.
+   * @param url The URL.
+   * @return the id, or -1 if url is null or no id was found.
+   */
+  int peekId(String url) {
+    return url == null ? -1 : peekId(url, url.hashCode());
+  }
+
+  private int peekId(String url, int hash) {
+    int[] table = mTable;
+    String[] urls = mUrls;
+    int[] hashes = mHashes;
+    int mask = table.length - 1;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while (true) {
+      int entry = table[slot];
+      if (entry == 0) {
+        break;
+      }
+      int id = entry - 1;
+      String candidate = urls[id];
+      if (candidate == null) {
+        break;
+      }
+      if (hashes[id] == hash && candidate.equals(url)) {
+        return id;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  private synchronized int getIdLocked(String url, int hash) {
+    return mTable[findSlot(url, hash)] - 1;
+  }
+
+  /**
+   * Get the canonical String for an id.
+   * @param id The id.
+   * @return the URL.
+   * @throws IndexOutOfBoundsException if no URL has the id.
+   */
+  String getUrl(int id) {
+    String[] urls = mUrls;
+    String url = (id < 0 || id >= urls.length) ? null : urls[id];
+    if (url == null) {
+      synchronized (this) {
+        if (id < 0 || id >= mSize) {
+          throw new IndexOutOfBoundsException("No URL with id " + id);
+        }
+        url = mUrls[id];
+      }
+    }
+    return url;
+  }
+
+  /**
+   * Check whether a String is the canonical instance of its URL, so that callers can avoid
+   * replacing objects that already share it.
+   * @param url The URL.
+   * @return true if url is the very String the dictionary holds.
+   */
+  boolean isCanonical(String url) {
+    int id = getId(url);
+    return id >= 0 && mUrls[id] == url;
+  }
+
+  /**
+   * Get the number of URLs with ids, which is also one more than the largest id.
+   * @return the number of URLs.
+   */
+  synchronized int size() {
+    return mSize;
+  }
+
+  /**
+   * Set of URLs held as their ids, for deduplicating URLs without hashing Strings.
+   * The first few ids are kept in a short array, so that sets used for a handful of URLs do not
+   * allocate a bitmap as long as the dictionary.  URLs the dictionary has no id for, such as site
+   * URLs of metadata still being added, are kept as Strings rather than added to the dictionary,
+   * which would otherwise grow with every URL ever deduplicated.
+   */
+  static class UrlSet {
+    private static final int SMALL_SIZE = 8;
+    private final UrlDictionary mUrlDictionary;
+    private final int[] mSmallUrlIds;
+    private int mSmallSize;
+    private BitSet mUrlIds;
+    private Set<String> mOtherUrls;
+    private boolean mHasNull;
+
+    /**
+     * Construct an empty UrlSet.
+     * @param urlDictionary The dictionary that assigns the ids.
+     */
+    UrlSet(UrlDictionary urlDictionary) {
+      mUrlDictionary = urlDictionary;
+      mSmallUrlIds = new int[SMALL_SIZE];
+      mSmallSize = 0;
+      mUrlIds = null;
+      mOtherUrls = null;
+      mHasNull = false;
+    }
+
+    /**
+     * Add a URL to the set.
+     * @param url The URL, which may be null.
+     * @return true if the set did not already contain the URL.
+     */
+    boolean add(String url) {
+      if (url == null) {
+        boolean added = !mHasNull;
+        mHasNull = true;
+        return added;
+      }
+      int urlId = mUrlDictionary.peekId(url);
+      if (urlId < 0) {
+        if (mOtherUrls == null) {
+          mOtherUrls = new HashSet<>();
+        }
+        return mOtherUrls.add(url);
+      }
+      // The URL may have been missed by an earlier add, while another thread was adding it.
+      if (mOtherUrls != null && mOtherUrls.contains(url)) {
+        return false;
+      }
+      if (mUrlIds == null) {
+        for (int i = 0; i < mSmallSize; i++) {
+          if (mSmallUrlIds[i] == urlId) {
+            return false;
+          }
+        }
+        if (mSmallSize < SMALL_SIZE) {
+          mSmallUrlIds[mSmallSize++] = urlId;
+          return true;
+        }
+        mUrlIds = new BitSet();
+        for (int i = 0; i < mSmallSize; i++) {
+          mUrlIds.set(mSmallUrlIds[i]);
+        }
+      }
+      if (mUrlIds.get(urlId)) {
+        return false;
+      }
+      mUrlIds.set(urlId);
+      return true;
+    }
+  }
+
+  private int findSlot(String url, int hash) {
+    int mask = mTable.length - 1;
+    int slot = (hash ^ (hash >>> 16)) & mask;
+    while (true) {
+      int entry = mTable[slot];
+      if (entry == 0) {
+        return slot;
+      }
+      int id = entry - 1;
+      if (mHashes[id] == hash && mUrls[id].equals(url)) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  private void grow() {
+    int capacity = mUrls.length * 2;
+    String[] urls = new String[capacity];
+    int[] hashes = new int[capacity];
+    System.arraycopy(mUrls, 0, urls, 0, mSize);
+    System.arraycopy(mHashes, 0, hashes, 0, mSize);
+    mHashes = hashes;
+    mUrls = urls;
+
+    // Keep the table at most half full.
+    int[] table = new int[capacity * 2];
+    int mask = table.length - 1;
+    for (int id = 0; id < mSize; id++) {
+      int slot = (hashes[id] ^ (hashes[id] >>> 16)) & mask;
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = id + 1;
+    }
+    mTable = table;
+  }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * DeviceExpiryWheel unit test class.
+ */
+public class DeviceExpiryWheelTest {
+  private static final String ID1 = "id1";
+  private static final String ID2 = "id2";
+  private static final String BLE = "ble";
+  private static final String MDNS = "mdns";
+  private static final long START = 1000000;
+  private DeviceExpiryWheel mWheel;
+
+  @Before
+  public void setUp() {
+    mWheel = new DeviceExpiryWheel(100, 8);
+    mWheel.setTtl(BLE, 1000);
+    mWheel.setTtl(MDNS, 5000);
+  }
+
+  @Test
+  public void devicesExpireAfterTheirTypesTtl() {
+    mWheel.touch(ID1, BLE, START);
+    mWheel.touch(ID2, MDNS, START);
+    assertEquals(Collections.emptyList(), mWheel.expire(START + 999));
+    assertEquals(Arrays.asList(ID1), mWheel.expire(START + 1000));
+    assertEquals(-1, mWheel.getLastSeenMillis(ID1));
+    assertEquals(Collections.emptyList(), mWheel.expire(START + 4999));
+    assertEquals(Arrays.asList(ID2), mWheel.expire(START + 5000));
+    assertEquals(0, mWheel.size());
+  }
+
+  @Test
+  public void touchingPostponesExpiry() {
+    mWheel.touch(ID1, BLE, START);
+    mWheel.touch(ID1, BLE, START + 800);
+    assertEquals(Collections.emptyList(), mWheel.expire(START + 1000));
+    assertEquals(START + 800, mWheel.getLastSeenMillis(ID1));
+    assertEquals(Arrays.asList(ID1), mWheel.expire(START + 1800));
+  }
+
+  @Test
+  public void longGapsExpireEveryDueDevice() {
+    for (int i = 0; i < 100; i++) {
+      mWheel.touch("id" + i, i % 2 == 0 ? BLE : MDNS, START + i * 7);
+    }
+    assertEquals(50, mWheel.expire(START + 2000).size());
+    assertEquals(50, mWheel.size());
+    assertEquals(50, mWheel.expire(START + 100000).size());
+    assertEquals(0, mWheel.size());
+  }
+
+  @Test
+  public void devicesWithoutTtlNeverExpire() {
+    mWheel.touch(ID1, null, START);
+    assertEquals(Collections.emptyList(), mWheel.expire(START + 100000));
+    mWheel.touch(ID2, null, START + 100000);
+    mWheel.setDefaultTtl(1000);
+    assertEquals(Arrays.asList(ID1), mWheel.expire(START + 100000));
+    assertEquals(Arrays.asList(ID2), mWheel.expire(START + 101000));
+  }
+
+  @Test
+  public void changingTypeUsesTheNewTtl() {
+    mWheel.touch(ID1, MDNS, START);
+    mWheel.touch(ID1, BLE, START);
+    assertEquals(Arrays.asList(ID1), mWheel.expire(START + 1000));
+  }
+
+  @Test
+  public void removedDevicesDoNotExpire() {
+    mWheel.touch(ID1, BLE, START);
+    mWheel.touch(ID2, BLE, START);
+    mWheel.remove(ID1);
+    assertEquals(Arrays.asList(ID2), mWheel.expire(START + 1000));
+  }
+}
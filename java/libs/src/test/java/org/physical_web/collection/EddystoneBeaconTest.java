@@ -106,4 +106,70 @@ public class EddystoneBeaconTest {
     assertEquals(0x00, beacon.getTxPowerLevel());
   }
 
+  @Test
+  public void parseFromServiceDataExpandsUrlCodesTest() {
+    byte[] serviceData = {0x10, (byte) 0xeb, 0x02, 'a', 0x00, 'b', 0x0b, 'c', 0x07, 'd', 0x0d};
+    EddystoneBeacon beacon = EddystoneBeacon.parseFromServiceData(serviceData, null);
+    assertEquals("http://a.com/b.infoc.comd.gov", beacon.getUrl());
+    assertEquals((byte) 0xeb, beacon.getTxPowerLevel());
+
+    // Bytes outside the expansion table are kept as they are
+    serviceData = new byte[]{0x10, 0x00, 0x03, 'x', 0x0e, '.', 0x7f};
+    assertEquals("https://x\u000e.\u007f",
+        EddystoneBeacon.parseFromServiceData(serviceData, null).getUrl());
+  }
+
+  @Test
+  public void parseFromServiceDataUrnUuidTest() {
+    byte[] serviceData = {0x10, 0x00, 0x04, 0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab,
+        (byte) 0xcd, (byte) 0xef, 0x01, 0x23, 0x45, 0x67, (byte) 0x89, (byte) 0xab, (byte) 0xcd,
+        (byte) 0xef, 0x55};
+    assertEquals("urn:uuid:01234567-89ab-cdef-0123-456789abcdef",
+        EddystoneBeacon.parseFromServiceData(serviceData, null).getUrl());
+
+    // Truncated UUID
+    serviceData = new byte[]{0x10, 0x00, 0x04, 0x01, 0x23};
+    assertNull(EddystoneBeacon.parseFromServiceData(serviceData, null));
+  }
+
+  @Test
+  public void parseUriServiceDataKeepsFlagsTest() {
+    EddystoneBeacon beacon = EddystoneBeacon.parseFromServiceData(null,
+        new byte[]{(byte) 0xf1, 0x20, 0x02, 'g', 0x07});
+    assertEquals("http://g.com", beacon.getUrl());
+    assertEquals((byte) 0xf1, beacon.getFlags());
+    assertEquals(0x20, beacon.getTxPowerLevel());
+  }
+
+  @Test
+  public void parseUrlServiceDataSliceTest() {
+    byte[] scanRecord = {0x02, 0x01, 0x06, 0x0a, 0x16, (byte) 0xaa, (byte) 0xfe,
+        0x13, 0x04, 0x02, 'e', 'x', 0x07, 'z', 'z', 'z'};
+    EddystoneBeacon beacon = EddystoneBeacon.parseUrlServiceData(scanRecord, 7, 6);
+    assertEquals("http://ex.com", beacon.getUrl());
+    assertEquals(0x03, beacon.getFlags());
+    assertEquals(0x04, beacon.getTxPowerLevel());
+    assertNull(EddystoneBeacon.parseUrlServiceData(scanRecord, 7, 2));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void parseUrlServiceDataRejectsSliceOutOfBoundsTest() {
+    EddystoneBeacon.parseUrlServiceData(new byte[]{0x10, 0x00, 0x02, 'a'}, 2, 3);
+  }
+
+  @Test
+  public void parseFromServiceDataLongUrlTest() {
+    // Long enough to outgrow the decoding buffer
+    byte[] serviceData = new byte[200];
+    serviceData[0] = 0x10;
+    serviceData[2] = 0x02;
+    StringBuilder expected = new StringBuilder("http://");
+    for (int i = 3; i < serviceData.length; i++) {
+      serviceData[i] = 0x04;
+      expected.append(".info/");
+    }
+    assertEquals(expected.toString(),
+        EddystoneBeacon.parseFromServiceData(serviceData, null).getUrl());
+  }
+
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * EddystoneFrameCache unit test class.
+ */
+public class EddystoneFrameCacheTest {
+  private static final byte[] URL_FRAME = {0x10, (byte) 0xeb, 0x02, 'a', 0x07};
+  private static final byte[] OTHER_URL_FRAME = {0x10, (byte) 0xeb, 0x02, 'b', 0x07};
+  private EddystoneFrameCache mCache;
+
+  @Before
+  public void setUp() {
+    mCache = new EddystoneFrameCache(4);
+  }
+
+  @Test
+  public void repeatedFrameReturnsSameBeacon() {
+    EddystoneBeacon beacon = mCache.parseFromServiceData(URL_FRAME, null);
+    assertEquals("http://a.com", beacon.getUrl());
+    assertSame(beacon, mCache.parseFromServiceData(URL_FRAME.clone(), null));
+    assertEquals(1, mCache.getHitCount());
+    assertEquals(1, mCache.getMissCount());
+  }
+
+  @Test
+  public void changedFrameIsDecodedAgain() {
+    byte[] frame = URL_FRAME.clone();
+    mCache.parseFromServiceData(frame, null);
+    frame[3] = 'c';
+    assertEquals("http://c.com", mCache.parseFromServiceData(frame, null).getUrl());
+    assertEquals("http://b.com", mCache.parseFromServiceData(OTHER_URL_FRAME, null).getUrl());
+    assertEquals(0, mCache.getHitCount());
+    assertEquals(3, mCache.getMissCount());
+  }
+
+  @Test
+  public void uriFrameIsNotConfusedWithUrlFrame() {
+    EddystoneBeacon urlBeacon = mCache.parseFromServiceData(URL_FRAME, null);
+    EddystoneBeacon uriBeacon = mCache.parseFromServiceData(null, URL_FRAME);
+    assertEquals(0x00, urlBeacon.getFlags());
+    assertEquals(0x10, uriBeacon.getFlags());
+  }
+
+  @Test
+  public void slicesMatchWholeFrames() {
+    byte[] scanRecord = new byte[URL_FRAME.length + 6];
+    System.arraycopy(URL_FRAME, 0, scanRecord, 4, URL_FRAME.length);
+    EddystoneBeacon beacon = mCache.parseUrlServiceData(scanRecord, 4, URL_FRAME.length);
+    assertSame(beacon, mCache.parseFromServiceData(URL_FRAME, null));
+  }
+
+  @Test
+  public void invalidFramesAreCachedAsNull() {
+    byte[] frame = {0x10, 0x00, 0x4f, 'a'};
+    assertNull(mCache.parseFromServiceData(frame, null));
+    assertNull(mCache.parseFromServiceData(frame, null));
+    assertEquals(1, mCache.getHitCount());
+    assertNull(mCache.parseFromServiceData(new byte[]{0x10, 0x00}, null));
+  }
+
+  @Test
+  public void cacheStaysBounded() {
+    InMemoryMetricsRecorder metricsRecorder = new InMemoryMetricsRecorder();
+    mCache.setMetricsRecorder(metricsRecorder);
+    for (int i = 0; i < 100; i++) {
+      mCache.parseFromServiceData(new byte[]{0x10, 0x00, 0x02, (byte) i, 0x07}, null);
+    }
+    assertEquals(4, mCache.getCapacity());
+    assertTrue(mCache.getEvictionCount() >= 96);
+    assertEquals(100, metricsRecorder.getCounter("frameCacheMisses"));
+    assertEquals(mCache.getEvictionCount(), metricsRecorder.getCounter("frameCacheEvictions"));
+  }
+
+  @Test
+  public void clearForgetsFrames() {
+    EddystoneBeacon beacon = mCache.parseFromServiceData(URL_FRAME, null);
+    mCache.clear();
+    EddystoneBeacon decodedAgain = mCache.parseFromServiceData(URL_FRAME, null);
+    assertNotSame(beacon, decodedAgain);
+    assertEquals(beacon.getUrl(), decodedAgain.getUrl());
+  }
+
+  @Test
+  public void capacityIsRoundedUpToPowerOfTwo() {
+    assertEquals(8, new EddystoneFrameCache(5).getCapacity());
+    assertEquals(1, new EddystoneFrameCache(1).getCapacity());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void zeroCapacityIsRejected() {
+    new EddystoneFrameCache(0);
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * EddystoneFrameParser unit test class.
+ */
+public class EddystoneFrameParserTest {
+  private static final byte[] UID_FRAME = {0x00, (byte) 0xe7,
+      0x00, 0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 0x09,
+      0x0a, 0x0b, 0x0c, 0x0d, (byte) 0xfe, (byte) 0xff, 0x00, 0x00};
+  private static final byte[] URL_FRAME = {0x10, (byte) 0xeb, 0x02, 'a', 0x07};
+  private static final byte[] TLM_FRAME = {0x20, 0x00, 0x0b, (byte) 0xb8, (byte) 0xfe, (byte) 0x80,
+      0x00, 0x01, 0x00, 0x02, (byte) 0x80, 0x00, 0x00, 0x01};
+  private static final byte[] EID_FRAME = {0x30, (byte) 0xf0,
+      0x11, 0x22, 0x33, 0x44, 0x55, 0x66, 0x77, (byte) 0x88};
+  private EddystoneFrameParser mParser;
+
+  @Before
+  public void setUp() {
+    mParser = new EddystoneFrameParser();
+  }
+
+  @Test
+  public void parseUidFrame() {
+    assertEquals(EddystoneFrameParser.FRAME_TYPE_UID, mParser.parse(UID_FRAME));
+    EddystoneFrameParser.UidFrame frame = mParser.getUidFrame();
+    assertEquals((byte) 0xe7, frame.getTxPowerLevel());
+    assertEquals("00010203040506070809", frame.getNamespaceId());
+    assertEquals("0a0b0c0dfeff", frame.getInstanceId());
+    byte[] instance = new byte[8];
+    frame.copyInstanceId(instance, 2);
+    assertArrayEquals(new byte[]{0, 0, 0x0a, 0x0b, 0x0c, 0x0d, (byte) 0xfe, (byte) 0xff},
+                      instance);
+  }
+
+  @Test
+  public void parseUrlFrame() {
+    assertEquals(EddystoneFrameParser.FRAME_TYPE_URL, mParser.parse(URL_FRAME));
+    EddystoneFrameParser.UrlFrame frame = mParser.getUrlFrame();
+    assertEquals((byte) 0xeb, frame.getTxPowerLevel());
+    assertFalse(frame.isFatBeacon());
+    assertEquals("http://a.com", frame.toEddystoneBeacon().getUrl());
+  }
+
+  @Test
+  public void parseTlmFrame() {
+    assertEquals(EddystoneFrameParser.FRAME_TYPE_TLM, mParser.parse(TLM_FRAME));
+    EddystoneFrameParser.TlmFrame frame = mParser.getTlmFrame();
+    assertFalse(frame.isEncrypted());
+    assertEquals(3000, frame.getBatteryMillivolts());
+    assertEquals(-1.5f, frame.getTemperatureCelsius(), 0.0f);
+    assertEquals(65538, frame.getAdvertisementCount());
+    assertEquals(0x80000001L * 100, frame.getUptimeMillis());
+  }
+
+  @Test
+  public void tlmFrameWithoutTemperature() {
+    byte[] tlmFrame = TLM_FRAME.clone();
+    tlmFrame[4] = (byte) 0x80;
+    tlmFrame[5] = 0x00;
+    mParser.parse(tlmFrame);
+    assertTrue(Float.isNaN(mParser.getTlmFrame().getTemperatureCelsius()));
+  }
+
+  @Test
+  public void encryptedTlmFrameIsNotRead() {
+    byte[] tlmFrame = Arrays.copyOf(TLM_FRAME, 18);
+    tlmFrame[1] = 0x01;
+    mParser.parse(tlmFrame);
+    EddystoneFrameParser.TlmFrame frame = mParser.getTlmFrame();
+    assertTrue(frame.isEncrypted());
+    assertEquals(0, frame.getBatteryMillivolts());
+    assertTrue(Float.isNaN(frame.getTemperatureCelsius()));
+    assertEquals(-1, frame.getAdvertisementCount());
+    assertEquals(-1, frame.getUptimeMillis());
+  }
+
+  @Test
+  public void parseEidFrame() {
+    assertEquals(EddystoneFrameParser.FRAME_TYPE_EID, mParser.parse(EID_FRAME));
+    EddystoneFrameParser.EidFrame frame = mParser.getEidFrame();
+    assertEquals((byte) 0xf0, frame.getTxPowerLevel());
+    assertEquals("1122334455667788", frame.getEphemeralId());
+  }
+
+  @Test
+  public void viewsAreReused() {
+    mParser.parse(URL_FRAME);
+    EddystoneFrameParser.UrlFrame frame = mParser.getUrlFrame();
+    mParser.parse(TLM_FRAME);
+    mParser.parse(new byte[]{0x10, 0x00, 0x03, 'b'});
+    assertSame(frame, mParser.getUrlFrame());
+    assertEquals("https://b", frame.toEddystoneBeacon().getUrl());
+  }
+
+  @Test
+  public void parseSlice() {
+    byte[] scanRecord = new byte[TLM_FRAME.length + 9];
+    System.arraycopy(TLM_FRAME, 0, scanRecord, 9, TLM_FRAME.length);
+    assertEquals(EddystoneFrameParser.FRAME_TYPE_TLM,
+                 mParser.parse(scanRecord, 9, TLM_FRAME.length));
+    assertEquals(3000, mParser.getTlmFrame().getBatteryMillivolts());
+    assertArrayEquals(TLM_FRAME, mParser.getFrame().toByteArray());
+  }
+
+  @Test
+  public void invalidFrames() {
+    assertEquals(EddystoneFrameParser.FRAME_TYPE_UNKNOWN, mParser.parse(null));
+    assertEquals(EddystoneFrameParser.FRAME_TYPE_UNKNOWN, mParser.parse(new byte[0]));
+    assertEquals(EddystoneFrameParser.FRAME_TYPE_UNKNOWN,
+                 mParser.parse(Arrays.copyOf(UID_FRAME, 17)));
+    assertEquals(EddystoneFrameParser.FRAME_TYPE_UNKNOWN,
+                 mParser.parse(Arrays.copyOf(TLM_FRAME, 13)));
+    assertEquals(EddystoneFrameParser.FRAME_TYPE_UNKNOWN, mParser.parse(new byte[]{0x40, 0, 0}));
+    assertNull(mParser.getFrame());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void wrongViewIsRejected() {
+    mParser.parse(TLM_FRAME);
+    mParser.getUrlFrame();
+  }
+
+  @Test
+  public void parseFromServiceDataIgnoresOtherFrames() {
+    assertNull(EddystoneBeacon.parseFromServiceData(UID_FRAME, null));
+    assertNull(EddystoneBeacon.parseFromServiceData(TLM_FRAME, null));
+    EddystoneBeacon beacon = EddystoneBeacon.parseFromServiceData(TLM_FRAME, URL_FRAME);
+    assertEquals("http://a.com", beacon.getUrl());
+    assertNull(new EddystoneFrameCache().parseFromServiceData(TLM_FRAME, null));
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import org.junit.Test;
+
+import org.skyscreamer.jsonassert.JSONAssert;
+
+/**
+ * ExtraData unit test class.
+ */
+public class ExtraDataTest {
+  private static final String[] KEYS = {"bool", "int", "long", "double", "string", "numeric",
+      "object", "array", "null", "missing"};
+
+  private static ExtraData sample() {
+    return ExtraData.EMPTY
+        .with("bool", true)
+        .with("int", 42)
+        .with("long", 1L << 40)
+        .with("double", (Object) 2.75)
+        .with("string", "hello")
+        .with("numeric", "17")
+        .with("object", new JSONObject("{\"a\":1}"))
+        .with("array", new JSONArray("[1,2]"))
+        .with("null", JSONObject.NULL);
+  }
+
+  @Test
+  public void typedValuesReadBack() {
+    ExtraData extraData = sample();
+    assertTrue(extraData.getBoolean("bool"));
+    assertEquals(42, extraData.getInt("int"));
+    assertEquals(1L << 40, extraData.getLong("long"));
+    assertEquals(2.75, extraData.getDouble("double"), 0.0);
+    assertEquals("hello", extraData.getString("string"));
+    assertEquals(1, extraData.getJSONObject("object").getInt("a"));
+    assertEquals(2, extraData.getJSONArray("array").length());
+    assertEquals(9, extraData.length());
+  }
+
+  @Test
+  public void gettersMatchJsonObject() {
+    ExtraData extraData = sample();
+    JSONObject jsonObject = extraData.toJsonObject();
+    for (String key : KEYS) {
+      assertEquals(key, jsonObject.optBoolean(key, true), extraData.optBoolean(key, true));
+      assertEquals(key, jsonObject.optInt(key, -1), extraData.optInt(key, -1));
+      assertEquals(key, jsonObject.optLong(key, -1), extraData.optLong(key, -1));
+      assertEquals(key, jsonObject.optDouble(key, Double.NaN),
+                   extraData.optDouble(key, Double.NaN), 0.0);
+      assertEquals(key, jsonObject.optString(key, "default"), extraData.optString(key, "default"));
+      assertEquals(key, String.valueOf(jsonObject.optJSONArray(key)),
+                   String.valueOf(extraData.optJSONArray(key)));
+      assertEquals(key, String.valueOf(jsonObject.optJSONObject(key)),
+                   String.valueOf(extraData.optJSONObject(key)));
+    }
+    assertEquals(17, extraData.getInt("numeric"));
+    assertEquals(2, extraData.getInt("double"));
+  }
+
+  @Test(expected = JSONException.class)
+  public void getOfWrongTypeThrows() {
+    sample().getBoolean("int");
+  }
+
+  @Test(expected = JSONException.class)
+  public void getOfMissingKeyThrows() {
+    sample().getInt("missing");
+  }
+
+  @Test(expected = JSONException.class)
+  public void nonFiniteNumbersAreRejected() {
+    ExtraData.EMPTY.with("nan", (Object) Double.NaN);
+  }
+
+  @Test
+  public void withLeavesOriginalUnchanged() {
+    ExtraData original = ExtraData.EMPTY.with("a", 1);
+    ExtraData changed = original.with("a", 2).with("b", true);
+    assertEquals(1, original.getInt("a"));
+    assertEquals(1, original.length());
+    assertEquals(2, changed.getInt("a"));
+    assertEquals(2, changed.length());
+  }
+
+  @Test
+  public void nullValueRemovesKey() {
+    ExtraData extraData = sample().with("int", (Object) null);
+    assertEquals(8, extraData.length());
+    assertEquals(-1, extraData.optInt("int", -1));
+    assertSame(extraData, extraData.with("missing", (Object) null));
+  }
+
+  @Test
+  public void nestedValuesAreCopied() {
+    JSONObject nested = new JSONObject("{\"a\":1}");
+    ExtraData extraData = ExtraData.EMPTY.with("object", nested);
+    nested.put("a", 2);
+    assertEquals(1, extraData.getJSONObject("object").getInt("a"));
+  }
+
+  @Test
+  public void nestedValuesAreNotShared() {
+    ExtraData extraData = ExtraData.EMPTY
+        .with("object", new JSONObject("{\"a\":{\"b\":1}}"))
+        .with("array", new JSONArray("[[1]]"));
+    extraData.getJSONObject("object").getJSONObject("a").put("b", 2);
+    extraData.optJSONObject("object").put("c", 3);
+    extraData.getJSONArray("array").getJSONArray(0).put(2);
+    extraData.optJSONArray("array").put(3);
+    extraData.toJsonObject().getJSONObject("object").getJSONObject("a").put("b", 4);
+    extraData.toJsonObject().getJSONArray("array").getJSONArray(0).put(4);
+    assertEquals("{\"a\":{\"b\":1}}", extraData.getJsonView().getJSONObject("object").toString());
+    assertEquals("[[1]]", extraData.getJsonView().getJSONArray("array").toString());
+  }
+
+  @Test
+  public void fromJsonObjectRoundTrips() throws Exception {
+    JSONObject jsonObject = new JSONObject(
+        "{\"a\":true,\"b\":3,\"c\":1.5,\"d\":\"x\",\"e\":{\"f\":[1,null]},\"g\":null}");
+    ExtraData extraData = ExtraData.fromJsonObject(jsonObject);
+    JSONAssert.assertEquals(jsonObject, extraData.toJsonObject(), true);
+    assertNotSame(extraData.toJsonObject(), extraData.toJsonObject());
+    assertSame(extraData.getJsonView(), extraData.getJsonView());
+    assertSame(ExtraData.EMPTY, ExtraData.fromJsonObject(null));
+  }
+}
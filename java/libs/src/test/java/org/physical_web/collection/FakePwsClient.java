@@ -0,0 +1,99 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * PwsClient that answers requests from memory instead of making HTTP requests.
+ * Requests are answered synchronously, on the calling thread.
+ */
+class FakePwsClient extends PwsClient {
+  final List<List<String>> resolveRequests;
+  final List<String> iconRequests;
+  final Map<String, PwsResult> results;
+  final Map<String, byte[]> icons;
+  final Map<String, PwsResultIconCallback> unansweredIconCallbacks;
+  volatile boolean respond;
+  volatile int errorResponseCode;
+
+  FakePwsClient() {
+    resolveRequests = Collections.synchronizedList(new ArrayList<List<String>>());
+    iconRequests = Collections.synchronizedList(new ArrayList<String>());
+    results = new ConcurrentHashMap<>();
+    icons = new ConcurrentHashMap<>();
+    unansweredIconCallbacks = new ConcurrentHashMap<>();
+    respond = true;
+    errorResponseCode = 0;
+  }
+
+  void addResult(String broadcastUrl, String siteUrl, String iconUrl) {
+    results.put(broadcastUrl, new PwsResult.Builder(broadcastUrl, siteUrl)
+        .setIconUrl(iconUrl)
+        .build());
+  }
+
+  @Override
+  public void resolve(Collection<String> broadcastUrls, PwsResultCallback pwsResultCallback) {
+    resolveRequests.add(new ArrayList<>(broadcastUrls));
+    if (!respond) {
+      return;
+    }
+    pwsResultCallback.onResponseReceived(0);
+    if (errorResponseCode != 0) {
+      pwsResultCallback.onPwsResultError(broadcastUrls, errorResponseCode, new Exception());
+      return;
+    }
+    for (String url : broadcastUrls) {
+      PwsResult pwsResult = results.get(url);
+      if (pwsResult == null) {
+        pwsResultCallback.onPwsResultAbsent(url);
+      } else {
+        pwsResultCallback.onPwsResult(pwsResult);
+      }
+    }
+  }
+
+  @Override
+  public void downloadIcon(String url, PwsResultIconCallback pwsResultIconCallback) {
+    iconRequests.add(url);
+    if (!respond) {
+      unansweredIconCallbacks.put(url, pwsResultIconCallback);
+      return;
+    }
+    byte[] icon = icons.get(url);
+    if (icon == null) {
+      pwsResultIconCallback.onError(404, new Exception());
+    } else {
+      pwsResultIconCallback.onIcon(icon);
+    }
+  }
+
+  int getResolvedUrlCount() {
+    int count = 0;
+    synchronized (resolveRequests) {
+      for (List<String> request : resolveRequests) {
+        count += request.size();
+      }
+    }
+    return count;
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FilePwsResultCache unit test class.
+ */
+public class FilePwsResultCacheTest {
+  private static final String URL1 = "http://example.com";
+  private static final String URL2 = "http://physical-web.org";
+  private static final String URL3 = "http://google.com";
+  private static final String TITLE1 = "title1";
+  private static final long TTL_MILLIS = 1000;
+  private File mDirectory;
+  private FakeClock mClock;
+
+  @Rule
+  public TemporaryFolder mTemporaryFolder = new TemporaryFolder();
+
+  private static class FakeClock implements Clock {
+    long now = 1000000;
+
+    @Override
+    public long currentTimeMillis() {
+      return now;
+    }
+  }
+
+  private static PwsResult createResult(String url) {
+    return new PwsResult.Builder(url, url + "/site")
+        .setTitle(TITLE1)
+        .build();
+  }
+
+  @Before
+  public void setUp() {
+    mDirectory = new File(mTemporaryFolder.getRoot(), "cache");
+    mClock = new FakeClock();
+  }
+
+  @Test
+  public void putThenGetReturnsResult() {
+    FilePwsResultCache cache = new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock);
+    cache.put(createResult(URL1));
+    PwsResult pwsResult = cache.get(URL1);
+    assertNotNull(pwsResult);
+    assertEquals(URL1, pwsResult.getRequestUrl());
+    assertEquals(URL1 + "/site", pwsResult.getSiteUrl());
+    assertEquals(TITLE1, pwsResult.getTitle());
+    assertNull(cache.get(URL2));
+  }
+
+  @Test
+  public void expiredResultIsNotReturned() {
+    FilePwsResultCache cache = new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock);
+    cache.put(createResult(URL1));
+    mClock.now += TTL_MILLIS;
+    assertNull(cache.get(URL1));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void leastRecentlyUsedResultIsEvicted() {
+    FilePwsResultCache cache = new FilePwsResultCache(mDirectory, TTL_MILLIS, 2, mClock);
+    cache.put(createResult(URL1));
+    cache.put(createResult(URL2));
+    assertNotNull(cache.get(URL1));
+    cache.put(createResult(URL3));
+    assertEquals(2, cache.size());
+    assertNotNull(cache.get(URL1));
+    assertNull(cache.get(URL2));
+    assertNotNull(cache.get(URL3));
+  }
+
+  @Test
+  public void resultsSurviveANewInstance() {
+    FilePwsResultCache cache = new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock);
+    cache.put(createResult(URL1));
+    cache.put(createResult(URL2));
+    cache.remove(URL2);
+    FilePwsResultCache reloadedCache =
+        new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock);
+    assertEquals(1, reloadedCache.size());
+    assertEquals(TITLE1, reloadedCache.get(URL1).getTitle());
+    mClock.now += TTL_MILLIS;
+    assertEquals(0, new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock).size());
+  }
+
+  @Test
+  public void constructionLeavesTheDiskAloneUntilPreload() {
+    new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock).put(createResult(URL1));
+    File otherDirectory = new File(mTemporaryFolder.getRoot(), "other");
+    new FilePwsResultCache(otherDirectory, TTL_MILLIS, 10, mClock);
+    assertFalse(otherDirectory.exists());
+
+    FilePwsResultCache cache = new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock);
+    cache.preload();
+    // Files written after the load belong to another instance and are not picked up.
+    new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock).put(createResult(URL2));
+    assertEquals(1, cache.size());
+    assertEquals(TITLE1, cache.get(URL1).getTitle());
+  }
+
+  @Test
+  public void removeAndClearDoNotLoadTheDirectory() {
+    FilePwsResultCache writer = new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock);
+    writer.put(createResult(URL1));
+    writer.put(createResult(URL2));
+
+    // Had remove loaded the directory, the result written after it would not be picked up.
+    FilePwsResultCache cache = new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock);
+    cache.remove(URL2);
+    writer.put(createResult(URL3));
+    assertEquals(2, cache.size());
+    assertNull(cache.get(URL2));
+
+    cache = new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock);
+    cache.clear();
+    assertEquals(0, mDirectory.listFiles().length);
+    writer.put(createResult(URL2));
+    assertEquals(1, cache.size());
+    assertEquals(TITLE1, cache.get(URL2).getTitle());
+  }
+
+  @Test
+  public void collectionUsesCacheBeforeResolving() {
+    FakePwsClient pwsClient = new FakePwsClient();
+    pwsClient.addResult(URL2, URL2, null);
+    FilePwsResultCache cache = new FilePwsResultCache(mDirectory, TTL_MILLIS, 10, mClock);
+    cache.put(createResult(URL1));
+    PhysicalWebCollection collection = new PhysicalWebCollection(pwsClient);
+    collection.setPwsResultCache(cache);
+    collection.addUrlDevice(new UrlDevice("id1", URL1));
+    collection.addUrlDevice(new UrlDevice("id2", URL2));
+    final List<String> found = new ArrayList<>();
+    collection.fetchPwsResults(new PwsResultCallback() {
+      @Override
+      public void onPwsResult(PwsResult pwsResult) {
+        found.add(pwsResult.getRequestUrl());
+      }
+    }, null);
+    assertEquals(2, found.size());
+    assertEquals(1, pwsClient.resolveRequests.size());
+    assertEquals(URL2, pwsClient.resolveRequests.get(0).get(0));
+    assertEquals(TITLE1, collection.getMetadataByBroadcastUrl(URL1).getTitle());
+    assertNotNull(cache.get(URL2));
+  }
+}
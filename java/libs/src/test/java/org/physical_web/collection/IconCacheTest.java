@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * IconCache unit test class.
+ */
+public class IconCacheTest {
+  private static final String ICON_URL1 = "http://example.com/favicon.ico";
+  private static final String ICON_URL2 = "http://physical-web.org/favicon.ico";
+  private static final String ICON_URL3 = "http://google.com/favicon.ico";
+  private static final byte[] ICON1 = new byte[4];
+  private static final byte[] ICON2 = new byte[4];
+  private static final byte[] ICON3 = new byte[4];
+
+  @Test
+  public void getCountsHitsAndMisses() {
+    IconCache iconCache = new IconCache(100);
+    iconCache.put(ICON_URL1, ICON1);
+    assertSame(ICON1, iconCache.get(ICON_URL1));
+    assertNull(iconCache.get(ICON_URL2));
+    assertEquals(1, iconCache.getHitCount());
+    assertEquals(1, iconCache.getMissCount());
+    assertEquals(4, iconCache.getSizeBytes());
+  }
+
+  @Test
+  public void leastRecentlyUsedIconIsEvicted() {
+    IconCache iconCache = new IconCache(8);
+    iconCache.put(ICON_URL1, ICON1);
+    iconCache.put(ICON_URL2, ICON2);
+    iconCache.get(ICON_URL1);
+    iconCache.put(ICON_URL3, ICON3);
+    assertTrue(iconCache.contains(ICON_URL1));
+    assertFalse(iconCache.contains(ICON_URL2));
+    assertTrue(iconCache.contains(ICON_URL3));
+    assertTrue(iconCache.wasEvicted(ICON_URL2));
+    assertEquals(1, iconCache.getEvictionCount());
+    assertEquals(8, iconCache.getSizeBytes());
+  }
+
+  @Test
+  public void iconLargerThanBudgetIsNotStored() {
+    IconCache iconCache = new IconCache(3);
+    iconCache.put(ICON_URL1, ICON1);
+    assertFalse(iconCache.contains(ICON_URL1));
+    assertEquals(0, iconCache.getSizeBytes());
+    assertTrue(iconCache.isTooLarge(ICON_URL1));
+    assertFalse(iconCache.isTooLarge(ICON_URL2));
+    assertEquals(1, iconCache.getTooLargeCount());
+
+    // Once the budget allows it, the icon is worth downloading again.
+    iconCache.setMaxBytes(4);
+    assertFalse(iconCache.isTooLarge(ICON_URL1));
+    iconCache.setMaxBytes(3);
+    iconCache.clear();
+    assertFalse(iconCache.isTooLarge(ICON_URL1));
+  }
+
+  @Test
+  public void shrinkingBudgetEvictsIcons() {
+    IconCache iconCache = new IconCache(100);
+    iconCache.put(ICON_URL1, ICON1);
+    iconCache.put(ICON_URL2, ICON2);
+    iconCache.setMaxBytes(4);
+    assertEquals(1, iconCache.getCount());
+    assertTrue(iconCache.contains(ICON_URL2));
+  }
+
+  @Test
+  public void collectionRefetchesEvictedIconInUse() {
+    FakePwsClient pwsClient = new FakePwsClient();
+    pwsClient.icons.put(ICON_URL1, ICON1);
+    PhysicalWebCollection collection = new PhysicalWebCollection(pwsClient);
+    collection.getIconCache().setMaxBytes(4);
+    collection.addUrlDevice(new UrlDevice("id1", "http://example.com"));
+    collection.addMetadata(new PwsResult.Builder("http://example.com", "http://example.com")
+        .setIconUrl(ICON_URL1)
+        .build());
+    collection.addIcon(ICON_URL1, ICON1);
+    collection.addIcon(ICON_URL2, ICON2);
+    assertNull(collection.getIcon(ICON_URL1));
+    assertEquals(1, pwsClient.iconRequests.size());
+    assertSame(ICON1, collection.getIcon(ICON_URL1));
+
+    // Icons that no device uses are not downloaded again.
+    assertNull(collection.getIcon(ICON_URL2));
+    assertEquals(1, pwsClient.iconRequests.size());
+  }
+}
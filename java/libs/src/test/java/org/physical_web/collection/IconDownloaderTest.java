@@ -0,0 +1,155 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * IconDownloader unit test class.
+ */
+public class IconDownloaderTest {
+  private static final String ICON_URL1 = "http://example.com/favicon.ico";
+  private static final byte[] ICON1 = new byte[4];
+  private FakePwsClient mPwsClient;
+  private IconCache mIconCache;
+  private IconDownloader mIconDownloader;
+
+  private static class RecordingIconCallback extends PwsResultIconCallback {
+    final List<byte[]> icons = new ArrayList<>();
+    final List<Integer> errorCodes = new ArrayList<>();
+
+    @Override
+    public void onIcon(byte[] icon) {
+      icons.add(icon);
+    }
+
+    @Override
+    public void onError(int httpResponseCode, Exception e) {
+      errorCodes.add(httpResponseCode);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    mPwsClient = new FakePwsClient();
+    mPwsClient.respond = false;
+    mIconCache = new IconCache(100);
+    mIconDownloader = new IconDownloader(mPwsClient, mIconCache);
+  }
+
+  @Test
+  public void concurrentRequestsShareOneDownload() {
+    RecordingIconCallback callback1 = new RecordingIconCallback();
+    RecordingIconCallback callback2 = new RecordingIconCallback();
+    mIconDownloader.download(ICON_URL1, callback1);
+    mIconDownloader.download(ICON_URL1, callback2);
+    mIconDownloader.download(ICON_URL1, callback2);
+    assertEquals(1, mPwsClient.iconRequests.size());
+    assertTrue(mIconDownloader.isPending(ICON_URL1));
+
+    mPwsClient.unansweredIconCallbacks.get(ICON_URL1).onIcon(ICON1);
+    assertFalse(mIconDownloader.isPending(ICON_URL1));
+    assertEquals(1, callback1.icons.size());
+    assertEquals(1, callback2.icons.size());
+    assertSame(ICON1, mIconCache.get(ICON_URL1));
+  }
+
+  @Test
+  public void eachDownloadCountsOneMiss() {
+    RecordingIconCallback callback1 = new RecordingIconCallback();
+    RecordingIconCallback callback2 = new RecordingIconCallback();
+    mIconDownloader.download(ICON_URL1, callback1);
+    mIconDownloader.download(ICON_URL1, callback2);
+    mIconDownloader.download(ICON_URL1, callback2);
+    assertEquals(1, mIconCache.getMissCount());
+
+    mPwsClient.unansweredIconCallbacks.get(ICON_URL1).onIcon(ICON1);
+    mIconDownloader.download(ICON_URL1, callback1);
+    assertEquals(1, mIconCache.getMissCount());
+    assertEquals(1, mIconCache.getHitCount());
+  }
+
+  @Test
+  public void iconTooLargeToCacheIsNotDownloadedAgainIfCacheable() {
+    byte[] largeIcon = new byte[101];
+    RecordingIconCallback callback = new RecordingIconCallback();
+    assertTrue(mIconDownloader.downloadIfCacheable(ICON_URL1, callback));
+    mPwsClient.unansweredIconCallbacks.get(ICON_URL1).onIcon(largeIcon);
+    assertSame(largeIcon, callback.icons.get(0));
+    assertTrue(mIconCache.isTooLarge(ICON_URL1));
+
+    assertFalse(mIconDownloader.downloadIfCacheable(ICON_URL1, callback));
+    assertEquals(1, mPwsClient.iconRequests.size());
+    assertEquals(1, callback.icons.size());
+    assertEquals(0, callback.errorCodes.size());
+  }
+
+  @Test
+  public void cachedIconIsServedWithoutDownloading() {
+    mIconCache.put(ICON_URL1, ICON1);
+    RecordingIconCallback callback = new RecordingIconCallback();
+    mIconDownloader.download(ICON_URL1, callback);
+    assertSame(ICON1, callback.icons.get(0));
+    assertEquals(0, mPwsClient.iconRequests.size());
+
+    mIconDownloader.download(null, callback);
+    assertEquals(0, mPwsClient.iconRequests.size());
+  }
+
+  @Test
+  public void failedDownloadIsReportedToAllCallersAndRetried() {
+    RecordingIconCallback callback1 = new RecordingIconCallback();
+    RecordingIconCallback callback2 = new RecordingIconCallback();
+    mIconDownloader.download(ICON_URL1, callback1);
+    mIconDownloader.download(ICON_URL1, callback2);
+    mPwsClient.unansweredIconCallbacks.get(ICON_URL1).onError(404, new Exception());
+    assertEquals(404, (int) callback1.errorCodes.get(0));
+    assertEquals(404, (int) callback2.errorCodes.get(0));
+
+    mIconDownloader.download(ICON_URL1, callback1);
+    assertEquals(2, mPwsClient.iconRequests.size());
+  }
+
+  @Test
+  public void collectionDownloadsSharedIconOnce() {
+    mPwsClient.respond = true;
+    mPwsClient.icons.put(ICON_URL1, ICON1);
+    for (int i = 0; i < 10; i++) {
+      mPwsClient.addResult("http://example.com/" + i, "http://example.com/" + i, ICON_URL1);
+    }
+    PhysicalWebCollection collection = new PhysicalWebCollection(mPwsClient);
+    for (int i = 0; i < 10; i++) {
+      collection.addUrlDevice(new UrlDevice("id" + i, "http://example.com/" + i));
+    }
+    RecordingIconCallback callback = new RecordingIconCallback();
+    collection.fetchPwsResults(new PwsResultCallback() {
+      @Override
+      public void onPwsResult(PwsResult pwsResult) {}
+
+      @Override
+      public void onPwsResultError(Collection<String> urls, int httpResponseCode, Exception e) {}
+    }, callback);
+    assertEquals(1, mPwsClient.iconRequests.size());
+    assertSame(ICON1, collection.getIcon(ICON_URL1));
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * IdTable unit test class.
+ */
+public class IdTableTest {
+  private IdTable<String> mIdTable;
+
+  @Before
+  public void setUp() {
+    mIdTable = new IdTable<>();
+  }
+
+  @Test
+  public void putAndGetWork() {
+    assertNull(mIdTable.put(3, "a"));
+    assertEquals("a", mIdTable.put(3, "b"));
+    assertEquals("b", mIdTable.get(3));
+    assertNull(mIdTable.get(2));
+    assertNull(mIdTable.get(-1));
+    assertNull(mIdTable.get(1000));
+    assertEquals(1, mIdTable.size());
+  }
+
+  @Test
+  public void growingKeepsValues() {
+    mIdTable.put(1, "a");
+    mIdTable.put(100, "b");
+    assertEquals("a", mIdTable.get(1));
+    assertEquals("b", mIdTable.get(100));
+    assertEquals(Arrays.asList("a", "b"), mIdTable.values());
+  }
+
+  @Test
+  public void removeAndClearWork() {
+    mIdTable.put(1, "a");
+    mIdTable.put(2, "b");
+    assertEquals("a", mIdTable.remove(1));
+    assertNull(mIdTable.remove(1));
+    assertNull(mIdTable.remove(-1));
+    assertEquals(1, mIdTable.size());
+    mIdTable.clear();
+    assertEquals(0, mIdTable.size());
+    assertNull(mIdTable.get(2));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void putOfNegativeIdThrows() {
+    mIdTable.put(-1, "a");
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * InMemoryMetricsRecorder unit test class.
+ */
+public class InMemoryMetricsRecorderTest {
+  private static final String URL1 = "http://example.com";
+  private static final String ICON_URL1 = "http://example.com/favicon.ico";
+
+  @Test
+  public void histogramEstimatesPercentilesFromBuckets() {
+    Histogram histogram = new Histogram();
+    assertEquals(0, histogram.getPercentile(50));
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(i);
+    }
+    assertEquals(100, histogram.getCount());
+    assertEquals(64, histogram.getPercentile(50));
+    assertEquals(100, histogram.getPercentile(95));
+    assertEquals(1, histogram.getPercentile(0));
+    assertEquals(0, Histogram.getBucket(1));
+    assertEquals(1, Histogram.getBucket(2));
+    assertEquals(2, Histogram.getBucket(3));
+    assertEquals(10, Histogram.getBucket(1024));
+  }
+
+  @Test
+  public void snapshotHoldsHistogramsCountersAndGauges() {
+    InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+    recorder.recordResolve(3, 120, true);
+    recorder.recordResolve(5, 80, false);
+    recorder.recordIconDownload(40, 1500, true);
+    recorder.recordInFlightRequests(2);
+
+    JSONObject snapshot = recorder.snapshot();
+    JSONObject histograms = snapshot.getJSONObject("histograms");
+    assertEquals(2, histograms.getJSONObject("resolveLatencyMillis").getLong("count"));
+    assertEquals(8, histograms.getJSONObject("resolveBatchSize").getLong("sum"));
+    assertEquals(1500, histograms.getJSONObject("iconSizeBytes").getLong("max"));
+    assertEquals(1, snapshot.getJSONObject("counters").getLong("resolveErrors"));
+    assertEquals(2, snapshot.getJSONObject("gauges").getLong("inFlightRequests"));
+  }
+
+  @Test
+  public void collectionReportsCountsAndCacheLookups() {
+    FakePwsClient pwsClient = new FakePwsClient();
+    pwsClient.addResult(URL1, URL1, ICON_URL1);
+    pwsClient.icons.put(ICON_URL1, new byte[10]);
+    PhysicalWebCollection collection = new PhysicalWebCollection(pwsClient);
+    InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+    collection.setMetricsRecorder(recorder);
+    collection.addUrlDevice(new UrlDevice("id1", URL1));
+    assertEquals(1, recorder.getGauge("devices"));
+
+    collection.fetchPwsResultsAsync();
+    assertEquals(1, recorder.getGauge("metadata"));
+    assertEquals(0, recorder.getGauge("pendingResolves"));
+    assertNull(collection.getIcon(ICON_URL1));
+    assertEquals(1, recorder.getCounter("iconCacheMisses"));
+
+    collection.fetchIcon(ICON_URL1);
+    collection.getIcon(ICON_URL1);
+    assertEquals(1, recorder.getCounter("iconCacheHits"));
+  }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JsonArrayStreamParser unit test class.
+ */
+public class JsonArrayStreamParserTest {
+  private List<JSONObject> mElements = new ArrayList<>();
+
+  private boolean parse(String json, String arrayKey) throws IOException {
+    JsonArrayStreamParser parser = new JsonArrayStreamParser(new StringReader(json));
+    return parser.parse(arrayKey, new JsonArrayStreamParser.ElementListener() {
+      @Override
+      public void onElement(JSONObject element) {
+        mElements.add(element);
+      }
+    });
+  }
+
+  @Test
+  public void parseEmitsEachObjectOfArray() throws IOException {
+    String json = "{\"kind\": \"urlresolve\", \"metadata\": ["
+        + "{\"id\": \"http://a.com\", \"title\": \"A \\\"quoted\\\" }]\"},"
+        + " {\"id\": \"http://b.com\", \"nested\": {\"list\": [1, 2.5, true, null]}}"
+        + "], \"unresolved\": [{\"id\": \"http://c.com\"}]}";
+    assertTrue(parse(json, "metadata"));
+    assertEquals(2, mElements.size());
+    assertEquals("A \"quoted\" }]", mElements.get(0).getString("title"));
+    assertEquals(2.5, mElements.get(1).getJSONObject("nested").getJSONArray("list").getDouble(1),
+                 0.0);
+  }
+
+  @Test
+  public void parseSkipsNonObjectElements() throws IOException {
+    assertTrue(parse("{\"results\": [1, \"two\", {\"id\": 3}, []]}", "results"));
+    assertEquals(1, mElements.size());
+    assertEquals(3, mElements.get(0).getInt("id"));
+  }
+
+  @Test
+  public void parseReportsMissingArray() throws IOException {
+    assertFalse(parse("{}", "metadata"));
+    assertFalse(parse("{\"results\": [{\"id\": 1}], \"metadata\": null}", "metadata"));
+    assertEquals(0, mElements.size());
+  }
+
+  @Test
+  public void parseEmitsObjectsReadBeforeTruncation() {
+    try {
+      parse("{\"metadata\": [{\"id\": 1}, {\"id\": 2}, {\"id\"", "metadata");
+      fail("Truncated response was accepted");
+    } catch (IOException e) {
+      // Expected.
+    }
+    assertEquals(2, mElements.size());
+  }
+
+  @Test(expected = JSONException.class)
+  public void listenerExceptionsAreNotReportedAsSyntaxErrors() throws IOException {
+    JsonArrayStreamParser parser =
+        new JsonArrayStreamParser(new StringReader("{\"metadata\": [{\"id\": 1}]}"));
+    parser.parse("metadata", new JsonArrayStreamParser.ElementListener() {
+      @Override
+      public void onElement(JSONObject element) {
+        element.getString("title");
+      }
+    });
+  }
+}
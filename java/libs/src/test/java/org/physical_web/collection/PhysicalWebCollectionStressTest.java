@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Checks that PhysicalWebCollection can be used from many threads at once.
+ */
+public class PhysicalWebCollectionStressTest {
+  private static final int THREAD_COUNT = 8;
+  private static final int ITERATIONS = 2000;
+  private static final int DEVICE_COUNT = 50;
+  private static final int URL_COUNT = 30;
+
+  private static class IdComparator implements Comparator<PwPair> {
+    @Override
+    public int compare(PwPair lhs, PwPair rhs) {
+      return lhs.getUrlDevice().getId().compareTo(rhs.getUrlDevice().getId());
+    }
+  }
+
+  private static List<String> getDeviceIds(List<PwPair> pwPairs) {
+    List<String> deviceIds = new ArrayList<>();
+    for (PwPair pwPair : pwPairs) {
+      deviceIds.add(pwPair.getUrlDevice().getId());
+    }
+    return deviceIds;
+  }
+
+  @Test
+  public void concurrentAddFetchAndRankAreSafe() throws InterruptedException {
+    final FakePwsClient pwsClient = new FakePwsClient();
+    for (int i = 0; i < URL_COUNT; i++) {
+      String url = "http://example.com/" + i;
+      pwsClient.addResult(url, url + "/site" + (i % 10), "http://example.com/icon" + (i % 5));
+    }
+    for (int i = 0; i < 5; i++) {
+      pwsClient.icons.put("http://example.com/icon" + i, new byte[16]);
+    }
+    final PhysicalWebCollection collection = new PhysicalWebCollection(pwsClient);
+    collection.setRankComparator(new IdComparator());
+    final PwsResultCallback pwsResultCallback = new PwsResultCallback() {
+      @Override
+      public void onPwsResult(PwsResult pwsResult) {}
+
+      @Override
+      public void onPwsResultError(Collection<String> urls, int httpResponseCode, Exception e) {}
+    };
+    final PwsResultIconCallback pwsResultIconCallback = new PwsResultIconCallback() {
+      @Override
+      public void onIcon(byte[] icon) {}
+    };
+
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < THREAD_COUNT; t++) {
+      final Random random = new Random(t);
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            startLatch.await();
+            for (int i = 0; i < ITERATIONS; i++) {
+              String id = "id" + random.nextInt(DEVICE_COUNT);
+              String url = "http://example.com/" + random.nextInt(URL_COUNT);
+              switch (random.nextInt(6)) {
+                case 0:
+                  collection.removeUrlDevice(new UrlDevice(id, url));
+                  break;
+                case 1:
+                  collection.fetchPwsResults(pwsResultCallback, pwsResultIconCallback);
+                  break;
+                case 2:
+                  collection.getGroupedPwPairsSortedByRank();
+                  collection.getTopGroupedPwPairs(3);
+                  break;
+                case 3:
+                  collection.getGroupedPwPairsSortedByRank(new IdComparator());
+                  collection.jsonSerialize();
+                  break;
+                default:
+                  collection.addUrlDevice(new UrlDevice(id, url));
+                  break;
+              }
+            }
+          } catch (Throwable e) {
+            failures.add(e);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    startLatch.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(Collections.<Throwable>emptyList(), failures);
+    assertEquals(getDeviceIds(collection.getGroupedPwPairsSortedByRank(new IdComparator())),
+                 getDeviceIds(collection.getGroupedPwPairsSortedByRank()));
+  }
+}
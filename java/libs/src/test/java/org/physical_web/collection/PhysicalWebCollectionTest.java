@@ -24,8 +24,14 @@ import org.junit.Test;
 
 import org.skyscreamer.jsonassert.JSONAssert;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * PhysicalWebCollection unit test class.
@@ -140,6 +146,46 @@ public class PhysicalWebCollectionTest {
     assertEquals(pwsResult.getGroupId(), GROUP_ID1);
   }
 
+  @Test
+  public void binarySerializeRoundTrips() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    physicalWebCollection1.binarySerialize(os);
+    PhysicalWebCollection physicalWebCollection = PhysicalWebCollection.binaryDeserialize(
+        new ByteArrayInputStream(os.toByteArray()));
+    JSONAssert.assertEquals(physicalWebCollection.jsonSerialize(), jsonObject1, true);
+    assertArrayEquals(ICON1, physicalWebCollection.getIcon(ICON_URL1));
+  }
+
+  @Test
+  public void binarySerializeIsSmallerThanJson() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    physicalWebCollection1.binarySerialize(os);
+    assertTrue(os.size() < physicalWebCollection1.jsonSerialize().toString().length() / 2);
+  }
+
+  @Test(expected = PhysicalWebCollectionException.class)
+  public void binaryDeserializeRejectsNewerVersion() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    physicalWebCollection1.binarySerialize(os);
+    byte[] serialized = os.toByteArray();
+    serialized[4] = (byte) (BinaryEncoder.FORMAT_VERSION + 1);
+    PhysicalWebCollection.binaryDeserialize(new ByteArrayInputStream(serialized));
+  }
+
+  @Test(expected = IOException.class)
+  public void binaryDeserializeRejectsTruncatedIconWithHugeLength() throws Exception {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    BinaryEncoder encoder = new BinaryEncoder(os);
+    encoder.writeInt(0);
+    encoder.writeInt(0);
+    encoder.writeInt(1);
+    encoder.writeString(ICON_URL1);
+    // A corrupt length far beyond the bytes that follow.
+    encoder.writeInt(Integer.MAX_VALUE);
+    encoder.flush();
+    PhysicalWebCollection.binaryDeserialize(new ByteArrayInputStream(os.toByteArray()));
+  }
+
   public static void addPair(PhysicalWebCollection collection,
       String id, String url, String groupId) {
     UrlDevice urlDevice = new UrlDevice(id, url);
@@ -193,4 +239,300 @@ public class PhysicalWebCollectionTest {
     assertNotNull(pwPair);
     assertEquals(ID2, pwPair.getUrlDevice().getId());
   }
+
+  @Test
+  public void getTopPwPairsByGroupIdSkipsDuplicateSiteUrls() {
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection();
+    addPair(physicalWebCollection, ID1, URL1, GROUP_ID1);
+    addPair(physicalWebCollection, ID2, URL2, GROUP_ID1);
+    addPair(physicalWebCollection, ID3, URL2, GROUP_ID1);  // Duplicate URL
+    addPair(physicalWebCollection, ID4, URL3a, GROUP_ID2);
+    List<PwPair> pwPairs =
+        physicalWebCollection.getTopPwPairsByGroupId(GROUP_ID1, 5, testComparator);
+    assertEquals(2, pwPairs.size());
+    assertEquals(ID1, pwPairs.get(0).getUrlDevice().getId());
+    assertEquals(ID2, pwPairs.get(1).getUrlDevice().getId());
+    assertEquals(1, physicalWebCollection.getTopPwPairsByGroupId(GROUP_ID1, 1, testComparator)
+        .size());
+    assertTrue(physicalWebCollection.getTopPwPairsByGroupId(null, 5, testComparator).isEmpty());
+    assertEquals(2, physicalWebCollection.getTopPwPairs(2, testComparator).size());
+  }
+
+  @Test
+  public void reconfiguringBatchingSendsQueuedUrls() {
+    FakePwsClient pwsClient = new FakePwsClient();
+    pwsClient.addResult(URL1, URL1, null);
+    pwsClient.addResult(URL2, URL2, null);
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection(pwsClient);
+    PwsResultCallback pwsResultCallback = new PwsResultCallback() {
+      @Override
+      public void onPwsResult(PwsResult pwsResult) {
+      }
+    };
+    physicalWebCollection.setResolveBatching(60000, 10);
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID1, URL1));
+    physicalWebCollection.fetchPwsResults(pwsResultCallback, null);
+    // The first URL opens a window, so the second waits for it to close.
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID2, URL2));
+    physicalWebCollection.fetchPwsResults(pwsResultCallback, null);
+    assertEquals(1, pwsClient.resolveRequests.size());
+    assertNull(physicalWebCollection.getMetadataByBroadcastUrl(URL2));
+
+    physicalWebCollection.setResolveBatching(0, 0);
+    assertEquals(2, pwsClient.resolveRequests.size());
+    assertNotNull(physicalWebCollection.getMetadataByBroadcastUrl(URL2));
+  }
+
+  @Test
+  public void iconTooLargeToCacheIsNotFetchedAgain() {
+    FakePwsClient pwsClient = new FakePwsClient();
+    pwsClient.addResult(URL1, URL1, ICON_URL1);
+    pwsClient.icons.put(ICON_URL1, new byte[101]);
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection(pwsClient);
+    physicalWebCollection.getIconCache().setMaxBytes(100);
+    PwsResultCallback pwsResultCallback = new PwsResultCallback() {
+      @Override
+      public void onPwsResult(PwsResult pwsResult) {
+      }
+    };
+    PwsResultIconCallback pwsResultIconCallback = new PwsResultIconCallback() {
+      @Override
+      public void onIcon(byte[] icon) {
+      }
+    };
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID1, URL1));
+    physicalWebCollection.fetchPwsResults(pwsResultCallback, pwsResultIconCallback);
+    physicalWebCollection.fetchPwsResults(pwsResultCallback, pwsResultIconCallback);
+    assertEquals(1, pwsClient.iconRequests.size());
+  }
+
+  @Test
+  public void devicesWithEqualUrlsShareOneString() {
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection();
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID1, new String(URL1)));
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID2, new String(URL1)));
+    assertSame(physicalWebCollection.getUrlDeviceById(ID1).getUrl(),
+               physicalWebCollection.getUrlDeviceById(ID2).getUrl());
+    physicalWebCollection.addMetadata(new PwsResult(new String(URL1), URL1));
+    assertEquals(2, physicalWebCollection.getPwPairs().size());
+    assertNotNull(physicalWebCollection.getMetadataByBroadcastUrl(new String(URL1)));
+    assertNull(physicalWebCollection.getMetadataByBroadcastUrl(URL2));
+  }
+
+  @Test
+  public void removedDeviceUrlsAreCompactedAway() {
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection();
+    physicalWebCollection.setRankComparator(testComparator);
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID1, URL1));
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID2, URL2));
+    physicalWebCollection.addMetadata(new PwsResult(URL1, URL3a));
+    physicalWebCollection.addMetadata(new PwsResult(URL2, URL3a));
+    for (int i = 0; i < 1000; i++) {
+      UrlDevice urlDevice = new UrlDevice("transient" + i, "http://example.com/" + i);
+      physicalWebCollection.addUrlDevice(urlDevice);
+      physicalWebCollection.removeUrlDevice(urlDevice);
+    }
+    assertTrue(physicalWebCollection.getInternedUrlCount() < 100);
+    assertNotNull(physicalWebCollection.getMetadataByBroadcastUrl(URL1));
+    assertNotNull(physicalWebCollection.getMetadataByBroadcastUrl(URL2));
+    // Both pairs share a site URL, so only one is ranked.
+    assertEquals(1, physicalWebCollection.getTopPwPairs(2, testComparator).size());
+    assertEquals(1, physicalWebCollection.getPwPairsSortedByRank(testComparator).size());
+  }
+
+  @Test
+  public void clearForgetsInternedUrls() {
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection();
+    physicalWebCollection.setRankComparator(testComparator);
+    addPair(physicalWebCollection, ID1, new String(URL1), null);
+    physicalWebCollection.clear();
+    String url = new String(URL1);
+    addPair(physicalWebCollection, ID2, url, null);
+    assertSame(url, physicalWebCollection.getUrlDeviceById(ID2).getUrl());
+    List<PwPair> pwPairs = physicalWebCollection.getGroupedPwPairsSortedByRank();
+    assertEquals(1, pwPairs.size());
+    assertEquals(ID2, pwPairs.get(0).getUrlDevice().getId());
+  }
+
+  @Test
+  public void expireStaleDevicesRemovesIdleDevices() {
+    final long[] now = {1000000};
+    PhysicalWebCollection physicalWebCollection =
+        new PhysicalWebCollection(new FakePwsClient(), new Clock() {
+          @Override
+          public long currentTimeMillis() {
+            return now[0];
+          }
+        });
+    physicalWebCollection.setDeviceTtl(60000);
+    physicalWebCollection.setDeviceTtl("ble", 10000);
+    physicalWebCollection.setRankComparator(testComparator);
+    physicalWebCollection.addUrlDevice(new UrlDevice.Builder(ID1, URL1)
+        .setDeviceType("ble")
+        .build());
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID2, URL2));
+    physicalWebCollection.addMetadata(new PwsResult(URL1, URL1));
+    physicalWebCollection.addMetadata(new PwsResult(URL2, URL2));
+    assertEquals(1000000, physicalWebCollection.getLastSeenMillis(ID1));
+
+    now[0] += 10000;
+    List<UrlDevice> expiredDevices = physicalWebCollection.expireStaleDevices();
+    assertEquals(1, expiredDevices.size());
+    assertEquals(ID1, expiredDevices.get(0).getId());
+    assertNull(physicalWebCollection.getUrlDeviceById(ID1));
+    assertEquals(-1, physicalWebCollection.getLastSeenMillis(ID1));
+    assertEquals(1, physicalWebCollection.getPwPairsSortedByRank(testComparator).size());
+
+    now[0] += 40000;
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID2, URL2));
+    now[0] += 40000;
+    assertTrue(physicalWebCollection.expireStaleDevices().isEmpty());
+    now[0] += 20000;
+    assertEquals(1, physicalWebCollection.expireStaleDevices().size());
+    assertTrue(physicalWebCollection.getPwPairsSortedByRank(testComparator).isEmpty());
+  }
+
+  @Test
+  public void devicesAddedWhileExpiringStayTracked() throws Exception {
+    final AtomicLong now = new AtomicLong(1000000);
+    final PhysicalWebCollection physicalWebCollection =
+        new PhysicalWebCollection(new FakePwsClient(), new Clock() {
+          @Override
+          public long currentTimeMillis() {
+            return now.get();
+          }
+        });
+    physicalWebCollection.setDeviceTtl(1000);
+    physicalWebCollection.setRankComparator(testComparator);
+    for (int i = 0; i < 10; i++) {
+      physicalWebCollection.addMetadata(new PwsResult(URL1 + i, URL1 + i));
+    }
+    Thread expirer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < 2000; i++) {
+          now.addAndGet(500);
+          physicalWebCollection.expireStaleDevices();
+        }
+      }
+    });
+    expirer.start();
+    while (expirer.isAlive()) {
+      for (int i = 0; i < 10; i++) {
+        physicalWebCollection.addUrlDevice(new UrlDevice("id" + i, URL1 + i));
+      }
+    }
+    expirer.join();
+
+    // Every stored device can still expire, and the ranked view matches the stored devices.
+    List<UrlDevice> urlDevices = physicalWebCollection.getUrlDevices();
+    for (UrlDevice urlDevice : urlDevices) {
+      assertTrue(physicalWebCollection.getLastSeenMillis(urlDevice.getId()) >= 0);
+    }
+    assertEquals(urlDevices.size(), physicalWebCollection.getGroupedPwPairsSortedByRank().size());
+  }
+
+  @Test
+  public void updateSightingRecordsIntoHistory() {
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection();
+    assertFalse(physicalWebCollection.updateSighting(ID1, 1000, -50, -20));
+    physicalWebCollection.addUrlDevice(new UrlDevice.Builder(ID1, URL1)
+        .setRssi(-60)
+        .setScanTimeMillis(500)
+        .build());
+    assertTrue(physicalWebCollection.updateSighting(ID1, 1000, -50, -20));
+    SightingHistory sightingHistory = physicalWebCollection.getSightingHistory(ID1);
+    assertEquals(2, sightingHistory.size());
+    assertEquals(-50, sightingHistory.getRssi(0));
+    assertEquals(-20, sightingHistory.getTxPower(0));
+    assertEquals(1000, sightingHistory.getTimestampMillis(0));
+    assertEquals(-60, sightingHistory.getRssi(1));
+    assertEquals(SightingHistory.UNKNOWN_TX_POWER, sightingHistory.getTxPower(1));
+    assertEquals(500, sightingHistory.getTimestampMillis(1));
+    assertEquals(-60, physicalWebCollection.getUrlDeviceById(ID1).getRssi());
+
+    physicalWebCollection.removeUrlDevice(physicalWebCollection.getUrlDeviceById(ID1));
+    assertNull(physicalWebCollection.getSightingHistory(ID1));
+  }
+
+  @Test
+  public void proximityEstimatorFollowsSightings() {
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection();
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder()
+        .setFilter(ProximityEstimator.Filter.EWMA)
+        .setEwmaAlpha(0.5)
+        .build();
+    physicalWebCollection.setProximityEstimator(proximityEstimator);
+    physicalWebCollection.addUrlDevice(new UrlDevice.Builder(ID1, URL1)
+        .setRssi(-60)
+        .setTxPower(-20)
+        .build());
+    physicalWebCollection.updateSighting(ID1, 1000, -80, SightingHistory.UNKNOWN_TX_POWER);
+    assertEquals(-70, proximityEstimator.getSmoothedRssi(ID1), .0001);
+
+    physicalWebCollection.removeUrlDevice(physicalWebCollection.getUrlDeviceById(ID1));
+    assertEquals(0, proximityEstimator.size());
+  }
+
+  @Test
+  public void sightingHistoryIsCreatedOnFirstSighting() {
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection();
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID1, URL1));
+    assertNull(physicalWebCollection.getSightingHistory(ID1));
+    assertTrue(physicalWebCollection.updateSighting(ID1, 1000, -50, -20));
+    assertEquals(1, physicalWebCollection.getSightingHistory(ID1).size());
+  }
+
+  @Test
+  public void proximityEstimatorIsFedDevicesAlreadySeen() {
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection();
+    physicalWebCollection.addUrlDevice(new UrlDevice.Builder(ID1, URL1)
+        .setRssi(-60)
+        .setTxPower(-20)
+        .build());
+    physicalWebCollection.addUrlDevice(new UrlDevice(ID2, URL2));
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder().build();
+    physicalWebCollection.setProximityEstimator(proximityEstimator);
+    assertEquals(1, proximityEstimator.size());
+    assertEquals(-60, proximityEstimator.getSmoothedRssi(ID1), .0001);
+  }
+
+  @Test
+  public void fullProximityEstimatorKeepsDevicesStillInTheCollection() {
+    PhysicalWebCollection physicalWebCollection = new PhysicalWebCollection();
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder()
+        .setMaxDevices(2)
+        .setIdleTimeoutMillis(1)
+        .build();
+    physicalWebCollection.setProximityEstimator(proximityEstimator);
+    physicalWebCollection.setRankComparator(proximityEstimator.getDistanceComparator());
+    String[] ids = {ID1, ID2, ID3};
+    int[] rssis = {-50, -70, -60};
+    for (int i = 0; i < ids.length; i++) {
+      String url = "http://example.com/" + i;
+      physicalWebCollection.addMetadata(new PwsResult.Builder(url, url).setGroupId(ids[i]).build());
+      physicalWebCollection.addUrlDevice(new UrlDevice.Builder(ids[i], url)
+          .setRssi(rssis[i])
+          .setTxPower(-20)
+          .build());
+    }
+    // The estimator is full of devices still in the collection, so the nearest is not evicted
+    // for the third and the third ranks last until there is room for it.
+    assertEquals(2, proximityEstimator.size());
+    assertEquals(Arrays.asList(ID1, ID2, ID3),
+                 getDeviceIds(physicalWebCollection.getTopGroupedPwPairs(3)));
+
+    physicalWebCollection.removeUrlDevice(physicalWebCollection.getUrlDeviceById(ID2));
+    physicalWebCollection.updateSighting(ID3, 1000, -40, -20);
+    assertEquals(Arrays.asList(ID3, ID1),
+                 getDeviceIds(physicalWebCollection.getTopGroupedPwPairs(3)));
+  }
+
+  private static List<String> getDeviceIds(List<PwPair> pwPairs) {
+    List<String> deviceIds = new ArrayList<>();
+    for (PwPair pwPair : pwPairs) {
+      deviceIds.add(pwPair.getUrlDevice().getId());
+    }
+    return deviceIds;
+  }
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ProximityEstimator unit test class.
+ */
+public class ProximityEstimatorTest {
+  private static final double DELTA = 1e-9;
+  private final Map<String, SightingHistory> mSightingHistories = new HashMap<>();
+
+  private void update(ProximityEstimator proximityEstimator, String deviceId, long timestampMillis,
+                      int rssi, int txPower) {
+    SightingHistory sightingHistory = mSightingHistories.get(deviceId);
+    if (sightingHistory == null) {
+      sightingHistory = new SightingHistory(SightingHistory.DEFAULT_CAPACITY);
+      mSightingHistories.put(deviceId, sightingHistory);
+    }
+    sightingHistory.add(timestampMillis, rssi, txPower);
+    proximityEstimator.update(deviceId, timestampMillis, sightingHistory);
+  }
+
+  @Test
+  public void unknownDevicesHaveNoEstimate() {
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder().build();
+    assertTrue(Double.isNaN(proximityEstimator.getSmoothedRssi("id")));
+    assertEquals(Double.POSITIVE_INFINITY, proximityEstimator.getDistance("id"), DELTA);
+    assertEquals(Double.POSITIVE_INFINITY, proximityEstimator.getDistance(null), DELTA);
+    update(proximityEstimator, "id", 0, -60, SightingHistory.UNKNOWN_TX_POWER);
+    assertEquals(-60, proximityEstimator.getSmoothedRssi("id"), DELTA);
+    assertEquals(Double.POSITIVE_INFINITY, proximityEstimator.getDistance("id"), DELTA);
+  }
+
+  @Test
+  public void ewmaMovesByAlpha() {
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder()
+        .setFilter(ProximityEstimator.Filter.EWMA)
+        .setEwmaAlpha(0.5)
+        .build();
+    update(proximityEstimator, "id", 0, -60, -20);
+    update(proximityEstimator, "id", 1, -80, SightingHistory.UNKNOWN_TX_POWER);
+    assertEquals(-70, proximityEstimator.getSmoothedRssi("id"), DELTA);
+    update(proximityEstimator, "id", 2, -70, SightingHistory.UNKNOWN_TX_POWER);
+    assertEquals(-70, proximityEstimator.getSmoothedRssi("id"), DELTA);
+    // The TX power of the first sighting is kept, and -61 dBm is 1 m in free space.
+    update(proximityEstimator, "id", 3, -52, SightingHistory.UNKNOWN_TX_POWER);
+    assertEquals(-61, proximityEstimator.getSmoothedRssi("id"), DELTA);
+    assertEquals(1, proximityEstimator.getDistance("id"), DELTA);
+  }
+
+  @Test
+  public void kalmanConvergesAndWeighsBySettledVariance() {
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder()
+        .setFilter(ProximityEstimator.Filter.KALMAN)
+        .setKalmanNoise(0, 10)
+        .build();
+    update(proximityEstimator, "id", 0, -60, -20);
+    // With no process noise the filter averages the sightings.
+    update(proximityEstimator, "id", 1, -70, -20);
+    assertEquals(-65, proximityEstimator.getSmoothedRssi("id"), DELTA);
+    update(proximityEstimator, "id", 2, -80, -20);
+    assertEquals(-70, proximityEstimator.getSmoothedRssi("id"), DELTA);
+  }
+
+  @Test
+  public void medianIgnoresOutliers() {
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder()
+        .setFilter(ProximityEstimator.Filter.MEDIAN)
+        .setMedianWindow(3)
+        .build();
+    update(proximityEstimator, "id", 0, -60, -20);
+    update(proximityEstimator, "id", 1, -62, -20);
+    assertEquals(-61, proximityEstimator.getSmoothedRssi("id"), DELTA);
+    update(proximityEstimator, "id", 2, -20, -20);
+    assertEquals(-60, proximityEstimator.getSmoothedRssi("id"), DELTA);
+    // The window drops -60, leaving -62, -20 and -90.
+    update(proximityEstimator, "id", 3, -90, -20);
+    assertEquals(-62, proximityEstimator.getSmoothedRssi("id"), DELTA);
+  }
+
+  @Test
+  public void pathLossExponentScalesDistance() {
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder()
+        .setPathLossExponent(2)
+        .build();
+    update(proximityEstimator, "id", 0, -81, -20);
+    assertEquals(10, proximityEstimator.getDistance("id"), 1e-6);
+    proximityEstimator = new ProximityEstimator.Builder()
+        .setPathLossExponent(4)
+        .build();
+    update(proximityEstimator, "id", 0, -81, -20);
+    assertEquals(Math.sqrt(10), proximityEstimator.getDistance("id"), 1e-6);
+  }
+
+  @Test
+  public void fullEstimatorEvictsIdleThenOldestDevices() {
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder()
+        .setMaxDevices(3)
+        .setIdleTimeoutMillis(1000)
+        .build();
+    update(proximityEstimator, "a", 0, -60, -20);
+    update(proximityEstimator, "b", 500, -60, -20);
+    update(proximityEstimator, "c", 600, -60, -20);
+    update(proximityEstimator, "d", 1200, -60, -20);
+    assertEquals(3, proximityEstimator.size());
+    assertTrue(Double.isNaN(proximityEstimator.getSmoothedRssi("a")));
+
+    // None is idle, so the least recently updated goes.
+    update(proximityEstimator, "c", 1300, -60, -20);
+    update(proximityEstimator, "e", 1400, -60, -20);
+    assertTrue(Double.isNaN(proximityEstimator.getSmoothedRssi("b")));
+    assertFalse(Double.isNaN(proximityEstimator.getSmoothedRssi("c")));
+    assertFalse(Double.isNaN(proximityEstimator.getSmoothedRssi("d")));
+    assertFalse(Double.isNaN(proximityEstimator.getSmoothedRssi("e")));
+
+    assertEquals(2, proximityEstimator.evictIdleDevices(2350));
+    assertEquals(1, proximityEstimator.size());
+    assertFalse(Double.isNaN(proximityEstimator.getSmoothedRssi("e")));
+  }
+
+  @Test
+  public void trackedDevicesAreNotEvicted() {
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder()
+        .setMaxDevices(2)
+        .setIdleTimeoutMillis(1000)
+        .build();
+    proximityEstimator.setDeviceTracker(new ProximityEstimator.DeviceTracker() {
+      @Override
+      public boolean isTracked(String deviceId) {
+        return !deviceId.equals("b");
+      }
+    });
+    update(proximityEstimator, "a", 0, -60, -20);
+    update(proximityEstimator, "b", 500, -60, -20);
+    // Only b may be evicted, although a is idle and older.
+    update(proximityEstimator, "c", 1200, -60, -20);
+    assertFalse(Double.isNaN(proximityEstimator.getSmoothedRssi("a")));
+    assertTrue(Double.isNaN(proximityEstimator.getSmoothedRssi("b")));
+    assertFalse(Double.isNaN(proximityEstimator.getSmoothedRssi("c")));
+    // With nothing left to evict, a new device is not tracked.
+    update(proximityEstimator, "d", 1300, -60, -20);
+    assertTrue(Double.isNaN(proximityEstimator.getSmoothedRssi("d")));
+    assertEquals(0, proximityEstimator.evictIdleDevices(5000));
+    assertEquals(2, proximityEstimator.size());
+  }
+
+  @Test
+  public void manyDevicesSurviveGrowthAndRemoval() {
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder()
+        .setFilter(ProximityEstimator.Filter.MEDIAN)
+        .setMaxDevices(1000)
+        .build();
+    for (int i = 0; i < 500; i++) {
+      update(proximityEstimator, "id" + i, i, -i, -20);
+    }
+    for (int i = 0; i < 500; i += 2) {
+      proximityEstimator.remove("id" + i);
+    }
+    assertEquals(250, proximityEstimator.size());
+    for (int i = 0; i < 500; i++) {
+      double rssi = proximityEstimator.getSmoothedRssi("id" + i);
+      if (i % 2 == 0) {
+        assertTrue(Double.isNaN(rssi));
+      } else {
+        assertEquals(-i, rssi, DELTA);
+      }
+    }
+    proximityEstimator.clear();
+    assertEquals(0, proximityEstimator.size());
+    assertTrue(Double.isNaN(proximityEstimator.getSmoothedRssi("id1")));
+  }
+
+  @Test
+  public void distanceComparatorRanksNearerFirst() {
+    ProximityEstimator proximityEstimator = new ProximityEstimator.Builder().build();
+    update(proximityEstimator, "far", 0, -90, -20);
+    update(proximityEstimator, "near", 0, -50, -20);
+    PwPair far = new PwPair(new UrlDevice("far", "http://far.com"), null);
+    PwPair near = new PwPair(new UrlDevice("near", "http://near.com"), null);
+    PwPair unknown = new PwPair(new UrlDevice("unknown", "http://unknown.com"), null);
+    List<PwPair> pwPairs = new ArrayList<>();
+    pwPairs.add(unknown);
+    pwPairs.add(far);
+    pwPairs.add(near);
+    Collections.sort(pwPairs, proximityEstimator.getDistanceComparator());
+    assertSame(near, pwPairs.get(0));
+    assertSame(far, pwPairs.get(1));
+    assertSame(unknown, pwPairs.get(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void invalidAlphaIsRejected() {
+    new ProximityEstimator.Builder().setEwmaAlpha(0);
+  }
+}
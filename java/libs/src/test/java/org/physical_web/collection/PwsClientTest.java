@@ -0,0 +1,453 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * PwsClient unit test class, run against local HTTP servers.
+ */
+public class PwsClientTest {
+  private static final String URL1 = "http://example.com";
+  private static final String SITE_URL1 = "http://example.com/site";
+  private static final String URL2 = "http://physical-web.org";
+  private static final long SLOW_DELAY_MILLIS = 2000;
+  private List<HttpServer> mServers;
+
+  /**
+   * Answers resolve requests for URL1, after an optional delay, or with an error.
+   */
+  private static class ResolveHandler implements HttpHandler {
+    final AtomicInteger requestCount = new AtomicInteger();
+    final String name;
+    final long delayMillis;
+    final int responseCode;
+
+    ResolveHandler(String name, long delayMillis, int responseCode) {
+      this.name = name;
+      this.delayMillis = delayMillis;
+      this.responseCode = responseCode;
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+      requestCount.incrementAndGet();
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      sendResponse(exchange, responseCode, createResponseBody(name));
+    }
+  }
+
+  private static byte[] createResponseBody(String title) throws IOException {
+    return ("{\"metadata\": [{\"id\": \"" + URL1 + "\", \"url\": \"" + SITE_URL1
+        + "\", \"title\": \"" + title + "\"}]}").getBytes("UTF-8");
+  }
+
+  private static void sendResponse(HttpExchange exchange, int responseCode, byte[] body)
+      throws IOException {
+    exchange.sendResponseHeaders(responseCode, body.length);
+    exchange.getResponseBody().write(body);
+    exchange.close();
+  }
+
+  private static class RecordingCallback extends PwsResultCallback {
+    final CountDownLatch done = new CountDownLatch(1);
+    final List<String> titles = Collections.synchronizedList(new ArrayList<String>());
+    final List<Integer> errorCodes = Collections.synchronizedList(new ArrayList<Integer>());
+
+    @Override
+    public void onPwsResult(PwsResult pwsResult) {
+      titles.add(pwsResult.getTitle());
+      done.countDown();
+    }
+
+    @Override
+    public void onPwsResultError(Collection<String> urls, int httpResponseCode, Exception e) {
+      errorCodes.add(httpResponseCode);
+      done.countDown();
+    }
+  }
+
+  /**
+   * Counts down once URL2, which the servers have no metadata for, is reported.  That happens
+   * after the response has been read and its connection released.
+   */
+  private static class FinishingCallback extends RecordingCallback {
+    final CountDownLatch finished = new CountDownLatch(1);
+
+    @Override
+    public void onPwsResultAbsent(String url) {
+      finished.countDown();
+    }
+
+    @Override
+    public void onPwsResultError(Collection<String> urls, int httpResponseCode, Exception e) {
+      super.onPwsResultError(urls, httpResponseCode, e);
+      finished.countDown();
+    }
+  }
+
+  @Before
+  public void setUp() {
+    mServers = new ArrayList<>();
+  }
+
+  @After
+  public void tearDown() {
+    for (HttpServer server : mServers) {
+      server.stop(0);
+    }
+  }
+
+  private PwsEndpoint startServer(HttpHandler handler) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/resolve-scan", handler);
+    server.start();
+    mServers.add(server);
+    return new PwsEndpoint("http://localhost:" + server.getAddress().getPort(), 1);
+  }
+
+  private static RecordingCallback resolve(PwsClient pwsClient) throws InterruptedException {
+    RecordingCallback callback = new RecordingCallback();
+    pwsClient.resolve(Collections.singletonList(URL1), callback);
+    assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+    return callback;
+  }
+
+  private static FinishingCallback resolveToTheEnd(PwsClient pwsClient)
+      throws InterruptedException {
+    FinishingCallback callback = new FinishingCallback();
+    pwsClient.resolve(Arrays.asList(URL1, URL2), callback);
+    assertTrue(callback.finished.await(10, TimeUnit.SECONDS));
+    return callback;
+  }
+
+  @Test
+  public void gzippedResponseIsDecompressed() throws Exception {
+    final AtomicReference<String> acceptEncoding = new AtomicReference<>();
+    HttpHandler handler = new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        acceptEncoding.set(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressed);
+        gzipOutputStream.write(createResponseBody("gzipped"));
+        gzipOutputStream.close();
+        exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        sendResponse(exchange, 200, compressed.toByteArray());
+      }
+    };
+    PwsClient pwsClient = new PwsClient();
+    pwsClient.setEndpoints(Collections.singletonList(startServer(handler)));
+    assertEquals(Collections.singletonList("gzipped"), resolve(pwsClient).titles);
+    assertEquals("gzip", acceptEncoding.get());
+  }
+
+  @Test
+  public void compressedRequestBodyIsGzipped() throws Exception {
+    final AtomicReference<String> contentEncoding = new AtomicReference<>();
+    final AtomicReference<String> requestBody = new AtomicReference<>();
+    HttpHandler handler = new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        contentEncoding.set(exchange.getRequestHeaders().getFirst("Content-Encoding"));
+        byte[] body = Request.readFully(exchange.getRequestBody());
+        if ("gzip".equals(contentEncoding.get())) {
+          body = Request.readFully(new GZIPInputStream(new ByteArrayInputStream(body)));
+        }
+        requestBody.set(new String(body, "UTF-8"));
+        sendResponse(exchange, 200, createResponseBody("compressed"));
+      }
+    };
+    PwsClient pwsClient = new PwsClient();
+    pwsClient.setEndpoints(Collections.singletonList(startServer(handler)));
+    pwsClient.setRequestCompression(true);
+    assertEquals(Collections.singletonList("compressed"), resolve(pwsClient).titles);
+    assertEquals("gzip", contentEncoding.get());
+    assertTrue(requestBody.get().contains(URL1));
+  }
+
+  @Test
+  public void exceptionThrownByResultCallbackIsReportedAsError() throws Exception {
+    PwsClient pwsClient = new PwsClient();
+    pwsClient.setEndpoints(Collections.singletonList(
+        startServer(new ResolveHandler("title", 0, 200))));
+    final List<String> errorUrls = Collections.synchronizedList(new ArrayList<String>());
+    final CountDownLatch errorReported = new CountDownLatch(1);
+    pwsClient.resolve(Arrays.asList(URL1, URL2), new PwsResultCallback() {
+      @Override
+      public void onPwsResult(PwsResult pwsResult) {
+        throw new IllegalStateException("callback failed");
+      }
+
+      @Override
+      public void onPwsResultError(Collection<String> urls, int httpResponseCode, Exception e) {
+        errorUrls.addAll(urls);
+        errorReported.countDown();
+      }
+    });
+    assertTrue(errorReported.await(10, TimeUnit.SECONDS));
+    // The URL whose callback threw is reported along with the one never read.
+    assertEquals(new HashSet<>(Arrays.asList(URL1, URL2)), new HashSet<>(errorUrls));
+  }
+
+  @Test
+  public void responseTooLongToDrainClosesItsConnection() throws Exception {
+    final List<Integer> clientPorts = Collections.synchronizedList(new ArrayList<Integer>());
+    final AtomicBoolean sendLongError = new AtomicBoolean(false);
+    HttpHandler handler = new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        clientPorts.add(exchange.getRemoteAddress().getPort());
+        Request.readFully(exchange.getRequestBody());
+        if (sendLongError.get()) {
+          // Longer than Request.MAX_DRAIN_BYTES, and unread since the request failed.
+          byte[] body = new byte[32 * 1024];
+          Arrays.fill(body, (byte) ' ');
+          sendResponse(exchange, 500, body);
+        } else {
+          sendResponse(exchange, 200, createResponseBody("title"));
+        }
+      }
+    };
+    PwsClient pwsClient = new PwsClient();
+    pwsClient.setEndpoints(Collections.singletonList(startServer(handler)));
+    resolveToTheEnd(pwsClient);
+    resolveToTheEnd(pwsClient);
+    // A response read to its end leaves its connection for the next request.
+    assertEquals(clientPorts.get(0), clientPorts.get(1));
+
+    sendLongError.set(true);
+    assertEquals(Collections.singletonList(500), resolveToTheEnd(pwsClient).errorCodes);
+    sendLongError.set(false);
+    resolveToTheEnd(pwsClient);
+    assertEquals(clientPorts.get(1), clientPorts.get(2));
+    assertFalse(clientPorts.get(2).equals(clientPorts.get(3)));
+  }
+
+  @Test
+  public void requestOverTheHostLimitWaitsWithoutHoldingAThread() throws Exception {
+    final CountDownLatch unblock = new CountDownLatch(1);
+    final AtomicInteger busyCount = new AtomicInteger();
+    HttpHandler busy = new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        busyCount.incrementAndGet();
+        try {
+          unblock.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        sendResponse(exchange, 200, createResponseBody("busy"));
+      }
+    };
+    PwsEndpoint busyEndpoint = startServer(busy);
+    PwsEndpoint otherEndpoint = startServer(new ResolveHandler("other", 0, 200));
+    PwsClient pwsClient = new PwsClient();
+    pwsClient.configureRequestExecutor(5, 5, 64, new ThreadPoolExecutor.AbortPolicy());
+    pwsClient.setConnectionReuse(true, 4);
+    pwsClient.setEndpoints(Collections.singletonList(busyEndpoint));
+    RecordingCallback[] callbacks = new RecordingCallback[5];
+    for (int i = 0; i < callbacks.length; i++) {
+      callbacks[i] = new RecordingCallback();
+      pwsClient.resolve(Collections.singletonList(URL1), callbacks[i]);
+    }
+    long deadline = System.currentTimeMillis() + 5000;
+    while (busyCount.get() < 4 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Thread.sleep(200);
+    assertEquals(4, busyCount.get());
+
+    // The fifth request waits for a connection without a thread, so the pool's last thread is
+    // free for another host.
+    pwsClient.setEndpoints(Collections.singletonList(otherEndpoint));
+    assertEquals(Collections.singletonList("other"), resolve(pwsClient).titles);
+
+    unblock.countDown();
+    for (RecordingCallback callback : callbacks) {
+      assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+      assertEquals(Collections.singletonList("busy"), callback.titles);
+    }
+    assertEquals(5, busyCount.get());
+  }
+
+  @Test
+  public void cancelledRequestKeepsItsConnectionUntilItUnwinds() throws Exception {
+    final CountDownLatch unblock = new CountDownLatch(1);
+    final AtomicInteger busyCount = new AtomicInteger();
+    HttpHandler busy = new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        busyCount.incrementAndGet();
+        try {
+          unblock.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        sendResponse(exchange, 200, createResponseBody("busy"));
+      }
+    };
+    PwsClient pwsClient = new PwsClient();
+    pwsClient.setConnectionReuse(true, 1);
+    pwsClient.setEndpoints(Collections.singletonList(startServer(busy)));
+    pwsClient.resolve(Collections.singletonList(URL1), new RecordingCallback());
+    long deadline = System.currentTimeMillis() + 5000;
+    while (busyCount.get() < 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    pwsClient.cancelAllRequests();
+
+    // Interrupting the cancelled request does not stop it reading, so the next request waits.
+    RecordingCallback callback = new RecordingCallback();
+    pwsClient.resolve(Collections.singletonList(URL1), callback);
+    Thread.sleep(300);
+    assertEquals(1, busyCount.get());
+
+    unblock.countDown();
+    assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+    assertEquals(Collections.singletonList("busy"), callback.titles);
+    assertEquals(2, busyCount.get());
+  }
+
+  @Test
+  public void hedgedRequestAnswersWhenFirstEndpointIsSlow() throws Exception {
+    ResolveHandler slow = new ResolveHandler("slow", SLOW_DELAY_MILLIS, 200);
+    ResolveHandler fast = new ResolveHandler("fast", 0, 200);
+    PwsClient pwsClient = new PwsClient();
+    pwsClient.setEndpoints(Arrays.asList(startServer(slow), startServer(fast)));
+    pwsClient.setHedging(true, 50);
+
+    long start = System.currentTimeMillis();
+    RecordingCallback callback = resolve(pwsClient);
+    assertTrue(System.currentTimeMillis() - start < SLOW_DELAY_MILLIS);
+    assertEquals(Collections.singletonList("fast"), callback.titles);
+    assertEquals(1, slow.requestCount.get());
+    assertEquals(1, fast.requestCount.get());
+
+    // The slow request's late answer is ignored.
+    Thread.sleep(SLOW_DELAY_MILLIS + 200);
+    assertEquals(Collections.singletonList("fast"), callback.titles);
+
+    // The endpoint that has answered is now preferred over the one that never did.
+    callback = resolve(pwsClient);
+    assertEquals(Collections.singletonList("fast"), callback.titles);
+    assertEquals(1, slow.requestCount.get());
+  }
+
+  @Test
+  public void failedRequestFailsOverToNextEndpoint() throws Exception {
+    ResolveHandler broken = new ResolveHandler("broken", 0, 500);
+    ResolveHandler working = new ResolveHandler("working", 0, 200);
+    PwsClient pwsClient = new PwsClient();
+    pwsClient.setEndpoints(Arrays.asList(startServer(broken), startServer(working)));
+    InMemoryMetricsRecorder recorder = new InMemoryMetricsRecorder();
+    pwsClient.setMetricsRecorder(recorder);
+
+    RecordingCallback callback = resolve(pwsClient);
+    assertEquals(Collections.singletonList("working"), callback.titles);
+    assertTrue(callback.errorCodes.isEmpty());
+    assertEquals(1, broken.requestCount.get());
+    // The request is recorded once its response has been read to the end.
+    long deadline = System.currentTimeMillis() + 5000;
+    while (recorder.getCounter("resolveSuccesses") == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(1, recorder.getCounter("resolveSuccesses"));
+    assertEquals(0, recorder.getCounter("resolveErrors"));
+  }
+
+  @Test
+  public void errorIsReportedWhenEveryEndpointFails() throws Exception {
+    PwsClient pwsClient = new PwsClient();
+    pwsClient.setEndpoints(Arrays.asList(startServer(new ResolveHandler("a", 0, 500)),
+                                         startServer(new ResolveHandler("b", 0, 503))));
+    RecordingCallback callback = resolve(pwsClient);
+    assertTrue(callback.titles.isEmpty());
+    assertEquals(Collections.singletonList(503), callback.errorCodes);
+  }
+
+  private void assertDroppedRequestIsReported(RejectedExecutionHandler rejectionHandler)
+      throws Exception {
+    ResolveHandler slow = new ResolveHandler("slow", SLOW_DELAY_MILLIS, 200);
+    PwsClient pwsClient = new PwsClient();
+    pwsClient.configureRequestExecutor(1, 1, 1, rejectionHandler);
+    RecordingCallback[] callbacks = new RecordingCallback[3];
+    for (int i = 0; i < callbacks.length; i++) {
+      callbacks[i] = new RecordingCallback();
+    }
+    pwsClient.setEndpoints(Collections.singletonList(startServer(slow)));
+    long start = System.currentTimeMillis();
+    for (RecordingCallback callback : callbacks) {
+      pwsClient.resolve(Collections.singletonList(URL1), callback);
+    }
+
+    // One request runs, one waits in the queue and one of those two is dropped, which is
+    // reported at once rather than never.
+    int droppedCount = 0;
+    for (RecordingCallback callback : callbacks) {
+      assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+      if (callback.errorCodes.equals(Collections.singletonList(0))) {
+        droppedCount++;
+      }
+    }
+    assertEquals(1, droppedCount);
+    assertTrue(System.currentTimeMillis() - start >= SLOW_DELAY_MILLIS);
+  }
+
+  @Test
+  public void requestDroppedByDiscardPolicyIsReported() throws Exception {
+    assertDroppedRequestIsReported(new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  @Test
+  public void requestDroppedByDiscardOldestPolicyIsReported() throws Exception {
+    assertDroppedRequestIsReported(new ThreadPoolExecutor.DiscardOldestPolicy());
+  }
+}
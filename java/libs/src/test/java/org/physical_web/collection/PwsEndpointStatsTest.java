@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * PwsEndpointStats unit test class.
+ */
+public class PwsEndpointStatsTest {
+  private static final PwsEndpoint ENDPOINT = new PwsEndpoint("http://example.com", 1);
+
+  @Test
+  public void latencyAverageFollowsRecentRequests() {
+    PwsEndpointStats stats = new PwsEndpointStats(ENDPOINT);
+    assertFalse(stats.hasLatency());
+    stats.recordSuccess(100);
+    assertEquals(100, stats.getLatencyMillis(), 0.001);
+    for (int i = 0; i < 50; i++) {
+      stats.recordSuccess(20);
+    }
+    assertEquals(20, stats.getLatencyMillis(), 1);
+  }
+
+  @Test
+  public void errorRateRisesWithErrorsAndDecaysWithSuccesses() {
+    PwsEndpointStats stats = new PwsEndpointStats(ENDPOINT);
+    for (int i = 0; i < 10; i++) {
+      stats.recordError();
+    }
+    assertTrue(stats.getErrorRate() > 0.8);
+    for (int i = 0; i < 10; i++) {
+      stats.recordSuccess(10);
+    }
+    assertTrue(stats.getErrorRate() < 0.2);
+  }
+
+  @Test
+  public void percentileNeedsEnoughSamples() {
+    PwsEndpointStats stats = new PwsEndpointStats(ENDPOINT);
+    for (int i = 1; i <= 7; i++) {
+      stats.recordSuccess(i);
+    }
+    assertEquals(-1, stats.getLatencyPercentileMillis(95));
+    for (int i = 8; i <= 100; i++) {
+      stats.recordSuccess(i);
+    }
+    // Only the 64 most recent latencies, 37 to 100, are kept.
+    assertEquals(97, stats.getLatencyPercentileMillis(95));
+    assertEquals(37, stats.getLatencyPercentileMillis(0));
+  }
+
+  @Test(expected = RuntimeException.class)
+  public void v2EndpointRequiresApiKey() {
+    new PwsEndpoint("http://example.com", 2);
+  }
+}
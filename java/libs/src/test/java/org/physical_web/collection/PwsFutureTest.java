@@ -0,0 +1,166 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PwsFuture unit test class.
+ */
+public class PwsFutureTest {
+  private static final String URL1 = "http://example.com";
+  private static final String URL2 = "http://physical-web.org";
+  private static final String ICON_URL1 = "http://example.com/favicon.ico";
+  private static final byte[] ICON1 = new byte[4];
+  private FakePwsClient mPwsClient;
+
+  private static class CountingExecutor implements Executor {
+    int count;
+
+    @Override
+    public void execute(Runnable runnable) {
+      count++;
+      runnable.run();
+    }
+  }
+
+  @Before
+  public void setUp() {
+    mPwsClient = new FakePwsClient();
+    mPwsClient.addResult(URL1, URL1, ICON_URL1);
+    mPwsClient.icons.put(ICON_URL1, ICON1);
+  }
+
+  @Test
+  public void listenersRunOnTheGivenExecutor() {
+    PwsFuture<String> future = new PwsFuture<>();
+    CountingExecutor executor = new CountingExecutor();
+    final CountDownLatch latch = new CountDownLatch(2);
+    Runnable listener = new Runnable() {
+      @Override
+      public void run() {
+        latch.countDown();
+      }
+    };
+    future.addListener(listener, executor);
+    assertEquals(0, executor.count);
+    assertTrue(future.complete("result"));
+    assertFalse(future.complete("other"));
+    future.addListener(listener, executor);
+    assertEquals(2, executor.count);
+    assertEquals(0, latch.getCount());
+  }
+
+  @Test
+  public void onlyTheFirstOfRacingCompletionsIsKept() throws Exception {
+    for (int round = 0; round < 100; round++) {
+      final PwsFuture<String> future = new PwsFuture<>();
+      CountingExecutor executor = new CountingExecutor();
+      future.addListener(new Runnable() {
+        @Override
+        public void run() {
+        }
+      }, executor);
+      final CountDownLatch start = new CountDownLatch(1);
+      final AtomicInteger completedCount = new AtomicInteger();
+      final AtomicReference<String> winner = new AtomicReference<>();
+      Thread[] threads = new Thread[4];
+      for (int i = 0; i < threads.length; i++) {
+        final String result = "result" + i;
+        final boolean fails = i == 0;
+        threads[i] = new Thread(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              start.await();
+            } catch (InterruptedException e) {
+              return;
+            }
+            boolean completed = fails ? future.completeExceptionally(new Exception(result))
+                                      : future.complete(result);
+            if (completed) {
+              completedCount.incrementAndGet();
+              winner.set(result);
+            }
+          }
+        });
+        threads[i].start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(1, completedCount.get());
+      assertEquals(1, executor.count);
+      try {
+        assertEquals(winner.get(), future.get());
+      } catch (ExecutionException e) {
+        assertEquals(winner.get(), e.getCause().getMessage());
+      }
+    }
+  }
+
+  @Test(expected = TimeoutException.class)
+  public void getTimesOut() throws Exception {
+    new PwsFuture<String>().get(10, TimeUnit.MILLISECONDS);
+  }
+
+  @Test
+  public void resolveAsyncLeavesOutAbsentUrls() throws Exception {
+    Map<String, PwsResult> results = mPwsClient.resolveAsync(Arrays.asList(URL1, URL2)).get();
+    assertEquals(Collections.singleton(URL1), results.keySet());
+    assertTrue(mPwsClient.resolveAsync(Collections.<String>emptyList()).get().isEmpty());
+  }
+
+  @Test
+  public void resolveAsyncFailsOnError() throws InterruptedException {
+    mPwsClient.errorResponseCode = 500;
+    try {
+      mPwsClient.resolveAsync(Arrays.asList(URL1, URL2)).get();
+      fail("Expected an ExecutionException");
+    } catch (ExecutionException e) {
+      assertEquals(500, ((PwsException) e.getCause()).getHttpResponseCode());
+    }
+  }
+
+  @Test
+  public void collectionFetchesResultsAndIcons() throws Exception {
+    PhysicalWebCollection collection = new PhysicalWebCollection(mPwsClient);
+    collection.addUrlDevice(new UrlDevice("id1", URL1));
+    collection.addUrlDevice(new UrlDevice("id2", URL2));
+    Map<String, PwsResult> results = collection.fetchPwsResultsAsync().get();
+    assertEquals(Collections.singleton(URL1), results.keySet());
+    assertTrue(collection.fetchPwsResultsAsync().get().isEmpty());
+
+    assertSame(ICON1, collection.fetchIcon(ICON_URL1).get());
+    assertSame(ICON1, collection.fetchIcon(ICON_URL1).get());
+    assertEquals(1, mPwsClient.iconRequests.size());
+  }
+}
@@ -24,6 +24,10 @@ import org.junit.Test;
 
 import org.skyscreamer.jsonassert.JSONAssert;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 /**
  * PwsResult unit test class.
  */
@@ -102,4 +106,23 @@ public class PwsResultTest {
     assertNull(pwsResult.getIconUrl());
     assertNull(pwsResult.getGroupId());
   }
+
+  @Test
+  public void binarySerializeRoundTrips() throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    mPwsResult1.binarySerialize(os);
+    PwsResult pwsResult = PwsResult.binaryDeserialize(
+        new ByteArrayInputStream(os.toByteArray()));
+    JSONAssert.assertEquals(pwsResult.jsonSerialize(), jsonObject1, true);
+  }
+
+  @Test
+  public void binarySerializeAndDeserializePreservesNullValues() throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    new PwsResult(URL1, URL1).binarySerialize(os);
+    PwsResult pwsResult = PwsResult.binaryDeserialize(
+        new ByteArrayInputStream(os.toByteArray()));
+    assertNull(pwsResult.getTitle());
+    assertNull(pwsResult.getGroupId());
+  }
 }
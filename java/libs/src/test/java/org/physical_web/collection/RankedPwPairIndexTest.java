@@ -0,0 +1,263 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * RankedPwPairIndex unit test class.
+ */
+public class RankedPwPairIndexTest {
+  private static final String RANK_KEY = "rank";
+  private static final String ID1 = "id1";
+  private static final String ID2 = "id2";
+  private static final String ID3 = "id3";
+  private static final String URL1 = "http://example.com";
+  private static final String URL2 = "http://physical-web.org";
+  private static final String URL3 = "http://google.com";
+  private static final String GROUP_ID1 = "group1";
+  private PhysicalWebCollection mCollection;
+
+  private static class RankComparator implements Comparator<PwPair> {
+    @Override
+    public int compare(PwPair lhs, PwPair rhs) {
+      return Double.compare(rhs.getUrlDevice().optExtraDouble(RANK_KEY),
+                            lhs.getUrlDevice().optExtraDouble(RANK_KEY));
+    }
+  }
+
+  private static UrlDevice device(String id, String url, double rank) {
+    return new UrlDevice.Builder(id, url).addExtra(RANK_KEY, rank).build();
+  }
+
+  private static PwsResult result(String url, String siteUrl, String groupId) {
+    return new PwsResult.Builder(url, siteUrl).setGroupId(groupId).build();
+  }
+
+  private static List<String> getDeviceIds(List<PwPair> pwPairs) {
+    List<String> deviceIds = new ArrayList<>();
+    for (PwPair pwPair : pwPairs) {
+      deviceIds.add(pwPair.getUrlDevice().getId());
+    }
+    return deviceIds;
+  }
+
+  @Before
+  public void setUp() {
+    mCollection = new PhysicalWebCollection();
+    mCollection.setRankComparator(new RankComparator());
+  }
+
+  @Test
+  public void topPairsFollowDeviceUpdates() {
+    mCollection.addUrlDevice(device(ID1, URL1, 1));
+    mCollection.addUrlDevice(device(ID2, URL2, 2));
+    mCollection.addMetadata(result(URL1, URL1, null));
+    mCollection.addMetadata(result(URL2, URL2, null));
+    assertEquals(ID2, mCollection.getTopGroupedPwPairs(1).get(0).getUrlDevice().getId());
+
+    mCollection.addUrlDevice(device(ID1, URL1, 3));
+    List<PwPair> pwPairs = mCollection.getGroupedPwPairsSortedByRank();
+    assertEquals(2, pwPairs.size());
+    assertEquals(ID1, pwPairs.get(0).getUrlDevice().getId());
+
+    mCollection.removeUrlDevice(device(ID1, URL1, 3));
+    assertEquals(ID2, mCollection.getTopGroupedPwPairs(5).get(0).getUrlDevice().getId());
+  }
+
+  @Test
+  public void groupKeepsOnlyItsTopPair() {
+    mCollection.addMetadata(result(URL1, URL1, GROUP_ID1));
+    mCollection.addMetadata(result(URL2, URL2, GROUP_ID1));
+    mCollection.addUrlDevice(device(ID1, URL1, 1));
+    mCollection.addUrlDevice(device(ID2, URL2, 2));
+    List<PwPair> pwPairs = mCollection.getGroupedPwPairsSortedByRank();
+    assertEquals(1, pwPairs.size());
+    assertEquals(ID2, pwPairs.get(0).getUrlDevice().getId());
+
+    // The next best pair of the group takes over when the top pair leaves.
+    mCollection.removeUrlDevice(device(ID2, URL2, 2));
+    pwPairs = mCollection.getGroupedPwPairsSortedByRank();
+    assertEquals(1, pwPairs.size());
+    assertEquals(ID1, pwPairs.get(0).getUrlDevice().getId());
+  }
+
+  @Test
+  public void duplicateSiteUrlsAreSkipped() {
+    mCollection.addMetadata(result(URL1, URL3, null));
+    mCollection.addMetadata(result(URL2, URL3, null));
+    mCollection.addUrlDevice(device(ID1, URL1, 1));
+    mCollection.addUrlDevice(device(ID2, URL2, 2));
+    mCollection.addUrlDevice(device(ID3, URL3, 0));
+    mCollection.addMetadata(result(URL3, URL1, null));
+    List<PwPair> pwPairs = mCollection.getGroupedPwPairsSortedByRank();
+    assertEquals(2, pwPairs.size());
+    assertEquals(ID2, pwPairs.get(0).getUrlDevice().getId());
+    assertEquals(ID3, pwPairs.get(1).getUrlDevice().getId());
+  }
+
+  @Test
+  public void indexMatchesFullSortAfterRandomUpdates() {
+    Random random = new Random(7);
+    Comparator<PwPair> comparator = new RankComparator();
+    for (int i = 0; i < 2000; i++) {
+      String id = "id" + random.nextInt(40);
+      String url = "http://example.com/" + random.nextInt(20);
+      switch (random.nextInt(4)) {
+        case 0:
+          mCollection.removeUrlDevice(new UrlDevice(id, url));
+          break;
+        case 1:
+          String groupId = random.nextBoolean() ? null : "group" + random.nextInt(4);
+          mCollection.addMetadata(
+              result(url, "http://example.com/site" + random.nextInt(15), groupId));
+          break;
+        default:
+          mCollection.addUrlDevice(device(id, url, random.nextDouble()));
+          break;
+      }
+      assertEquals(getDeviceIds(mCollection.getGroupedPwPairsSortedByRank(comparator)),
+                   getDeviceIds(mCollection.getGroupedPwPairsSortedByRank()));
+    }
+  }
+
+  @Test
+  public void boundedSelectionMatchesIndexForEveryK() {
+    Random random = new Random(11);
+    Comparator<PwPair> comparator = new RankComparator();
+    for (int i = 0; i < 60; i++) {
+      String url = "http://example.com/" + random.nextInt(20);
+      String groupId = random.nextBoolean() ? null : "group" + random.nextInt(4);
+      mCollection.addMetadata(result(url, "http://example.com/site" + random.nextInt(15), groupId));
+      mCollection.addUrlDevice(device("id" + i, url, random.nextDouble()));
+    }
+    List<String> rankedIds = getDeviceIds(mCollection.getGroupedPwPairsSortedByRank());
+    for (int k = 0; k <= rankedIds.size() + 1; k++) {
+      assertEquals(rankedIds.subList(0, Math.min(k, rankedIds.size())),
+                   getDeviceIds(mCollection.getTopPwPairs(k, comparator)));
+    }
+    for (int group = 0; group < 5; group++) {
+      for (int k = 0; k < 4; k++) {
+        assertEquals(
+            getDeviceIds(mCollection.getTopPwPairsByGroupId("group" + group, k,
+                                                            mCollection.getRankComparator())),
+            getDeviceIds(mCollection.getTopPwPairsByGroupId("group" + group, k, comparator)));
+      }
+    }
+  }
+
+  @Test
+  public void countMatchesGroupedPairs() {
+    mCollection.addMetadata(result(URL1, URL3, null));
+    mCollection.addMetadata(result(URL2, URL3, null));
+    mCollection.addMetadata(result(URL3, URL1, null));
+    mCollection.addUrlDevice(device(ID1, URL1, 1));
+    mCollection.addUrlDevice(device(ID2, URL2, 2));
+    mCollection.addUrlDevice(device(ID3, URL3, 0));
+    assertEquals(2, mCollection.countGroupedPwPairs(null));
+    assertEquals(1, mCollection.countGroupedPwPairs(new PwPairFilter() {
+      @Override
+      public boolean accept(PwPair pwPair) {
+        return !pwPair.getUrlDevice().getId().equals(ID2);
+      }
+    }));
+  }
+
+  @Test
+  public void metadataRanksDevicesKnownBeforeTheComparator() {
+    PhysicalWebCollection collection = new PhysicalWebCollection();
+    collection.addUrlDevice(device(ID1, URL1, 1));
+    collection.addUrlDevice(device(ID2, URL2, 2));
+    collection.addUrlDevice(device(ID3, URL1, 3));
+    collection.setRankComparator(new RankComparator());
+    assertTrue(collection.getGroupedPwPairsSortedByRank().isEmpty());
+    collection.addMetadata(result(URL1, URL1, GROUP_ID1));
+    assertEquals(ID3, collection.getGroupedPwPairsSortedByRank().get(0).getUrlDevice().getId());
+    collection.addMetadata(result(URL2, URL2, null));
+    assertEquals(2, collection.getGroupedPwPairsSortedByRank().size());
+  }
+
+  @Test
+  public void pairsWhoseRankChangedUnseenAreStillRemoved() {
+    final Map<String, Integer> ranks = new HashMap<>();
+    mCollection.setRankComparator(new Comparator<PwPair>() {
+      @Override
+      public int compare(PwPair lhs, PwPair rhs) {
+        return Integer.compare(ranks.get(rhs.getUrlDevice().getId()),
+                               ranks.get(lhs.getUrlDevice().getId()));
+      }
+    });
+    for (int i = 0; i < 20; i++) {
+      ranks.put("id" + i, i);
+      mCollection.addMetadata(result(URL1 + i, URL1 + i, i % 2 == 0 ? GROUP_ID1 : null));
+      mCollection.addUrlDevice(new UrlDevice("id" + i, URL1 + i));
+    }
+    // The ranks change without the collection being told, so the index is out of order.
+    for (int i = 0; i < 20; i++) {
+      ranks.put("id" + i, (i * 7) % 20);
+    }
+    for (int i = 0; i < 20; i++) {
+      mCollection.removeUrlDevice(new UrlDevice("id" + i, URL1 + i));
+    }
+    assertTrue(mCollection.getGroupedPwPairsSortedByRank().isEmpty());
+    assertTrue(mCollection.getTopPwPairsByGroupId(GROUP_ID1, 20,
+                                                  mCollection.getRankComparator()).isEmpty());
+  }
+
+  @Test
+  public void sightingsRepositionPairsWithinGroups() {
+    mCollection.setRankComparator(new Comparator<PwPair>() {
+      @Override
+      public int compare(PwPair lhs, PwPair rhs) {
+        return Integer.compare(getLatestRssi(rhs), getLatestRssi(lhs));
+      }
+
+      private int getLatestRssi(PwPair pwPair) {
+        return mCollection.getSightingHistory(pwPair.getUrlDevice().getId()).getRssi(0);
+      }
+    });
+    mCollection.addMetadata(result(URL1, URL1, GROUP_ID1));
+    mCollection.addMetadata(result(URL2, URL2, GROUP_ID1));
+    mCollection.addMetadata(result(URL3, URL3, null));
+    mCollection.addUrlDevice(new UrlDevice.Builder(ID1, URL1).setRssi(-50).build());
+    mCollection.addUrlDevice(new UrlDevice.Builder(ID2, URL2).setRssi(-60).build());
+    mCollection.addUrlDevice(new UrlDevice.Builder(ID3, URL3).setRssi(-70).build());
+    assertEquals(2, mCollection.getTopGroupedPwPairs(5).size());
+    assertEquals(ID1, mCollection.getTopGroupedPwPairs(5).get(0).getUrlDevice().getId());
+
+    mCollection.updateSighting(ID2, 0, -40, 0);
+    List<PwPair> pwPairs = mCollection.getTopGroupedPwPairs(5);
+    assertEquals(2, pwPairs.size());
+    assertEquals(ID2, pwPairs.get(0).getUrlDevice().getId());
+    assertEquals(ID3, pwPairs.get(1).getUrlDevice().getId());
+
+    mCollection.updateSighting(ID3, 0, -30, 0);
+    mCollection.updateSighting(ID2, 0, -80, 0);
+    pwPairs = mCollection.getTopGroupedPwPairs(5);
+    assertEquals(ID3, pwPairs.get(0).getUrlDevice().getId());
+    assertEquals(ID1, pwPairs.get(1).getUrlDevice().getId());
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * ResolveBatcher unit test class.
+ */
+public class ResolveBatcherTest {
+  private static final String URL1 = "http://example.com";
+  private static final String URL2 = "http://physical-web.org";
+  private static final String URL3 = "http://google.com";
+  private static final long LONG_WINDOW_MILLIS = 60000;
+  private FakePwsClient mPwsClient;
+  private ScheduledExecutorService mScheduler;
+
+  private static class RecordingCallback extends PwsResultCallback {
+    final List<String> found = Collections.synchronizedList(new ArrayList<String>());
+    final List<String> absent = Collections.synchronizedList(new ArrayList<String>());
+
+    @Override
+    public void onPwsResult(PwsResult pwsResult) {
+      found.add(pwsResult.getRequestUrl());
+    }
+
+    @Override
+    public void onPwsResultAbsent(String url) {
+      absent.add(url);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    mPwsClient = new FakePwsClient();
+    mScheduler = Executors.newSingleThreadScheduledExecutor();
+  }
+
+  @After
+  public void tearDown() {
+    mScheduler.shutdownNow();
+  }
+
+  @Test
+  public void firstUrlIsSentImmediately() {
+    ResolveBatcher batcher = new ResolveBatcher(mPwsClient, mScheduler, LONG_WINDOW_MILLIS, 10);
+    batcher.resolve(Arrays.asList(URL1), new RecordingCallback());
+    assertEquals(1, mPwsClient.resolveRequests.size());
+    assertEquals(Arrays.asList(URL1), mPwsClient.resolveRequests.get(0));
+  }
+
+  @Test
+  public void urlsWithinWindowAreHeldBack() {
+    ResolveBatcher batcher = new ResolveBatcher(mPwsClient, mScheduler, LONG_WINDOW_MILLIS, 10);
+    batcher.resolve(Arrays.asList(URL1), new RecordingCallback());
+    batcher.resolve(Arrays.asList(URL2), new RecordingCallback());
+    batcher.resolve(Arrays.asList(URL3), new RecordingCallback());
+    assertEquals(1, mPwsClient.resolveRequests.size());
+  }
+
+  @Test
+  public void fullBatchIsSentBeforeWindowCloses() {
+    ResolveBatcher batcher = new ResolveBatcher(mPwsClient, mScheduler, LONG_WINDOW_MILLIS, 2);
+    batcher.resolve(Arrays.asList(URL1), new RecordingCallback());
+    batcher.resolve(Arrays.asList(URL2), new RecordingCallback());
+    batcher.resolve(Arrays.asList(URL3), new RecordingCallback());
+    assertEquals(2, mPwsClient.resolveRequests.size());
+    assertEquals(Arrays.asList(URL2, URL3), mPwsClient.resolveRequests.get(1));
+  }
+
+  @Test
+  public void closingWindowSendsBatch() throws InterruptedException {
+    ResolveBatcher batcher = new ResolveBatcher(mPwsClient, mScheduler, 20, 10);
+    batcher.resolve(Arrays.asList(URL1), new RecordingCallback());
+    batcher.resolve(Arrays.asList(URL2, URL3), new RecordingCallback());
+    for (int i = 0; i < 100 && mPwsClient.resolveRequests.size() < 2; i++) {
+      Thread.sleep(20);
+    }
+    assertEquals(2, mPwsClient.resolveRequests.size());
+    assertEquals(Arrays.asList(URL2, URL3), mPwsClient.resolveRequests.get(1));
+  }
+
+  @Test
+  public void cancelHandsBackQueuedUrls() throws InterruptedException {
+    ResolveBatcher batcher = new ResolveBatcher(mPwsClient, mScheduler, 20, 10);
+    batcher.resolve(Arrays.asList(URL1), new RecordingCallback());
+    RecordingCallback callback = new RecordingCallback();
+    batcher.resolve(Arrays.asList(URL2, URL3), callback);
+    Map<PwsResultCallback, List<String>> queuedUrls = batcher.cancel();
+    assertEquals(1, queuedUrls.size());
+    assertEquals(Arrays.asList(URL2, URL3), queuedUrls.get(callback));
+    Thread.sleep(100);
+    assertEquals(1, mPwsClient.resolveRequests.size());
+  }
+
+  @Test
+  public void batchedResultsReachTheirOwnCallbacks() {
+    mPwsClient.addResult(URL2, URL2, null);
+    ResolveBatcher batcher = new ResolveBatcher(mPwsClient, mScheduler, LONG_WINDOW_MILLIS, 2);
+    RecordingCallback callback1 = new RecordingCallback();
+    RecordingCallback callback2 = new RecordingCallback();
+    RecordingCallback callback3 = new RecordingCallback();
+    batcher.resolve(Arrays.asList(URL1), callback1);
+    batcher.resolve(Arrays.asList(URL2), callback2);
+    batcher.resolve(Arrays.asList(URL3), callback3);
+    assertEquals(Arrays.asList(URL1), callback1.absent);
+    assertEquals(Arrays.asList(URL2), callback2.found);
+    assertTrue(callback2.absent.isEmpty());
+    assertEquals(Arrays.asList(URL3), callback3.absent);
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ResolveFailureTracker unit test class.
+ */
+public class ResolveFailureTrackerTest {
+  private static final String URL1 = "http://example.com";
+  private static final String URL2 = "http://physical-web.org";
+  private static final long TTL_MILLIS = 60000;
+  private FakeClock mClock;
+  private ResolveFailureTracker mTracker;
+
+  private static class FakeClock implements Clock {
+    long now = 1000000;
+
+    @Override
+    public long currentTimeMillis() {
+      return now;
+    }
+  }
+
+  @Before
+  public void setUp() {
+    mClock = new FakeClock();
+    mTracker = new ResolveFailureTracker(mClock, new Random(0));
+    mTracker.setPolicy(TTL_MILLIS, 1000, 4000, 3);
+  }
+
+  @Test
+  public void absentUrlExpires() {
+    mTracker.onAbsent(URL1);
+    assertTrue(mTracker.isHeldBack(URL1));
+    assertEquals(ResolveStatus.ABSENT, mTracker.getStatus(URL1));
+    mClock.now += TTL_MILLIS;
+    assertFalse(mTracker.isHeldBack(URL1));
+    assertNull(mTracker.getStatus(URL1));
+  }
+
+  @Test
+  public void errorsAreRetriedAFixedNumberOfTimes() {
+    List<String> urls = Collections.singletonList(URL1);
+    for (int attempt = 1; attempt <= 3; attempt++) {
+      List<String> retryUrls = new ArrayList<>();
+      assertEquals(attempt, mTracker.onError(urls, retryUrls));
+      assertEquals(urls, retryUrls);
+      assertEquals(ResolveStatus.RETRYING, mTracker.getStatus(URL1));
+      assertTrue(mTracker.isHeldBack(URL1));
+      assertEquals(urls, mTracker.startRetry(urls, attempt));
+      assertFalse(mTracker.isHeldBack(URL1));
+    }
+
+    List<String> retryUrls = new ArrayList<>();
+    assertEquals(0, mTracker.onError(urls, retryUrls));
+    assertTrue(retryUrls.isEmpty());
+    assertEquals(ResolveStatus.FAILED, mTracker.getStatus(URL1));
+    assertTrue(mTracker.isHeldBack(URL1));
+    mClock.now += TTL_MILLIS;
+    assertFalse(mTracker.isHeldBack(URL1));
+  }
+
+  @Test
+  public void backoffDoublesUpToTheCapWithJitter() {
+    long[] maxDelays = {1000, 2000, 4000, 4000};
+    for (int attempt = 1; attempt <= maxDelays.length; attempt++) {
+      for (int i = 0; i < 100; i++) {
+        long delay = mTracker.getBackoffMillis(attempt);
+        assertTrue(delay >= maxDelays[attempt - 1] / 2);
+        assertTrue(delay <= maxDelays[attempt - 1]);
+      }
+    }
+  }
+
+  @Test
+  public void staleRetryIsIgnored() {
+    Collection<String> urls = Arrays.asList(URL1, URL2);
+    List<String> retryUrls = new ArrayList<>();
+    int attempt = mTracker.onError(urls, retryUrls);
+    mTracker.remove(URL2);
+    assertEquals(Collections.singletonList(URL1), mTracker.startRetry(urls, attempt));
+
+    mTracker.onError(Collections.singletonList(URL1), retryUrls);
+    mTracker.cancelRetries();
+    assertFalse(mTracker.isHeldBack(URL1));
+    assertTrue(mTracker.startRetry(urls, attempt + 1).isEmpty());
+  }
+
+  @Test
+  public void collectionRetriesFailedRequests() throws InterruptedException {
+    FakePwsClient pwsClient = new FakePwsClient();
+    pwsClient.addResult(URL1, URL1, null);
+    pwsClient.errorResponseCode = 500;
+    PhysicalWebCollection collection = new PhysicalWebCollection(pwsClient);
+    collection.setResolveRetryPolicy(TTL_MILLIS, 10, 20, 2);
+    collection.addUrlDevice(new UrlDevice("id1", URL1));
+    collection.fetchPwsResults(new PwsResultCallback() {
+      @Override
+      public void onPwsResult(PwsResult pwsResult) {}
+    }, null);
+    assertEquals(ResolveStatus.RETRYING, collection.getResolveStatus(URL1));
+
+    // Both retries fail, after which the URL is held back.
+    long deadline = System.currentTimeMillis() + 5000;
+    while (collection.getResolveStatus(URL1) != ResolveStatus.FAILED
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(ResolveStatus.FAILED, collection.getResolveStatus(URL1));
+    assertEquals(3, pwsClient.resolveRequests.size());
+
+    // A later retry that succeeds resolves the URL.
+    collection.cancelAllRequests();
+    collection.clear();
+    collection.addUrlDevice(new UrlDevice("id1", URL1));
+    collection.fetchPwsResults(new PwsResultCallback() {
+      @Override
+      public void onPwsResult(PwsResult pwsResult) {}
+    }, null);
+    pwsClient.errorResponseCode = 0;
+    deadline = System.currentTimeMillis() + 5000;
+    while (collection.getResolveStatus(URL1) != ResolveStatus.RESOLVED
+        && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    assertEquals(ResolveStatus.RESOLVED, collection.getResolveStatus(URL1));
+  }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * SightingHistory unit test class.
+ */
+public class SightingHistoryTest {
+  @Test
+  public void sightingsAreIndexedFromTheMostRecent() {
+    SightingHistory sightingHistory = new SightingHistory(4);
+    sightingHistory.add(100, -50, -20);
+    sightingHistory.add(200, -60, -21);
+    assertEquals(2, sightingHistory.size());
+    assertEquals(4, sightingHistory.getCapacity());
+    assertEquals(200, sightingHistory.getTimestampMillis(0));
+    assertEquals(-60, sightingHistory.getRssi(0));
+    assertEquals(-21, sightingHistory.getTxPower(0));
+    assertEquals(100, sightingHistory.getTimestampMillis(1));
+    assertEquals(-50, sightingHistory.getRssi(1));
+  }
+
+  @Test
+  public void fullHistoryOverwritesTheOldest() {
+    SightingHistory sightingHistory = new SightingHistory(3);
+    for (int i = 0; i < 7; i++) {
+      sightingHistory.add(i, -i, 0);
+    }
+    assertEquals(3, sightingHistory.size());
+    int[] rssis = new int[5];
+    assertEquals(3, sightingHistory.copyRssis(rssis));
+    assertEquals(-6, rssis[0]);
+    assertEquals(-5, rssis[1]);
+    assertEquals(-4, rssis[2]);
+    assertEquals(4, sightingHistory.getTimestampMillis(2));
+  }
+
+  @Test
+  public void outOfRangeValuesAreClamped() {
+    SightingHistory sightingHistory = new SightingHistory(1);
+    sightingHistory.add(0, 100000, SightingHistory.UNKNOWN_TX_POWER);
+    assertEquals(Short.MAX_VALUE, sightingHistory.getRssi(0));
+    assertEquals(SightingHistory.UNKNOWN_TX_POWER, sightingHistory.getTxPower(0));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void readingPastTheSightingsThrows() {
+    SightingHistory sightingHistory = new SightingHistory(4);
+    sightingHistory.add(100, -50, -20);
+    sightingHistory.getRssi(1);
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * TopPwPairSelector unit test class.
+ */
+public class TopPwPairSelectorTest {
+  private static final Comparator<PwPair> ID_COMPARATOR = new Comparator<PwPair>() {
+    @Override
+    public int compare(PwPair lhs, PwPair rhs) {
+      return lhs.getUrlDevice().getId().compareTo(rhs.getUrlDevice().getId());
+    }
+  };
+
+  private static PwPair pair(String id, String siteUrl) {
+    return new PwPair(new UrlDevice(id, "http://example.com/" + id),
+                      new PwsResult("http://example.com/" + id, siteUrl));
+  }
+
+  private static List<String> getDeviceIds(List<PwPair> pwPairs) {
+    List<String> deviceIds = new ArrayList<>();
+    for (PwPair pwPair : pwPairs) {
+      deviceIds.add(pwPair.getUrlDevice().getId());
+    }
+    return deviceIds;
+  }
+
+  @Test
+  public void keepsTheBestPairs() {
+    TopPwPairSelector selector = new TopPwPairSelector(2, ID_COMPARATOR);
+    selector.offer(pair("c", "http://c.com"));
+    selector.offer(pair("a", "http://a.com"));
+    selector.offer(pair("d", "http://d.com"));
+    selector.offer(pair("b", "http://b.com"));
+    List<String> expected = new ArrayList<>();
+    expected.add("a");
+    expected.add("b");
+    assertEquals(expected, getDeviceIds(selector.getTopPwPairs()));
+  }
+
+  @Test
+  public void keepsOnlyTheBestPairForEachSiteUrl() {
+    TopPwPairSelector selector = new TopPwPairSelector(3, ID_COMPARATOR);
+    selector.offer(pair("c", "http://same.com"));
+    selector.offer(pair("d", "http://d.com"));
+    selector.offer(pair("a", "http://same.com"));
+    selector.offer(pair("e", "http://same.com"));
+    selector.offer(pair("f", null));
+    List<String> expected = new ArrayList<>();
+    expected.add("a");
+    expected.add("d");
+    expected.add("f");
+    assertEquals(expected, getDeviceIds(selector.getTopPwPairs()));
+  }
+
+  @Test
+  public void zeroSelectsNothing() {
+    TopPwPairSelector selector = new TopPwPairSelector(0, ID_COMPARATOR);
+    selector.offer(pair("a", "http://a.com"));
+    assertTrue(selector.getTopPwPairs().isEmpty());
+  }
+
+  @Test
+  public void matchesSortThenDeduplicate() {
+    Random random = new Random(3);
+    List<PwPair> pwPairs = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      pwPairs.add(pair(String.format("%04d", random.nextInt(10000)) + "-" + i,
+                       "http://example.com/site" + random.nextInt(100)));
+    }
+    List<PwPair> sortedPwPairs = new ArrayList<>(pwPairs);
+    Collections.sort(sortedPwPairs, ID_COMPARATOR);
+    List<String> expected = new ArrayList<>();
+    Set<String> siteUrls = new HashSet<>();
+    for (PwPair pwPair : sortedPwPairs) {
+      if (siteUrls.add(pwPair.getPwsResult().getSiteUrl())) {
+        expected.add(pwPair.getUrlDevice().getId());
+      }
+    }
+
+    for (int k : new int[] {1, 5, 40, 100, 1000}) {
+      TopPwPairSelector selector = new TopPwPairSelector(k, ID_COMPARATOR);
+      for (PwPair pwPair : pwPairs) {
+        selector.offer(pwPair);
+      }
+      assertEquals(expected.subList(0, Math.min(k, expected.size())),
+                   getDeviceIds(selector.getTopPwPairs()));
+    }
+  }
+}
@@ -24,6 +24,10 @@ import org.junit.Test;
 
 import org.skyscreamer.jsonassert.JSONAssert;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
 /**
  * SimpleUrlDevice unit test class.
  */
@@ -74,6 +78,14 @@ public class UrlDeviceTest {
     assertEquals(urlDevice.getUrl(), URL1);
   }
 
+  @Test
+  public void binarySerializeRoundTrips() throws IOException {
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    mUrlDevice1.binarySerialize(os);
+    UrlDevice urlDevice = UrlDevice.binaryDeserialize(new ByteArrayInputStream(os.toByteArray()));
+    JSONAssert.assertEquals(urlDevice.jsonSerialize(), jsonObject1, true);
+  }
+
   @Test
   public void deviceIsEqualToItself() {
     assertEquals(mUrlDevice1, mUrlDevice1);
@@ -110,4 +122,72 @@ public class UrlDeviceTest {
     assertTrue(mUrlDevice1.compareTo(urlDevice3) < 0); // "example.com" < "physical-web.org"
     assertTrue(urlDevice3.compareTo(mUrlDevice1) > 0);
   }
+
+  @Test
+  public void sightingFieldsAreAbsentByDefault() {
+    assertFalse(mUrlDevice1.hasRssi());
+    assertFalse(mUrlDevice1.hasTxPower());
+    assertFalse(mUrlDevice1.hasScanTimeMillis());
+    assertFalse(mUrlDevice1.hasPublic());
+    assertNull(mUrlDevice1.getDeviceType());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void getRssiWithoutRssiThrows() {
+    mUrlDevice1.getRssi();
+  }
+
+  @Test
+  public void sightingFieldsAreSerializedAsExtras() throws IOException {
+    UrlDevice urlDevice = new UrlDevice.Builder(ID1, URL1)
+        .setRssi(-70)
+        .setTxPower(-20)
+        .setDeviceType("ble")
+        .setScanTimeMillis(1480000000000L)
+        .setPublic(false)
+        .build();
+    JSONObject jsonObject = new JSONObject("{"
+        + "    \"id\": \"" + ID1 + "\","
+        + "    \"url\": \"" + URL1 + "\","
+        + "    \"extra\": {"
+        + "        \"rssi\": -70,"
+        + "        \"tx\": -20,"
+        + "        \"type\": \"ble\","
+        + "        \"scantime\": 1480000000000,"
+        + "        \"public\": false"
+        + "    }"
+        + "}");
+    JSONAssert.assertEquals(urlDevice.jsonSerialize(), jsonObject, true);
+    assertEquals(-70, urlDevice.optExtraInt("rssi"));
+
+    ByteArrayOutputStream os = new ByteArrayOutputStream();
+    urlDevice.binarySerialize(os);
+    UrlDevice fromBinary = UrlDevice.binaryDeserialize(new ByteArrayInputStream(os.toByteArray()));
+    UrlDevice fromJson = UrlDevice.jsonDeserialize(jsonObject);
+    for (UrlDevice device : new UrlDevice[]{fromBinary, fromJson}) {
+      assertEquals(-70, device.getRssi());
+      assertEquals(-20, device.getTxPower());
+      assertEquals("ble", device.getDeviceType());
+      assertEquals(1480000000000L, device.getScanTimeMillis());
+      assertTrue(device.hasPublic());
+      assertFalse(device.isPublic());
+    }
+  }
+
+  @Test
+  public void sightingFieldsFollowExtras() {
+    UrlDevice urlDevice = new UrlDevice.Builder(ID1, URL1)
+        .addExtra("rssi", -50)
+        .addExtra("scantime", 5)
+        .build();
+    assertEquals(-50, urlDevice.getRssi());
+    assertEquals(5, urlDevice.getScanTimeMillis());
+
+    urlDevice = new UrlDevice.Builder(urlDevice)
+        .setRssi(-60)
+        .addExtra("scantime", (Object) null)
+        .build();
+    assertEquals(-60, urlDevice.getRssi());
+    assertFalse(urlDevice.hasScanTimeMillis());
+  }
 }
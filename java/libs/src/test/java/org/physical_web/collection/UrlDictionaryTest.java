@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 Google Inc. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.physical_web.collection;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * UrlDictionary unit test class.
+ */
+public class UrlDictionaryTest {
+  private static final String URL1 = "http://example.com";
+  private static final String URL2 = "http://physical-web.org";
+  private UrlDictionary mUrlDictionary;
+
+  @Before
+  public void setUp() {
+    mUrlDictionary = new UrlDictionary();
+  }
+
+  @Test
+  public void idsAreDenseAndStable() {
+    assertEquals(0, mUrlDictionary.getOrAddId(URL1));
+    assertEquals(1, mUrlDictionary.getOrAddId(URL2));
+    assertEquals(0, mUrlDictionary.getOrAddId(new String(URL1)));
+    assertEquals(1, mUrlDictionary.getId(URL2));
+    assertEquals(2, mUrlDictionary.size());
+  }
+
+  @Test
+  public void unknownAndNullUrlsHaveNoId() {
+    assertEquals(-1, mUrlDictionary.getId(URL1));
+    assertEquals(-1, mUrlDictionary.getId(null));
+    assertEquals(-1, mUrlDictionary.getOrAddId(null));
+    assertEquals(0, mUrlDictionary.size());
+  }
+
+  @Test
+  public void firstStringIsCanonical() {
+    String copy = new String(URL1);
+    mUrlDictionary.getOrAddId(URL1);
+    assertSame(URL1, mUrlDictionary.getUrl(mUrlDictionary.getOrAddId(copy)));
+    assertTrue(mUrlDictionary.isCanonical(URL1));
+    assertFalse(mUrlDictionary.isCanonical(copy));
+    assertFalse(mUrlDictionary.isCanonical(URL2));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void getUrlOfUnknownIdThrows() {
+    mUrlDictionary.getUrl(0);
+  }
+
+  @Test
+  public void growingKeepsIds() {
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, mUrlDictionary.getOrAddId(URL1 + "/" + i));
+    }
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(i, mUrlDictionary.getId(URL1 + "/" + i));
+      assertEquals(URL1 + "/" + i, mUrlDictionary.getUrl(i));
+    }
+  }
+
+  @Test
+  public void urlSetAddsEachUrlOnce() {
+    UrlDictionary.UrlSet urlSet = new UrlDictionary.UrlSet(mUrlDictionary);
+    assertTrue(urlSet.add(URL1));
+    assertTrue(urlSet.add(URL2));
+    assertFalse(urlSet.add(new String(URL1)));
+    assertTrue(urlSet.add(null));
+    assertFalse(urlSet.add(null));
+  }
+
+  @Test
+  public void urlSetDoesNotInternUnknownUrls() {
+    mUrlDictionary.getOrAddId(URL1);
+    UrlDictionary.UrlSet urlSet = new UrlDictionary.UrlSet(mUrlDictionary);
+    assertTrue(urlSet.add(URL2));
+    assertFalse(urlSet.add(new String(URL2)));
+    assertEquals(1, mUrlDictionary.size());
+
+    // A URL first seen unknown is still a duplicate once the dictionary knows it.
+    mUrlDictionary.getOrAddId(URL2);
+    assertFalse(urlSet.add(URL2));
+    assertTrue(urlSet.add(URL1));
+  }
+
+  @Test
+  public void concurrentAdditionsAgreeOnIds() throws Exception {
+    final int urlCount = 2000;
+    final int[][] ids = new int[4][urlCount];
+    final AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < ids.length; t++) {
+      final int[] threadIds = ids[t];
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for (int i = 0; i < urlCount; i++) {
+              String url = URL1 + "/" + i;
+              threadIds[i] = mUrlDictionary.getOrAddId(url);
+              assertEquals(url, mUrlDictionary.getUrl(threadIds[i]));
+            }
+          } catch (Throwable e) {
+            failure.set(e);
+          }
+        }
+      }));
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertNull(failure.get());
+    assertEquals(urlCount, mUrlDictionary.size());
+    for (int t = 1; t < ids.length; t++) {
+      assertArrayEquals(ids[0], ids[t]);
+    }
+  }
+}